@@ -207,6 +207,9 @@ public class Settings {
         defSet("recentlyProjects", "");
 
         defSet("latestDirectory", "");
+
+        // Heap budget of the reachability state store in MiB, a negative value disables the store
+        defSet("reachabilityHeapBudget", "-1");
         LOGGER.info("Finished setting properties to default values");
         return (true);
     }
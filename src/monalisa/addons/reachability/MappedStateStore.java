@@ -0,0 +1,457 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import monalisa.data.pn.Transition;
+import monalisa.util.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * State store for reachability graphs that may not fit into the heap. States
+ * are stored as fixed-width records of their tokens, predecessor and the
+ * transition they were discovered with, and are numbered in insertion order.
+ * They are found through an open-addressing hash table, edges are appended to
+ * an edge log.
+ *
+ * Tokens are packed with 2, 4 or 8 bytes per place, the narrowest width the
+ * stored markings fit into; the largest value of a width stands for omega.
+ * When a marking exceeds the width, all records are rewritten once with the
+ * next wider one.
+ *
+ * All three are kept in chunks of buffers. Chunks are allocated on the heap
+ * until the heap budget is used up; all further chunks are memory-mapped from
+ * files in a temporary directory, which is deleted on close.
+ */
+public final class MappedStateStore implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(MappedStateStore.class);
+    private static final int CHUNK_SIZE = 1 << 24;
+    private static final int STATE_HEADER = 8; // predecessor and transition
+    private static final int EDGE_SIZE = 12;
+    private static final int SLOT_SIZE = 8; // state id + 1 and hash
+    private static final int INITIAL_SLOTS = 1 << 12;
+    private static final int MIN_TOKEN_WIDTH = 2;
+
+    private final Pathfinder pf;
+    private final int places;
+    private final File directory;
+    private long heapLeft;
+    private Region states;
+    private int tokenWidth = MIN_TOKEN_WIDTH;
+    private int statesGeneration = 0;
+    private final Region edges;
+    private Region table;
+    private int tableSlots;
+    private int tableGeneration = 0;
+    private int stateCount = 0;
+    private long edgeCount = 0;
+
+    /**
+     * @param pf The pathfinder defining the place and transition ordinals.
+     * @param heapBudget The number of bytes that may be allocated on the heap
+     * before the store spills to memory-mapped files.
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public MappedStateStore(Pathfinder pf, long heapBudget) throws IOException {
+        this.pf = pf;
+        this.places = pf.getPlaceCount();
+        this.heapLeft = heapBudget;
+        this.directory = FileUtils.createTempDir("reachability");
+        this.directory.deleteOnExit();
+        LOGGER.info("Creating state store in '" + directory.getPath() + "' with a heap budget of " + heapBudget + " bytes.");
+        this.states = new Region("states0", places * tokenWidth + STATE_HEADER);
+        this.edges = new Region("edges", EDGE_SIZE);
+        this.tableSlots = INITIAL_SLOTS;
+        this.table = new Region("table0", SLOT_SIZE);
+        this.table.ensure(tableSlots);
+    }
+
+    /**
+     * @return the number of stored states.
+     */
+    public int size() {
+        return stateCount;
+    }
+
+    /**
+     * @return the number of logged edges.
+     */
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Stores a marking, unless it is already known.
+     *
+     * @param m The marking.
+     * @param prev The id of the state the marking has been reached from, -1
+     * for the initial marking.
+     * @param transition The ordinal of the transition fired, -1 for the initial
+     * marking.
+     * @return the id of the already stored state, or -1 if the marking has
+     * been added with the id size() - 1.
+     * @throws IOException if the store could not be extended
+     */
+    public int putIfAbsent(Marking m, int prev, int transition) throws IOException {
+        int hash = m.hashCode();
+        int mask = tableSlots - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            ByteBuffer buffer = table.buffer(slot);
+            int pos = table.offset(slot);
+            int entry = buffer.getInt(pos);
+            if (entry == 0) {
+                break;
+            }
+            if (buffer.getInt(pos + 4) == hash && equalsState(m, entry - 1)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int width = requiredTokenWidth(m);
+        if (width > tokenWidth) {
+            widenStates(width);
+        }
+        int id = stateCount;
+        states.ensure(id + 1);
+        ByteBuffer buffer = states.buffer(id);
+        int pos = states.offset(id);
+        buffer.putInt(pos, prev);
+        buffer.putInt(pos + 4, transition);
+        for (int p = 0; p < places; p++) {
+            putToken(buffer, pos + STATE_HEADER, p, tokenWidth, m.get(p));
+        }
+        stateCount++;
+        putSlot(table, slot, id, hash);
+        if (stateCount > tableSlots / 2) {
+            growTable();
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up a marking without storing it.
+     *
+     * @param m The marking.
+     * @return the id of the stored state, or -1 if the marking is not known.
+     */
+    public int find(Marking m) {
+        int hash = m.hashCode();
+        int mask = tableSlots - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            ByteBuffer buffer = table.buffer(slot);
+            int pos = table.offset(slot);
+            int entry = buffer.getInt(pos);
+            if (entry == 0) {
+                return -1;
+            }
+            if (buffer.getInt(pos + 4) == hash && equalsState(m, entry - 1)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public Marking getMarking(int id) {
+        ByteBuffer buffer = states.buffer(id);
+        int pos = states.offset(id) + STATE_HEADER;
+        long[] tokens = new long[places];
+        for (int p = 0; p < places; p++) {
+            tokens[p] = getToken(buffer, pos, p, tokenWidth);
+        }
+        return new Marking(tokens);
+    }
+
+    /**
+     * @return the id of the state the given state has been discovered from,
+     * -1 for the initial state.
+     */
+    public int getPrev(int id) {
+        return states.buffer(id).getInt(states.offset(id));
+    }
+
+    /**
+     * @return the ordinal of the transition the given state has been
+     * discovered with, -1 for the initial state.
+     */
+    public int getTransition(int id) {
+        return states.buffer(id).getInt(states.offset(id) + 4);
+    }
+
+    /**
+     * Checks whether the marking is larger than the stored state, i.e. it has
+     * at least as many tokens on all places and more on at least one.
+     */
+    public boolean largerThan(Marking m, int id) {
+        ByteBuffer buffer = states.buffer(id);
+        int pos = states.offset(id) + STATE_HEADER;
+        boolean larger = false;
+        for (int p = 0; p < places; p++) {
+            long token = getToken(buffer, pos, p, tokenWidth);
+            if (m.get(p) > token) {
+                larger = true;
+            } else if (m.get(p) < token) {
+                return false;
+            }
+        }
+        return larger;
+    }
+
+    /**
+     * Appends an edge to the edge log. Edges have to be added in ascending
+     * order of their sources, see {@link #findEdges(int)}.
+     */
+    public void addEdge(int source, int target, int transition) throws IOException {
+        edges.ensure(edgeCount + 1);
+        ByteBuffer buffer = edges.buffer(edgeCount);
+        int pos = edges.offset(edgeCount);
+        buffer.putInt(pos, source);
+        buffer.putInt(pos + 4, target);
+        buffer.putInt(pos + 8, transition);
+        edgeCount++;
+    }
+
+    /**
+     * Finds the edges leaving a state by a binary search over the edge log.
+     *
+     * @param source The id of the state.
+     * @return the index of the first edge whose source is not smaller than
+     * the given one, or the edge count if there is none.
+     */
+    public long findEdges(int source) {
+        long low = 0;
+        long high = edgeCount;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getEdgeSource(mid) < source) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int getEdgeSource(long edge) {
+        return edges.buffer(edge).getInt(edges.offset(edge));
+    }
+
+    public int getEdgeTarget(long edge) {
+        return edges.buffer(edge).getInt(edges.offset(edge) + 4);
+    }
+
+    public Transition getEdgeTransition(long edge) {
+        return pf.getTransition(edges.buffer(edge).getInt(edges.offset(edge) + 8));
+    }
+
+    /**
+     * Releases all buffers and deletes the backing files.
+     */
+    @Override
+    public void close() {
+        states.close();
+        edges.close();
+        table.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private boolean equalsState(Marking m, int id) {
+        ByteBuffer buffer = states.buffer(id);
+        int pos = states.offset(id) + STATE_HEADER;
+        for (int p = 0; p < places; p++) {
+            if (getToken(buffer, pos, p, tokenWidth) != m.get(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes per place the tokens of the marking need.
+     */
+    private int requiredTokenWidth(Marking m) {
+        long max = 0;
+        for (int p = 0; p < places; p++) {
+            long token = m.get(p);
+            if (token != Marking.OMEGA && token > max) {
+                max = token;
+            }
+        }
+        if (max < 0xFFFFL) {
+            return 2;
+        }
+        if (max < 0xFFFFFFFFL) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static long getToken(ByteBuffer buffer, int pos, int p, int width) {
+        switch (width) {
+            case 2:
+                int token16 = buffer.getShort(pos + p * 2) & 0xFFFF;
+                return token16 == 0xFFFF ? Marking.OMEGA : token16;
+            case 4:
+                long token32 = buffer.getInt(pos + p * 4) & 0xFFFFFFFFL;
+                return token32 == 0xFFFFFFFFL ? Marking.OMEGA : token32;
+            default:
+                return buffer.getLong(pos + p * 8);
+        }
+    }
+
+    private static void putToken(ByteBuffer buffer, int pos, int p, int width, long token) {
+        switch (width) {
+            case 2:
+                buffer.putShort(pos + p * 2, (short) (token == Marking.OMEGA ? 0xFFFF : token));
+                break;
+            case 4:
+                buffer.putInt(pos + p * 4, (int) (token == Marking.OMEGA ? 0xFFFFFFFFL : token));
+                break;
+            default:
+                buffer.putLong(pos + p * 8, token);
+                break;
+        }
+    }
+
+    /**
+     * Rewrites all stored states with the given number of bytes per place.
+     */
+    private void widenStates(int width) throws IOException {
+        LOGGER.info("Widening the tokens of the state store to " + width + " bytes per place.");
+        Region grown = new Region("states" + (++statesGeneration), places * width + STATE_HEADER);
+        grown.ensure(stateCount);
+        for (int id = 0; id < stateCount; id++) {
+            ByteBuffer buffer = states.buffer(id);
+            int pos = states.offset(id);
+            ByteBuffer target = grown.buffer(id);
+            int targetPos = grown.offset(id);
+            target.putInt(targetPos, buffer.getInt(pos));
+            target.putInt(targetPos + 4, buffer.getInt(pos + 4));
+            for (int p = 0; p < places; p++) {
+                putToken(target, targetPos + STATE_HEADER, p, width, getToken(buffer, pos + STATE_HEADER, p, tokenWidth));
+            }
+        }
+        tokenWidth = width;
+        states.close();
+        states = grown;
+    }
+
+    private void growTable() throws IOException {
+        int slots = tableSlots * 2;
+        Region grown = new Region("table" + (++tableGeneration), SLOT_SIZE);
+        grown.ensure(slots);
+        int mask = slots - 1;
+        for (int slot = 0; slot < tableSlots; slot++) {
+            ByteBuffer buffer = table.buffer(slot);
+            int pos = table.offset(slot);
+            int entry = buffer.getInt(pos);
+            if (entry != 0) {
+                int hash = buffer.getInt(pos + 4);
+                int target = mix(hash) & mask;
+                while (grown.buffer(target).getInt(grown.offset(target)) != 0) {
+                    target = (target + 1) & mask;
+                }
+                putSlot(grown, target, entry - 1, hash);
+            }
+        }
+        table.close();
+        table = grown;
+        tableSlots = slots;
+    }
+
+    private static void putSlot(Region region, int slot, int id, int hash) {
+        ByteBuffer buffer = region.buffer(slot);
+        int pos = region.offset(slot);
+        buffer.putInt(pos, id + 1);
+        buffer.putInt(pos + 4, hash);
+    }
+
+    private static int mix(int hash) {
+        return hash * 0x9E3779B9 ^ (hash >>> 16);
+    }
+
+    /**
+     * Sequence of fixed-size records spread over chunks of buffers. A record
+     * never crosses a chunk boundary.
+     */
+    private final class Region {
+
+        private final File file;
+        private final int recordSize;
+        private final int recordsPerChunk;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+        private RandomAccessFile raf;
+        private FileChannel channel;
+        private long heapBytes = 0;
+
+        Region(String name, int recordSize) {
+            this.file = new File(directory, name);
+            this.recordSize = recordSize;
+            this.recordsPerChunk = Math.max(1, CHUNK_SIZE / recordSize);
+        }
+
+        /**
+         * Makes sure the given number of records can be stored.
+         */
+        void ensure(long records) throws IOException {
+            while ((long) chunks.size() * recordsPerChunk < records) {
+                int chunkBytes = recordsPerChunk * recordSize;
+                if (heapLeft >= chunkBytes) {
+                    heapLeft -= chunkBytes;
+                    heapBytes += chunkBytes;
+                    chunks.add(ByteBuffer.allocate(chunkBytes));
+                } else {
+                    if (channel == null) {
+                        LOGGER.info("Spilling '" + file.getName() + "' to a memory-mapped file.");
+                        file.deleteOnExit();
+                        raf = new RandomAccessFile(file, "rw");
+                        channel = raf.getChannel();
+                    }
+                    long position = (long) chunks.size() * chunkBytes;
+                    chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, position, chunkBytes));
+                }
+            }
+        }
+
+        ByteBuffer buffer(long record) {
+            return chunks.get((int) (record / recordsPerChunk));
+        }
+
+        int offset(long record) {
+            return (int) (record % recordsPerChunk) * recordSize;
+        }
+
+        void close() {
+            chunks.clear();
+            heapLeft += heapBytes;
+            heapBytes = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                    raf.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not close '" + file.getName() + "'.", e);
+                }
+                channel = null;
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability;
+
+import java.util.Arrays;
+
+/**
+ * Immutable dense marking. The tokens are stored by the place ordinals fixed
+ * by the {@link Pathfinder}, an omega is stored as Long.MAX_VALUE. The hash is
+ * computed once on construction, so markings can be used as keys of hash
+ * based state stores.
+ */
+public final class Marking {
+
+    public static final long OMEGA = Long.MAX_VALUE;
+
+    private final long[] tokens;
+    private final int hash;
+
+    /**
+     * Creates a marking from a token vector. The array is not copied and must
+     * not be modified afterwards.
+     *
+     * @param tokens the tokens by place ordinal
+     */
+    public Marking(long[] tokens) {
+        this.tokens = tokens;
+        this.hash = Arrays.hashCode(tokens);
+    }
+
+    /**
+     * @return the number of tokens on the place with the given ordinal
+     */
+    public long get(int ordinal) {
+        return tokens[ordinal];
+    }
+
+    /**
+     * @return the number of places
+     */
+    public int size() {
+        return tokens.length;
+    }
+
+    /**
+     * @return a copy of the token vector
+     */
+    public long[] toArray() {
+        return tokens.clone();
+    }
+
+    /**
+     * This is larger than other, if all places have at least the same amount
+     * of tokens and at least one place has more.
+     */
+    public boolean largerThan(Marking other) {
+        boolean larger = false;
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] > other.tokens[i]) {
+                larger = true;
+            } else if (tokens[i] < other.tokens[i]) {
+                return false;
+            }
+        }
+        return larger;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Marking)) {
+            return false;
+        }
+        Marking other = (Marking) obj;
+        return hash == other.hash && Arrays.equals(tokens, other.tokens);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(tokens);
+    }
+}
@@ -5,7 +5,10 @@
  */
 package monalisa.addons.reachability;
 
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import monalisa.addons.reachability.algorithms.BestFirst;
 import monalisa.addons.reachability.algorithms.AStar;
 import monalisa.addons.reachability.algorithms.BreadthFirst;
@@ -16,6 +19,9 @@ import java.util.Map;
 import monalisa.addons.reachability.algorithms.AbstractReachabilityAlgorithm;
 import monalisa.addons.reachability.algorithms.FullCoverability;
 import monalisa.addons.reachability.algorithms.FullReachability;
+import monalisa.addons.reachability.algorithms.MinimalCoverability;
+import monalisa.addons.reachability.algorithms.ReachabilityAlgorithm;
+import monalisa.addons.reachability.algorithms.SymbolicReachability;
 import monalisa.data.pn.PInvariant;
 import monalisa.data.pn.PetriNetFacade;
 import monalisa.data.pn.Place;
@@ -29,7 +35,7 @@ import org.apache.logging.log4j.Logger;
  * @author Marcel Gehrmann Should extend Thread class for parallelization later
  * on
  */
-public class Pathfinder {
+public class Pathfinder implements Closeable {
 
     private final HashMap<Place, Long> marking; // Start marking
     private final HashMap<Place, Long> target; // Target marking
@@ -41,6 +47,18 @@ public class Pathfinder {
     private final HashMap<Place, Long> capacities;
     private final boolean capacities_active;
     private final HashSet<Transition> transitions;
+    private final int threads;
+    private final long heapBudget;
+    private final Place[] places; // Places by their ordinal in dense markings
+    private final HashMap<Place, Integer> ordinals;
+    private final long[] capacityVector;
+    private Transition[] transitionArray; // Transitions by their ordinal
+    private HashMap<Transition, Integer> transitionOrdinals;
+    // Pre and post incidence of all transitions in compressed sparse row format
+    private int[] preOffsets, prePlaces, preWeights;
+    private int[] postOffsets, postPlaces, postWeights;
+    // Transitions that have to be checked again after firing a transition
+    private int[] affectedOffsets, affected;
 
     /**
      * Constructor used for algorithms without a heuristic.
@@ -53,6 +71,43 @@ public class Pathfinder {
      * @param alg The selected algorithm.
      */
     public Pathfinder(PetriNetFacade pnf, Map<Place, Long> marking, HashMap<Place, Long> target, HashMap<Place, Long> capacities, HashSet<Transition> knockouts, String alg) {
+        this(pnf, marking, target, capacities, knockouts, alg, 1);
+    }
+
+    /**
+     * Constructor used for algorithms without a heuristic that can be run on
+     * several threads.
+     *
+     * @param pnf PetriNetFacade for the net.
+     * @param marking The run marking. This will be changed, so it should be a
+     * newly created marking.
+     * @param target The target marking for reachability algorithms.
+     * @param capacities The maximum capacities of all places
+     * @param knockouts
+     * @param alg The selected algorithm.
+     * @param threads The number of threads used by FullReach and FullCover.
+     */
+    public Pathfinder(PetriNetFacade pnf, Map<Place, Long> marking, HashMap<Place, Long> target, HashMap<Place, Long> capacities, HashSet<Transition> knockouts, String alg, int threads) {
+        this(pnf, marking, target, capacities, knockouts, alg, threads, -1);
+    }
+
+    /**
+     * Constructor used for algorithms without a heuristic that can be run on
+     * several threads or on a disk backed state store.
+     *
+     * @param pnf PetriNetFacade for the net.
+     * @param marking The run marking. This will be changed, so it should be a
+     * newly created marking.
+     * @param target The target marking for reachability algorithms.
+     * @param capacities The maximum capacities of all places
+     * @param knockouts
+     * @param alg The selected algorithm.
+     * @param threads The number of threads used by FullReach and FullCover.
+     * @param heapBudget If not negative, FullReach keeps its states in a
+     * {@link MappedStateStore} that spills to disk after this many bytes. The
+     * store is filled sequentially, so FullReach ignores the threads then.
+     */
+    public Pathfinder(PetriNetFacade pnf, Map<Place, Long> marking, HashMap<Place, Long> target, HashMap<Place, Long> capacities, HashSet<Transition> knockouts, String alg, int threads, long heapBudget) {
         LOGGER.info("Initializing pathfinder for reachability analysis without a heuristic.");
         this.pnf = pnf;
         this.marking = new HashMap<>();
@@ -64,7 +119,17 @@ public class Pathfinder {
         this.transitions = new HashSet<>();
         this.transitions.addAll(pnf.transitions());
         this.transitions.removeAll(knockouts);
+        this.places = pnf.places().toArray(new Place[0]);
+        Arrays.sort(this.places);
+        this.ordinals = new HashMap<>();
+        for (int i = 0; i < places.length; i++) {
+            ordinals.put(places[i], i);
+        }
+        this.capacityVector = toMarking(capacities).toArray();
+        compileIncidence();
         this.alg = alg;
+        this.threads = threads;
+        this.heapBudget = heapBudget;
         initializeAlgorithm(alg, null);
         LOGGER.info("Successfully initialized pathfinder for reachability analysis without a heuristic.");
     }
@@ -94,7 +159,17 @@ public class Pathfinder {
         LOGGER.warn(this.transitions.toString());
         this.transitions.removeAll(knockouts);
         LOGGER.info("Knocked out transitions: " + knockouts);
+        this.places = pnf.places().toArray(new Place[0]);
+        Arrays.sort(this.places);
+        this.ordinals = new HashMap<>();
+        for (int i = 0; i < places.length; i++) {
+            ordinals.put(places[i], i);
+        }
+        this.capacityVector = toMarking(capacities).toArray();
+        compileIncidence();
         this.alg = alg;
+        this.threads = 1;
+        this.heapBudget = -1;
         initializeAlgorithm(alg, heuristic);
         LOGGER.info("Successfully initialized pathfinder for reachability analysis with a heuristic.");        
     }
@@ -120,11 +195,19 @@ public class Pathfinder {
                     break;
                 // Move FullReach and FullCover into separate classes and treat like algorithms
                 case "FullReach": {
-                    this.algorithm = new FullReachability(this, marking, target);
+                    this.algorithm = new FullReachability(this, marking, target, threads, heapBudget);
                     break;
                 }
                 case "FullCover": {
-                    this.algorithm = new FullCoverability(this, marking, target);
+                    this.algorithm = new FullCoverability(this, marking, target, threads);
+                    break;
+                }
+                case "MinCover": {
+                    this.algorithm = new MinimalCoverability(this, marking, target);
+                    break;
+                }
+                case "Symbolic": {
+                    this.algorithm = new SymbolicReachability(this, marking, target);
                     break;
                 }
                 default:
@@ -139,93 +222,290 @@ public class Pathfinder {
         }
     }
 
-    public HashSet<Transition> computeActive(HashMap<Place, Long> m) {
-        LOGGER.debug("Computing active transitions");  // debug
-        HashSet<Transition> activeTransitions = new HashSet<>();
-        for (Transition t : transitions) {
-            boolean active = true;
-            for (Place p : t.inputs()) {
-                if (m.containsKey(p)) {
-                }
-                if (m.get(p) < pnf.getArc(p, t).weight()) {
-                    active = false;
-                    break;
+    /**
+     * Builds the pre and post incidence of all transitions that have not been
+     * knocked out, so that enabledness checks and firing do not need to look
+     * up arcs.
+     */
+    private void compileIncidence() {
+        transitionArray = transitions.toArray(new Transition[0]);
+        Arrays.sort(transitionArray);
+        transitionOrdinals = new HashMap<>();
+        for (int t = 0; t < transitionArray.length; t++) {
+            transitionOrdinals.put(transitionArray[t], t);
+        }
+        preOffsets = new int[transitionArray.length + 1];
+        postOffsets = new int[transitionArray.length + 1];
+        for (int t = 0; t < transitionArray.length; t++) {
+            preOffsets[t + 1] = preOffsets[t] + transitionArray[t].inputs().size();
+            postOffsets[t + 1] = postOffsets[t] + transitionArray[t].outputs().size();
+        }
+        prePlaces = new int[preOffsets[transitionArray.length]];
+        preWeights = new int[prePlaces.length];
+        postPlaces = new int[postOffsets[transitionArray.length]];
+        postWeights = new int[postPlaces.length];
+        // Transitions consuming from and, if capacities are used, producing on each place
+        ArrayList<BitSet> dependent = new ArrayList<>();
+        for (Place p : places) {
+            dependent.add(new BitSet(transitionArray.length));
+        }
+        for (int t = 0; t < transitionArray.length; t++) {
+            Transition transition = transitionArray[t];
+            int i = preOffsets[t];
+            for (Place p : transition.inputs()) {
+                prePlaces[i] = ordinals.get(p);
+                preWeights[i++] = pnf.getArc(p, transition).weight();
+                dependent.get(ordinals.get(p)).set(t);
+            }
+            i = postOffsets[t];
+            for (Place p : transition.outputs()) {
+                postPlaces[i] = ordinals.get(p);
+                postWeights[i++] = pnf.getArc(transition, p).weight();
+                if (capacities_active) {
+                    dependent.get(ordinals.get(p)).set(t);
                 }
             }
-            if (active) {
-                activeTransitions.add(t);
+        }
+        affectedOffsets = new int[transitionArray.length + 1];
+        ArrayList<Integer> affectedList = new ArrayList<>();
+        BitSet seen = new BitSet(transitionArray.length);
+        for (int t = 0; t < transitionArray.length; t++) {
+            seen.clear();
+            for (int i = preOffsets[t]; i < preOffsets[t + 1]; i++) {
+                seen.or(dependent.get(prePlaces[i]));
             }
+            for (int i = postOffsets[t]; i < postOffsets[t + 1]; i++) {
+                seen.or(dependent.get(postPlaces[i]));
+            }
+            for (int u = seen.nextSetBit(0); u >= 0; u = seen.nextSetBit(u + 1)) {
+                affectedList.add(u);
+            }
+            affectedOffsets[t + 1] = affectedList.size();
         }
-        if (capacities_active) {
-            activeTransitions = removeOverCapacity(activeTransitions, m);
+        affected = new int[affectedList.size()];
+        for (int i = 0; i < affected.length; i++) {
+            affected[i] = affectedList.get(i);
         }
-        LOGGER.debug("Successfully computed active transitions.");  // debug
-        return activeTransitions;
     }
 
-    public HashSet<Transition> removeOverCapacity (HashSet<Transition> activeTransitions, HashMap<Place, Long> m) {
-        HashSet<Transition> toRemove = new HashSet<>();
-        for (Transition t : activeTransitions) {
-            for (Place p : t.outputs()) {
-                if (((m.get(p) + pnf.getArc(t, p).weight()) > capacities.get(p)) && capacities.get(p) != 0) {
-                    toRemove.add(t);
-                    break;
+    /**
+     * @return the number of places, i.e. the length of all dense markings.
+     */
+    public int getPlaceCount() {
+        return places.length;
+    }
+
+    /**
+     * @return the place with the given ordinal in dense markings.
+     */
+    public Place getPlace(int ordinal) {
+        return places[ordinal];
+    }
+
+    /**
+     * @return the ordinal of the given place in dense markings.
+     */
+    public int getOrdinal(Place p) {
+        return ordinals.get(p);
+    }
+
+    /**
+     * Converts a marking given by place into a dense marking. Places that are
+     * not contained in the map carry no tokens.
+     */
+    public Marking toMarking(Map<Place, Long> m) {
+        long[] tokens = new long[places.length];
+        for (int i = 0; i < places.length; i++) {
+            Long token = m.get(places[i]);
+            tokens[i] = (token == null) ? 0 : token;
+        }
+        return new Marking(tokens);
+    }
+
+    /**
+     * Converts a dense marking back into a marking given by place.
+     */
+    public HashMap<Place, Long> toMap(Marking m) {
+        HashMap<Place, Long> map = new HashMap<>();
+        for (int i = 0; i < places.length; i++) {
+            map.put(places[i], m.get(i));
+        }
+        return map;
+    }
+
+    /**
+     * @return the number of transitions that have not been knocked out.
+     */
+    public int getTransitionCount() {
+        return transitionArray.length;
+    }
+
+    /**
+     * @return the transition with the given ordinal.
+     */
+    public Transition getTransition(int ordinal) {
+        return transitionArray[ordinal];
+    }
+
+    /**
+     * @return the ordinals of the input places of the transition with the
+     * given ordinal.
+     */
+    public int[] getInputPlaces(int t) {
+        return Arrays.copyOfRange(prePlaces, preOffsets[t], preOffsets[t + 1]);
+    }
+
+    /**
+     * @return the arc weights of the input places of the transition with the
+     * given ordinal, aligned with {@link #getInputPlaces(int)}.
+     */
+    public int[] getInputWeights(int t) {
+        return Arrays.copyOfRange(preWeights, preOffsets[t], preOffsets[t + 1]);
+    }
+
+    /**
+     * @return the ordinals of the output places of the transition with the
+     * given ordinal.
+     */
+    public int[] getOutputPlaces(int t) {
+        return Arrays.copyOfRange(postPlaces, postOffsets[t], postOffsets[t + 1]);
+    }
+
+    /**
+     * @return the arc weights of the output places of the transition with the
+     * given ordinal, aligned with {@link #getOutputPlaces(int)}.
+     */
+    public int[] getOutputWeights(int t) {
+        return Arrays.copyOfRange(postWeights, postOffsets[t], postOffsets[t + 1]);
+    }
+
+    /**
+     * @return the capacity of the place with the given ordinal, or 0 if the
+     * place is unlimited.
+     */
+    public long getCapacity(int ordinal) {
+        return capacities_active ? capacityVector[ordinal] : 0;
+    }
+
+    /**
+     * Checks whether a transition can fire in the given marking, including the
+     * capacities of its output places.
+     *
+     * @param m The marking.
+     * @param t The ordinal of the transition.
+     */
+    public boolean isEnabled(Marking m, int t) {
+        for (int i = preOffsets[t]; i < preOffsets[t + 1]; i++) {
+            if (m.get(prePlaces[i]) < preWeights[i]) {
+                return false;
+            }
+        }
+        if (capacities_active) {
+            for (int i = postOffsets[t]; i < postOffsets[t + 1]; i++) {
+                long capacity = capacityVector[postPlaces[i]];
+                if (capacity != 0 && m.get(postPlaces[i]) > capacity - postWeights[i]) {
+                    return false;
                 }
             }
         }
-        LOGGER.debug("Transitions removed for causing a place to go over capacity: " + toRemove.toString());
-        activeTransitions.removeAll(toRemove);
+        return true;
+    }
+
+    /**
+     * Computes the ordinals of all transitions enabled in the given marking.
+     */
+    public BitSet computeEnabled(Marking m) {
+        BitSet enabled = new BitSet(transitionArray.length);
+        for (int t = 0; t < transitionArray.length; t++) {
+            if (isEnabled(m, t)) {
+                enabled.set(t);
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Computes the enabled transitions of a marking reached by firing a single
+     * transition. Only the transitions adjacent to places whose tokens may
+     * have changed are checked again.
+     *
+     * @param enabled The transitions enabled before firing.
+     * @param m The marking reached by firing.
+     * @param fired The ordinal of the fired transition.
+     */
+    public BitSet updateEnabled(BitSet enabled, Marking m, int fired) {
+        BitSet updated = (BitSet) enabled.clone();
+        for (int i = affectedOffsets[fired]; i < affectedOffsets[fired + 1]; i++) {
+            int t = affected[i];
+            updated.set(t, isEnabled(m, t));
+        }
+        return updated;
+    }
+
+    public HashSet<Transition> computeActive(Marking m) {
+        LOGGER.debug("Computing active transitions");  // debug
+        HashSet<Transition> activeTransitions = new HashSet<>();
+        BitSet enabled = computeEnabled(m);
+        for (int t = enabled.nextSetBit(0); t >= 0; t = enabled.nextSetBit(t + 1)) {
+            activeTransitions.add(transitionArray[t]);
+        }
+        LOGGER.debug("Successfully computed active transitions.");  // debug
         return activeTransitions;
     }
 
-    public HashMap<Place, Long> computeMarking(HashMap<Place, Long> old, Transition t) {
-        LOGGER.debug("Computing new marking.");  // debug
-        HashMap<Place, Long> mNew = new HashMap<>();
-        mNew.putAll(old);
+    public Marking computeMarking(Marking old, Transition t) {
+        return computeMarking(old, transitionOrdinals.get(t));
+    }
+
+    /**
+     * Fires the transition with the given ordinal.
+     */
+    public Marking computeMarking(Marking old, int t) {
+        long[] mNew = old.toArray();
         // deduct tokens from input places
-        for (Place p : t.inputs()) {
-            long oldToken = mNew.get(p);
-            mNew.put(p, oldToken - pnf.getArc(p, t).weight());
+        for (int i = preOffsets[t]; i < preOffsets[t + 1]; i++) {
+            mNew[prePlaces[i]] -= preWeights[i];
         }
         // add tokens to output places
-        for (Place p : t.outputs()) {
-            long oldToken = mNew.get(p);
-            mNew.put(p, oldToken + pnf.getArc(t, p).weight());
+        for (int i = postOffsets[t]; i < postOffsets[t + 1]; i++) {
+            mNew[postPlaces[i]] += postWeights[i];
         }
-        LOGGER.debug("Successfully computed new marking.");  // debug
-        return mNew;
+        return new Marking(mNew);
+    }
+
+    public Marking computeOmegaMarking(Marking old, Transition t) {
+        return computeOmegaMarking(old, transitionOrdinals.get(t));
     }
 
-    public HashMap<Place, Long> computeOmegaMarking(HashMap<Place, Long> old, Transition t) {
-        LOGGER.debug("Computing new omega marking.");
-        HashMap<Place, Long> mNew = new HashMap<>();
-        mNew.putAll(old);
+    /**
+     * Fires the transition with the given ordinal, leaving omega places
+     * untouched.
+     */
+    public Marking computeOmegaMarking(Marking old, int t) {
+        long[] mNew = old.toArray();
         // deduct tokens from input places
-        for (Place p : t.inputs()) {
-            long oldToken = old.get(p);
-            if (oldToken != Long.MAX_VALUE) {
-                mNew.put(p, oldToken - pnf.getArc(p, t).weight());
+        for (int i = preOffsets[t]; i < preOffsets[t + 1]; i++) {
+            if (mNew[prePlaces[i]] != Marking.OMEGA) {
+                mNew[prePlaces[i]] -= preWeights[i];
             }
         }
         // add tokens to output places
-        for (Place p : t.outputs()) {
-            long oldToken = old.get(p);
-            if (oldToken != Long.MAX_VALUE) {
-                mNew.put(p, oldToken + pnf.getArc(t, p).weight());
+        for (int i = postOffsets[t]; i < postOffsets[t + 1]; i++) {
+            if (mNew[postPlaces[i]] != Marking.OMEGA) {
+                mNew[postPlaces[i]] += postWeights[i];
             }
         }
-        LOGGER.debug("Successfully computed new omega marking.");
-        return mNew;
+        return new Marking(mNew);
     }
 
-    public HashMap<Place, Long> omegaComputation(HashMap<Place, Long> oldMarking, HashMap<Place, Long> newMarking) {
-        for (Place p : newMarking.keySet()) {
-            Long newToken = newMarking.get(p) - oldMarking.get(p);
-            if (newToken != 0) {
-                newMarking.put(p, Long.MAX_VALUE);
+    public Marking omegaComputation(Marking oldMarking, Marking newMarking) {
+        long[] tokens = newMarking.toArray();
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] != oldMarking.get(i)) {
+                tokens[i] = Marking.OMEGA;
             }
         }
-        return newMarking;
+        return new Marking(tokens);
     }
 
     public void run() {
@@ -254,6 +534,35 @@ public class Pathfinder {
         algoThread.interrupt();
     }
 
+    /**
+     * Stops the algorithm if it is still running and releases its graph. A
+     * graph kept in a {@link MappedStateStore} deletes its files.
+     */
+    @Override
+    public void close() {
+        if (algorithm == null) {
+            return;
+        }
+        if (algorithm.isAlive()) {
+            algorithm.interrupt();
+            try {
+                algorithm.join();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for the reachability algorithm to stop.");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        ReachabilityGraph graph = algorithm.getGraph();
+        if (graph != null) {
+            graph.close();
+        }
+    }
+
+    public ReachabilityAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
     public void addListenerToAlgorithm(ReachabilityListener listener) {
         algorithm.addListener(listener);
     }
@@ -16,9 +16,11 @@ import java.util.HashSet;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.table.DefaultTableModel;
+import monalisa.Settings;
 import monalisa.addons.reachability.algorithms.AStar;
 import monalisa.addons.reachability.algorithms.BestFirst;
 import monalisa.addons.reachability.algorithms.BreadthFirst;
+import monalisa.addons.reachability.algorithms.SymbolicReachability;
 import monalisa.data.pn.PetriNetFacade;
 import monalisa.data.pn.Place;
 import monalisa.data.pn.Transition;
@@ -80,6 +82,15 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         breadthRButton.setActionCommand("Breadth First Search");
         bestRButton.addActionListener(this);
         bestRButton.setActionCommand("Best First Search");
+        symbolicRButton.addActionListener(this);
+        symbolicRButton.setActionCommand("Symbolic");
+        threadsSpinner.setValue(Math.min(Runtime.getRuntime().availableProcessors(), 256));
+        int heapBudget = Settings.getInteger("reachabilityHeapBudget");
+        if (heapBudget >= 0) {
+            storeCheckBox.setSelected(true);
+            heapBudgetSpinner.setEnabled(true);
+            heapBudgetSpinner.setValue(Math.min(heapBudget, 1048576));
+        }
         LOGGER.info("Successfully initialized ReachabilityDialog.");
     }
 
@@ -100,8 +111,14 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         breadthRButton = new javax.swing.JRadioButton();
         bestRButton = new javax.swing.JRadioButton();
         aStarRButton = new javax.swing.JRadioButton();
+        symbolicRButton = new javax.swing.JRadioButton();
         jLabel1 = new javax.swing.JLabel();
         comboHeuristic = new javax.swing.JComboBox<>();
+        threadsLabel = new javax.swing.JLabel();
+        threadsSpinner = new javax.swing.JSpinner();
+        storeCheckBox = new javax.swing.JCheckBox();
+        heapBudgetLabel = new javax.swing.JLabel();
+        heapBudgetSpinner = new javax.swing.JSpinner();
         computeButton = new javax.swing.JButton();
         reachButton = new javax.swing.JButton();
         coverButton = new javax.swing.JButton();
@@ -162,11 +179,33 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         algoRadioGroup.add(aStarRButton);
         aStarRButton.setText("A*");
 
+        algoRadioGroup.add(symbolicRButton);
+        symbolicRButton.setText("Symbolic");
+
         jLabel1.setText("Weighting/Heuristic");
 
         comboHeuristic.setEnabled(false);
         comboHeuristic.setPreferredSize(new java.awt.Dimension(100, 29));
 
+        threadsLabel.setText("Threads");
+
+        threadsSpinner.setModel(new javax.swing.SpinnerNumberModel(1, 1, 256, 1));
+        threadsSpinner.setToolTipText("Number of threads used for the full reachability and coverability graphs. With 1 the graph is built sequentially.");
+
+        storeCheckBox.setText("Store states on disk");
+        storeCheckBox.setToolTipText("Keep the states of the full reachability graph on the heap up to the budget and in memory-mapped files beyond it. The graph is then built on a single thread.");
+        storeCheckBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                storeCheckBoxActionPerformed(evt);
+            }
+        });
+
+        heapBudgetLabel.setText("Heap budget (MB)");
+
+        heapBudgetSpinner.setModel(new javax.swing.SpinnerNumberModel(256, 0, 1048576, 64));
+        heapBudgetSpinner.setToolTipText("Heap budget of the state store in megabytes.");
+        heapBudgetSpinner.setEnabled(false);
+
         computeButton.setText("Compute selected");
         computeButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -227,11 +266,23 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
                         .addGap(18, 18, 18)
                         .addComponent(bestRButton)
                         .addGap(18, 18, 18)
-                        .addComponent(aStarRButton))
+                        .addComponent(aStarRButton)
+                        .addGap(18, 18, 18)
+                        .addComponent(symbolicRButton))
                     .addComponent(comboHeuristic, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                     .addComponent(startLabel)
                     .addComponent(algoLabel)
                     .addComponent(jLabel1)
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(threadsLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(threadsSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 60, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(18, 18, 18)
+                        .addComponent(storeCheckBox)
+                        .addGap(18, 18, 18)
+                        .addComponent(heapBudgetLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(heapBudgetSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE))
                     .addGroup(layout.createSequentialGroup()
                         .addComponent(reachButton)
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
@@ -261,6 +312,7 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
                     .addComponent(breadthRButton)
                     .addComponent(bestRButton)
                     .addComponent(aStarRButton)
+                    .addComponent(symbolicRButton)
                     .addComponent(capacityButton))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
@@ -269,6 +321,13 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
                         .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                         .addComponent(comboHeuristic, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                     .addComponent(knockoutButton))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(threadsLabel)
+                    .addComponent(threadsSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(storeCheckBox)
+                    .addComponent(heapBudgetLabel)
+                    .addComponent(heapBudgetSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addGap(26, 26, 26)
                 .addComponent(progressLabel)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, 20, Short.MAX_VALUE)
@@ -286,7 +345,13 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
     private void reachButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_reachButtonActionPerformed
         updateMarkings();
         LOGGER.info("Requested computation of full reachability graph.");
-        pf = new Pathfinder(pnf, start, target, capacities, knockouts, "FullReach");
+        // A negative budget keeps the whole graph on the heap.
+        long heapBudget = -1;
+        if (storeCheckBox.isSelected()) {
+            heapBudget = ((Integer) heapBudgetSpinner.getValue()).longValue() << 20;
+        }
+        closePathfinder();
+        pf = new Pathfinder(pnf, start, target, capacities, knockouts, "FullReach", (Integer) threadsSpinner.getValue(), heapBudget);
         pf.addListenerToAlgorithm(this);
         pf.run();
     }//GEN-LAST:event_reachButtonActionPerformed
@@ -294,7 +359,8 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
     private void coverButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_coverButtonActionPerformed
         updateMarkings();
         LOGGER.info("Requested computation of full coverability graph.");
-        pf = new Pathfinder(pnf, start, target, capacities, knockouts, "FullCover");
+        closePathfinder();
+        pf = new Pathfinder(pnf, start, target, capacities, knockouts, "FullCover", (Integer) threadsSpinner.getValue());
         pf.addListenerToAlgorithm(this);
         pf.run();
     }//GEN-LAST:event_coverButtonActionPerformed
@@ -303,7 +369,8 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         updateMarkings();
         LOGGER.info("Requested computation of a path from start to target marking.");
         String algo = algoRadioGroup.getSelection().getActionCommand();
-        if (algo.equals("Breadth First Search")) {
+        closePathfinder();
+        if (algo.equals("Breadth First Search") || algo.equals("Symbolic")) {
             pf = new Pathfinder(pnf, start, target, capacities, knockouts, algo);
         } else {
             pf = new Pathfinder(pnf, start, target, capacities, knockouts, algo, (String) comboHeuristic.getSelectedItem());
@@ -331,6 +398,10 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         kf.setVisible(true);
     }//GEN-LAST:event_knockoutButtonActionPerformed
 
+    private void storeCheckBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_storeCheckBoxActionPerformed
+        heapBudgetSpinner.setEnabled(storeCheckBox.isSelected());
+    }//GEN-LAST:event_storeCheckBoxActionPerformed
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JRadioButton aStarRButton;
     private javax.swing.JLabel algoLabel;
@@ -341,6 +412,8 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
     private javax.swing.JComboBox<String> comboHeuristic;
     private javax.swing.JButton computeButton;
     private javax.swing.JButton coverButton;
+    private javax.swing.JLabel heapBudgetLabel;
+    private javax.swing.JSpinner heapBudgetSpinner;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JButton knockoutButton;
     private javax.swing.JTable markingTable;
@@ -348,7 +421,11 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
     private javax.swing.JButton reachButton;
     private javax.swing.JLabel startLabel;
     private javax.swing.JButton stopButton;
+    private javax.swing.JCheckBox storeCheckBox;
+    private javax.swing.JRadioButton symbolicRButton;
     private javax.swing.JScrollPane tableScrollPane;
+    private javax.swing.JLabel threadsLabel;
+    private javax.swing.JSpinner threadsSpinner;
     // End of variables declaration//GEN-END:variables
 
     @Override
@@ -368,6 +445,7 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
                 comboHeuristic.addItem("Weighted Default");
                 break;
             case "Breadth First Search":
+            case "Symbolic":
                 comboHeuristic.setEnabled(false);
                 comboHeuristic.removeAllItems();
                 break;
@@ -402,6 +480,27 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         aStarRButton.setEnabled(!b);
         bestRButton.setEnabled(!b);
         breadthRButton.setEnabled(!b);
+        symbolicRButton.setEnabled(!b);
+        threadsSpinner.setEnabled(!b);
+        storeCheckBox.setEnabled(!b);
+        heapBudgetSpinner.setEnabled(!b && storeCheckBox.isSelected());
+    }
+
+    /**
+     * Stops the last computation, if it is still running, and releases its
+     * graph.
+     */
+    private void closePathfinder() {
+        if (pf != null) {
+            pf.close();
+            pf = null;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        closePathfinder();
+        super.dispose();
     }
 
     @Override
@@ -422,12 +521,14 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
                 // Should probably handle displaying output
                 LOGGER.info("Expanded " + Integer.toString(e.getSteps()) + " nodes before successfully finding target marking.");
                 progressLabel.setText("Number of nodes expanded before target marking was successfully found: " + Integer.toString(e.getSteps()));
+                showSymbolicResult();
                 break;
             case FAILURE: // Fired when an algorithm fails to find the target marking.
                 lock(false);
                 // Should output failure.
                 LOGGER.info("Expanded " + Integer.toString(e.getSteps()) + " nodes before failure was determined.");
                 progressLabel.setText("Number of nodes expanded before failure was determined: " + Integer.toString(e.getSteps()));
+                showSymbolicResult();
                 break;
             case PROGRESS: // Fired every 100 expanded nodes.
                 LOGGER.info("Expanded " + Integer.toString(e.getSteps()) + " nodes so far.");
@@ -444,6 +545,22 @@ public class ReachabilityDialog extends JFrame implements ActionListener, Reacha
         }
     }
 
+    /**
+     * Replaces the progress text with the results of a symbolic reachability
+     * analysis, whose steps count decision diagram nodes instead of expanded
+     * markings.
+     */
+    private void showSymbolicResult() {
+        if (pf.getAlgorithm() instanceof SymbolicReachability) {
+            SymbolicReachability symbolic = (SymbolicReachability) pf.getAlgorithm();
+            String result = "Reachable markings: " + symbolic.getStateCount()
+                    + ", deadlocks: " + symbolic.getDeadlockCount()
+                    + ", target marking " + (symbolic.isTargetReachable() ? "reachable" : "not reachable");
+            LOGGER.info(result);
+            progressLabel.setText(result);
+        }
+    }
+
     protected void setCapacities(HashMap<Place, Long> caps) {
         this.capacities.putAll(caps);
     }
@@ -5,33 +5,68 @@
  */
 package monalisa.addons.reachability;
 
-import java.util.HashSet;
+import java.io.Closeable;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import monalisa.data.pn.Transition;
 
 /**
  *
  * @author Marcel Gehrmann
  */
-public class ReachabilityGraph {
+public class ReachabilityGraph implements Closeable {
 
-    private final HashSet<ReachabilityNode> vertices;
-    private final HashSet<ReachabilityEdge> edges;
+    private final Set<ReachabilityNode> vertices;
+    private final Set<ReachabilityEdge> edges;
+    private final MappedStateStore store;
 
-    public ReachabilityGraph(HashSet vertices, HashSet edges) {
+    public ReachabilityGraph(Set<ReachabilityNode> vertices, Set<ReachabilityEdge> edges) {
         this.vertices = vertices;
         this.edges = edges;
+        this.store = null;
     }
 
     /**
+     * Creates a graph backed by a state store. The vertices and edges are
+     * read from the store while they are accessed, the store is never loaded
+     * into the heap completely.
+     *
+     * @param store holding the states and edges of the graph
+     */
+    public ReachabilityGraph(MappedStateStore store) {
+        this.store = store;
+        this.vertices = new StoredVertices();
+        this.edges = new StoredEdges();
+    }
+
+    /**
+     * @return whether the graph is read from a state store.
+     */
+    public boolean isStored() {
+        return store != null;
+    }
+
+    /**
+     * The vertices of a stored graph are an unmodifiable view of the store.
+     * Its vertices are created while iterating and do not know their
+     * predecessors.
+     *
      * @return the vertices
      */
-    public HashSet getVertices() {
+    public Set<ReachabilityNode> getVertices() {
         return vertices;
     }
 
     /**
+     * The edges of a stored graph are an unmodifiable view of the store. Its
+     * vertices are created while iterating, so the same marking is
+     * represented by different objects in different edges.
+     *
      * @return the edges
      */
-    public HashSet getEdges() {
+    public Set<ReachabilityEdge> getEdges() {
         return edges;
     }
 
@@ -43,11 +78,125 @@ public class ReachabilityGraph {
      * @return ReachabilityEdge
      */
     public ReachabilityEdge getEdge(ReachabilityNode source, ReachabilityNode target) {
-        for (ReachabilityEdge e : edges) {
-            if (e.getSource().equals(source) && e.getTarget().equals(target)) {
+        if (store == null) {
+            for (ReachabilityEdge e : edges) {
+                if (e.getSource().equals(source) && e.getTarget().equals(target)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+        long e = findStoredEdge(source, target, null);
+        return (e < 0) ? null : new ReachabilityEdge(source, target, store.getEdgeTransition(e));
+    }
+
+    /**
+     * Releases the state store of a stored graph and deletes its files. The
+     * graph must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Looks up an edge of a stored graph through the state table and the edges
+     * leaving its source.
+     *
+     * @param transition of the edge, or null for any transition
+     * @return the index of the edge in the edge log, or -1 if there is none
+     */
+    private long findStoredEdge(ReachabilityNode source, ReachabilityNode target, Transition transition) {
+        int sourceId = store.find(source.getMarking());
+        int targetId = (sourceId < 0) ? -1 : store.find(target.getMarking());
+        if (targetId < 0) {
+            return -1;
+        }
+        for (long e = store.findEdges(sourceId); e < store.getEdgeCount() && store.getEdgeSource(e) == sourceId; e++) {
+            if (store.getEdgeTarget(e) == targetId
+                    && (transition == null || transition.equals(store.getEdgeTransition(e)))) {
                 return e;
             }
         }
-        return null;
+        return -1;
+    }
+
+    private ReachabilityNode createNode(int id) {
+        return new ReachabilityNode(store.getMarking(id), null);
+    }
+
+    private final class StoredVertices extends AbstractSet<ReachabilityNode> {
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o instanceof ReachabilityNode) && store.find(((ReachabilityNode) o).getMarking()) >= 0;
+        }
+
+        @Override
+        public Iterator<ReachabilityNode> iterator() {
+            return new Iterator<ReachabilityNode>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < store.size();
+                }
+
+                @Override
+                public ReachabilityNode next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return createNode(next++);
+                }
+            };
+        }
+    }
+
+    private final class StoredEdges extends AbstractSet<ReachabilityEdge> {
+
+        @Override
+        public int size() {
+            return (int) Math.min(store.getEdgeCount(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof ReachabilityEdge)) {
+                return false;
+            }
+            ReachabilityEdge edge = (ReachabilityEdge) o;
+            return findStoredEdge(edge.getSource(), edge.getTarget(), edge.getTransition()) >= 0;
+        }
+
+        @Override
+        public Iterator<ReachabilityEdge> iterator() {
+            return new Iterator<ReachabilityEdge>() {
+                private long next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < store.getEdgeCount();
+                }
+
+                @Override
+                public ReachabilityEdge next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ReachabilityEdge edge = new ReachabilityEdge(createNode(store.getEdgeSource(next)),
+                            createNode(store.getEdgeTarget(next)), store.getEdgeTransition(next));
+                    next++;
+                    return edge;
+                }
+            };
+        }
     }
 }
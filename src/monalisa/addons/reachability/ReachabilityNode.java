@@ -5,8 +5,8 @@
  */
 package monalisa.addons.reachability;
 
-import java.util.HashMap;
-import monalisa.data.pn.Place;
+import java.util.BitSet;
+import monalisa.data.pn.Transition;
 
 /**
  *
@@ -14,41 +14,60 @@ import monalisa.data.pn.Place;
  */
 public class ReachabilityNode {
 
-    private final HashMap<Place, Long> marking;
+    private final Marking marking;
     private ReachabilityNode prev;
+    private Transition prevTransition;
     private double priority = 0;
     private int depth;
+    private BitSet enabled; // Only kept until the node is expanded
 
-    public ReachabilityNode(HashMap<Place, Long> marking, ReachabilityNode prev) {
+    public ReachabilityNode(Marking marking, ReachabilityNode prev) {
+        this(marking, prev, null);
+    }
+
+    /**
+     * @param marking the marking of the node
+     * @param prev the node the marking has been reached from, null for the
+     * start marking
+     * @param prevTransition the transition fired in the marking of prev to
+     * reach this marking
+     */
+    public ReachabilityNode(Marking marking, ReachabilityNode prev, Transition prevTransition) {
         this.marking = marking;
         this.prev = prev;
-        if (prev == null) {
-            this.depth = 0;
-        }
+        this.prevTransition = prevTransition;
+        this.depth = (prev == null) ? 0 : prev.depth + 1;
     }
 
     /**
      * @return the marking.
      */
-    public HashMap<Place, Long> getMarking() {
+    public Marking getMarking() {
         return marking;
     }
 
+    /**
+     * The depth is set when the predecessor is set. It is not updated if a
+     * predecessor further up is re-parented by
+     * {@link #setPrev(ReachabilityNode, Transition)}, so it is an upper bound
+     * of the length of the path through the predecessors.
+     *
+     * @return the number of steps from the start marking.
+     */
     public int getDepth() {
-        return alternateDepth();
+        return depth;
     }
 
-    public int alternateDepth() {
-        if (prev != null) {
-            return prev.alternateDepth() + 1;
-        } else {
-            return 0;
-        }
-    }
-
-    public void setPrev(ReachabilityNode prev) {
+    /**
+     * Re-parents the node. The nodes reached from it keep their depth.
+     *
+     * @param prev the new predecessor
+     * @param prevTransition the transition fired in the marking of prev
+     */
+    public void setPrev(ReachabilityNode prev, Transition prevTransition) {
         this.prev = prev;
-        this.depth = prev.getDepth() + 1;
+        this.prevTransition = prevTransition;
+        this.depth = prev.depth + 1;
     }
 
     /**
@@ -58,6 +77,14 @@ public class ReachabilityNode {
         return prev;
     }
 
+    /**
+     * @return the transition fired in the previous marking to reach this one,
+     * null for the start marking.
+     */
+    public Transition getPrevTransition() {
+        return prevTransition;
+    }
+
     public void setPriority(double priority) {
         this.priority = priority;
     }
@@ -66,34 +93,35 @@ public class ReachabilityNode {
         return priority;
     }
 
+    /**
+     * @return the transitions enabled in the marking, if they have been
+     * computed while creating the node and the node has not been expanded yet.
+     */
+    public BitSet getEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(BitSet enabled) {
+        this.enabled = enabled;
+    }
+
     public boolean largerThan(ReachabilityNode other) {
         // this is larger than other, if all places in this have at least the same amount of tokens
-        boolean larger = false;
-        for (Place p : marking.keySet()) {
-            if (marking.get(p) > other.getMarking().get(p)) {
-                larger = true;
-            } else if (marking.get(p) < other.getMarking().get(p)) {
-                return false;
-            }
-        }
-        return larger;
+        return marking.largerThan(other.getMarking());
     }
 
-    public HashMap<Place, Long> getDifference(ReachabilityNode other) {
-        HashMap<Place, Long> diff = new HashMap();
-        for (Place p : this.marking.keySet()) {
-            Long p_diff = this.marking.get(p) - other.getMarking().get(p);
-            diff.put(p, p_diff);
+    /**
+     * @return the token difference to the other node by place ordinal.
+     */
+    public long[] getDifference(ReachabilityNode other) {
+        long[] diff = new long[marking.size()];
+        for (int i = 0; i < diff.length; i++) {
+            diff[i] = marking.get(i) - other.getMarking().get(i);
         }
         return diff;
     }
 
     public boolean equals(ReachabilityNode other) {
-        for (Place p : marking.keySet()) {
-            if (!marking.get(p).equals(other.getMarking().get(p))) {
-                return false;
-            }
-        }
-        return true;
+        return marking.equals(other.getMarking());
     }
 }
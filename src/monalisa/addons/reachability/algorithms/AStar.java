@@ -6,9 +6,11 @@
 package monalisa.addons.reachability.algorithms;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import monalisa.addons.reachability.Marking;
 import monalisa.addons.reachability.Pathfinder;
 import monalisa.addons.reachability.ReachabilityEdge;
 import monalisa.addons.reachability.ReachabilityEvent;
@@ -41,12 +43,13 @@ public class AStar extends AbstractReachabilityAlgorithm {
         LOGGER.debug("Starting A* Algorithm.");
         fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
         int counter = 0;
-        HashSet<ReachabilityNode> vertices = new HashSet<>();
+        StateStore vertices = new StateStore();
         HashSet<ReachabilityEdge> edges = new HashSet<>();
         // initialize for m0 as root
-        ReachabilityNode root = new ReachabilityNode(marking, null);
-        tar = new ReachabilityNode(target, null);
-        ArrayList<ReachabilityNode> workingList = new ArrayList<>();
+        ReachabilityNode root = new ReachabilityNode(pf.toMarking(marking), null);
+        tar = new ReachabilityNode(pf.toMarking(target), null);
+        NodeQueue workingList = new NodeQueue();
+        vertices.add(root);
         workingList.add(root);
         while (!workingList.isEmpty() && !isInterrupted()) {
             LOGGER.debug("Starting expansion for a new node."); // debug
@@ -54,53 +57,42 @@ public class AStar extends AbstractReachabilityAlgorithm {
             if (counter % 100 == 0) {
                 fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
             }
-            ReachabilityNode workingNode = workingList.get(0);
-            workingList.remove(workingNode);
-            vertices.add(workingNode);
+            ReachabilityNode workingNode = workingList.poll();
             LOGGER.debug("Expanding new marking with priority " + workingNode.getPriority());
-            HashSet<Transition> activeTransitions = pf.computeActive(workingNode.getMarking());
-            for (Transition t : activeTransitions) {
+            int newDepth = workingNode.getDepth() + 1;
+            BitSet activeTransitions = takeEnabled(workingNode);
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                Transition t = pf.getTransition(i);
                 LOGGER.debug("Created new node by firing transition " + t.getProperty("name") + ".");  // debug                                    
-                HashMap<Place, Long> mNew = pf.computeMarking(workingNode.getMarking(), t);
-                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode);
+                Marking mNew = pf.computeMarking(workingNode.getMarking(), i);
+                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode, t);
                 
                 if (newNode.equals(tar)) {                    
                     tar = newNode;
                     vertices.add(tar);
                     edges.add(new ReachabilityEdge(workingNode, tar, t));
-                    g = new ReachabilityGraph(vertices, edges);
+                    g = new ReachabilityGraph(vertices.getNodes(), edges);
                     fireReachabilityUpdate(ReachabilityEvent.Status.SUCCESS, counter, backtrack());                    
                     LOGGER.debug("Target marking has been reached.");                  
                     return;
                 }
-                boolean unvisited = true;
                 // Has the node been seen before?
-                for (ReachabilityNode v : vertices) {
-                    if (v.equals(newNode)) {
-                        unvisited = false;
-                        edges.add(new ReachabilityEdge(workingNode, v, t));
-                        // Potentially update depth
-                        if (v.getDepth() > newNode.getDepth()) {
-                            v.setPrev(workingNode);
-                        }
-                        break;
-                    }
-                }
-                // If it hasn't been seen before, add it to vertices and workingList
-                if (unvisited) {
-                    insertNode(newNode, workingList);
+                ReachabilityNode v = vertices.get(mNew);
+                if (v == null) {
+                    // If it hasn't been seen before, add it to vertices and workingList
                     vertices.add(newNode);
                     edges.add(new ReachabilityEdge(workingNode, newNode, t));
-                } // If it has been seen before, check if it has been expanded yet
-                else {
-                    for (ReachabilityNode v : workingList) {
-                        if (v.equals(newNode)) {
-                            // If it hasn't been expanded, the priority might have to be updated.
-                            if (v.getDepth() > newNode.getDepth()) {
-                                v.setPrev(workingNode);
-                                updatePosition(v, workingList);
-                                break;
-                            }
+                    newNode.setEnabled(pf.updateEnabled(activeTransitions, mNew, i));
+                    insertNode(newNode, workingList);
+                } else {
+                    edges.add(new ReachabilityEdge(workingNode, v, t));
+                    // Potentially update depth
+                    if (v.getDepth() > newDepth) {
+                        v.setPrev(workingNode, t);
+                        // If it hasn't been expanded, the priority has to be updated.
+                        if (workingList.contains(v)) {
+                            computePriority(v);
+                            workingList.update(v);
                         }
                     }
                 }
@@ -111,44 +103,39 @@ public class AStar extends AbstractReachabilityAlgorithm {
             fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
         } else {
             LOGGER.info("Target marking could not be reached from start marking.");
-            g = new ReachabilityGraph(vertices, edges);
+            g = new ReachabilityGraph(vertices.getNodes(), edges);
             fireReachabilityUpdate(ReachabilityEvent.Status.FAILURE, counter, null);
         }
     }
 
-    private void updatePosition(ReachabilityNode node, ArrayList<ReachabilityNode> workingList) {
-        workingList.remove(node);
-        insertNode(node, workingList);
-    }
-
-    private void insertNode(ReachabilityNode node, ArrayList<ReachabilityNode> workingList) {
+    private void insertNode(ReachabilityNode node, NodeQueue workingList) {
         computePriority(node);
-        int pos = findPos(workingList, node);
         LOGGER.debug("Current priority: " + node.getPriority());
-        workingList.add(pos, node);
+        workingList.add(node);
     }
 
     @Override
     public void computePriority(ReachabilityNode node) {
         double prio = node.getDepth();
-        HashMap<Place, Long> diff = tar.getDifference(node);
+        long[] diff = tar.getDifference(node);
         HashSet<Double> placewise = new HashSet<>();
-        for (Place p : tar.getMarking().keySet()) {
+        for (int i = 0; i < diff.length; i++) {
+            Place p = pf.getPlace(i);
             HashSet<Double> intermediate = new HashSet<>();
             ArrayList<Transition> validTransitions = new ArrayList<>();
             // The place still has too many tokens compared to the target marking
-            LOGGER.debug(p.getProperty("name") + "\t" + diff.get(p));
-            if (diff.get(p) < 0) {
+            LOGGER.debug(p.getProperty("name") + "\t" + diff[i]);
+            if (diff[i] < 0) {
                 validTransitions.addAll(p.outputs());
                 for (Transition t : validTransitions) {
-                    intermediate.add(Math.floor(diff.get(p) / (-1 * pnf.getArc(p, t).weight())));
+                    intermediate.add(Math.floor(diff[i] / (-1 * pnf.getArc(p, t).weight())));
                 }
                 placewise.add(Collections.min(intermediate));                
             } // The place still has too few tokens compared to the target marking
-            else if (diff.get(p) > 0) {
+            else if (diff[i] > 0) {
                 validTransitions.addAll(p.inputs());
                 for (Transition t : validTransitions) {
-                    intermediate.add(Math.floor(diff.get(p) / pnf.getArc(t, p).weight()));
+                    intermediate.add(Math.floor(diff[i] / pnf.getArc(t, p).weight()));
                 }
                 placewise.add(Collections.min(intermediate));                
             }
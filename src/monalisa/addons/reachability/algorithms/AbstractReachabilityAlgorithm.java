@@ -6,6 +6,8 @@
 package monalisa.addons.reachability.algorithms;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import monalisa.addons.reachability.Pathfinder;
@@ -36,16 +38,22 @@ public abstract class AbstractReachabilityAlgorithm extends Thread implements Re
         this.target = target;
     }
 
+    /**
+     * @return the graph built by the algorithm, or null if it has not
+     * finished successfully.
+     */
+    public ReachabilityGraph getGraph() {
+        return g;
+    }
+
     @Override
     public ArrayList<Transition> backtrack() {
         // Start from m*. Go back using m*.getPrev(). Always shortest path for BFS
         ArrayList<Transition> path = new ArrayList<>();
-        ReachabilityNode currentNode = tar;
-        while (currentNode.getPrev() != null) {
-            Transition t = g.getEdge(currentNode.getPrev(), currentNode).getTransition();
-            path.add(0, t);
-            currentNode = currentNode.getPrev();
+        for (ReachabilityNode currentNode = tar; currentNode.getPrev() != null; currentNode = currentNode.getPrev()) {
+            path.add(currentNode.getPrevTransition());
         }
+        Collections.reverse(path);
         /* Path can be null for two reasons: m0 = m* or there exists no path from m0 to m*.
            If m0 = m*, one should check whether any T-Invariant is feasible in m0.
            All feasible TIs are valid paths, and smallest TI is shortest path.
@@ -53,6 +61,23 @@ public abstract class AbstractReachabilityAlgorithm extends Thread implements Re
         return path;
     }
 
+    /**
+     * Returns the transitions enabled in the marking of a node that is about to
+     * be expanded. The set computed incrementally on creation of the node is
+     * used if present and released from the node.
+     *
+     * @param node to be expanded
+     * @return the ordinals of the enabled transitions
+     */
+    protected BitSet takeEnabled(ReachabilityNode node) {
+        BitSet enabled = node.getEnabled();
+        if (enabled == null) {
+            enabled = pf.computeEnabled(node.getMarking());
+        }
+        node.setEnabled(null);
+        return enabled;
+    }
+
     /**
      * Finds the position a node needs to be inserted in based on its priority
      * using binary search.
@@ -5,9 +5,10 @@
  */
 package monalisa.addons.reachability.algorithms;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import monalisa.addons.reachability.Marking;
 import monalisa.addons.reachability.Pathfinder;
 import monalisa.addons.reachability.ReachabilityEdge;
 import monalisa.addons.reachability.ReachabilityEvent;
@@ -37,13 +38,13 @@ public class BestFirst extends AbstractReachabilityAlgorithm {
         LOGGER.debug("Starting Best First Algorithm.");
         fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
         int counter = 0;
-        HashSet<ReachabilityNode> vertices = new HashSet<>();
+        StateStore vertices = new StateStore();
         HashSet<ReachabilityEdge> edges = new HashSet<>();
         // initialize for m0 as root
-        ReachabilityNode root = new ReachabilityNode(marking, null);
-        tar = new ReachabilityNode(target, null);
+        ReachabilityNode root = new ReachabilityNode(pf.toMarking(marking), null);
+        tar = new ReachabilityNode(pf.toMarking(target), null);
         vertices.add(root);
-        ArrayList<ReachabilityNode> workingList = new ArrayList<>();
+        NodeQueue workingList = new NodeQueue();
         workingList.add(root);
         while (!workingList.isEmpty() && !isInterrupted()) {
             LOGGER.debug("Starting expansion for a new node."); // debug
@@ -51,42 +52,37 @@ public class BestFirst extends AbstractReachabilityAlgorithm {
             if (counter % 100 == 0) {
                 fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
             }
-            ReachabilityNode workingNode = workingList.get(0);
-            workingList.remove(0);
-            HashSet<Transition> activeTransitions = pf.computeActive(workingNode.getMarking());
-            for (Transition t : activeTransitions) {
+            ReachabilityNode workingNode = workingList.poll();
+            int newDepth = workingNode.getDepth() + 1;
+            BitSet activeTransitions = takeEnabled(workingNode);
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                Transition t = pf.getTransition(i);
                 LOGGER.debug("Created new node by firing transition " + t.getProperty("name") + ".");  // debug                
-                HashMap<Place, Long> mNew = pf.computeMarking(workingNode.getMarking(), t);
-                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode);
+                Marking mNew = pf.computeMarking(workingNode.getMarking(), i);
+                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode, t);
                 // Algorithm terminates on finding m*
                 if (newNode.equals(tar)) {
                     tar = newNode;
                     vertices.add(tar);
                     edges.add(new ReachabilityEdge(workingNode, tar, t));
-                    g = new ReachabilityGraph(vertices, edges);
+                    g = new ReachabilityGraph(vertices.getNodes(), edges);
                     fireReachabilityUpdate(ReachabilityEvent.Status.SUCCESS, counter, backtrack());
                     LOGGER.debug("Target marking has been reached.");
                     return;
                 }
-                boolean unvisited = true;
-                for (ReachabilityNode v : vertices) {
-                    if (v.equals(newNode)) {
-                        unvisited = false;
-                        edges.add(new ReachabilityEdge(workingNode, v, t));
-                        // Potentially update depth
-                        if (v.getDepth() > newNode.getDepth()) {
-                            v.setPrev(workingNode);
-                        }
-                        break;
-                    }
-                }
-                if (unvisited) {
+                ReachabilityNode v = vertices.get(mNew);
+                if (v == null) {
                     vertices.add(newNode);
                     edges.add(new ReachabilityEdge(workingNode, newNode, t));
                     computePriority(newNode); // Compute priority
-                    int pos = findPos(workingList, newNode); // Compute position using binary search?
-
-                    workingList.add(pos, newNode);
+                    newNode.setEnabled(pf.updateEnabled(activeTransitions, mNew, i));
+                    workingList.add(newNode);
+                } else {
+                    edges.add(new ReachabilityEdge(workingNode, v, t));
+                    // Potentially update depth
+                    if (v.getDepth() > newDepth) {
+                        v.setPrev(workingNode, t);
+                    }
                 }
             }
         }
@@ -95,7 +91,7 @@ public class BestFirst extends AbstractReachabilityAlgorithm {
             fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
         } else {
             LOGGER.info("Target marking could not be reached from start marking.");
-            g = new ReachabilityGraph(vertices, edges);
+            g = new ReachabilityGraph(vertices.getNodes(), edges);
             fireReachabilityUpdate(ReachabilityEvent.Status.FAILURE, counter, null);
         }
     }
@@ -114,15 +110,16 @@ public class BestFirst extends AbstractReachabilityAlgorithm {
         if (priority.equals("Default")) {
             // The closer a marking is to the target, the more it is prioritized.
             // High priority value = Smaller priority.
-            for (Place p : tar.getMarking().keySet()) {
-                prio += Math.abs(tar.getMarking().get(p) - node.getMarking().get(p));
+            for (int i = 0; i < tar.getMarking().size(); i++) {
+                prio += Math.abs(tar.getMarking().get(i) - node.getMarking().get(i));
             }
         } else if (priority.equals("Weighted Default")) {
             // Default, but places are weighted inversely by their degree.
             // Effectively, places with a high degree increase priority value less.
-            for (Place p : tar.getMarking().keySet()) {
+            for (int i = 0; i < tar.getMarking().size(); i++) {
+                Place p = pf.getPlace(i);
                 prio += ((1f / (p.inputs().size() + p.outputs().size()))
-                        * Math.abs(tar.getMarking().get(p) - node.getMarking().get(p)));                        
+                        * Math.abs(tar.getMarking().get(i) - node.getMarking().get(i)));                        
             }
         }
         node.setPriority(prio);
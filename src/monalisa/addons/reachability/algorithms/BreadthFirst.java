@@ -5,9 +5,11 @@
  */
 package monalisa.addons.reachability.algorithms;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import monalisa.addons.reachability.Marking;
 import monalisa.addons.reachability.Pathfinder;
 import monalisa.addons.reachability.ReachabilityEdge;
 import monalisa.addons.reachability.ReachabilityEvent;
@@ -35,13 +37,13 @@ public class BreadthFirst extends AbstractReachabilityAlgorithm {
         LOGGER.debug("Starting Breadth First Algorithm.");
         fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
         int counter = 0;
-        HashSet<ReachabilityNode> vertices = new HashSet<>();
+        StateStore vertices = new StateStore();
         HashSet<ReachabilityEdge> edges = new HashSet<>();
         // initialize for m0 as root
-        ReachabilityNode root = new ReachabilityNode(marking, null);
-        tar = new ReachabilityNode(target, null);
+        ReachabilityNode root = new ReachabilityNode(pf.toMarking(marking), null);
+        tar = new ReachabilityNode(pf.toMarking(target), null);
         vertices.add(root);
-        ArrayList<ReachabilityNode> workingList = new ArrayList<>();
+        ArrayDeque<ReachabilityNode> workingList = new ArrayDeque<>();
         workingList.add(root);
         while (!workingList.isEmpty() && !isInterrupted()) {
             LOGGER.debug("Starting expansion for a new node."); // debug
@@ -49,36 +51,32 @@ public class BreadthFirst extends AbstractReachabilityAlgorithm {
             if (counter % 100 == 0) {
                 fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
             }
-            ReachabilityNode workingNode = workingList.get(0);
+            ReachabilityNode workingNode = workingList.poll();
             LOGGER.debug("Current marking:" + workingNode.getMarking().toString());
-            workingList.remove(0);
-            HashSet<Transition> activeTransitions = pf.computeActive(workingNode.getMarking());
-            for (Transition t : activeTransitions) {
+            BitSet activeTransitions = takeEnabled(workingNode);
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                Transition t = pf.getTransition(i);
                 LOGGER.debug("Created new node by firing transition " + t.getProperty("name") + ".");  // debug
-                HashMap<Place, Long> mNew = pf.computeMarking(workingNode.getMarking(), t);
-                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode);
+                Marking mNew = pf.computeMarking(workingNode.getMarking(), i);
+                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode, t);
                 // Algorithm terminates on finding m*
                 if (newNode.equals(tar)) {
                     tar = newNode;
                     vertices.add(tar);
                     edges.add(new ReachabilityEdge(workingNode, tar, t));
-                    g = new ReachabilityGraph(vertices, edges);
+                    g = new ReachabilityGraph(vertices.getNodes(), edges);
                     fireReachabilityUpdate(ReachabilityEvent.Status.SUCCESS, counter, backtrack());
                     LOGGER.debug("Target marking has been reached.");
                     return;
                 }
-                boolean unvisited = true;
-                for (ReachabilityNode v : vertices) {
-                    if (v.equals(newNode)) {
-                        unvisited = false;
-                        edges.add(new ReachabilityEdge(workingNode, v, t));
-                        break;
-                    }
-                }
-                if (unvisited) {
+                ReachabilityNode v = vertices.get(mNew);
+                if (v == null) {
                     vertices.add(newNode);
+                    newNode.setEnabled(pf.updateEnabled(activeTransitions, mNew, i));
                     workingList.add(newNode);
                     edges.add(new ReachabilityEdge(workingNode, newNode, t));
+                } else {
+                    edges.add(new ReachabilityEdge(workingNode, v, t));
                 }
             }
         }
@@ -87,7 +85,7 @@ public class BreadthFirst extends AbstractReachabilityAlgorithm {
             fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
         } else {
             LOGGER.info("Target marking could not be reached from start marking.");
-            g = new ReachabilityGraph(vertices, edges);
+            g = new ReachabilityGraph(vertices.getNodes(), edges);
             fireReachabilityUpdate(ReachabilityEvent.Status.FAILURE, counter, null);
         }
     }
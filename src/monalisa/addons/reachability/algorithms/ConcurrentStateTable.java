@@ -0,0 +1,106 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import monalisa.addons.reachability.Marking;
+import monalisa.addons.reachability.ReachabilityNode;
+
+/**
+ * State table for concurrent graph construction. The markings are spread over
+ * a number of independently locked shards, so workers only contend if they
+ * insert markings falling into the same shard.
+ *
+ * Every node remembers the key of the expansion that discovered it. If a
+ * marking is discovered several times within one level, the discovery with
+ * the smallest key becomes the predecessor of the node, which is the one a
+ * sequential breadth first search would have found first.
+ */
+final class ConcurrentStateTable {
+
+    static final class Entry {
+
+        final ReachabilityNode node;
+        final int level;
+        long key;
+
+        Entry(ReachabilityNode node, int level, long key) {
+            this.node = node;
+            this.level = level;
+            this.key = key;
+        }
+    }
+
+    private final List<HashMap<Marking, Entry>> shards;
+    private final int shift;
+
+    ConcurrentStateTable(int concurrency) {
+        int size = Integer.highestOneBit(Math.max(1, concurrency * 16) - 1) << 1;
+        shards = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            shards.add(new HashMap<>());
+        }
+        shift = 32 - Integer.numberOfTrailingZeros(size);
+    }
+
+    /**
+     * Offers a newly discovered node.
+     *
+     * @param candidate the node reached, with its predecessor set
+     * @param level the level of the candidate
+     * @param key the discovery key of the candidate
+     * @return the entry of the marking; its node is the candidate if the
+     * marking has not been known before
+     */
+    Entry offer(ReachabilityNode candidate, int level, long key) {
+        HashMap<Marking, Entry> shard = shardFor(candidate.getMarking());
+        synchronized (shard) {
+            Entry entry = shard.get(candidate.getMarking());
+            if (entry == null) {
+                entry = new Entry(candidate, level, key);
+                shard.put(candidate.getMarking(), entry);
+            } else if (entry.level == level && key < entry.key) {
+                entry.key = key;
+                entry.node.setPrev(candidate.getPrev(), candidate.getPrevTransition());
+            }
+            return entry;
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (HashMap<Marking, Entry> shard : shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    HashSet<ReachabilityNode> getNodes() {
+        HashSet<ReachabilityNode> nodes = new HashSet<>();
+        for (HashMap<Marking, Entry> shard : shards) {
+            synchronized (shard) {
+                for (Entry entry : shard.values()) {
+                    nodes.add(entry.node);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private HashMap<Marking, Entry> shardFor(Marking marking) {
+        // Select by the upper bits of the mixed hash, the shard maps use the lower ones.
+        return shards.get((marking.hashCode() * 0x9E3779B9) >>> shift);
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A forest of quasi-reduced multi-valued decision diagrams over sets of
+ * markings. Level k of a diagram decides the tokens on the place with ordinal
+ * k - 1, level 0 holds the terminal nodes. A node stores one child per token
+ * count; the number of children grows with the largest token count that leads
+ * to a non-empty set, so the local state spaces need not be known in advance.
+ *
+ * Nodes are identified by integers and are unique: a unique table maps each
+ * combination of level and children to its node, so equal sets are
+ * represented by the same identifier. Results of operations are kept in a
+ * lossy operation cache that is shared by all operations and distinguished by
+ * an operation code. Nodes are never freed, so cached results stay valid.
+ */
+final class DecisionDiagram {
+
+    /**
+     * The empty set.
+     */
+    static final int ZERO = 0;
+    /**
+     * The set containing only the empty marking below level 1.
+     */
+    static final int ONE = 1;
+
+    static final int OP_UNION = 0;
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private int[] levels = new int[1024];
+    private int[][] children = new int[1024][];
+    private int[] hashes = new int[1024];
+    private int size;
+
+    // Open addressing over node identifiers, 0 marks a free slot.
+    private int[] table = new int[2048];
+
+    private int[] cacheOps;
+    private int[] cacheFirst;
+    private int[] cacheSecond;
+    private int[] cacheResults;
+    private int cacheMask;
+
+    private BigInteger[] counts = new BigInteger[0];
+
+    DecisionDiagram() {
+        levels[ZERO] = 0;
+        children[ZERO] = NO_CHILDREN;
+        levels[ONE] = 0;
+        children[ONE] = NO_CHILDREN;
+        size = 2;
+        resizeCache(1 << 16);
+    }
+
+    /**
+     * @return the number of nodes in the forest, including the terminals.
+     */
+    int size() {
+        return size;
+    }
+
+    int getLevel(int node) {
+        return levels[node];
+    }
+
+    /**
+     * @return the number of children of the node. All children at larger
+     * token counts are {@link #ZERO}.
+     */
+    int getWidth(int node) {
+        return children[node].length;
+    }
+
+    int getChild(int node, int i) {
+        int[] c = children[node];
+        return (i < c.length) ? c[i] : ZERO;
+    }
+
+    /**
+     * Returns the unique node with the given level and children.
+     *
+     * @param level The level of the node, at least 1.
+     * @param c The children. Only the first length entries are used, the
+     * array is not retained.
+     * @param length The number of children.
+     * @return the node, or {@link #ZERO} if all children are empty.
+     */
+    int checkIn(int level, int[] c, int length) {
+        while (length > 0 && c[length - 1] == ZERO) {
+            length--;
+        }
+        if (length == 0) {
+            return ZERO;
+        }
+        int hash = hash(level, c, length);
+        int mask = table.length - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int node = table[slot];
+            if (node == 0) {
+                break;
+            }
+            if (hashes[node] == hash && levels[node] == level && equalChildren(children[node], c, length)) {
+                return node;
+            }
+        }
+        if (size == levels.length) {
+            int capacity = size << 1;
+            levels = Arrays.copyOf(levels, capacity);
+            children = Arrays.copyOf(children, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        int node = size++;
+        levels[node] = level;
+        children[node] = Arrays.copyOf(c, length);
+        hashes[node] = hash;
+        if (size << 1 > table.length) {
+            rehash(table.length << 1);
+        } else {
+            insert(node);
+        }
+        if (size > cacheResults.length) {
+            resizeCache(cacheResults.length << 1);
+        }
+        return node;
+    }
+
+    private static int hash(int level, int[] c, int length) {
+        int h = level;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + c[i];
+        }
+        return h * 0x9E3779B9;
+    }
+
+    private static boolean equalChildren(int[] stored, int[] c, int length) {
+        if (stored.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (stored[i] != c[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int node) {
+        int mask = table.length - 1;
+        int slot = hashes[node] & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = node;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int node = 2; node < size; node++) {
+            insert(node);
+        }
+    }
+
+    /**
+     * Looks up the result of an operation in the operation cache.
+     *
+     * @return the cached result, or -1 if there is none.
+     */
+    int lookup(int op, int first, int second) {
+        int slot = cacheSlot(op, first, second);
+        if (cacheOps[slot] == op && cacheFirst[slot] == first && cacheSecond[slot] == second) {
+            return cacheResults[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the result of an operation in the operation cache, replacing
+     * whatever result occupied its slot.
+     */
+    void store(int op, int first, int second, int result) {
+        int slot = cacheSlot(op, first, second);
+        cacheOps[slot] = op;
+        cacheFirst[slot] = first;
+        cacheSecond[slot] = second;
+        cacheResults[slot] = result;
+    }
+
+    private int cacheSlot(int op, int first, int second) {
+        int h = (first * 0x9E3779B9) ^ (second * 0x85EBCA6B) ^ (op * 0xC2B2AE35);
+        return (h ^ (h >>> 16)) & cacheMask;
+    }
+
+    private void resizeCache(int capacity) {
+        // The cache is lossy, so previous results are simply dropped.
+        cacheOps = new int[capacity];
+        Arrays.fill(cacheOps, -1);
+        cacheFirst = new int[capacity];
+        cacheSecond = new int[capacity];
+        cacheResults = new int[capacity];
+        cacheMask = capacity - 1;
+    }
+
+    /**
+     * Computes the union of two sets on the same level.
+     */
+    int union(int p, int q) {
+        if (p == ZERO || p == q) {
+            return q;
+        }
+        if (q == ZERO) {
+            return p;
+        }
+        if (p > q) {
+            int swap = p;
+            p = q;
+            q = swap;
+        }
+        int result = lookup(OP_UNION, p, q);
+        if (result >= 0) {
+            return result;
+        }
+        int[] pc = children[p];
+        int[] qc = children[q];
+        int[] c = new int[Math.max(pc.length, qc.length)];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = union((i < pc.length) ? pc[i] : ZERO, (i < qc.length) ? qc[i] : ZERO);
+        }
+        result = checkIn(levels[p], c, c.length);
+        store(OP_UNION, p, q, result);
+        return result;
+    }
+
+    /**
+     * Counts the markings in a set.
+     */
+    BigInteger count(int node) {
+        if (node == ZERO) {
+            return BigInteger.ZERO;
+        }
+        if (node == ONE) {
+            return BigInteger.ONE;
+        }
+        if (counts.length < size) {
+            counts = Arrays.copyOf(counts, size);
+        }
+        BigInteger result = counts[node];
+        if (result == null) {
+            result = BigInteger.ZERO;
+            for (int child : children[node]) {
+                result = result.add(count(child));
+            }
+            counts[node] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a set contains a marking.
+     *
+     * @param node A node on the level equal to the length of the marking.
+     * @param marking The tokens by place ordinal.
+     */
+    boolean contains(int node, long[] marking) {
+        for (int level = marking.length; level > 0 && node != ZERO; level--) {
+            long tokens = marking[level - 1];
+            node = (tokens < children[node].length) ? children[node][(int) tokens] : ZERO;
+        }
+        return node == ONE;
+    }
+
+    /**
+     * Picks some marking from a non-empty set.
+     *
+     * @param node A node on the level equal to the number of places.
+     * @return the tokens by place ordinal.
+     */
+    long[] pick(int node) {
+        long[] marking = new long[levels[node]];
+        while (node != ONE) {
+            int[] c = children[node];
+            int i = 0;
+            while (c[i] == ZERO) {
+                i++;
+            }
+            marking[levels[node] - 1] = i;
+            node = c[i];
+        }
+        return marking;
+    }
+}
@@ -5,9 +5,11 @@
  */
 package monalisa.addons.reachability.algorithms;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import monalisa.addons.reachability.Marking;
 import monalisa.addons.reachability.Pathfinder;
 import monalisa.addons.reachability.ReachabilityEdge;
 import monalisa.addons.reachability.ReachabilityEvent;
@@ -26,19 +28,34 @@ public class FullCoverability extends AbstractReachabilityAlgorithm {
 
     private static final Logger LOGGER = LogManager.getLogger(FullCoverability.class);
 
+    private final int threads;
+
     public FullCoverability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target) {
+        this(pf, marking, target, 1);
+    }
+
+    /**
+     * @param threads The number of threads to expand the graph with. With
+     * more than one thread, each breadth first level is expanded in parallel.
+     */
+    public FullCoverability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target, int threads) {
         super(pf, marking, target);
+        this.threads = threads;
     }
 
     @Override
     public void run() {
+        if (threads > 1) {
+            runParallel();
+            return;
+        }
         LOGGER.info("Starting Full Coverability Algorithm");
         fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
         int counter = 0;
-        HashSet<ReachabilityNode> vertices = new HashSet<>();
+        StateStore vertices = new StateStore();
         HashSet<ReachabilityEdge> edges = new HashSet<>();
-        ArrayList<ReachabilityNode> workingList = new ArrayList<>();
-        ReachabilityNode root = new ReachabilityNode(marking, null);
+        ArrayDeque<ReachabilityNode> workingList = new ArrayDeque<>();
+        ReachabilityNode root = new ReachabilityNode(pf.toMarking(marking), null);
         vertices.add(root);
         workingList.add(root);
         while (!workingList.isEmpty() && !isInterrupted()) {
@@ -48,33 +65,33 @@ public class FullCoverability extends AbstractReachabilityAlgorithm {
                 fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
             }
             // get a node to expand
-            ReachabilityNode workingNode = workingList.get(0);
-            workingList.remove(workingNode);
-            HashSet<Transition> activeTransitions = pf.computeActive(workingNode.getMarking());
+            ReachabilityNode workingNode = workingList.poll();
+            BitSet activeTransitions = takeEnabled(workingNode);
 
-            for (Transition t : activeTransitions) {
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                Transition t = pf.getTransition(i);
                 LOGGER.debug("Created new node by firing transition " + t.getProperty("name") + ".");  // debug                
                 // compute new marking
-                HashMap<Place, Long> mNew = pf.computeOmegaMarking(workingNode.getMarking(), t);
-                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode);
+                Marking mNew = pf.computeOmegaMarking(workingNode.getMarking(), i);
+                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode, t);
                 ReachabilityNode mBack = workingNode;
                 while ((mBack != null) && (!newNode.largerThan(mBack))) {
                     mBack = mBack.getPrev();
                 }
                 if (mBack != null) {
-                    newNode = new ReachabilityNode(pf.omegaComputation(workingNode.getMarking(), newNode.getMarking()), workingNode);
+                    newNode = new ReachabilityNode(pf.omegaComputation(workingNode.getMarking(), newNode.getMarking()), workingNode, t);
                 }
-                edges.add(new ReachabilityEdge(workingNode, newNode, t));
-                boolean unvisited = true;
-                for (ReachabilityNode v : vertices) {
-                    if (v.equals(newNode)) {
-                        unvisited = false;
+                ReachabilityNode v = vertices.get(newNode.getMarking());
+                if (v == null) {
+                    v = newNode;
+                    // Omega places spoil the incremental update, the set is computed on expansion instead.
+                    if (mBack == null) {
+                        newNode.setEnabled(pf.updateEnabled(activeTransitions, mNew, i));
                     }
-                }
-                if (unvisited) {
                     vertices.add(newNode);
                     workingList.add(newNode);
                 }
+                edges.add(new ReachabilityEdge(workingNode, v, t));
             }
         }
         if (isInterrupted()) {
@@ -82,11 +99,38 @@ public class FullCoverability extends AbstractReachabilityAlgorithm {
             fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
         } else {
             LOGGER.info("Completed creation of Coverability Graph. Size is " + vertices.size());
-            g = new ReachabilityGraph(vertices, edges);
+            g = new ReachabilityGraph(vertices.getNodes(), edges);
             fireReachabilityUpdate(ReachabilityEvent.Status.FINISHED, counter, null);
         }
     }
 
+    private void runParallel() {
+        LOGGER.info("Starting Full Coverability Algorithm on " + threads + " threads");
+        fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
+        ParallelFrontierExpansion expansion = new ParallelFrontierExpansion(this, pf, threads);
+        boolean completed = expansion.expand(new ReachabilityNode(pf.toMarking(marking), null), (node, i) -> {
+            Marking mNew = pf.computeOmegaMarking(node.getMarking(), i);
+            ReachabilityNode newNode = new ReachabilityNode(mNew, node, pf.getTransition(i));
+            ReachabilityNode mBack = node;
+            while ((mBack != null) && (!newNode.largerThan(mBack))) {
+                mBack = mBack.getPrev();
+            }
+            if (mBack != null) {
+                newNode = new ReachabilityNode(pf.omegaComputation(node.getMarking(), mNew), node, pf.getTransition(i));
+                newNode.setEnabled(pf.computeEnabled(newNode.getMarking()));
+            }
+            return newNode;
+        });
+        if (isInterrupted()) {
+            LOGGER.warn("Execution has been aborted.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, expansion.getCounter(), null);
+        } else {
+            LOGGER.info("Completed creation of Coverability Graph. Size is " + expansion.getVertexCount());
+            g = new ReachabilityGraph(expansion.getVertices(), expansion.getEdges());
+            fireReachabilityUpdate(ReachabilityEvent.Status.FINISHED, expansion.getCounter(), null);
+        }
+    }
+
     @Override
     public void computePriority(ReachabilityNode node) {
         // Does not use a priority.
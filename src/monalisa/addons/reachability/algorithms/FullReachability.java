@@ -5,9 +5,13 @@
  */
 package monalisa.addons.reachability.algorithms;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import monalisa.addons.reachability.MappedStateStore;
+import monalisa.addons.reachability.Marking;
 import monalisa.addons.reachability.Pathfinder;
 import monalisa.addons.reachability.ReachabilityEdge;
 import monalisa.addons.reachability.ReachabilityEvent;
@@ -26,20 +30,56 @@ public class FullReachability extends AbstractReachabilityAlgorithm {
 
     private static final Logger LOGGER = LogManager.getLogger(FullReachability.class);
 
+    private final int threads;
+    private final long heapBudget;
+
     public FullReachability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target) {
+        this(pf, marking, target, 1);
+    }
+
+    /**
+     * @param threads The number of threads to expand the graph with. With
+     * more than one thread, each breadth first level is expanded in parallel.
+     */
+    public FullReachability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target, int threads) {
+        this(pf, marking, target, threads, -1);
+    }
+
+    /**
+     * @param threads The number of threads to expand the graph with. With
+     * more than one thread, each breadth first level is expanded in parallel.
+     * @param heapBudget If not negative, the graph is built in a
+     * {@link MappedStateStore} that spills to disk once this many bytes have
+     * been allocated on the heap. The store is filled in the order of its
+     * state ids, so it is always built on a single thread and the threads are
+     * ignored.
+     */
+    public FullReachability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target, int threads, long heapBudget) {
         super(pf, marking, target);
+        this.threads = threads;
+        this.heapBudget = heapBudget;
     }
 
     @Override
     public void run() {
+        if (heapBudget >= 0) {
+            runStored();
+            return;
+        }
+        if (threads > 1) {
+            runParallel();
+            return;
+        }
         LOGGER.info("Starting Full Reachability Algorithm");
         fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
         int counter = 0;
-        HashSet<ReachabilityNode> vertices = new HashSet<>();
+        StateStore vertices = new StateStore();
         HashSet<ReachabilityEdge> edges = new HashSet<>();
         // begin expanding the reachability graph from m0
-        ArrayList<ReachabilityNode> workingList = new ArrayList<>();
-        workingList.add(new ReachabilityNode(marking, null));
+        ArrayDeque<ReachabilityNode> workingList = new ArrayDeque<>();
+        ReachabilityNode root = new ReachabilityNode(pf.toMarking(marking), null);
+        vertices.add(root);
+        workingList.add(root);
         while (!workingList.isEmpty() && !isInterrupted()) {
             LOGGER.debug("Starting expansion for a new node."); // debug
             counter += 1;
@@ -47,13 +87,13 @@ public class FullReachability extends AbstractReachabilityAlgorithm {
                 fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
             }
             // get a node to expand
-            ReachabilityNode workingNode = workingList.get(0);
-            workingList.remove(workingNode);
-            HashSet<Transition> activeTransitions = pf.computeActive(workingNode.getMarking());
-            for (Transition t : activeTransitions) {
+            ReachabilityNode workingNode = workingList.poll();
+            BitSet activeTransitions = takeEnabled(workingNode);
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                Transition t = pf.getTransition(i);
                 // compute new marking
-                HashMap<Place, Long> mNew = pf.computeMarking(workingNode.getMarking(), t);
-                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode);
+                Marking mNew = pf.computeMarking(workingNode.getMarking(), i);
+                ReachabilityNode newNode = new ReachabilityNode(mNew, workingNode, t);
                 // Check for boundedness
                 ReachabilityNode mBack = workingNode;
                 while ((mBack != null) && (!newNode.largerThan(mBack))) {
@@ -64,17 +104,14 @@ public class FullReachability extends AbstractReachabilityAlgorithm {
                     fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
                     return;
                 } else {
-                    edges.add(new ReachabilityEdge(workingNode, newNode, t));
-                    boolean unvisited = true;
-                    for (ReachabilityNode v : vertices) {
-                        if (v.equals(newNode)) {
-                            unvisited = false;
-                        }
-                    }
-                    if (unvisited) {
+                    ReachabilityNode v = vertices.get(mNew);
+                    if (v == null) {
+                        v = newNode;
                         vertices.add(newNode);
+                        newNode.setEnabled(pf.updateEnabled(activeTransitions, mNew, i));
                         workingList.add(newNode);
                     }
+                    edges.add(new ReachabilityEdge(workingNode, v, t));
                 }
             }
         }
@@ -83,21 +120,102 @@ public class FullReachability extends AbstractReachabilityAlgorithm {
             fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
         } else {
             LOGGER.info("Completed creation of Reachability Graph.");
-            g = new ReachabilityGraph(vertices, edges);
+            g = new ReachabilityGraph(vertices.getNodes(), edges);
+            fireReachabilityUpdate(ReachabilityEvent.Status.FINISHED, counter, null);
+        }
+    }
+
+    private void runStored() {
+        LOGGER.info("Starting Full Reachability Algorithm on a state store");
+        if (threads > 1) {
+            LOGGER.warn("The state store is filled sequentially, ignoring the request for " + threads + " threads.");
+        }
+        fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
+        int counter = 0;
+        MappedStateStore store = null;
+        try {
+            store = new MappedStateStore(pf, heapBudget);
+            store.putIfAbsent(pf.toMarking(marking), -1, -1);
+            // States are numbered in discovery order, so the ids form the working list.
+            for (int id = 0; id < store.size() && !isInterrupted(); id++) {
+                counter += 1;
+                if (counter % 100 == 0) {
+                    fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
+                }
+                Marking workingMarking = store.getMarking(id);
+                BitSet activeTransitions = pf.computeEnabled(workingMarking);
+                for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                    Marking mNew = pf.computeMarking(workingMarking, i);
+                    // Check for boundedness
+                    int back = id;
+                    while ((back >= 0) && (!store.largerThan(mNew, back))) {
+                        back = store.getPrev(back);
+                    }
+                    if (back >= 0) {
+                        LOGGER.error("Graph has been determined to be unbounded. Aborting algorithm.");
+                        store.close();
+                        fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
+                        return;
+                    }
+                    int v = store.putIfAbsent(mNew, id, i);
+                    store.addEdge(id, (v < 0) ? store.size() - 1 : v, i);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("State store could not be extended. Aborting algorithm.", e);
+            if (store != null) {
+                store.close();
+            }
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
+            return;
+        }
+        if (isInterrupted()) {
+            LOGGER.warn("Execution has been aborted.");
+            store.close();
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
+        } else {
+            LOGGER.info("Completed creation of Reachability Graph with " + store.size() + " states and " + store.getEdgeCount() + " edges.");
+            g = new ReachabilityGraph(store);
             fireReachabilityUpdate(ReachabilityEvent.Status.FINISHED, counter, null);
         }
     }
 
+    private void runParallel() {
+        LOGGER.info("Starting Full Reachability Algorithm on " + threads + " threads");
+        fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
+        ParallelFrontierExpansion expansion = new ParallelFrontierExpansion(this, pf, threads);
+        boolean completed = expansion.expand(new ReachabilityNode(pf.toMarking(marking), null), (node, i) -> {
+            ReachabilityNode newNode = new ReachabilityNode(pf.computeMarking(node.getMarking(), i), node, pf.getTransition(i));
+            // Check for boundedness
+            ReachabilityNode mBack = node;
+            while ((mBack != null) && (!newNode.largerThan(mBack))) {
+                mBack = mBack.getPrev();
+            }
+            return (mBack == null) ? newNode : null;
+        });
+        if (isInterrupted()) {
+            LOGGER.warn("Execution has been aborted.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, expansion.getCounter(), null);
+        } else if (!completed) {
+            LOGGER.error("Graph has been determined to be unbounded. Aborting algorithm.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, expansion.getCounter(), null);
+        } else {
+            LOGGER.info("Completed creation of Reachability Graph.");
+            g = new ReachabilityGraph(expansion.getVertices(), expansion.getEdges());
+            fireReachabilityUpdate(ReachabilityEvent.Status.FINISHED, expansion.getCounter(), null);
+        }
+    }
+
     protected static void testprint_larger(ReachabilityNode newNode, ReachabilityNode mBack) {
         LOGGER.info(newNode.largerThan(mBack));
-        for (Place p : newNode.getMarking().keySet()) {
-            LOGGER.warn(p.getProperty("name") + "\t" + newNode.getMarking().get(p) + "\t" + mBack.getMarking().get(p));
+        for (int i = 0; i < newNode.getMarking().size(); i++) {
+            LOGGER.warn(i + "\t" + newNode.getMarking().get(i) + "\t" + mBack.getMarking().get(i));
         }
     }
 
     protected static void testprint_marking(ReachabilityNode newNode) {
-        for (Place p : newNode.getMarking().keySet()) {
-            LOGGER.warn(p.getProperty("name") + "\t" + newNode.getMarking().get(p));
+        for (int i = 0; i < newNode.getMarking().size(); i++) {
+            LOGGER.warn(i + "\t" + newNode.getMarking().get(i));
         }
     }
 
@@ -0,0 +1,309 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import monalisa.addons.reachability.Marking;
+import monalisa.addons.reachability.Pathfinder;
+import monalisa.addons.reachability.ReachabilityEdge;
+import monalisa.addons.reachability.ReachabilityEvent;
+import monalisa.addons.reachability.ReachabilityGraph;
+import monalisa.addons.reachability.ReachabilityNode;
+import monalisa.data.pn.Place;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Computes the minimal coverability set of a Petri net with the Karp-Miller
+ * algorithm with pruning (MP) by Reynier and Servais. Nodes of the Karp-Miller
+ * tree are deactivated together with their subtrees as soon as a newly added
+ * node covers them, so the set of active nodes is an antichain and equals the
+ * minimal coverability set once the tree is complete.
+ *
+ * Searching the ancestors of a node for smaller markings is backed by an
+ * index over the ancestor path: every node stores the place-wise minimum of
+ * the markings on aligned blocks of 2^j of its ancestors together with jump
+ * pointers to the first node above each block. Blocks whose minimum is not
+ * covered by the marking in question are skipped as a whole.
+ *
+ * The resulting graph contains the nodes of the minimal coverability set and
+ * the tree edges between them.
+ */
+public class MinimalCoverability extends AbstractReachabilityAlgorithm {
+
+    private static final Logger LOGGER = LogManager.getLogger(MinimalCoverability.class);
+
+    public MinimalCoverability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target) {
+        super(pf, marking, target);
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("Starting Minimal Coverability Algorithm");
+        fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
+        int counter = 0;
+        List<CoverNode> active = new ArrayList<>();
+        ArrayDeque<CoverNode> workingList = new ArrayDeque<>();
+        CoverNode root = new CoverNode(pf.toMarking(marking).toArray(), null, -1);
+        activate(root, active);
+        workingList.add(root);
+        while (!workingList.isEmpty() && !isInterrupted()) {
+            CoverNode workingNode = workingList.poll();
+            if (!workingNode.active) {
+                continue;
+            }
+            counter += 1;
+            if (counter % 100 == 0) {
+                fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
+            }
+            BitSet activeTransitions = pf.computeEnabled(new Marking(workingNode.marking));
+            for (int i = activeTransitions.nextSetBit(0); i >= 0 && workingNode.active; i = activeTransitions.nextSetBit(i + 1)) {
+                long[] mNew = pf.computeOmegaMarking(new Marking(workingNode.marking), i).toArray();
+                if (isCovered(mNew, active)) {
+                    continue;
+                }
+                accelerate(workingNode, mNew);
+                CoverNode newNode = new CoverNode(mNew, workingNode, i);
+                prune(newNode, active);
+                activate(newNode, active);
+                workingList.add(newNode);
+            }
+        }
+        if (isInterrupted()) {
+            LOGGER.warn("Execution has been aborted.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, counter, null);
+        } else {
+            LOGGER.info("Completed creation of minimal coverability set. Size is " + active.size());
+            g = toGraph(active);
+            fireReachabilityUpdate(ReachabilityEvent.Status.FINISHED, counter, null);
+        }
+    }
+
+    /**
+     * Checks whether an active node covers the marking.
+     */
+    private boolean isCovered(long[] m, List<CoverNode> active) {
+        int omegas = countOmegas(m);
+        for (CoverNode x : active) {
+            if (x.omegas >= omegas && leq(m, x.marking)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accelerates the marking with respect to all active ancestors of the
+     * parent it covers, until no further omega is introduced.
+     */
+    private void accelerate(CoverNode parent, long[] m) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            List<CoverNode> smaller = new ArrayList<>();
+            findAncestors(parent, m, y -> {
+                if (y.active) {
+                    smaller.add(y);
+                }
+                return false;
+            });
+            for (CoverNode y : smaller) {
+                for (int p = 0; p < m.length; p++) {
+                    if (y.marking[p] < m[p] && m[p] != Marking.OMEGA) {
+                        m[p] = Marking.OMEGA;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deactivates every active node x that has an ancestor y (x itself
+     * included) covered by the new node, where y is either active or not an
+     * ancestor of the new node.
+     */
+    private void prune(CoverNode newNode, List<CoverNode> active) {
+        CoverNode parent = newNode.parent;
+        for (int k = active.size() - 1; k >= 0; k--) {
+            CoverNode x = active.get(k);
+            boolean dominated = findAncestors(x, newNode.marking,
+                    y -> y.active || !isAncestor(y, parent));
+            if (dominated) {
+                // Nodes moved into position k have been checked already.
+                deactivate(x, active);
+            }
+        }
+    }
+
+    /**
+     * Visits all ancestors of the node, the node included, whose marking is
+     * covered by m, until the visitor returns true.
+     *
+     * @return true, if the visitor returned true
+     */
+    private static boolean findAncestors(CoverNode node, long[] m, Predicate<CoverNode> visitor) {
+        if (!leq(node.pathMin, m)) {
+            return false;
+        }
+        CoverNode x = node;
+        while (x != null) {
+            int level = x.min.length - 1;
+            if (findInBlock(x, level, m, visitor)) {
+                return true;
+            }
+            x = (x.depth == 0) ? null : x.jump[level];
+        }
+        return false;
+    }
+
+    private static boolean findInBlock(CoverNode x, int level, long[] m, Predicate<CoverNode> visitor) {
+        if (!leq(x.min[level], m)) {
+            return false;
+        }
+        if (level == 0) {
+            return visitor.test(x);
+        }
+        return findInBlock(x, level - 1, m, visitor)
+                || findInBlock(x.jump[level - 1], level - 1, m, visitor);
+    }
+
+    /**
+     * Checks whether y is an ancestor of x, x itself included.
+     */
+    private static boolean isAncestor(CoverNode y, CoverNode x) {
+        while (x != null && x.depth > y.depth) {
+            int level = x.jump.length - 1;
+            while ((x.depth - (1 << level)) < y.depth) {
+                level--;
+            }
+            x = x.jump[level];
+        }
+        return x == y;
+    }
+
+    private static boolean leq(long[] a, long[] b) {
+        for (int p = 0; p < a.length; p++) {
+            if (a[p] > b[p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countOmegas(long[] m) {
+        int omegas = 0;
+        for (long token : m) {
+            if (token == Marking.OMEGA) {
+                omegas++;
+            }
+        }
+        return omegas;
+    }
+
+    private static void activate(CoverNode node, List<CoverNode> active) {
+        node.active = true;
+        node.index = active.size();
+        active.add(node);
+    }
+
+    private static void deactivate(CoverNode node, List<CoverNode> active) {
+        CoverNode last = active.remove(active.size() - 1);
+        if (last != node) {
+            active.set(node.index, last);
+            last.index = node.index;
+        }
+        node.active = false;
+    }
+
+    private ReachabilityGraph toGraph(List<CoverNode> active) {
+        HashSet<ReachabilityNode> vertices = new HashSet<>();
+        HashSet<ReachabilityEdge> edges = new HashSet<>();
+        Map<CoverNode, ReachabilityNode> nodes = new IdentityHashMap<>();
+        // Parents before children, so predecessors exist when a node is created.
+        List<CoverNode> sorted = new ArrayList<>(active);
+        sorted.sort((a, b) -> Integer.compare(a.depth, b.depth));
+        for (CoverNode x : sorted) {
+            ReachabilityNode prev = (x.parent == null) ? null : nodes.get(x.parent);
+            ReachabilityNode node = new ReachabilityNode(new Marking(x.marking), prev,
+                    (prev == null) ? null : pf.getTransition(x.transition));
+            nodes.put(x, node);
+            vertices.add(node);
+            if (prev != null) {
+                edges.add(new ReachabilityEdge(prev, node, pf.getTransition(x.transition)));
+            }
+        }
+        return new ReachabilityGraph(vertices, edges);
+    }
+
+    @Override
+    public void computePriority(ReachabilityNode node) {
+        // Does not use a priority.
+    }
+
+    /**
+     * Node of the Karp-Miller tree.
+     */
+    private static final class CoverNode {
+
+        private final long[] marking;
+        private final CoverNode parent;
+        private final int transition;
+        private final int depth;
+        private final int omegas;
+        // Place-wise minimum over the markings of this node and all ancestors
+        private final long[] pathMin;
+        // jump[j] is the ancestor 2^j levels above, min[j] the place-wise
+        // minimum over this node and the 2^j - 1 ancestors below jump[j].
+        private final CoverNode[] jump;
+        private final long[][] min;
+        private boolean active = false;
+        private int index;
+
+        CoverNode(long[] marking, CoverNode parent, int transition) {
+            this.marking = marking;
+            this.parent = parent;
+            this.transition = transition;
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+            this.omegas = countOmegas(marking);
+            int levels = (depth == 0) ? 1 : Integer.numberOfTrailingZeros(depth) + 1;
+            this.jump = new CoverNode[(depth == 0) ? 0 : levels];
+            this.min = new long[levels][];
+            this.min[0] = marking;
+            if (parent != null) {
+                jump[0] = parent;
+                for (int j = 1; j < levels; j++) {
+                    CoverNode half = jump[j - 1];
+                    jump[j] = half.jump[j - 1];
+                    min[j] = minimum(min[j - 1], half.min[j - 1]);
+                }
+                this.pathMin = minimum(marking, parent.pathMin);
+            } else {
+                this.pathMin = marking;
+            }
+        }
+
+        private static long[] minimum(long[] a, long[] b) {
+            long[] result = new long[a.length];
+            for (int p = 0; p < a.length; p++) {
+                result[p] = Math.min(a[p], b[p]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import monalisa.addons.reachability.ReachabilityNode;
+
+/**
+ * Indexed binary min-heap of reachability nodes ordered by their priority.
+ * Nodes of equal priority are polled in the order they were added or last
+ * updated, which matches the former sorted list insertion via findPos.
+ */
+final class NodeQueue {
+
+    private ReachabilityNode[] heap = new ReachabilityNode[64];
+    private long[] order = new long[64];
+    private final Map<ReachabilityNode, Integer> positions = new IdentityHashMap<>();
+    private int size = 0;
+    private long counter = 0;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(ReachabilityNode node) {
+        return positions.containsKey(node);
+    }
+
+    /**
+     * Adds a node using its current priority.
+     */
+    void add(ReachabilityNode node) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+            order = Arrays.copyOf(order, size * 2);
+        }
+        heap[size] = node;
+        order[size] = counter++;
+        positions.put(node, size);
+        siftUp(size++);
+    }
+
+    /**
+     * Removes and returns the node with the lowest priority value.
+     */
+    ReachabilityNode poll() {
+        if (size == 0) {
+            return null;
+        }
+        ReachabilityNode first = heap[0];
+        positions.remove(first);
+        size--;
+        if (size > 0) {
+            move(size, 0);
+            siftDown(0);
+        }
+        heap[size] = null;
+        return first;
+    }
+
+    /**
+     * Restores the heap order after the priority of a queued node changed. The
+     * node is placed behind all queued nodes of the same priority.
+     */
+    void update(ReachabilityNode node) {
+        Integer pos = positions.get(node);
+        if (pos == null) {
+            return;
+        }
+        order[pos] = counter++;
+        siftDown(siftUp(pos));
+    }
+
+    private boolean less(int i, int j) {
+        double pi = heap[i].getPriority();
+        double pj = heap[j].getPriority();
+        return pi < pj || (pi == pj && order[i] < order[j]);
+    }
+
+    private int siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!less(pos, parent)) {
+                break;
+            }
+            swap(pos, parent);
+            pos = parent;
+        }
+        return pos;
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && less(child + 1, child)) {
+                child++;
+            }
+            if (!less(child, pos)) {
+                return;
+            }
+            swap(pos, child);
+            pos = child;
+        }
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        order[to] = order[from];
+        positions.put(heap[to], to);
+    }
+
+    private void swap(int i, int j) {
+        ReachabilityNode node = heap[i];
+        long o = order[i];
+        heap[i] = heap[j];
+        order[i] = order[j];
+        heap[j] = node;
+        order[j] = o;
+        positions.put(heap[i], i);
+        positions.put(heap[j], j);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import monalisa.addons.reachability.Pathfinder;
+import monalisa.addons.reachability.ReachabilityEdge;
+import monalisa.addons.reachability.ReachabilityEvent;
+import monalisa.addons.reachability.ReachabilityNode;
+
+/**
+ * Level synchronous breadth first construction of a reachability or
+ * coverability graph. All nodes of a level are expanded in parallel on a
+ * fork-join pool and deduplicated against a {@link ConcurrentStateTable}.
+ * Edges and the nodes of the next level are merged in frontier order, so the
+ * resulting graph, including the predecessor of every node, is the same as
+ * the one built by the sequential algorithms.
+ */
+final class ParallelFrontierExpansion {
+
+    /**
+     * Computes the successors of a node.
+     */
+    interface Successors {
+
+        /**
+         * Computes the node reached by firing a transition. The predecessor of
+         * the returned node has to be the expanded node.
+         *
+         * @param node the node being expanded
+         * @param t the ordinal of the transition to fire
+         * @return the node reached, or null if the construction has to be
+         * aborted
+         */
+        ReachabilityNode fire(ReachabilityNode node, int t);
+    }
+
+    // Below this number of nodes a frontier segment is expanded by a single task.
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private final AbstractReachabilityAlgorithm algorithm;
+    private final Pathfinder pf;
+    private final int threads;
+    private final ConcurrentStateTable vertices;
+    private final HashSet<ReachabilityEdge> edges = new HashSet<>();
+    private volatile boolean aborted = false;
+    private int counter = 0;
+
+    ParallelFrontierExpansion(AbstractReachabilityAlgorithm algorithm, Pathfinder pf, int threads) {
+        this.algorithm = algorithm;
+        this.pf = pf;
+        this.threads = threads;
+        this.vertices = new ConcurrentStateTable(threads);
+    }
+
+    /**
+     * Builds the graph reachable from the root.
+     *
+     * @return true, if the graph has been completed, false if it has been
+     * aborted by the successor function or by interrupting the algorithm
+     */
+    boolean expand(ReachabilityNode root, Successors successors) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            vertices.offer(root, 0, 0);
+            List<ReachabilityNode> frontier = new ArrayList<>();
+            frontier.add(root);
+            int level = 0;
+            while (!frontier.isEmpty()) {
+                level++;
+                ExpandTask task = new ExpandTask(frontier, successors, level);
+                pool.invoke(task);
+                if (aborted || algorithm.isInterrupted()) {
+                    return false;
+                }
+                List<ConcurrentStateTable.Entry> discovered = new ArrayList<>();
+                for (int j = 0; j < frontier.size(); j++) {
+                    counter += 1;
+                    if (counter % 100 == 0) {
+                        algorithm.fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, counter, null);
+                    }
+                    edges.addAll(task.edges.get(j));
+                    discovered.addAll(task.discovered.get(j));
+                }
+                // Discovery keys are final now, they give the order of the sequential search.
+                discovered.sort((a, b) -> Long.compare(a.key, b.key));
+                frontier = new ArrayList<>(discovered.size());
+                for (ConcurrentStateTable.Entry entry : discovered) {
+                    frontier.add(entry.node);
+                }
+            }
+            return true;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    HashSet<ReachabilityNode> getVertices() {
+        return vertices.getNodes();
+    }
+
+    int getVertexCount() {
+        return vertices.size();
+    }
+
+    HashSet<ReachabilityEdge> getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return the number of expanded nodes.
+     */
+    int getCounter() {
+        return counter;
+    }
+
+    private final class ExpandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 3418843520571264082L;
+        private final List<ReachabilityNode> frontier;
+        private final Successors successors;
+        private final int level;
+        private final int from;
+        private final int to;
+        // Results by frontier index; each index is only written by the task expanding it.
+        private final List<List<ReachabilityEdge>> edges;
+        private final List<List<ConcurrentStateTable.Entry>> discovered;
+
+        ExpandTask(List<ReachabilityNode> frontier, Successors successors, int level) {
+            this(frontier, successors, level, 0, frontier.size(),
+                    new ArrayList<>(Collections.nCopies(frontier.size(), null)),
+                    new ArrayList<>(Collections.nCopies(frontier.size(), null)));
+        }
+
+        private ExpandTask(List<ReachabilityNode> frontier, Successors successors, int level, int from, int to,
+                List<List<ReachabilityEdge>> edges, List<List<ConcurrentStateTable.Entry>> discovered) {
+            this.frontier = frontier;
+            this.successors = successors;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.edges = edges;
+            this.discovered = discovered;
+        }
+
+        @Override
+        protected void compute() {
+            int threshold = Math.max(SEQUENTIAL_THRESHOLD, frontier.size() / (threads * 8));
+            if (to - from > threshold) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ExpandTask(frontier, successors, level, from, mid, edges, discovered),
+                        new ExpandTask(frontier, successors, level, mid, to, edges, discovered));
+                return;
+            }
+            for (int j = from; j < to; j++) {
+                if (aborted || algorithm.isInterrupted()) {
+                    return;
+                }
+                expandNode(j);
+            }
+        }
+
+        private void expandNode(int j) {
+            ReachabilityNode workingNode = frontier.get(j);
+            List<ReachabilityEdge> out = new ArrayList<>();
+            List<ConcurrentStateTable.Entry> found = new ArrayList<>();
+            BitSet activeTransitions = algorithm.takeEnabled(workingNode);
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                ReachabilityNode newNode = successors.fire(workingNode, i);
+                if (newNode == null) {
+                    aborted = true;
+                    return;
+                }
+                ConcurrentStateTable.Entry entry = vertices.offer(newNode, level, ((long) j << 32) | i);
+                if (entry.node == newNode) {
+                    if (newNode.getEnabled() == null) {
+                        newNode.setEnabled(pf.updateEnabled(activeTransitions, newNode.getMarking(), i));
+                    }
+                    found.add(entry);
+                }
+                out.add(new ReachabilityEdge(workingNode, entry.node, pf.getTransition(i)));
+            }
+            edges.set(j, out);
+            discovered.set(j, found);
+        }
+    }
+}
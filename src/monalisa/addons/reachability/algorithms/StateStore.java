@@ -0,0 +1,49 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import monalisa.addons.reachability.Marking;
+import monalisa.addons.reachability.ReachabilityNode;
+
+/**
+ * Hash based set of all nodes seen during a search, keyed on their marking.
+ */
+final class StateStore {
+
+    private final Map<Marking, ReachabilityNode> nodes = new HashMap<>();
+
+    /**
+     * Returns the node stored for the given marking, or null if the marking has
+     * not been seen yet.
+     */
+    ReachabilityNode get(Marking marking) {
+        return nodes.get(marking);
+    }
+
+    /**
+     * Stores a node unless a node with the same marking is already known.
+     *
+     * @return true, if the node has been added
+     */
+    boolean add(ReachabilityNode node) {
+        return nodes.putIfAbsent(node.getMarking(), node) == null;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    HashSet<ReachabilityNode> getNodes() {
+        return new HashSet<>(nodes.values());
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.reachability.algorithms;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+import monalisa.addons.reachability.Marking;
+import monalisa.addons.reachability.Pathfinder;
+import monalisa.addons.reachability.ReachabilityEdge;
+import monalisa.addons.reachability.ReachabilityEvent;
+import monalisa.addons.reachability.ReachabilityGraph;
+import monalisa.addons.reachability.ReachabilityNode;
+import monalisa.data.pn.Place;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Computes the set of reachable markings of a bounded Petri net symbolically
+ * as a {@link DecisionDiagram} with the saturation algorithm by Ciardo et al.
+ * Every transition is applied exhaustively to the nodes on the highest level
+ * it affects, starting from the bottom of the diagram, so nodes are only
+ * checked into the forest once they are closed under all transitions that
+ * do not reach above them.
+ *
+ * The number of reachable markings, the existence of deadlocks and the
+ * reachability of the target marking are determined on the diagram without
+ * enumerating markings. If there are at most {@link #EXPLICIT_LIMIT}
+ * reachable markings, the reachability graph is built explicitly as well, so a
+ * path to the target marking can be reported.
+ */
+public class SymbolicReachability extends AbstractReachabilityAlgorithm {
+
+    private static final Logger LOGGER = LogManager.getLogger(SymbolicReachability.class);
+
+    /**
+     * Largest number of reachable markings for which the reachability graph
+     * is built explicitly.
+     */
+    public static final int EXPLICIT_LIMIT = 100000;
+
+    // Largest token count a place may carry before the net is given up as unbounded.
+    private static final int MAX_TOKENS = 1 << 16;
+
+    private static final int OP_FIRE = 1;
+    private static final int OP_DISABLED = 2;
+
+    private final DecisionDiagram dd = new DecisionDiagram();
+    // Levels affected by each transition from top to bottom, with the arc weights and capacities there
+    private int[][] eventLevels;
+    private int[][] eventPre;
+    private int[][] eventPost;
+    private long[][] eventCapacity;
+    // Transitions by the highest level they affect
+    private int[][] eventsByTop;
+    private int nextProgress;
+
+    private BigInteger stateCount;
+    private BigInteger deadlockCount;
+    private Marking deadlock;
+    private boolean targetReachable;
+
+    public SymbolicReachability(Pathfinder pf, HashMap<Place, Long> marking, HashMap<Place, Long> target) {
+        super(pf, marking, target);
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("Starting Symbolic Reachability Algorithm");
+        fireReachabilityUpdate(ReachabilityEvent.Status.STARTED, 0, null);
+        int reachable;
+        try {
+            compileEvents();
+            nextProgress = 1000;
+            long[] initial = pf.toMarking(marking).toArray();
+            // Saturate the initial marking bottom up.
+            reachable = DecisionDiagram.ONE;
+            for (int level = 1; level <= initial.length; level++) {
+                if (initial[level - 1] > MAX_TOKENS) {
+                    throw new Abort("Start marking exceeds " + MAX_TOKENS + " tokens on a place.");
+                }
+                Buffer s = new Buffer();
+                s.set((int) initial[level - 1], reachable);
+                saturate(level, s);
+                reachable = s.checkIn(level);
+            }
+        } catch (Abort e) {
+            if (!isInterrupted()) {
+                LOGGER.error(e.getMessage() + " Aborting algorithm.");
+            } else {
+                LOGGER.warn("Execution has been aborted.");
+            }
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, dd.size(), null);
+            return;
+        }
+        stateCount = dd.count(reachable);
+        int dead = reachable;
+        for (int e = 0; e < eventLevels.length && dead != DecisionDiagram.ZERO; e++) {
+            dead = disabled(e, dead, pf.getPlaceCount(), 0);
+        }
+        deadlockCount = dd.count(dead);
+        deadlock = (dead != DecisionDiagram.ZERO) ? new Marking(dd.pick(dead)) : null;
+        targetReachable = dd.contains(reachable, pf.toMarking(target).toArray());
+        LOGGER.info("Reachability set contains " + stateCount + " markings and " + deadlockCount
+                + " deadlocks, represented by " + dd.size() + " decision diagram nodes.");
+        if (stateCount.compareTo(BigInteger.valueOf(EXPLICIT_LIMIT)) <= 0) {
+            LOGGER.info("Building the reachability graph explicitly.");
+            buildGraph();
+        }
+        if (isInterrupted()) {
+            LOGGER.warn("Execution has been aborted.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.ABORTED, dd.size(), null);
+        } else if (targetReachable) {
+            LOGGER.info("Target marking is reachable from start marking.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.SUCCESS, dd.size(), (tar != null) ? backtrack() : null);
+        } else {
+            LOGGER.info("Target marking could not be reached from start marking.");
+            fireReachabilityUpdate(ReachabilityEvent.Status.FAILURE, dd.size(), null);
+        }
+    }
+
+    /**
+     * Splits the transitions into the local effects on the levels of their
+     * input and output places.
+     */
+    private void compileEvents() {
+        int transitions = pf.getTransitionCount();
+        int places = pf.getPlaceCount();
+        eventLevels = new int[transitions][];
+        eventPre = new int[transitions][];
+        eventPost = new int[transitions][];
+        eventCapacity = new long[transitions][];
+        List<List<Integer>> byTop = new ArrayList<>();
+        for (int level = 0; level <= places; level++) {
+            byTop.add(new ArrayList<>());
+        }
+        for (int t = 0; t < transitions; t++) {
+            // Weights by level in descending order
+            TreeMap<Integer, int[]> effect = new TreeMap<>((a, b) -> Integer.compare(b, a));
+            int[] inputs = pf.getInputPlaces(t);
+            int[] inputWeights = pf.getInputWeights(t);
+            for (int i = 0; i < inputs.length; i++) {
+                effect.computeIfAbsent(inputs[i] + 1, level -> new int[2])[0] += inputWeights[i];
+            }
+            int[] outputs = pf.getOutputPlaces(t);
+            int[] outputWeights = pf.getOutputWeights(t);
+            for (int i = 0; i < outputs.length; i++) {
+                effect.computeIfAbsent(outputs[i] + 1, level -> new int[2])[1] += outputWeights[i];
+            }
+            int n = effect.size();
+            eventLevels[t] = new int[n];
+            eventPre[t] = new int[n];
+            eventPost[t] = new int[n];
+            eventCapacity[t] = new long[n];
+            int pos = 0;
+            for (Integer level : effect.keySet()) {
+                eventLevels[t][pos] = level;
+                eventPre[t][pos] = effect.get(level)[0];
+                eventPost[t][pos] = effect.get(level)[1];
+                eventCapacity[t][pos] = pf.getCapacity(level - 1);
+                pos++;
+            }
+            // Transitions without arcs do not change the marking.
+            if (n > 0) {
+                byTop.get(eventLevels[t][0]).add(t);
+            }
+        }
+        eventsByTop = new int[places + 1][];
+        for (int level = 0; level <= places; level++) {
+            eventsByTop[level] = byTop.get(level).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Checks whether the tokens on the affected level with the given position
+     * allow a transition to fire.
+     */
+    private boolean isEnabled(int e, int pos, int tokens) {
+        if (tokens < eventPre[e][pos]) {
+            return false;
+        }
+        long capacity = eventCapacity[e][pos];
+        int post = eventPost[e][pos];
+        return capacity == 0 || post == 0 || tokens <= capacity - post;
+    }
+
+    private int fire(int e, int pos, int tokens) {
+        int result = tokens - eventPre[e][pos] + eventPost[e][pos];
+        if (result > MAX_TOKENS) {
+            throw new Abort("A place exceeded " + MAX_TOKENS + " tokens, the net is probably unbounded.");
+        }
+        return result;
+    }
+
+    /**
+     * Fires all transitions whose highest level is the level of the given
+     * node until no more markings are added. The children of the node must
+     * be saturated already.
+     */
+    private void saturate(int level, Buffer s) {
+        int[] events = eventsByTop[level];
+        boolean changed = true;
+        while (changed && events.length > 0) {
+            checkProgress();
+            changed = false;
+            for (int e : events) {
+                for (int i = 0; i < s.length; i++) {
+                    int child = s.get(i);
+                    if (child == DecisionDiagram.ZERO || !isEnabled(e, 0, i)) {
+                        continue;
+                    }
+                    int f = fire(e, child, level - 1, 1);
+                    if (f == DecisionDiagram.ZERO) {
+                        continue;
+                    }
+                    int j = fire(e, 0, i);
+                    int u = dd.union(f, s.get(j));
+                    if (u != s.get(j)) {
+                        s.set(j, u);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fires a transition once on the levels from the given one downwards and
+     * saturates the result.
+     *
+     * @param e The transition.
+     * @param q The set of markings on the lower levels.
+     * @param level The level of q.
+     * @param pos The position of the highest level affected by e that is not
+     * above the level of q.
+     * @return the saturated set of successors.
+     */
+    private int fire(int e, int q, int level, int pos) {
+        if (pos == eventLevels[e].length) {
+            return q;
+        }
+        int result = dd.lookup(OP_FIRE, q, e);
+        if (result >= 0) {
+            return result;
+        }
+        boolean affected = eventLevels[e][pos] == level;
+        Buffer s = new Buffer();
+        boolean changed = false;
+        for (int i = 0; i < dd.getWidth(q); i++) {
+            int child = dd.getChild(q, i);
+            if (child == DecisionDiagram.ZERO || (affected && !isEnabled(e, pos, i))) {
+                continue;
+            }
+            int f = fire(e, child, level - 1, affected ? pos + 1 : pos);
+            if (f == DecisionDiagram.ZERO) {
+                continue;
+            }
+            int j = affected ? fire(e, pos, i) : i;
+            int u = dd.union(f, s.get(j));
+            if (u != s.get(j)) {
+                s.set(j, u);
+                changed = true;
+            }
+        }
+        if (changed) {
+            saturate(level, s);
+        }
+        result = s.checkIn(level);
+        dd.store(OP_FIRE, q, e, result);
+        return result;
+    }
+
+    /**
+     * Restricts a set to the markings in which a transition is disabled.
+     */
+    private int disabled(int e, int q, int level, int pos) {
+        if (q == DecisionDiagram.ZERO || pos == eventLevels[e].length) {
+            return DecisionDiagram.ZERO;
+        }
+        int result = dd.lookup(OP_DISABLED, q, e);
+        if (result >= 0) {
+            return result;
+        }
+        boolean affected = eventLevels[e][pos] == level;
+        int[] c = new int[dd.getWidth(q)];
+        for (int i = 0; i < c.length; i++) {
+            int child = dd.getChild(q, i);
+            if (affected && !isEnabled(e, pos, i)) {
+                c[i] = child;
+            } else {
+                c[i] = disabled(e, child, level - 1, affected ? pos + 1 : pos);
+            }
+        }
+        result = dd.checkIn(level, c, c.length);
+        dd.store(OP_DISABLED, q, e, result);
+        return result;
+    }
+
+    private void checkProgress() {
+        if (isInterrupted()) {
+            throw new Abort("Execution has been interrupted.");
+        }
+        if (dd.size() >= nextProgress) {
+            nextProgress += 1000;
+            fireReachabilityUpdate(ReachabilityEvent.Status.PROGRESS, dd.size(), null);
+        }
+    }
+
+    /**
+     * Builds the reachability graph in breadth first order, so the path to
+     * the target marking is a shortest one.
+     */
+    private void buildGraph() {
+        StateStore vertices = new StateStore();
+        HashSet<ReachabilityEdge> edges = new HashSet<>();
+        ArrayDeque<ReachabilityNode> workingList = new ArrayDeque<>();
+        ReachabilityNode root = new ReachabilityNode(pf.toMarking(marking), null);
+        vertices.add(root);
+        workingList.add(root);
+        while (!workingList.isEmpty() && !isInterrupted()) {
+            ReachabilityNode workingNode = workingList.poll();
+            BitSet activeTransitions = takeEnabled(workingNode);
+            for (int i = activeTransitions.nextSetBit(0); i >= 0; i = activeTransitions.nextSetBit(i + 1)) {
+                Marking mNew = pf.computeMarking(workingNode.getMarking(), i);
+                ReachabilityNode v = vertices.get(mNew);
+                if (v == null) {
+                    v = new ReachabilityNode(mNew, workingNode, pf.getTransition(i));
+                    vertices.add(v);
+                    v.setEnabled(pf.updateEnabled(activeTransitions, mNew, i));
+                    workingList.add(v);
+                }
+                edges.add(new ReachabilityEdge(workingNode, v, pf.getTransition(i)));
+            }
+        }
+        g = new ReachabilityGraph(vertices.getNodes(), edges);
+        tar = targetReachable ? vertices.get(pf.toMarking(target)) : null;
+    }
+
+    /**
+     * @return the number of reachable markings, or null if the computation
+     * has not completed.
+     */
+    public BigInteger getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return the number of reachable markings in which no transition is
+     * enabled, or null if the computation has not completed.
+     */
+    public BigInteger getDeadlockCount() {
+        return deadlockCount;
+    }
+
+    /**
+     * @return some reachable marking in which no transition is enabled, or
+     * null if there is none.
+     */
+    public HashMap<Place, Long> getDeadlock() {
+        return (deadlock != null) ? pf.toMap(deadlock) : null;
+    }
+
+    /**
+     * @return whether the target marking is reachable from the start marking.
+     */
+    public boolean isTargetReachable() {
+        return targetReachable;
+    }
+
+    @Override
+    public void computePriority(ReachabilityNode node) {
+        // Symbolic reachability does not use a priority.
+    }
+
+    /**
+     * Children of a node that is still being built.
+     */
+    private final class Buffer {
+
+        private int[] c = new int[4];
+        private int length;
+
+        int get(int i) {
+            return (i < length) ? c[i] : DecisionDiagram.ZERO;
+        }
+
+        void set(int i, int node) {
+            if (i >= c.length) {
+                c = Arrays.copyOf(c, Math.max(i + 1, c.length << 1));
+            }
+            c[i] = node;
+            length = Math.max(length, i + 1);
+        }
+
+        int checkIn(int level) {
+            return dd.checkIn(level, c, length);
+        }
+    }
+
+    /**
+     * Thrown to abandon the saturation.
+     */
+    private static final class Abort extends RuntimeException {
+
+        private static final long serialVersionUID = -6207450953728190141L;
+
+        Abort(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
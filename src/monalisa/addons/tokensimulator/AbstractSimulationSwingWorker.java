@@ -5,11 +5,16 @@
  */
 package monalisa.addons.tokensimulator;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
 import monalisa.addons.tokensimulator.listeners.SimulationListener;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * General base model for SimulationSwingWorkers. This class is used by
@@ -20,8 +25,25 @@ import monalisa.addons.tokensimulator.listeners.SimulationListener;
  */
 public abstract class AbstractSimulationSwingWorker extends SwingWorker {
 
+    /**
+     * Frames per second in which the state of a headless simulation is handed
+     * to the GUI.
+     */
+    private static final int FRAME_RATE = 25;
+    /**
+     * Number of steps after which a headless simulation checks whether the
+     * next frame is due.
+     */
+    private static final int CLOCK_CHECK_INTERVAL = 16;
+    private static final Logger LOGGER = LogManager.getLogger(AbstractSimulationSwingWorker.class);
+
     private final List<SimulationListener> simulationListeners = new ArrayList<>();
-    protected boolean continuous;
+    protected volatile boolean continuous;
+    /**
+     * Indicates whether the simulation is still running. Can be set to "false"
+     * upon termination call.
+     */
+    protected volatile boolean isRunning;
 
     /**
      * Sets whether the simulation should be continuous or only for a number of
@@ -33,6 +55,70 @@ public abstract class AbstractSimulationSwingWorker extends SwingWorker {
         this.continuous = continuous;
     }
 
+    /**
+     * Performs the firing sequence on this background thread with the given
+     * HeadlessTokenSim instead of firing every step on the event dispatch
+     * thread. The state reached is handed to the SimulationManager at a fixed
+     * frame rate; a frame is only taken once the previous one has been
+     * applied, so all steps performed in between are coalesced into the next
+     * frame. After each frame UPDATE_PROGRESS and, if the update interval is
+     * positive, UPDATE_VISUAL are fired on the event dispatch thread.
+     *
+     * @param simulationMan SimulationManager the frames are applied to.
+     * @param core Core which performs the steps.
+     * @param stepsLeft Number of steps to perform, if the simulation is not
+     * continuous.
+     * @param updateInterval Preference "Update interval".
+     * @return Number of steps left when the sequence ended.
+     * @throws InterruptedException
+     * @throws InvocationTargetException
+     */
+    protected final int simulateHeadless(final SimulationManager simulationMan, final HeadlessTokenSim core,
+            int stepsLeft, final int updateInterval) throws InterruptedException, InvocationTargetException {
+        final AtomicBoolean framePending = new AtomicBoolean();
+        final long frameInterval = 1000000000L / FRAME_RATE;
+        long nextFrame = System.nanoTime() + frameInterval;
+        int stepsSinceClockCheck = 0;
+        while (isRunning && !isCancelled()) {
+            if (core.step() == 0) {
+                LOGGER.info("Simulation stopped since no more transitions are active");
+                break;
+            }
+            if (!continuous && --stepsLeft <= 0) {
+                break;
+            }
+            if (++stepsSinceClockCheck >= CLOCK_CHECK_INTERVAL) {
+                stepsSinceClockCheck = 0;
+                long now = System.nanoTime();
+                if (now >= nextFrame && !framePending.get()) {
+                    framePending.set(true);
+                    SwingUtilities.invokeLater(frameUpdate(simulationMan, core.takeFrame(), stepsLeft, updateInterval, framePending));
+                    nextFrame = now + frameInterval;
+                }
+            }
+        }
+        this.isRunning = false;
+        SwingUtilities.invokeAndWait(frameUpdate(simulationMan, core.takeFrame(), Math.max(stepsLeft, 0), updateInterval, framePending));
+        return stepsLeft;
+    }
+
+    private Runnable frameUpdate(final SimulationManager simulationMan, final HeadlessTokenSim.Frame frame,
+            final int stepsLeft, final int updateInterval, final AtomicBoolean framePending) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                simulationMan.applyFrame(frame);
+                framePending.set(false);
+                if (!continuous) {
+                    fireSimulationEvent(SimulationEvent.UPDATE_PROGRESS, stepsLeft); // Update ProgressBar
+                }
+                if (updateInterval > 0) {
+                    fireSimulationEvent(SimulationEvent.UPDATE_VISUAL, -1); // Update visuals
+                }
+            }
+        };
+    }
+
     /**
      * Adds a SimulationListener to the SimulationSwingWorker.
      *
@@ -22,7 +22,6 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import monalisa.data.pn.PetriNetFacade;
-import monalisa.data.pn.Place;
 import monalisa.data.pn.Transition;
 import monalisa.util.HighQualityRandom;
 import org.apache.logging.log4j.Logger;
@@ -114,11 +113,22 @@ public abstract class AbstractTokenSim {
     public abstract double getSimulatedTime();
     //END ABSTRACT METHODS
 
+    /**
+     * Set the time which was simulated. Called when the state reached by a
+     * HeadlessTokenSim is taken over. Simulators whose time is the number of
+     * simulated steps ignore it.
+     *
+     * @param time
+     */
+    public void setSimulatedTime(double time) {
+    }
+
     /**
      * This method implements the determination of all transitions that can fire
-     * (i.e. active and not forbidden). It takes marking-map from TokenSimulator
-     * tokenSim and computes the states of transitions based on active
-     * transitions rules.
+     * (i.e. active and not forbidden). It takes the compiled state of the
+     * SimulationManager, which counts the pre-places lacking tokens for every
+     * transition, and updates the states of the transitions to check. The
+     * tokens of constant places are evaluated anew first.
      *
      * This method can be overridden to provide alternative active states
      * descriptions. Still, it should use the checkTransitions-ArrayList. Each
@@ -130,25 +140,16 @@ public abstract class AbstractTokenSim {
          * Iterate through all transitions that should be checked.
          */
         LOGGER.info("Checking for all transitions if they are fireable");
+        SimulationState state = this.getSimulationMan().getState();
+        CompiledPetriNet net = state.getNet();
+        for (int p : net.getConstantPlaces()) {
+            state.setTokens(p, this.getTokens(net.getPlaces()[p].id()));
+        }
         for (Transition transition : this.transitionsToCheck) {
             /*
-             * Assume that the transition is active.
-             */
-            boolean active = true;
-            /*
-             * Iterate through the pre-places of current transition.
+             * A transition is active if none of its pre-places has less tokens than the weight of the arc.
              */
-            for (Place place : transition.inputs()) {
-                /*
-                 * If any pre-palce of the transition has less tokens that the weight of the arc between the pre-place and transition,
-                 * the transition cannot be active and all other pre-places must not be checked.
-                 */
-                long tokens = this.getTokens(place.id());
-                if (this.getPetriNet().getArc(place, transition).weight() > tokens) {
-                    active = false;
-                    break;
-                }
-            }
+            boolean active = state.isEnabled(net.getTransitionOrdinal(transition.id()));
             if (active) {
                 this.getSimulationMan().activeTransitions.add(transition);
             } else {
@@ -185,7 +186,8 @@ public abstract class AbstractTokenSim {
      */
     public long getTokens(int id) {
         if (!petriNet.findPlace(id).isConstant()) {
-            return this.getSimulationMan().getMarking().get(id);
+            SimulationState state = this.getSimulationMan().getState();
+            return state.getTokens(state.getNet().getPlaceOrdinal(id));
         } else {
             Map<Integer, Double> markingDouble = new HashMap<>();
             for (Entry<Integer, Long> entr : getSimulationMan().getMarking().entrySet()) {
@@ -0,0 +1,436 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import monalisa.data.pn.PetriNetFacade;
+import monalisa.data.pn.Place;
+import monalisa.data.pn.Transition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Immutable representation of the structure of a Petri net in primitive
+ * arrays, shared by all {@link SimulationState}s of a simulation. Places and
+ * transitions are addressed by their ordinal, i.e. their index in
+ * {@link #getPlaces()} and {@link #getTransitions()}. The arcs are stored in
+ * compressed sparse rows: the entries of transition t are found at the indices
+ * start[t] .. start[t + 1] - 1 of the corresponding index and value arrays.
+ *
+ * The constant flags of the places are read when compiling, the net has to be
+ * compiled anew if they change. The arrays returned by the getters are not
+ * copied and must not be modified.
+ */
+public final class CompiledPetriNet {
+
+    private static final Logger LOGGER = LogManager.getLogger(CompiledPetriNet.class);
+
+    private final Place[] places;
+    private final Transition[] transitions;
+    private final boolean[] constant;
+    private final int[] constantPlaces;
+    private final OrdinalIndex placeOrdinals;
+    private final OrdinalIndex transitionOrdinals;
+
+    private final int[] preStart;
+    private final int[] prePlaces;
+    private final int[] preWeights;
+    private final int[] postStart;
+    private final int[] postPlaces;
+    private final int[] postWeights;
+    private final int[] changeStart;
+    private final int[] changePlaces;
+    private final int[] changeValues;
+    private final int[] consumerStart;
+    private final int[] consumers;
+    private final int[] consumerWeights;
+    private final int[] dependentStart;
+    private final int[] dependents;
+    private final Transition[][] dependentTransitions;
+    private final int[] constantPostTransitions;
+
+    /**
+     * Compiles the structure of a Petri net.
+     *
+     * @param petriNet
+     */
+    public CompiledPetriNet(PetriNetFacade petriNet) {
+        LOGGER.debug("Compiling the Petri net for the token simulator");
+        this.places = petriNet.places().toArray(new Place[0]);
+        this.transitions = petriNet.transitions().toArray(new Transition[0]);
+        int placeCount = places.length;
+        int transitionCount = transitions.length;
+
+        int[] ids = new int[placeCount];
+        this.constant = new boolean[placeCount];
+        int constantCount = 0;
+        for (int p = 0; p < placeCount; p++) {
+            ids[p] = places[p].id();
+            constant[p] = places[p].isConstant();
+            if (constant[p]) {
+                constantCount++;
+            }
+        }
+        this.placeOrdinals = new OrdinalIndex(ids);
+        this.constantPlaces = new int[constantCount];
+        constantCount = 0;
+        for (int p = 0; p < placeCount; p++) {
+            if (constant[p]) {
+                constantPlaces[constantCount++] = p;
+            }
+        }
+        ids = new int[transitionCount];
+        for (int t = 0; t < transitionCount; t++) {
+            ids[t] = transitions[t].id();
+        }
+        this.transitionOrdinals = new OrdinalIndex(ids);
+
+        /*
+        Pre- and post-places of the transitions and the net changes they make on the non-constant places.
+         */
+        this.preStart = new int[transitionCount + 1];
+        this.postStart = new int[transitionCount + 1];
+        this.changeStart = new int[transitionCount + 1];
+        int[] pre = new int[0];
+        int[] preW = new int[0];
+        int[] post = new int[0];
+        int[] postW = new int[0];
+        int[] changed = new int[0];
+        int[] changes = new int[0];
+        int preLength = 0;
+        int postLength = 0;
+        int changeLength = 0;
+        int[] delta = new int[placeCount];
+        for (int t = 0; t < transitionCount; t++) {
+            for (Place place : petriNet.getInputPlacesFor(transitions[t])) {
+                pre = ensureCapacity(pre, preLength + 1);
+                preW = ensureCapacity(preW, preLength + 1);
+                pre[preLength] = placeOrdinals.get(place.id());
+                preW[preLength++] = petriNet.getArc(place, transitions[t]).weight();
+            }
+            preStart[t + 1] = preLength;
+            for (Place place : petriNet.getPlacesFor(transitions[t])) {
+                post = ensureCapacity(post, postLength + 1);
+                postW = ensureCapacity(postW, postLength + 1);
+                post[postLength] = placeOrdinals.get(place.id());
+                postW[postLength++] = petriNet.getArc(transitions[t], place).weight();
+            }
+            postStart[t + 1] = postLength;
+
+            /*
+            Only the net change of a place is stored, places which are consumed and produced
+            in equal numbers are unchanged by the firing.
+             */
+            for (int i = preStart[t]; i < preLength; i++) {
+                delta[pre[i]] -= preW[i];
+            }
+            for (int i = postStart[t]; i < postLength; i++) {
+                delta[post[i]] += postW[i];
+            }
+            changed = ensureCapacity(changed, changeLength + (preLength - preStart[t]) + (postLength - postStart[t]));
+            changes = ensureCapacity(changes, changed.length);
+            for (int i = preStart[t]; i < preLength; i++) {
+                changeLength = collectChange(pre[i], delta, changed, changes, changeLength);
+            }
+            for (int i = postStart[t]; i < postLength; i++) {
+                changeLength = collectChange(post[i], delta, changed, changes, changeLength);
+            }
+            changeStart[t + 1] = changeLength;
+        }
+        this.prePlaces = Arrays.copyOf(pre, preLength);
+        this.preWeights = Arrays.copyOf(preW, preLength);
+        this.postPlaces = Arrays.copyOf(post, postLength);
+        this.postWeights = Arrays.copyOf(postW, postLength);
+        this.changePlaces = Arrays.copyOf(changed, changeLength);
+        this.changeValues = Arrays.copyOf(changes, changeLength);
+
+        /*
+        Consumers of the places, i.e. the transitions they are pre-places of.
+         */
+        this.consumerStart = new int[placeCount + 1];
+        for (int i = 0; i < preLength; i++) {
+            consumerStart[prePlaces[i] + 1]++;
+        }
+        for (int p = 0; p < placeCount; p++) {
+            consumerStart[p + 1] += consumerStart[p];
+        }
+        this.consumers = new int[preLength];
+        this.consumerWeights = new int[preLength];
+        int[] fill = Arrays.copyOf(consumerStart, placeCount);
+        for (int t = 0; t < transitionCount; t++) {
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                consumers[fill[prePlaces[i]]] = t;
+                consumerWeights[fill[prePlaces[i]]++] = preWeights[i];
+            }
+        }
+
+        /*
+        After a transition fired, the consumers of the places it changed have to be checked.
+         */
+        this.dependentStart = new int[transitionCount + 1];
+        this.dependentTransitions = new Transition[transitionCount][];
+        int[] targets = new int[0];
+        int targetLength = 0;
+        boolean[] marked = new boolean[transitionCount];
+        for (int t = 0; t < transitionCount; t++) {
+            int first = targetLength;
+            for (int i = changeStart[t]; i < changeStart[t + 1]; i++) {
+                int p = changePlaces[i];
+                targets = ensureCapacity(targets, targetLength + consumerStart[p + 1] - consumerStart[p]);
+                for (int j = consumerStart[p]; j < consumerStart[p + 1]; j++) {
+                    if (!marked[consumers[j]]) {
+                        marked[consumers[j]] = true;
+                        targets[targetLength++] = consumers[j];
+                    }
+                }
+            }
+            dependentTransitions[t] = new Transition[targetLength - first];
+            for (int i = first; i < targetLength; i++) {
+                marked[targets[i]] = false;
+                dependentTransitions[t][i - first] = transitions[targets[i]];
+            }
+            dependentStart[t + 1] = targetLength;
+        }
+        this.dependents = Arrays.copyOf(targets, targetLength);
+
+        int[] constantPost = new int[transitionCount];
+        int constantPostLength = 0;
+        for (int t = 0; t < transitionCount; t++) {
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                if (constant[prePlaces[i]]) {
+                    constantPost[constantPostLength++] = t;
+                    break;
+                }
+            }
+        }
+        this.constantPostTransitions = Arrays.copyOf(constantPost, constantPostLength);
+    }
+
+    /**
+     * Appends the change of place p, unless it is constant, unchanged or
+     * already collected, and resets its delta.
+     */
+    private int collectChange(int p, int[] delta, int[] changed, int[] changes, int changeLength) {
+        if (delta[p] != 0 && !constant[p]) {
+            changed[changeLength] = p;
+            changes[changeLength++] = delta[p];
+        }
+        delta[p] = 0;
+        return changeLength;
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        return (array.length >= capacity) ? array : Arrays.copyOf(array, Math.max(capacity, array.length << 1));
+    }
+
+    /**
+     * @param id ID of a place.
+     * @return The ordinal of the place, -1 if the net has no place with the
+     * ID.
+     */
+    public int getPlaceOrdinal(int id) {
+        return placeOrdinals.get(id);
+    }
+
+    /**
+     * @param id ID of a transition.
+     * @return The ordinal of the transition, -1 if the net has no transition
+     * with the ID.
+     */
+    public int getTransitionOrdinal(int id) {
+        return transitionOrdinals.get(id);
+    }
+
+    /**
+     * @return the places, by ordinal
+     */
+    public Place[] getPlaces() {
+        return places;
+    }
+
+    /**
+     * @return the transitions, by ordinal
+     */
+    public Transition[] getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * @return Whether the places were constant when compiling, by ordinal.
+     */
+    public boolean[] getConstant() {
+        return constant;
+    }
+
+    /**
+     * @return Ordinals of the constant places.
+     */
+    public int[] getConstantPlaces() {
+        return constantPlaces;
+    }
+
+    /**
+     * @return Start of the pre-places of each transition.
+     */
+    public int[] getPreStart() {
+        return preStart;
+    }
+
+    /**
+     * @return Ordinals of the pre-places.
+     */
+    public int[] getPrePlaces() {
+        return prePlaces;
+    }
+
+    /**
+     * @return Weights of the arcs from the pre-places.
+     */
+    public int[] getPreWeights() {
+        return preWeights;
+    }
+
+    /**
+     * @return Start of the post-places of each transition.
+     */
+    public int[] getPostStart() {
+        return postStart;
+    }
+
+    /**
+     * @return Ordinals of the post-places.
+     */
+    public int[] getPostPlaces() {
+        return postPlaces;
+    }
+
+    /**
+     * @return Weights of the arcs to the post-places.
+     */
+    public int[] getPostWeights() {
+        return postWeights;
+    }
+
+    /**
+     * @return Start of the changes of each transition.
+     */
+    public int[] getChangeStart() {
+        return changeStart;
+    }
+
+    /**
+     * @return Ordinals of the non-constant places changed by the transitions.
+     */
+    public int[] getChangePlaces() {
+        return changePlaces;
+    }
+
+    /**
+     * @return Net changes of the tokens on the changed places.
+     */
+    public int[] getChangeValues() {
+        return changeValues;
+    }
+
+    /**
+     * @return Start of the consumers of each place.
+     */
+    public int[] getConsumerStart() {
+        return consumerStart;
+    }
+
+    /**
+     * @return Ordinals of the transitions consuming from the places.
+     */
+    public int[] getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * @return Weights of the arcs to the consumers.
+     */
+    public int[] getConsumerWeights() {
+        return consumerWeights;
+    }
+
+    /**
+     * @return Start of the dependents of each transition.
+     */
+    public int[] getDependentStart() {
+        return dependentStart;
+    }
+
+    /**
+     * @return Ordinals of the transitions whose enabling can change after a
+     * transition fired.
+     */
+    public int[] getDependents() {
+        return dependents;
+    }
+
+    /**
+     * @param t Ordinal of a transition.
+     * @return The transitions whose enabling can change after t fired.
+     */
+    public Transition[] getDependentTransitions(int t) {
+        return dependentTransitions[t];
+    }
+
+    /**
+     * @return Ordinals of the transitions with constant pre-places, which have
+     * to be checked whenever the tokens of constant places are updated.
+     */
+    public int[] getConstantPostTransitions() {
+        return constantPostTransitions;
+    }
+
+    /**
+     * Maps IDs to ordinals. Dense IDs, which the Petri nets of MonaLisa
+     * usually have, are looked up in an array, so no boxing is needed.
+     */
+    private static final class OrdinalIndex {
+
+        private final int[] byId;
+        private final Map<Integer, Integer> map;
+
+        OrdinalIndex(int[] ids) {
+            int max = -1;
+            boolean dense = true;
+            for (int id : ids) {
+                dense &= id >= 0;
+                max = Math.max(max, id);
+            }
+            if (dense && max < 4 * ids.length + 1024) {
+                this.byId = new int[max + 1];
+                Arrays.fill(byId, -1);
+                for (int i = 0; i < ids.length; i++) {
+                    byId[ids[i]] = i;
+                }
+                this.map = null;
+            } else {
+                this.byId = null;
+                this.map = new HashMap<>();
+                for (int i = 0; i < ids.length; i++) {
+                    map.put(ids[i], i);
+                }
+            }
+        }
+
+        int get(int id) {
+            if (byId != null) {
+                return (id >= 0 && id < byId.length) ? byId[id] : -1;
+            }
+            Integer ordinal = map.get(id);
+            return (ordinal == null) ? -1 : ordinal;
+        }
+    }
+}
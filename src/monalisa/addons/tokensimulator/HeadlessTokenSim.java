@@ -0,0 +1,571 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import monalisa.addons.tokensimulator.stochastic.NextFiringQueue;
+import monalisa.addons.tokensimulator.utils.CompiledExpression;
+import monalisa.addons.tokensimulator.utils.MathematicalExpression;
+import monalisa.data.pn.Place;
+import monalisa.data.pn.Transition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Performs the firing rules of the asynchronous, synchronous and stochastic
+ * token simulators without touching the SimulationManager or any Swing
+ * component. On creation the compiled state of the SimulationManager is
+ * copied, so the steps only update the long[] marking and the enabled
+ * transitions of the {@link SimulationState} for the places a transition
+ * changes.
+ *
+ * An instance is used by one thread only. The steps performed since the last
+ * call of {@link #takeFrame()} are coalesced into a {@link Frame}, which is
+ * handed to {@link SimulationManager#applyFrame} on the event dispatch thread.
+ */
+public class HeadlessTokenSim {
+
+    /**
+     * Firing rules which can be simulated.
+     */
+    public enum Mode {
+        /**
+         * One randomly chosen enabled transition fires per step, see
+         * {@link monalisa.addons.tokensimulator.asynchronous.AsynchronousTokenSim}.
+         */
+        ASYNCHRONOUS,
+        /**
+         * A random set of enabled transitions without conflicts fires per
+         * step, see
+         * {@link monalisa.addons.tokensimulator.synchronous.SynchronousTokenSim}.
+         */
+        SYNCHRONOUS,
+        /**
+         * The enabled transitions race with exponentially distributed delays,
+         * see
+         * {@link monalisa.addons.tokensimulator.stochastic.StochasticTokenSim}.
+         */
+        STOCHASTIC
+    }
+
+    private static final Logger LOGGER = LogManager.getLogger(HeadlessTokenSim.class);
+
+    private final Mode mode;
+    private final Random random;
+    private final CompiledPetriNet net;
+    private final SimulationState state;
+    /**
+     * The marking as doubles, which the compiled expressions of constant
+     * places are evaluated on.
+     */
+    private final double[] values;
+    private final CompiledExpression[] constantExpressions;
+
+    //synchronous mode
+    private final int fireAtOnce;
+    private final int[] candidates, candidatePosition;
+    private final long[] reserved;
+
+    //stochastic mode
+    private final double[] firingRates;
+    private final boolean markingDependent;
+    private final NextFiringQueue firingQueue;
+
+    /**
+     * Transitions fired in the current step.
+     */
+    private final int[] step;
+    private int stepLength;
+    /**
+     * Simulated time. For the asynchronous and synchronous mode it is the
+     * number of simulated steps.
+     */
+    private double time;
+    private final double startTime;
+    /**
+     * Integral of the tokens of each place over the simulated time up to the
+     * last change of the place, and the time of that change.
+     */
+    private final double[] tokenIntegral, lastChange;
+
+    //accumulated since the last frame
+    private final int[] firings;
+    private int frameSteps;
+    /**
+     * The last steps since the previous frame, null if the core keeps no
+     * history.
+     */
+    private final SimulationHistory history;
+
+    /**
+     * Creates a core for the asynchronous firing rule.
+     *
+     * @param simulationMan SimulationManager with the Petri net and the
+     * current state.
+     * @param random Random number generator used for the simulation.
+     * @return the core.
+     */
+    public static HeadlessTokenSim asynchronous(SimulationManager simulationMan, Random random) {
+        return create(Mode.ASYNCHRONOUS, simulationMan, random, simulationMan.getSimulatedSteps(), null, false);
+    }
+
+    /**
+     * Creates a core for the synchronous firing rule. The share of the enabled
+     * transitions which may fire at once is read from the preference "Fire at
+     * once".
+     *
+     * @param simulationMan SimulationManager with the Petri net and the
+     * current state.
+     * @param random Random number generator used for the simulation.
+     * @return the core.
+     */
+    public static HeadlessTokenSim synchronous(SimulationManager simulationMan, Random random) {
+        return create(Mode.SYNCHRONOUS, simulationMan, random, simulationMan.getSimulatedSteps(), null, false);
+    }
+
+    /**
+     * Creates a core for the stochastic firing rule. Whether the rates depend
+     * on the enabling degree is read from the preference "Marking dependent
+     * rates".
+     *
+     * @param simulationMan SimulationManager with the Petri net and the
+     * current state.
+     * @param random Random number generator used for the simulation.
+     * @param firingRates Firing rates linked to the IDs of the transitions.
+     * @param time Simulated time of the current state.
+     * @return the core.
+     */
+    public static HeadlessTokenSim stochastic(SimulationManager simulationMan, Random random, Map<Integer, Double> firingRates, double time) {
+        return create(Mode.STOCHASTIC, simulationMan, random, time, firingRates,
+                (Boolean) simulationMan.getPreferences().get("Marking dependent rates"));
+    }
+
+    /**
+     * Checks whether a firing sequence with the current preferences can be
+     * performed by a core. Logging and plotting need the state after every
+     * single step, which frames do not provide.
+     *
+     * @param simulationMan
+     * @return true, if neither logging nor plotting is enabled.
+     */
+    public static boolean supports(SimulationManager simulationMan) {
+        return !(boolean) simulationMan.getPreferences().get("LogEnabled")
+                && !(boolean) simulationMan.getPreferences().get("EnablePlotting");
+    }
+
+    private static HeadlessTokenSim create(Mode mode, SimulationManager simulationMan, Random random, double time, Map<Integer, Double> rates, boolean markingDependent) {
+        LOGGER.info("Preparing a headless " + mode + " simulation");
+        SimulationState state = simulationMan.getState().copy();
+        CompiledPetriNet net = state.getNet();
+
+        /*
+        Compiled expressions of the constant places read the tokens of the places by ordinal.
+         */
+        Map<Integer, Integer> slots = new HashMap<>();
+        for (int p = 0; p < net.getPlaces().length; p++) {
+            slots.put(net.getPlaces()[p].id(), p);
+        }
+        int[] constantPlaces = net.getConstantPlaces();
+        CompiledExpression[] constantExpressions = new CompiledExpression[constantPlaces.length];
+        for (int c = 0; c < constantPlaces.length; c++) {
+            MathematicalExpression exp = simulationMan.getMathematicalExpression(net.getPlaces()[constantPlaces[c]].id());
+            try {
+                constantExpressions[c] = (exp == null) ? null : exp.compile(slots);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unknown function or unparsable expression of a constant place", ex);
+            }
+        }
+
+        double[] firingRates = null;
+        if (mode == Mode.STOCHASTIC) {
+            firingRates = new double[net.getTransitions().length];
+            for (int t = 0; t < firingRates.length; t++) {
+                Double rate = rates.get(net.getTransitions()[t].id());
+                firingRates[t] = (rate == null) ? 1.0 : rate;
+            }
+        }
+        int fireAtOnce = (mode == Mode.SYNCHRONOUS) ? (int) simulationMan.getPreferences().get("Fire at once") : 0;
+        return new HeadlessTokenSim(mode, state, constantExpressions, random, time, firingRates, markingDependent, fireAtOnce, true);
+    }
+
+    private HeadlessTokenSim(Mode mode, SimulationState state, CompiledExpression[] constantExpressions, Random random, double time,
+            double[] firingRates, boolean markingDependent, int fireAtOnce, boolean keepHistory) {
+        this.mode = mode;
+        this.random = random;
+        this.time = time;
+        this.startTime = time;
+        this.state = state;
+        this.net = state.getNet();
+        this.constantExpressions = constantExpressions;
+        this.firingRates = firingRates;
+        this.markingDependent = markingDependent;
+        this.fireAtOnce = fireAtOnce;
+        int placeCount = net.getPlaces().length;
+        int transitionCount = net.getTransitions().length;
+        this.values = new double[placeCount];
+        for (int p = 0; p < placeCount; p++) {
+            values[p] = state.getTokens(p);
+        }
+        this.tokenIntegral = new double[placeCount];
+        this.lastChange = new double[placeCount];
+        Arrays.fill(lastChange, time);
+
+        /*
+        Mode specific data.
+         */
+        if (mode == Mode.SYNCHRONOUS) {
+            this.candidates = new int[transitionCount];
+            this.candidatePosition = new int[transitionCount];
+            Arrays.fill(candidatePosition, -1);
+            this.reserved = new long[placeCount];
+        } else {
+            this.candidates = null;
+            this.candidatePosition = null;
+            this.reserved = null;
+        }
+        this.step = new int[transitionCount];
+        this.firings = new int[transitionCount];
+        this.history = keepHistory ? new SimulationHistory(SimulationManager.MAX_HISTORY, 0) : null;
+
+        updateConstantPlaces();
+        if (mode == Mode.STOCHASTIC) {
+            this.firingQueue = new NextFiringQueue(state, firingRates, markingDependent, random, time);
+        } else {
+            this.firingQueue = null;
+        }
+    }
+
+    /**
+     * Creates an independent core with the same firing rule, which starts in
+     * the current state and at the current time of this core. The compiled
+     * net and expressions are shared, the state is copied. The new core keeps
+     * no history for its frames. This core must not perform steps while the
+     * copy is created.
+     *
+     * @param random Random number generator used by the new core.
+     * @return the new core.
+     */
+    public HeadlessTokenSim replicate(Random random) {
+        return new HeadlessTokenSim(mode, state.copy(), constantExpressions, random, time, firingRates, markingDependent, fireAtOnce, false);
+    }
+
+    /**
+     * Performs one step according to the firing rule of this core.
+     *
+     * @return Number of transitions fired in the step. 0 if no transition could
+     * fire in finite time, the state is left unchanged in that case.
+     */
+    public int step() {
+        stepLength = 0;
+        switch (mode) {
+            case ASYNCHRONOUS:
+                if (state.getEnabledCount() > 0) {
+                    step[stepLength++] = state.getEnabled(random.nextInt(state.getEnabledCount()));
+                }
+                break;
+            case SYNCHRONOUS:
+                selectSynchronousStep();
+                break;
+            case STOCHASTIC:
+                // If every enabled transition has a rate of 0, none of them
+                // fires in finite time and the state is treated as dead.
+                if (state.getEnabledCount() > 0 && !Double.isInfinite(firingQueue.peekTime())) {
+                    step[stepLength] = firingQueue.peek();
+                    time = firingQueue.peekTime();
+                    firingQueue.fired(step[stepLength++], time);
+                }
+                break;
+            default:
+                break;
+        }
+        if (stepLength == 0) {
+            return 0;
+        }
+        if (mode != Mode.STOCHASTIC) {
+            time++;
+        }
+        int[] changeStart = net.getChangeStart();
+        int[] changePlaces = net.getChangePlaces();
+        for (int i = 0; i < stepLength; i++) {
+            int t = step[i];
+            for (int j = changeStart[t]; j < changeStart[t + 1]; j++) {
+                accumulate(changePlaces[j]);
+            }
+            state.fire(t);
+            for (int j = changeStart[t]; j < changeStart[t + 1]; j++) {
+                values[changePlaces[j]] = state.getTokens(changePlaces[j]);
+            }
+            firings[t]++;
+        }
+        updateConstantPlaces();
+        if (firingQueue != null) {
+            firingQueue.updateDependents(step[0], time);
+        }
+
+        if (history != null) {
+            history.add(step, stepLength);
+        }
+        frameSteps++;
+        return stepLength;
+    }
+
+    /**
+     * Chooses the transitions of a synchronous step in the same way as
+     * SynchronousTokenSim.getTransitionsToFire(): enabled transitions are
+     * picked in random order; if a pre-place has not enough tokens for a
+     * picked transition and another candidate, a coin decides whether the
+     * picked transition fires, in which case the other candidates of the place
+     * are dropped.
+     */
+    private void selectSynchronousStep() {
+        int[] preStart = net.getPreStart();
+        int[] prePlaces = net.getPrePlaces();
+        int[] preWeights = net.getPreWeights();
+        int[] consumerStart = net.getConsumerStart();
+        int[] consumers = net.getConsumers();
+        int[] consumerWeights = net.getConsumerWeights();
+        int candidateCount = 0;
+        for (int t = state.nextEnabled(0); t >= 0; t = state.nextEnabled(t + 1)) {
+            candidates[candidateCount] = t;
+            candidatePosition[t] = candidateCount++;
+        }
+        int maxTransitions = (int) Math.round(candidateCount * 0.01 * fireAtOnce);
+        while (candidateCount > 0 && stepLength < maxTransitions) {
+            int t = candidates[random.nextInt(candidateCount)];
+            candidateCount = removeCandidate(t, candidateCount);
+            boolean isActive = true;
+            boolean isChosen = false;
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                int p = prePlaces[i];
+                long tokens = state.getTokens(p) - reserved[p] - preWeights[i];
+                boolean concurrent = false;
+                for (int j = consumerStart[p]; j < consumerStart[p + 1]; j++) {
+                    if (candidatePosition[consumers[j]] >= 0 && tokens < consumerWeights[j]) {
+                        concurrent = true;
+                        break;
+                    }
+                }
+                if (!concurrent) {
+                    continue;
+                }
+                if (!isChosen) {
+                    isActive = random.nextBoolean();
+                    if (!isActive) {
+                        break;
+                    }
+                    isChosen = true;
+                    addToStep(t);
+                }
+                for (int j = consumerStart[p]; j < consumerStart[p + 1]; j++) {
+                    int u = consumers[j];
+                    if (candidatePosition[u] >= 0 && tokens < consumerWeights[j]) {
+                        candidateCount = removeCandidate(u, candidateCount);
+                    }
+                }
+            }
+            if (isActive && !isChosen) {
+                addToStep(t);
+            }
+        }
+        for (int i = 0; i < candidateCount; i++) {
+            candidatePosition[candidates[i]] = -1;
+        }
+        for (int i = 0; i < stepLength; i++) {
+            int t = step[i];
+            for (int j = preStart[t]; j < preStart[t + 1]; j++) {
+                reserved[prePlaces[j]] = 0;
+            }
+        }
+    }
+
+    private void addToStep(int t) {
+        step[stepLength++] = t;
+        int[] preStart = net.getPreStart();
+        for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+            reserved[net.getPrePlaces()[i]] += net.getPreWeights()[i];
+        }
+    }
+
+    private int removeCandidate(int t, int candidateCount) {
+        int position = candidatePosition[t];
+        int last = candidates[--candidateCount];
+        candidates[position] = last;
+        candidatePosition[last] = position;
+        candidatePosition[t] = -1;
+        return candidateCount;
+    }
+
+    /**
+     * Evaluates the mathematical expressions of the constant places.
+     */
+    private void updateConstantPlaces() {
+        int[] constantPlaces = net.getConstantPlaces();
+        for (int c = 0; c < constantPlaces.length; c++) {
+            int p = constantPlaces[c];
+            accumulate(p);
+            state.setTokens(p, (constantExpressions[c] == null) ? 0 : Math.round(constantExpressions[c].evaluate(values, time)));
+            values[p] = state.getTokens(p);
+        }
+    }
+
+    /**
+     * Adds the tokens a place held since its last change to its integral.
+     * Has to be called before the tokens of the place change.
+     */
+    private void accumulate(int p) {
+        tokenIntegral[p] += state.getTokens(p) * (time - lastChange[p]);
+        lastChange[p] = time;
+    }
+
+    /**
+     * Returns the mean number of tokens of each place over the simulated time
+     * since the core was created, every marking weighted by how long it was
+     * held. For the asynchronous and synchronous mode every step takes one
+     * time unit. If no time has passed, the current marking is returned.
+     *
+     * @return Time-averaged tokens by place ordinal.
+     */
+    public double[] getTimeAveragedTokens() {
+        double[] average = new double[tokenIntegral.length];
+        double elapsed = time - startTime;
+        for (int p = 0; p < average.length; p++) {
+            average[p] = (elapsed > 0)
+                    ? (tokenIntegral[p] + state.getTokens(p) * (time - lastChange[p])) / elapsed
+                    : state.getTokens(p);
+        }
+        return average;
+    }
+
+    /**
+     * Coalesces all steps performed since the last call into a frame.
+     *
+     * @return the state reached, the number of steps and firings since the
+     * last frame and the last steps for the history.
+     */
+    public Frame takeFrame() {
+        SimulationHistory frameHistory = new SimulationHistory(0, 0);
+        if (history != null) {
+            frameHistory = history.copy(history.size());
+            history.clear();
+        }
+        Frame frame = new Frame(net.getPlaces(), net.getTransitions(), state.copyMarking(), firings.clone(), frameSteps, time, frameHistory);
+        Arrays.fill(firings, 0);
+        frameSteps = 0;
+        return frame;
+    }
+
+    /**
+     * @return the compiled net the core simulates
+     */
+    public CompiledPetriNet getNet() {
+        return net;
+    }
+
+    /**
+     * @return the firing rule of this core
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Number of transitions which are enabled in the current state.
+     */
+    public int getEnabledCount() {
+        return state.getEnabledCount();
+    }
+
+    /**
+     * @return the simulated time
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * State of a HeadlessTokenSim together with all steps performed since the
+     * previous frame.
+     */
+    public static final class Frame {
+
+        private final Place[] places;
+        private final Transition[] transitions;
+        private final long[] marking;
+        private final int[] firings;
+        private final int steps;
+        private final double time;
+        private final SimulationHistory history;
+
+        private Frame(Place[] places, Transition[] transitions, long[] marking, int[] firings, int steps, double time, SimulationHistory history) {
+            this.places = places;
+            this.transitions = transitions;
+            this.marking = marking;
+            this.firings = firings;
+            this.steps = steps;
+            this.time = time;
+            this.history = history;
+        }
+
+        /**
+         * @return the places, in the order of the marking
+         */
+        public Place[] getPlaces() {
+            return places;
+        }
+
+        /**
+         * @return the transitions, in the order of the firings
+         */
+        public Transition[] getTransitions() {
+            return transitions;
+        }
+
+        /**
+         * @return Tokens by place index.
+         */
+        public long[] getMarking() {
+            return marking;
+        }
+
+        /**
+         * @return How often each transition fired since the previous frame.
+         */
+        public int[] getFirings() {
+            return firings;
+        }
+
+        /**
+         * @return Number of steps performed since the previous frame.
+         */
+        public int getSteps() {
+            return steps;
+        }
+
+        /**
+         * @return the simulated time
+         */
+        public double getTime() {
+            return time;
+        }
+
+        /**
+         * @return The last steps since the previous frame, at most as many as
+         * the history of the SimulationManager keeps. Fewer than
+         * {@link #getSteps()} if older steps were dropped or the core keeps no
+         * history.
+         */
+        public SimulationHistory getHistory() {
+            return history;
+        }
+    }
+}
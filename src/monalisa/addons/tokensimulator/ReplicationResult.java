@@ -0,0 +1,267 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Statistics over the independent replications of a token simulation. Every
+ * replication adds the number of firings of each transition, the marking it
+ * ended in, the time-averaged marking and whether it ended in a dead state. Mean and variance are updated
+ * online by Welford's algorithm, so no trajectory has to be kept; of the
+ * replications which reached a dead state, the time until then is kept.
+ * Replications may add their results concurrently.
+ */
+public final class ReplicationResult {
+
+    private final String[] placeNames;
+    private final String[] transitionNames;
+    private final Moments[] firings;
+    private final Moments[] tokens;
+    private final Moments[] averageTokens;
+    private final Moments steps = new Moments();
+    private double[] deadlockTimes = new double[16];
+    private int deadlockCount;
+
+    /**
+     * Creates empty statistics for the places and transitions of a net.
+     *
+     * @param net
+     */
+    public ReplicationResult(CompiledPetriNet net) {
+        this.placeNames = new String[net.getPlaces().length];
+        for (int p = 0; p < placeNames.length; p++) {
+            placeNames[p] = net.getPlaces()[p].toString();
+        }
+        this.transitionNames = new String[net.getTransitions().length];
+        for (int t = 0; t < transitionNames.length; t++) {
+            transitionNames[t] = net.getTransitions()[t].toString();
+        }
+        this.firings = new Moments[transitionNames.length];
+        for (int t = 0; t < firings.length; t++) {
+            firings[t] = new Moments();
+        }
+        this.tokens = new Moments[placeNames.length];
+        for (int p = 0; p < tokens.length; p++) {
+            tokens[p] = new Moments();
+        }
+        this.averageTokens = new Moments[placeNames.length];
+        for (int p = 0; p < averageTokens.length; p++) {
+            averageTokens[p] = new Moments();
+        }
+    }
+
+    /**
+     * Adds the outcome of a replication.
+     *
+     * @param transitionFirings How often each transition fired, by ordinal.
+     * @param marking The marking at the end of the replication, by place
+     * ordinal.
+     * @param timeAveragedMarking The tokens of each place averaged over the
+     * simulated time of the replication, by place ordinal.
+     * @param performedSteps Number of steps performed.
+     * @param deadlockTime Time from the start of the replication until no
+     * transition was enabled anymore, NaN if the replication ended with
+     * enabled transitions.
+     */
+    public synchronized void add(long[] transitionFirings, long[] marking, double[] timeAveragedMarking, long performedSteps, double deadlockTime) {
+        for (int t = 0; t < firings.length; t++) {
+            firings[t].add(transitionFirings[t]);
+        }
+        for (int p = 0; p < tokens.length; p++) {
+            tokens[p].add(marking[p]);
+            averageTokens[p].add(timeAveragedMarking[p]);
+        }
+        steps.add(performedSteps);
+        if (!Double.isNaN(deadlockTime)) {
+            if (deadlockCount == deadlockTimes.length) {
+                deadlockTimes = Arrays.copyOf(deadlockTimes, deadlockCount * 2);
+            }
+            deadlockTimes[deadlockCount++] = deadlockTime;
+        }
+    }
+
+    /**
+     * @return the names of the places, by ordinal.
+     */
+    public String[] getPlaceNames() {
+        return placeNames.clone();
+    }
+
+    /**
+     * @return the names of the transitions, by ordinal.
+     */
+    public String[] getTransitionNames() {
+        return transitionNames.clone();
+    }
+
+    /**
+     * @return the number of replications added.
+     */
+    public synchronized long getReplications() {
+        return steps.count;
+    }
+
+    /**
+     * @return the mean number of steps of a replication, NaN if no replication
+     * was added.
+     */
+    public synchronized double getMeanSteps() {
+        return steps.getMean();
+    }
+
+    /**
+     * @param t Ordinal of a transition.
+     * @return the mean number of firings per replication, NaN if no
+     * replication was added.
+     */
+    public synchronized double getFiringsMean(int t) {
+        return firings[t].getMean();
+    }
+
+    /**
+     * @param t Ordinal of a transition.
+     * @return the sample variance of the number of firings, NaN if less than
+     * two replications were added.
+     */
+    public synchronized double getFiringsVariance(int t) {
+        return firings[t].getVariance();
+    }
+
+    /**
+     * @param p Ordinal of a place.
+     * @return the mean number of tokens at the end of a replication, NaN if no
+     * replication was added.
+     */
+    public synchronized double getTokensMean(int p) {
+        return tokens[p].getMean();
+    }
+
+    /**
+     * @param p Ordinal of a place.
+     * @return the sample variance of the number of tokens at the end of a
+     * replication, NaN if less than two replications were added.
+     */
+    public synchronized double getTokensVariance(int p) {
+        return tokens[p].getVariance();
+    }
+
+    /**
+     * @param p Ordinal of a place.
+     * @return the mean over the replications of the tokens averaged over the
+     * simulated time of a replication, NaN if no replication was added. For
+     * the asynchronous and synchronous firing rule every step is weighted
+     * equally.
+     */
+    public synchronized double getAverageTokensMean(int p) {
+        return averageTokens[p].getMean();
+    }
+
+    /**
+     * @param p Ordinal of a place.
+     * @return the sample variance over the replications of the tokens
+     * averaged over the simulated time of a replication, NaN if less than two
+     * replications were added.
+     */
+    public synchronized double getAverageTokensVariance(int p) {
+        return averageTokens[p].getVariance();
+    }
+
+    /**
+     * @return the number of replications which reached a dead state.
+     */
+    public synchronized int getDeadlockCount() {
+        return deadlockCount;
+    }
+
+    /**
+     * @return the times until a dead state was reached, in ascending order.
+     * For the asynchronous and synchronous firing rule the time is the number
+     * of steps.
+     */
+    public synchronized double[] getDeadlockTimes() {
+        double[] sorted = Arrays.copyOf(deadlockTimes, deadlockCount);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @param p Probability between 0 and 1.
+     * @return the empirical p-quantile of the times until a dead state was
+     * reached, NaN if no replication reached one.
+     */
+    public synchronized double getDeadlockQuantile(double p) {
+        if (deadlockCount == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = getDeadlockTimes();
+        return sorted[(int) Math.min(deadlockCount - 1, Math.round(p * (deadlockCount - 1)))];
+    }
+
+    /**
+     * Writes the statistics as tab separated tables: the firings per
+     * transition, the final and time-averaged tokens per place and the sorted
+     * times until a dead state was reached.
+     *
+     * @param file The output file.
+     * @throws IOException
+     */
+    public synchronized void write(File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Replications\t").append(getReplications()).append("\n");
+            sb.append("Steps mean\t").append(getMeanSteps()).append("\n");
+            sb.append("Dead states\t").append(deadlockCount).append("\n\n");
+            sb.append("Transition\tFirings mean\tFirings variance\n");
+            for (int t = 0; t < transitionNames.length; t++) {
+                sb.append(transitionNames[t]).append("\t").append(getFiringsMean(t)).append("\t").append(getFiringsVariance(t)).append("\n");
+            }
+            sb.append("\nPlace\tTokens mean\tTokens variance\tTime-averaged tokens mean\tTime-averaged tokens variance\n");
+            for (int p = 0; p < placeNames.length; p++) {
+                sb.append(placeNames[p]).append("\t").append(getTokensMean(p)).append("\t").append(getTokensVariance(p))
+                        .append("\t").append(getAverageTokensMean(p)).append("\t").append(getAverageTokensVariance(p)).append("\n");
+            }
+            sb.append("\nTime to dead state\n");
+            for (double time : getDeadlockTimes()) {
+                sb.append(time).append("\n");
+            }
+            out.write(sb.toString());
+        }
+    }
+
+    /**
+     * Count, mean and sum of squared deviations of a sample.
+     */
+    private static final class Moments {
+
+        private long count;
+        private double mean;
+        private double m2;
+
+        void add(double x) {
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+        }
+
+        double getMean() {
+            return (count == 0) ? Double.NaN : mean;
+        }
+
+        double getVariance() {
+            return (count < 2) ? Double.NaN : m2 / (count - 1);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import monalisa.util.XoshiroRandom;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs independent replications of an asynchronous, synchronous or stochastic
+ * token simulation on a work-stealing pool. Every replication is a
+ * {@link HeadlessTokenSim#replicate(java.util.Random) replicate} of a
+ * prototype core with its own copy of the compiled state and its own stream of
+ * a {@link XoshiroRandom}, and adds its outcome to a {@link ReplicationResult}. The
+ * SimulationManager and the GUI are not involved once the prototype was
+ * created.
+ */
+public class ReplicationRunner {
+
+    /**
+     * Number of steps after which a replication takes a frame, so the firing
+     * counts of the frames cannot overflow.
+     */
+    private static final int FRAME_STEPS = 1 << 20;
+    /**
+     * Number of steps after which a replication checks whether the runner was
+     * stopped.
+     */
+    private static final int STOP_CHECK_INTERVAL = 1024;
+    private static final Logger LOGGER = LogManager.getLogger(ReplicationRunner.class);
+
+    private final ForkJoinPool pool;
+    private final HeadlessTokenSim prototype;
+    /**
+     * Set if the replications are stopped. Replications which have not
+     * finished yet are not added to the result then.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a runner with its own pool.
+     *
+     * @param prototype Core in the state every replication starts in. It must
+     * not perform steps while the replications run.
+     * @param parallelism Maximal number of replications executed at the same
+     * time.
+     */
+    public ReplicationRunner(HeadlessTokenSim prototype, int parallelism) {
+        this.prototype = prototype;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Submits replications for execution. The random number streams of the
+     * replications are split from a generator with the given seed in the
+     * order of the replications, so the result does not depend on the
+     * parallelism.
+     *
+     * @param replications Number of replications.
+     * @param maxSteps Maximal number of steps of a replication. A replication
+     * ends earlier if it reaches a dead state.
+     * @param seed Seed for the random number generators of the replications.
+     * @return a future which completes with the result after all replications
+     * have finished or were stopped.
+     */
+    public CompletableFuture<ReplicationResult> run(int replications, long maxSteps, long seed) {
+        LOGGER.info("Starting " + replications + " replications of the " + prototype.getMode() + " simulation");
+        ReplicationResult result = new ReplicationResult(prototype.getNet());
+        XoshiroRandom streams = new XoshiroRandom(seed);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[replications];
+        for (int i = 0; i < replications; i++) {
+            XoshiroRandom stream = streams.split();
+            futures[i] = CompletableFuture.runAsync(() -> replicate(result, maxSteps, stream), pool);
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> {
+            LOGGER.info("Finished " + result.getReplications() + " replications");
+            return result;
+        });
+    }
+
+    private void replicate(ReplicationResult result, long maxSteps, XoshiroRandom random) {
+        if (stopped) {
+            return;
+        }
+        HeadlessTokenSim core = prototype.replicate(random.asRandom());
+        double startTime = core.getTime();
+        long[] firings = new long[core.getNet().getTransitions().length];
+        long steps = 0;
+        boolean dead = false;
+        while (steps < maxSteps) {
+            if (core.step() == 0) {
+                dead = true;
+                break;
+            }
+            steps++;
+            if (steps % FRAME_STEPS == 0) {
+                addFirings(firings, core.takeFrame());
+            }
+            if (steps % STOP_CHECK_INTERVAL == 0 && stopped) {
+                return;
+            }
+        }
+        HeadlessTokenSim.Frame frame = core.takeFrame();
+        addFirings(firings, frame);
+        result.add(firings, frame.getMarking(), core.getTimeAveragedTokens(), steps, dead ? core.getTime() - startTime : Double.NaN);
+    }
+
+    private static void addFirings(long[] firings, HeadlessTokenSim.Frame frame) {
+        int[] frameFirings = frame.getFirings();
+        for (int t = 0; t < firings.length; t++) {
+            firings[t] += frameFirings[t];
+        }
+    }
+
+    /**
+     * Requests the replications to stop. Replications which have not finished
+     * are not added to the result.
+     */
+    public void requestStop() {
+        LOGGER.info("Stopping all replications");
+        stopped = true;
+    }
+
+    /**
+     * Shuts the pool down after the submitted replications have stopped.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
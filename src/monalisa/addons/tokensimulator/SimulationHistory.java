@@ -0,0 +1,383 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import monalisa.data.pn.Transition;
+
+/**
+ * History of the steps of a simulation. The ordinals of the transitions fired
+ * in each step are kept in ring buffers, which grow on demand up to the
+ * capacity; once it is reached, the oldest step is dropped for every new one,
+ * so adding a step takes constant time. The current position is the index of
+ * the last performed step, -1 for the state before the oldest step. If a step
+ * is added while the position is not at the newest step, the steps after the
+ * position are dropped.
+ *
+ * Copies of the marking can be stored as checkpoints, at most one per
+ * checkpoint interval steps. A state far back in the history can then be
+ * restored from the nearest checkpoint before it instead of by reverting all
+ * steps in between.
+ */
+public final class SimulationHistory {
+
+    /**
+     * Returned by {@link #getCheckpointIndex(int)} if there is no checkpoint.
+     */
+    public static final int NO_CHECKPOINT = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int capacity;
+    private final int checkpointInterval;
+    /**
+     * Start of each step in the transitions ring and its number of
+     * transitions, by absolute step number modulo the length of the ring.
+     */
+    private long[] stepStart = new long[INITIAL_CAPACITY];
+    private int[] stepLength = new int[INITIAL_CAPACITY];
+    /**
+     * Ordinals of the fired transitions, by absolute position modulo the
+     * length of the ring.
+     */
+    private int[] transitions = new int[INITIAL_CAPACITY];
+    /**
+     * Absolute number of the oldest step kept and of the step after the newest
+     * one. Steps dropped at the front keep the numbers of the others stable.
+     */
+    private long firstStep, endStep;
+    private long firstPosition, endPosition;
+    private int position = -1;
+    /**
+     * Number of times steps after the position were dropped, and the absolute
+     * number of the first step dropped the last time. New steps reuse the
+     * numbers of the dropped ones.
+     */
+    private long truncations, truncatedStep;
+    /**
+     * Checkpoints in ascending order of their steps.
+     */
+    private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>();
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity Maximal number of steps kept. The transitions of the
+     * steps kept are limited to the same number, unless a single step fires
+     * more transitions.
+     * @param checkpointInterval Minimal number of steps between two
+     * checkpoints, 0 if no checkpoints are kept.
+     */
+    public SimulationHistory(int capacity, int checkpointInterval) {
+        this.capacity = capacity;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return Number of steps in the history.
+     */
+    public int size() {
+        return (int) (endStep - firstStep);
+    }
+
+    /**
+     * @return Absolute number of the oldest step. The numbers of the steps do
+     * not change when older steps are dropped.
+     */
+    public long getFirstStep() {
+        return firstStep;
+    }
+
+    /**
+     * @return Number of times steps after the position were dropped because a
+     * step was added there.
+     */
+    public long getTruncations() {
+        return truncations;
+    }
+
+    /**
+     * @return Absolute number of the first step dropped the last time steps
+     * after the position were dropped. Steps from this number on may have
+     * been replaced.
+     */
+    public long getTruncatedStep() {
+        return truncatedStep;
+    }
+
+    /**
+     * @return Index of the last performed step, -1 if the state before the
+     * oldest step is the current one.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the position without changing the steps.
+     *
+     * @param position Index between -1 and the number of steps - 1.
+     */
+    public void setPosition(int position) {
+        if (position < -1 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + " is not in the history of " + size() + " steps");
+        }
+        this.position = position;
+    }
+
+    /**
+     * Removes all steps and checkpoints.
+     */
+    public void clear() {
+        firstStep = endStep;
+        firstPosition = endPosition;
+        position = -1;
+        checkpoints.clear();
+    }
+
+    /**
+     * Removes all checkpoints but keeps the steps. Needed if the marking was
+     * changed by anything else than the steps of the history.
+     */
+    public void clearCheckpoints() {
+        checkpoints.clear();
+    }
+
+    /**
+     * Adds a step after the current position, which becomes the position of
+     * the new step. Later steps are dropped, and the oldest step if the
+     * history is full.
+     *
+     * @param step Ordinals of the fired transitions.
+     * @param length Number of transitions in step.
+     */
+    public void add(int[] step, int length) {
+        long start = reserve(length);
+        for (int i = 0; i < length; i++) {
+            transitions[(int) ((start + i) % transitions.length)] = step[i];
+        }
+    }
+
+    /**
+     * Adds all steps of another history up to its position after the current
+     * position, as {@link #add(int[], int)} does.
+     *
+     * @param other
+     */
+    public void append(SimulationHistory other) {
+        for (int index = 0; index <= other.position; index++) {
+            int length = other.getLength(index);
+            long start = reserve(length);
+            for (int i = 0; i < length; i++) {
+                transitions[(int) ((start + i) % transitions.length)] = other.getTransition(index, i);
+            }
+        }
+    }
+
+    /**
+     * Makes room for a step of the given length after the position.
+     *
+     * @return the absolute position of the first transition of the step.
+     */
+    private long reserve(int length) {
+        //drop the steps after the position
+        if (firstStep + position + 1 < endStep) {
+            truncations++;
+            truncatedStep = firstStep + position + 1;
+        }
+        endStep = firstStep + position + 1;
+        endPosition = (position < 0) ? firstPosition : stepStart[slot(endStep - 1)] + stepLength[slot(endStep - 1)];
+        while (!checkpoints.isEmpty() && checkpoints.peekLast().step >= endStep) {
+            checkpoints.pollLast();
+        }
+        //drop the oldest steps if the history is full
+        int transitionLimit = Math.max(capacity, length);
+        while (size() > 0 && (size() >= capacity || endPosition - firstPosition + length > transitionLimit)) {
+            firstPosition += stepLength[slot(firstStep)];
+            firstStep++;
+            position--;
+        }
+        while (!checkpoints.isEmpty() && checkpoints.peekFirst().step < firstStep - 1) {
+            checkpoints.pollFirst();
+        }
+        if (size() == stepStart.length) {
+            growSteps(Math.min(Math.max(capacity, 1), stepStart.length * 2));
+        }
+        if (endPosition - firstPosition + length > transitions.length) {
+            growTransitions(Math.min(transitionLimit, Math.max(transitions.length * 2, (int) (endPosition - firstPosition) + length)));
+        }
+        int slot = slot(endStep);
+        stepStart[slot] = endPosition;
+        stepLength[slot] = length;
+        long start = endPosition;
+        endStep++;
+        endPosition += length;
+        position = size() - 1;
+        return start;
+    }
+
+    private int slot(long step) {
+        return (int) (step % stepStart.length);
+    }
+
+    private void growSteps(int length) {
+        long[] newStart = new long[length];
+        int[] newLength = new int[length];
+        for (long step = firstStep; step < endStep; step++) {
+            newStart[(int) (step % length)] = stepStart[slot(step)];
+            newLength[(int) (step % length)] = stepLength[slot(step)];
+        }
+        stepStart = newStart;
+        stepLength = newLength;
+    }
+
+    private void growTransitions(int length) {
+        int[] newTransitions = new int[length];
+        for (long pos = firstPosition; pos < endPosition; pos++) {
+            newTransitions[(int) (pos % length)] = transitions[(int) (pos % transitions.length)];
+        }
+        transitions = newTransitions;
+    }
+
+    /**
+     * @param index Index of a step.
+     * @return Number of transitions fired in the step.
+     */
+    public int getLength(int index) {
+        return stepLength[slot(firstStep + index)];
+    }
+
+    /**
+     * @param index Index of a step.
+     * @param k Index of a transition of the step.
+     * @return Ordinal of the k-th transition fired in the step.
+     */
+    public int getTransition(int index, int k) {
+        return transitions[(int) ((stepStart[slot(firstStep + index)] + k) % transitions.length)];
+    }
+
+    /**
+     * @param index Index of a step.
+     * @param netTransitions The transitions by ordinal.
+     * @return The transitions fired in the step.
+     */
+    public Transition[] getStep(int index, Transition[] netTransitions) {
+        Transition[] step = new Transition[getLength(index)];
+        for (int k = 0; k < step.length; k++) {
+            step[k] = netTransitions[getTransition(index, k)];
+        }
+        return step;
+    }
+
+    /**
+     * @param index Index of a step.
+     * @param netTransitions The transitions by ordinal.
+     * @return The sorted names of the transitions fired in the step.
+     */
+    public String getLabel(int index, Transition[] netTransitions) {
+        Transition[] step = getStep(index, netTransitions);
+        Arrays.sort(step);
+        StringBuilder sb = new StringBuilder();
+        for (Transition t : step) {
+            sb.append(", ").append(t.toString());
+        }
+        return (sb.length() == 0) ? "" : sb.substring(2);
+    }
+
+    /**
+     * Creates a history with the last steps up to the position of this one,
+     * without checkpoints.
+     *
+     * @param maxSteps Maximal number of steps copied.
+     * @return the copy
+     */
+    public SimulationHistory copy(int maxSteps) {
+        SimulationHistory copy = new SimulationHistory(capacity, checkpointInterval);
+        for (int index = Math.max(0, position + 1 - maxSteps); index <= position; index++) {
+            int length = getLength(index);
+            long start = copy.reserve(length);
+            for (int i = 0; i < length; i++) {
+                copy.transitions[(int) ((start + i) % copy.transitions.length)] = getTransition(index, i);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return Whether the nearest checkpoint at or before the position is at
+     * least the checkpoint interval steps away, or does not exist.
+     */
+    public boolean needsCheckpoint() {
+        if (checkpointInterval <= 0) {
+            return false;
+        }
+        int checkpoint = getCheckpointIndex(position);
+        return checkpoint == NO_CHECKPOINT || position - checkpoint >= checkpointInterval;
+    }
+
+    /**
+     * Stores the marking reached after the step at the position.
+     *
+     * @param marking Tokens by place ordinal. The array is kept and must not
+     * be modified afterwards.
+     */
+    public void addCheckpoint(long[] marking) {
+        long step = firstStep + position;
+        while (!checkpoints.isEmpty() && checkpoints.peekLast().step >= step) {
+            checkpoints.pollLast();
+        }
+        checkpoints.addLast(new Checkpoint(step, marking));
+    }
+
+    /**
+     * @param index Index of a step, or -1.
+     * @return Index of the step after which the nearest checkpoint at or
+     * before the given step was stored, -1 for a checkpoint of the state
+     * before the oldest step, {@link #NO_CHECKPOINT} if there is none.
+     */
+    public int getCheckpointIndex(int index) {
+        long step = firstStep + index;
+        Iterator<Checkpoint> it = checkpoints.descendingIterator();
+        while (it.hasNext()) {
+            Checkpoint checkpoint = it.next();
+            if (checkpoint.step <= step) {
+                return (int) (checkpoint.step - firstStep);
+            }
+        }
+        return NO_CHECKPOINT;
+    }
+
+    /**
+     * @param index Index returned by {@link #getCheckpointIndex(int)}.
+     * @return The marking of the checkpoint, by place ordinal. Must not be
+     * modified.
+     */
+    public long[] getCheckpointMarking(int index) {
+        long step = firstStep + index;
+        for (Checkpoint checkpoint : checkpoints) {
+            if (checkpoint.step == step) {
+                return checkpoint.marking;
+            }
+        }
+        throw new IllegalArgumentException("No checkpoint after step " + index);
+    }
+
+    private static final class Checkpoint {
+
+        private final long step;
+        private final long[] marking;
+
+        Checkpoint(long step, long[] marking) {
+            this.step = step;
+            this.marking = marking;
+        }
+    }
+}
@@ -18,14 +18,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import javax.swing.DefaultListModel;
 import monalisa.addons.tokensimulator.exceptions.PlaceConstantException;
 import monalisa.addons.tokensimulator.exceptions.PlaceNonConstantException;
 import monalisa.addons.tokensimulator.listeners.GuiEvent;
@@ -68,8 +66,12 @@ public class SimulationManager {
     private AbstractTokenSim tokenSim;
 
     //simulation
-    //Links token numbers to place-id's. Does not contain constant places.
+    //Links token numbers to place-id's. Does not contain constant places. After compileState(), a view of the state.
     public Map<Integer, Long> marking;
+    /**
+     * Compiled Petri net with the current marking and the enabled transitions.
+     */
+    private SimulationState state;
     /*
      * Constant places have a MathematicalExpression defining the number of tokens.
      */
@@ -85,16 +87,19 @@ public class SimulationManager {
     protected Set<Transition> activeTransitions;
     //history
     //define how many steps are to be stored for the history.
-    private static final int MAX_HISTORY = 100;
-    //List of an array of Transitions. Each array saves transition that were fired in one step.
-    public ArrayList<Transition[]> historyArrayList;
-    //ListModel of the historyList; stores names of fired transitions for each step.
-    public DefaultListModel<String> historyListModel;
-    //saves the index of the last performed step in the historyList
-    public int lastHistoryStep;
+    static final int MAX_HISTORY = 1000000;
+    //minimal number of steps between two markings stored in the history.
+    static final int HISTORY_CHECKPOINT_INTERVAL = 1000;
+    //Transitions fired in each step, by ordinal, and the index of the last performed step.
+    private final SimulationHistory history = new SimulationHistory(MAX_HISTORY, HISTORY_CHECKPOINT_INTERVAL);
+    //Ordinals of the transitions of the step added to the history.
+    private int[] historyStep = new int[0];
 
     //A snapshot of the state will be created after every saveStateSnapshotInterval steps are performed.
     private int snapshotsInterval;
+    static final int SNAPSHOT_INTERVAL = 100;
+    //define how many steps of the history are stored in a snapshot.
+    static final int SNAPSHOT_HISTORY = 1000;
 
     //statistic of the current state.
     public Statistic currStatistic;
@@ -151,6 +156,9 @@ public class SimulationManager {
             fireGuiUpdateCall(GuiEvent.UPDATE_PLOT);
         }
         LOGGER.info("Fire transitions that are supposed to fire");
+        if (history && this.history.needsCheckpoint()) {
+            this.history.addCheckpoint(this.getState().copyMarking());
+        }
         for (Transition transition : transitions) {
             //tells the currStatistic that transition was fired
             this.currStatistic.transitionFired(transition);
@@ -169,30 +177,11 @@ public class SimulationManager {
 //                this.moveTokens(transitionNode, prePlaceNodes.toArray(new NetViewerNode[0]), postPlaceNodes.toArray(new NetViewerNode[0]));
 //            }
             //START computing new state
-            //Saves the token number for the place before firing a transition.
-            long newToken;
-            //Substract tokens from all input places. If a place is constant, skip this step.
-            LOGGER.debug("Subtract tokens from the input places to the currently processed transition");
-            for (Place place : this.petriNet.getInputPlacesFor(transition)) {
-                if (!place.isConstant()) {
-                    //copmute tokens for preplace
-                    newToken = this.marking.get(place.id()) - this.petriNet.getArc(place, transition).weight();
-                    this.marking.put(place.id(), newToken);
-                    //add all post-transitions of the place to checkTransitions
-                    this.getTokenSim().addTransitionsToCheck(this.petriNet.getTransitionsFor(place).toArray(new Transition[0]));
-                }
-            }
-            //add tokens to all output places
-            LOGGER.debug("Add tokens to the output places from the currently processed transition");
-            for (Place place : this.petriNet.getPlacesFor(transition)) {
-                //compute tokens for preplace. If a place is constant, skip this step.
-                if (!place.isConstant()) {
-                    newToken = this.marking.get(place.id()) + this.petriNet.getArc(transition, place).weight();
-                    this.marking.put(place.id(), newToken);
-                    //add all post-transitions of the place to checkTransitions
-                    this.getTokenSim().addTransitionsToCheck(this.petriNet.getTransitionsFor(place).toArray(new Transition[0]));
-                }
-            }
+            //The compiled state applies the net changes of the transition to the non-constant places.
+            int t = this.getState().getNet().getTransitionOrdinal(transition.id());
+            this.state.fire(t);
+            //add all post-transitions of the changed places to checkTransitions
+            this.getTokenSim().addTransitionsToCheck(this.state.getNet().getDependentTransitions(t));
             //END computing new state
         }
 
@@ -208,7 +197,7 @@ public class SimulationManager {
         this.currStatistic.incrementSteps();
         //check whether to save snapshot of current state
         try {
-            int k = MAX_HISTORY;
+            int k = SNAPSHOT_INTERVAL;
             this.snapshotsInterval = (0 > k) ? 0 : k;
         } catch (NumberFormatException E) {
             LOGGER.error(E);
@@ -233,6 +222,55 @@ public class SimulationManager {
         }
     }
 
+    /**
+     * Takes over the state reached by a HeadlessTokenSim. The marking and the
+     * simulated time are replaced, the statistic and the step counter are
+     * advanced by all steps of the frame and its last steps are added to the
+     * history; if the frame does not contain all its steps, the history is
+     * cleared first. A snapshot is saved if the frame crossed a snapshot
+     * interval.
+     *
+     * @param frame
+     */
+    public void applyFrame(HeadlessTokenSim.Frame frame) {
+        LOGGER.debug("Applying a frame of " + frame.getSteps() + " steps");
+        if (frame.getHistory().size() < frame.getSteps()) {
+            //the steps leading from the current state to the first step of the frame history are unknown
+            this.history.clear();
+        } else if (this.history.needsCheckpoint()) {
+            this.history.addCheckpoint(this.getState().copyMarking());
+        }
+        long[] frameMarking = frame.getMarking();
+        boolean[] constant = this.getState().getNet().getConstant();
+        for (int p = 0; p < frameMarking.length; p++) {
+            if (!constant[p]) {
+                this.state.setTokens(p, frameMarking[p]);
+            }
+        }
+        this.getTokenSim().setSimulatedTime(frame.getTime());
+        Transition[] transitions = frame.getTransitions();
+        int[] firings = frame.getFirings();
+        for (int t = 0; t < transitions.length; t++) {
+            if (firings[t] > 0) {
+                this.currStatistic.transitionFired(transitions[t], firings[t]);
+            }
+        }
+        this.getTokenSim().addTransitionsToCheck(this.petriNet.transitions().toArray(new Transition[0]));
+        this.getTokenSim().computeActiveTransitions();
+
+        this.history.append(frame.getHistory());
+        if (this.history.needsCheckpoint()) {
+            this.history.addCheckpoint(this.state.copyMarking());
+        }
+        fireGuiUpdateCall(GuiEvent.HISTORY);
+        int previousStepNr = this.totalStepNr;
+        this.totalStepNr += frame.getSteps();
+        this.currStatistic.incrementSteps(frame.getSteps());
+        if ((boolean) this.getPreferences().get("SaveSnapshots") && this.totalStepNr / SNAPSHOT_INTERVAL != previousStepNr / SNAPSHOT_INTERVAL) {
+            fireGuiUpdateCall(GuiEvent.SNAPSHOT);
+        }
+    }
+
     /**
      * Fires given transitions backwards, i.e. for each transition, tokens will
      * be added to its pre-places and subtracted from the post-places.
@@ -248,27 +286,11 @@ public class SimulationManager {
         for (Transition transition : transitions) {
             LOGGER.debug("Changing the current mode of Simulation to reverse");
             this.currStatistic.transitionReverseFired(transition);              //tells the currStatistic object that transition-firing was canceled
-            long newToken;
-            //add tokens to all input places
-            LOGGER.debug("Add tokens on the output places to the currently processed transition");
-            for (Place place : this.petriNet.getInputPlacesFor(transition)) {
-                if (!place.isConstant()) {
-                    newToken = this.marking.get(place.id()) + this.petriNet.getArc(place, transition).weight();
-                    this.marking.put(place.id(), newToken);
-                    //add all post-transitions of the place to checkTransitions
-                    this.getTokenSim().addTransitionsToCheck(this.petriNet.getTransitionsFor(place).toArray(new Transition[0]));
-                }
-            }
-            //remove tokens from all output places
-            LOGGER.debug("Subtract tokens from the input places to the currently processed transition");
-            for (Place place : this.petriNet.getPlacesFor(transition)) {
-                if (!place.isConstant()) {
-                    newToken = this.marking.get(place.id()) - this.petriNet.getArc(transition, place).weight();
-                    this.marking.put(place.id(), newToken);
-                    //add all post-transitions of the place to checkTransitions
-                    this.getTokenSim().addTransitionsToCheck(this.petriNet.getTransitionsFor(place).toArray(new Transition[0]));
-                }
-            }
+            //add tokens to all input places and remove tokens from all output places
+            int t = this.getState().getNet().getTransitionOrdinal(transition.id());
+            this.state.reverseFire(t);
+            //add all post-transitions of the changed places to checkTransitions
+            this.getTokenSim().addTransitionsToCheck(this.state.getNet().getDependentTransitions(t));
             //compute active transitions after firing complete step
             LOGGER.debug("Compute active transitions after firing one");
             this.getTokenSim().computeActiveTransitions();
@@ -277,45 +299,179 @@ public class SimulationManager {
 
     /**
      * Given transitions are considered to be fired in one step and will be
-     * added to historyArrayList and historyListModel as one step
+     * added to the history as one step
      *
      * @param transitions
      */
     private void addHistoryEntry(Transition... transitions) {
         LOGGER.info("Adding a new entry into the history of the simulation");
         /*
-         * If the new step is not a part of the history, and the last fired step is not
-         * the last in the historyArrayList, so perform the step and delete all history entries after.
+         * If the last fired step is not the last in the history, all history entries after it are deleted.
          * I.e., if the history is interrupted with a new step, the newer history becomes not actual.
+         * If the limit size of history is reached, the first history entry is removed.
          */
-        if (this.lastHistoryStep < this.historyArrayList.size() - 1) {
-            this.historyListModel.removeRange(this.lastHistoryStep + 1, this.historyArrayList.size() - 1);
-            while (this.lastHistoryStep < this.historyArrayList.size() - 1) {
-                this.historyArrayList.remove(this.historyArrayList.size() - 1);
-            }
+        if (this.historyStep.length < transitions.length) {
+            this.historyStep = new int[transitions.length];
         }
-
-        //check whether the limit size of history is reached. If it is, remove the first history entry
-        if (this.historyListModel.getSize() >= SimulationManager.MAX_HISTORY) {
-            this.historyListModel.remove(0);
-            this.historyArrayList.remove(0);
-            this.lastHistoryStep--;
+        CompiledPetriNet net = this.getState().getNet();
+        for (int i = 0; i < transitions.length; i++) {
+            this.historyStep[i] = net.getTransitionOrdinal(transitions[i].id());
         }
-        StringBuilder historyOutSB = new StringBuilder();
-        Arrays.sort(transitions);
-        for (Transition t : transitions) {
-            historyOutSB.append(", ").append(t.toString());
-        }
-        //add the fired transition to the history list
-        this.historyListModel.addElement(historyOutSB.substring(2));
-        this.historyArrayList.add(transitions);
-        this.historyArrayList.trimToSize();
+        this.history.add(this.historyStep, transitions.length);
+
+        fireGuiUpdateCall(GuiEvent.HISTORY);
+    }
+
+    /**
+     * @return Number of steps in the history.
+     */
+    public int getHistorySize() {
+        return this.history.size();
+    }
+
+    /**
+     * @return Absolute number of the oldest step in the history, see
+     * {@link SimulationHistory#getFirstStep()}.
+     */
+    public long getHistoryFirstStep() {
+        return this.history.getFirstStep();
+    }
+
+    /**
+     * @return Number of times steps after the position were dropped from the
+     * history, see {@link SimulationHistory#getTruncations()}.
+     */
+    public long getHistoryTruncations() {
+        return this.history.getTruncations();
+    }
+
+    /**
+     * @return Absolute number of the first step dropped the last time steps
+     * after the position were dropped from the history.
+     */
+    public long getHistoryTruncatedStep() {
+        return this.history.getTruncatedStep();
+    }
+
+    /**
+     * @return Index of the last performed step in the history, -1 if no step
+     * of the history was performed.
+     */
+    public int getHistoryPosition() {
+        return this.history.getPosition();
+    }
 
-        this.lastHistoryStep++;
+    /**
+     * @param index Index of a step in the history.
+     * @return The transitions fired in the step.
+     */
+    public Transition[] getHistoryStep(int index) {
+        return this.history.getStep(index, this.getState().getNet().getTransitions());
+    }
 
+    /**
+     * @param index Index of a step in the history.
+     * @return The sorted names of the transitions fired in the step, separated
+     * by commas.
+     */
+    public String getHistoryLabel(int index) {
+        return this.history.getLabel(index, this.getState().getNet().getTransitions());
+    }
+
+    /**
+     * @return A copy of the last steps of the history, as stored in
+     * snapshots.
+     */
+    public SimulationHistory copyHistory() {
+        return this.history.copy(SNAPSHOT_HISTORY);
+    }
+
+    /**
+     * Removes all steps from the history.
+     */
+    public void clearHistory() {
+        LOGGER.info("Clearing the history of the simulation");
+        this.history.clear();
         fireGuiUpdateCall(GuiEvent.HISTORY);
     }
 
+    /**
+     * Fires the last performed step of the history backwards.
+     */
+    public void stepBackInHistory() {
+        int position = this.history.getPosition();
+        this.reverseFireTransitions(this.getHistoryStep(position));
+        this.history.setPosition(position - 1);
+    }
+
+    /**
+     * Fires the step of the history after the last performed one.
+     */
+    public void stepForwardInHistory() {
+        int position = this.history.getPosition() + 1;
+        this.history.setPosition(position);
+        this.fireTransitions(false, this.getHistoryStep(position));
+    }
+
+    /**
+     * Makes the given step of the history the last performed one. Later
+     * steps are fired again. Earlier steps are fired backwards, or, if it
+     * takes fewer steps, the state is restored from the nearest checkpoint
+     * before the given step and the steps after the checkpoint are fired
+     * again.
+     *
+     * @param index Index of a step in the history, -1 for the state before
+     * the first step.
+     */
+    public void goToHistoryStep(int index) {
+        LOGGER.info("Going to step " + index + " of the history");
+        int position = this.history.getPosition();
+        if (index < position) {
+            int checkpoint = this.history.getCheckpointIndex(index);
+            if (checkpoint != SimulationHistory.NO_CHECKPOINT && index - checkpoint < position - index) {
+                restoreHistoryCheckpoint(checkpoint, index);
+            } else {
+                while (index < this.history.getPosition()) {
+                    stepBackInHistory();
+                }
+            }
+        }
+        while (index > this.history.getPosition()) {
+            stepForwardInHistory();
+        }
+    }
+
+    /**
+     * Goes back from the current position of the history to the given step by
+     * loading the marking of a checkpoint and firing the steps after it.
+     */
+    private void restoreHistoryCheckpoint(int checkpoint, int index) {
+        LOGGER.debug("Restoring the marking after step " + checkpoint + " of the history");
+        Transition[] transitions = this.getState().getNet().getTransitions();
+        for (int step = this.history.getPosition(); step > index; step--) {
+            for (int k = 0; k < this.history.getLength(step); k++) {
+                this.currStatistic.transitionReverseFired(transitions[this.history.getTransition(step, k)]);
+            }
+            this.currStatistic.decrementSteps();
+            this.totalStepNr--;
+        }
+        long[] checkpointMarking = this.history.getCheckpointMarking(checkpoint);
+        boolean[] constant = this.state.getNet().getConstant();
+        for (int p = 0; p < checkpointMarking.length; p++) {
+            if (!constant[p]) {
+                this.state.setTokens(p, checkpointMarking[p]);
+            }
+        }
+        for (int step = checkpoint + 1; step <= index; step++) {
+            for (int k = 0; k < this.history.getLength(step); k++) {
+                this.state.fire(this.history.getTransition(step, k));
+            }
+        }
+        this.history.setPosition(index);
+        this.getTokenSim().addTransitionsToCheck(this.petriNet.transitions().toArray(new Transition[0]));
+        this.getTokenSim().computeActiveTransitions();
+    }
+
     /**
      * Loads the given snapshot and makes it to current state
      *
@@ -325,22 +481,9 @@ public class SimulationManager {
         LOGGER.debug("Loading an older snapshot of the simulation");
         this.totalStepNr = snapshot.getStepNr();
 
-        //deep copy of historyListModel
-        this.historyListModel.clear();
-        for (String entryName : snapshot.getHistoryListModelNames()) {
-            this.historyListModel.addElement(entryName);
-        }
-
-        //deep copy of historyArrayList
-        this.historyArrayList.clear();
-        for (Transition[] tt : snapshot.getHistoryArrayList()) {
-            Transition[] temp = new Transition[tt.length];
-            int i = 0;
-            for (Transition t : tt) {
-                temp[i++] = t;
-            }
-            this.historyArrayList.add(temp);
-        }
+        //copy of the history
+        this.history.clear();
+        this.history.append(snapshot.getHistory());
 
         //Copy the marking of the snapshot.
         this.marking.putAll(snapshot.getMarking());
@@ -350,7 +493,8 @@ public class SimulationManager {
         this.getTokenSim().addTransitionsToCheck(this.petriNet.transitions().toArray(new Transition[0]));
         this.getTokenSim().computeActiveTransitions();
 
-        this.lastHistoryStep = this.historyArrayList.size() - 1;
+        this.history.addCheckpoint(this.getState().copyMarking());
+        fireGuiUpdateCall(GuiEvent.HISTORY);
     }
 
     /**
@@ -516,6 +660,8 @@ public class SimulationManager {
         Place p = petriNet.findPlace(id);
         if (!petriNet.findPlace(id).isConstant()) {
             this.marking.put(id, tokens);
+            //the checkpoints were taken before the change and cannot be restored
+            this.history.clearCheckpoints();
             //add all post-transitions of the place to checkTransitions and compute active transitions
             this.getTokenSim().addTransitionsToCheck(this.petriNet.getTransitionsFor(p).toArray(new Transition[0]));
             this.getTokenSim().computeActiveTransitions();
@@ -608,9 +754,8 @@ public class SimulationManager {
             //if the place is already constant, do nothing.
             if (!p.isConstant()) {
                 try {
-                    p.setConstant(true);
                     long oldVal = this.marking.get(id);
-                    this.marking.remove(id);
+                    p.setConstant(true);
                     this.constantPlaces.put(id, new MathematicalExpression(String.valueOf(oldVal)));
                     /*
                     Add post-transitions of a constant place to a corresponding map.
@@ -618,6 +763,7 @@ public class SimulationManager {
                     for (Transition t : p.outputs()) {
                         this.constantPlacesPostTransitions.add(t);
                     }
+                    compileState();
                 } catch (RuntimeException ex) {
                     LOGGER.error("Issue while setting place to constant: ", ex);
                 }
@@ -634,11 +780,48 @@ public class SimulationManager {
                 for (Transition t : p.outputs()) {
                     this.constantPlacesPostTransitions.remove(t);
                 }
+                compileState();
                 this.marking.put(id, value);
             }
         }
     }
 
+    /**
+     * Compiles the Petri net with the current constant flags of its places
+     * and takes over the tokens of the non-constant places from the marking.
+     * Afterwards the marking-map is a view of the compiled state. Must be
+     * called after the initial marking was created and whenever a place
+     * becomes constant or non-constant.
+     */
+    public void compileState() {
+        LOGGER.debug("Compiling the simulation state");
+        Map<Integer, Long> current = this.marking;
+        this.state = new SimulationState(new CompiledPetriNet(this.petriNet));
+        if (current != null) {
+            Place[] places = this.state.getNet().getPlaces();
+            for (int p = 0; p < places.length; p++) {
+                Long tokens = current.get(places[p].id());
+                if (!places[p].isConstant() && tokens != null) {
+                    this.state.setTokens(p, tokens);
+                }
+            }
+        }
+        this.marking = this.state.asMap();
+    }
+
+    /**
+     * Returns the compiled state of the simulation, which the token simulators
+     * use to determine the enabled transitions. Compiled on first use.
+     *
+     * @return the state
+     */
+    public SimulationState getState() {
+        if (this.state == null) {
+            compileState();
+        }
+        return this.state;
+    }
+
     /**
      *
      * @return PetriNetFacade of the current project
@@ -27,8 +27,12 @@ import javax.swing.DefaultListModel;
 import javax.swing.Icon;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.xml.parsers.ParserConfigurationException;
@@ -46,6 +50,7 @@ import monalisa.addons.tokensimulator.gillespie.GillespieTokenSim;
 import monalisa.addons.tokensimulator.gillespie.GillespieTokenSimPanel;
 import monalisa.addons.tokensimulator.gillespie.GillespieTokenSimPrefPanel;
 import monalisa.addons.tokensimulator.utils.HistoryCellRenderer;
+import monalisa.addons.tokensimulator.utils.HistoryListModel;
 import monalisa.addons.tokensimulator.listeners.CustomMarkingsComboBoxPopupListener;
 import monalisa.addons.tokensimulator.listeners.GuiEvent;
 import monalisa.addons.tokensimulator.listeners.GuiListener;
@@ -121,11 +126,15 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
      * at different time points.
      */
     public Map<Place, XYSeries> seriesMap = null;
+    //ListModel of the historyList; shows the steps of the history of the SimulationManager.
+    private HistoryListModel historyListModel;
     //snapshots
     //saves state snapshots. A snapshot includes marking, history and statistic for each state
     private ArrayList<Snapshot> snapshots;
+    //runner of the replications in progress, null if none are running.
+    private volatile ReplicationRunner replicationRunner = null;
     //ListModel of the snapshotsList; stores names of the snapshots, which are represented by the number of performed step.
-    public DefaultListModel snapshotsListModel;
+    public DefaultListModel<String> snapshotsListModel;
 
     /**
      * Creates new form TopologcialPanel
@@ -151,13 +160,15 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         simModeJComboBox.setSelectedIndex(0); // shows asyncronous by default
 
         //history
-        this.simulationMan.historyListModel = new DefaultListModel();
-        historyJList.setModel(this.simulationMan.historyListModel);
+        historyListModel = new HistoryListModel(simulationMan);
+        historyJList.setModel(historyListModel);
         historyJList.setCellRenderer(new HistoryCellRenderer(simulationMan));
+        //fixed cell sizes, so the list does not measure every entry of a long history
+        historyJList.setPrototypeCellValue("MMMMMMMMMMMMMMMMMMMMMMMM");
         historyJList.addListSelectionListener(new HistorySelectionListener(historyBackJButton, historyForwardJButton, historyJList, simulationMan));
 
         //snapshots
-        snapshotsListModel = new DefaultListModel();
+        snapshotsListModel = new DefaultListModel<>();
         snapshotsJList.setModel(snapshotsListModel);
         snapshotsJList.addListSelectionListener(new SnapshotsListSelectionListener(this, snapshotsJList, vv));
 
@@ -171,11 +182,11 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
                 LOGGER.info("Backwards button in the history has been pressed, going one step back");
                 historyForwardJButton.setEnabled(true);
                 //cancel the last performed step
-                simulationMan.reverseFireTransitions(simulationMan.historyArrayList.get(simulationMan.lastHistoryStep--));
+                simulationMan.stepBackInHistory();
                 historyJList.repaint();
-                historyJList.ensureIndexIsVisible(simulationMan.lastHistoryStep);
+                historyJList.ensureIndexIsVisible(simulationMan.getHistoryPosition());
                 //if no steps were performed before, disable stepBackButton
-                if (simulationMan.lastHistoryStep < 0) {
+                if (simulationMan.getHistoryPosition() < 0) {
                     historyBackJButton.setEnabled(false);
                 }
                 simulationMan.updateVisualOutput();
@@ -189,11 +200,11 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
                 LOGGER.info("Forwards button in the history has been pressed, going one step forward");
                 historyBackJButton.setEnabled(true);
                 //perform the next step after last performed
-                simulationMan.fireTransitions(false, simulationMan.historyArrayList.get(++simulationMan.lastHistoryStep));
+                simulationMan.stepForwardInHistory();
                 historyJList.repaint();
-                historyJList.ensureIndexIsVisible(simulationMan.lastHistoryStep);
+                historyJList.ensureIndexIsVisible(simulationMan.getHistoryPosition());
                 //if no steps in history left, disable stepForwardButton
-                if (simulationMan.lastHistoryStep == simulationMan.historyArrayList.size() - 1) {
+                if (simulationMan.getHistoryPosition() == simulationMan.getHistorySize() - 1) {
                     historyForwardJButton.setEnabled(false);
                 }
                 simulationMan.updateVisualOutput();
@@ -289,12 +300,12 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         loadSetupButton = new javax.swing.JButton();
         snapshotsScrollPane = new javax.swing.JScrollPane();
         this.snapshotsScrollPane.getHorizontalScrollBar().setUnitIncrement(16);
-        snapshotsJList = new javax.swing.JList();
+        snapshotsJList = new javax.swing.JList<>();
         saveSetupButton = new javax.swing.JButton();
         jPanel4 = new javax.swing.JPanel();
         historyBackJButton = new javax.swing.JButton();
         historyScrollPane = new javax.swing.JScrollPane();
-        historyJList = new javax.swing.JList();
+        historyJList = new javax.swing.JList<>();
         historyForwardJButton = new javax.swing.JButton();
         historyJLabel = new javax.swing.JLabel();
         jPanel5 = new javax.swing.JPanel();
@@ -305,6 +316,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         showPlotButton = new javax.swing.JButton();
         showStatisticsJButton = new javax.swing.JButton();
         preferencesJButton = new javax.swing.JButton();
+        replicationsJButton = new javax.swing.JButton();
         customControlScrollPane = new javax.swing.JScrollPane();
         this.customControlScrollPane.getVerticalScrollBar().setUnitIncrement(16);
 
@@ -567,6 +579,22 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         gridBagConstraints.insets = new java.awt.Insets(9, 0, 0, 0);
         jPanel6.add(preferencesJButton, gridBagConstraints);
 
+        replicationsJButton.setText(monalisa.addons.tokensimulator.SimulationManager.strings.get("TSReplicationsB"));
+        replicationsJButton.setToolTipText(monalisa.addons.tokensimulator.SimulationManager.strings.get("TSReplicationsTT"));
+        replicationsJButton.setEnabled(false);
+        replicationsJButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                replicationsJButtonActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 2;
+        gridBagConstraints.gridwidth = 2;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.insets = new java.awt.Insets(9, 0, 0, 0);
+        jPanel6.add(replicationsJButton, gridBagConstraints);
+
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 3;
@@ -683,6 +711,95 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         showPlot();
     }//GEN-LAST:event_showPlotButtonActionPerformed
 
+    /**
+     * Runs independent replications of the current simulation mode from the
+     * current state on all processors and writes their statistics into a tab
+     * separated file.
+     *
+     * @param evt
+     */
+    private void replicationsJButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_replicationsJButtonActionPerformed
+        HeadlessTokenSim prototype = createHeadlessPrototype();
+        if (prototype == null) {
+            JOptionPane.showMessageDialog(this, SimulationManager.strings.get("TSReplicationsUnsupported"),
+                    SimulationManager.strings.get("Error"), JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JSpinner replicationsSpinner = new JSpinner(new SpinnerNumberModel(100, 2, 1000000, 100));
+        JSpinner stepsSpinner = new JSpinner(new SpinnerNumberModel(Long.valueOf(10000), Long.valueOf(1), Long.valueOf(Long.MAX_VALUE), Long.valueOf(1000)));
+        JPanel inputPanel = new JPanel(new java.awt.GridLayout(2, 2, 5, 5));
+        inputPanel.add(new JLabel(SimulationManager.strings.get("TSReplicationsNumber")));
+        inputPanel.add(replicationsSpinner);
+        inputPanel.add(new JLabel(SimulationManager.strings.get("TSReplicationsSteps")));
+        inputPanel.add(stepsSpinner);
+        if (JOptionPane.showConfirmDialog(this, inputPanel, SimulationManager.strings.get("TSReplicationsB"),
+                JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        MonaLisaFileChooser fc = new MonaLisaFileChooser();
+        fc.addChoosableFileFilter(new MonaLisaFileFilter("tsv", "Tab separated values"));
+        fc.setDialogType(JFileChooser.SAVE_DIALOG);
+        fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File outFile = fc.getSelectedFile();
+        if (!outFile.getName().contains(".")) {
+            outFile = new File(outFile.getAbsolutePath() + ".tsv");
+        }
+        final File resultFile = outFile;
+        ReplicationRunner runner = new ReplicationRunner(prototype, Runtime.getRuntime().availableProcessors());
+        replicationRunner = runner;
+        replicationsJButton.setEnabled(false);
+        runner.run((int) replicationsSpinner.getValue(), (long) stepsSpinner.getValue(), simulationMan.getTokenSim().getRandom().nextLong())
+                .whenComplete((result, ex) -> {
+                    runner.shutdown();
+                    boolean written = false;
+                    if (ex != null) {
+                        LOGGER.error("Replications of the simulation failed", ex);
+                    } else {
+                        try {
+                            result.write(resultFile);
+                            written = true;
+                        } catch (IOException ioEx) {
+                            LOGGER.error("IOException while trying to write the statistics of the replications", ioEx);
+                        }
+                    }
+                    final boolean success = written;
+                    SwingUtilities.invokeLater(() -> {
+                        replicationRunner = null;
+                        replicationsJButton.setEnabled(endSimulationJButton.isEnabled());
+                        if (success) {
+                            JOptionPane.showMessageDialog(this, SimulationManager.strings.get("TSReplicationsDone"));
+                        } else {
+                            JOptionPane.showMessageDialog(this, SimulationManager.strings.get("TSReplicationsFailed"),
+                                    SimulationManager.strings.get("Error"), JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                });
+    }//GEN-LAST:event_replicationsJButtonActionPerformed
+
+    /**
+     * Creates a headless core of the current simulation mode in the current
+     * state, as the simulation workers do.
+     *
+     * @return the core, null if the mode has no headless core.
+     */
+    private HeadlessTokenSim createHeadlessPrototype() {
+        AbstractTokenSim tokenSim = simulationMan.getTokenSim();
+        if (tokenSim instanceof AsynchronousTokenSim) {
+            return HeadlessTokenSim.asynchronous(simulationMan, tokenSim.getRandom());
+        }
+        if (tokenSim instanceof SynchronousTokenSim) {
+            return HeadlessTokenSim.synchronous(simulationMan, tokenSim.getRandom());
+        }
+        if (tokenSim instanceof StochasticTokenSim) {
+            StochasticTokenSim stochTS = (StochasticTokenSim) tokenSim;
+            return HeadlessTokenSim.stochastic(simulationMan, stochTS.getRandom(), stochTS.getFiringRates(), stochTS.getSimulatedTime());
+        }
+        return null;
+    }
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     protected javax.swing.JScrollPane customControlScrollPane;
     protected javax.swing.JComboBox customMarkingsJComboBox;
@@ -691,7 +808,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
     protected javax.swing.JButton historyBackJButton;
     protected javax.swing.JButton historyForwardJButton;
     private javax.swing.JLabel historyJLabel;
-    protected javax.swing.JList historyJList;
+    protected javax.swing.JList<String> historyJList;
     protected javax.swing.JScrollPane historyScrollPane;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JPanel jPanel2;
@@ -701,6 +818,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
     private javax.swing.JPanel jPanel6;
     protected javax.swing.JButton loadSetupButton;
     protected javax.swing.JButton preferencesJButton;
+    protected javax.swing.JButton replicationsJButton;
     protected javax.swing.JButton saveMarkingJButton;
     protected javax.swing.JButton saveSetupButton;
     protected javax.swing.JButton showPlotButton;
@@ -708,7 +826,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
     protected javax.swing.JComboBox simModeJComboBox;
     private javax.swing.JLabel simModeJLabel;
     private javax.swing.JLabel snapshotsJLabel;
-    protected javax.swing.JList snapshotsJList;
+    protected javax.swing.JList<String> snapshotsJList;
     private javax.swing.JScrollPane snapshotsScrollPane;
     protected javax.swing.JButton startSimulationJButton;
     // End of variables declaration//GEN-END:variables
@@ -790,6 +908,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         startSimulationJButton.setEnabled(false);
         endSimulationJButton.setEnabled(true);
         showStatisticsJButton.setEnabled(true);
+        replicationsJButton.setEnabled(replicationRunner == null);
         saveMarkingJButton.setEnabled(true);
         deleteMarkingJButton.setEnabled(true);
         historyJList.setEnabled(true);
@@ -823,9 +942,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         vertexSize = (int) netViewer.getIconSize(); // input from control is displayed in simulator (icon size doesn't change anymore)
         //vertexSize = (int) iconSizeSpinner.getValue();
         //create clear history
-        simulationMan.lastHistoryStep = -1;
-        simulationMan.historyArrayList = new ArrayList<>();
-        simulationMan.historyListModel.clear();
+        simulationMan.clearHistory();
         //create clear snapshot list
         snapshots = new ArrayList<>();
         snapshotsListModel.clear();
@@ -856,6 +973,8 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
                 }
             }
         }
+        //compile the Petri net with the initial marking
+        simulationMan.compileState();
         //create new empty activeTransitions list
         simulationMan.activeTransitions = new HashSet<>();
         //create clear statistic
@@ -916,6 +1035,10 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
         historyBackJButton.setEnabled(false);
         historyForwardJButton.setEnabled(false);
         showStatisticsJButton.setEnabled(false);
+        replicationsJButton.setEnabled(false);
+        if (replicationRunner != null) {
+            replicationRunner.requestStop();
+        }
         saveMarkingJButton.setEnabled(false);
         deleteMarkingJButton.setEnabled(false);
         historyJList.setEnabled(false);
@@ -1028,7 +1151,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
     public void loadSnap(int selected) {
         simulationMan.loadSnapshot(snapshots.get(selected));
         historyForwardJButton.setEnabled(false);
-        historyBackJButton.setEnabled(!simulationMan.historyArrayList.isEmpty());
+        historyBackJButton.setEnabled(simulationMan.getHistoryPosition() > -1);
     }
 
     /**
@@ -1062,14 +1185,15 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
                 preferencesJButton.setEnabled(false);
                 saveSetupButton.setEnabled(false);
                 loadSetupButton.setEnabled(false);
+                replicationsJButton.setEnabled(false);
                 break;
             case GuiEvent.UNLOCK:
                 historyJList.setEnabled(true);
                 snapshotsJList.setEnabled(true);
-                if (simulationMan.lastHistoryStep > -1) {
+                if (simulationMan.getHistoryPosition() > -1) {
                     historyBackJButton.setEnabled(true);
                 }
-                if (simulationMan.lastHistoryStep < simulationMan.historyArrayList.size() - 1) {
+                if (simulationMan.getHistoryPosition() < simulationMan.getHistorySize() - 1) {
                     historyForwardJButton.setEnabled(true);
                 }
                 customMarkingsJComboBox.setEnabled(true);
@@ -1079,18 +1203,18 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
                 preferencesJButton.setEnabled(true);
                 saveSetupButton.setEnabled(true);
                 loadSetupButton.setEnabled(true);
+                replicationsJButton.setEnabled(replicationRunner == null);
                 break;
             case GuiEvent.SNAPSHOT:
                 saveSnapshot();
                 break;
             case GuiEvent.HISTORY:
+                historyListModel.update();
                 historyJList.repaint();
-                historyJList.ensureIndexIsVisible(simulationMan.lastHistoryStep);
-                if (simulationMan.lastHistoryStep < simulationMan.historyArrayList.size() - 1) {
-                    historyForwardJButton.setEnabled(false);
-                }
+                historyJList.ensureIndexIsVisible(simulationMan.getHistoryPosition());
                 if (!simulationMan.isLockGUI()) {
-                    historyBackJButton.setEnabled(true);
+                    historyBackJButton.setEnabled(simulationMan.getHistoryPosition() > -1);
+                    historyForwardJButton.setEnabled(simulationMan.getHistoryPosition() < simulationMan.getHistorySize() - 1);
                 }
             default:
                 break;
@@ -1112,9 +1236,9 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
     }
 
     /**
-     * Saves a snapshot of current state. It includes the marking,
-     * historyListModel, historyArrayList, activeTransitions and statistic for
-     * the current state
+     * Saves a snapshot of current state. It includes the marking, the last
+     * steps of the history, activeTransitions and statistic for the current
+     * state
      */
     public void saveSnapshot() {
         /*
@@ -1126,8 +1250,7 @@ public class SimulationPanel extends AddonPanel implements GuiListener {
             snapshotsListModel.remove(snapshotsListModel.size() - 1);
         }
         Snapshot currSnapshot = new Snapshot(simulationMan.totalStepNr,
-                simulationMan.historyListModel.toArray(),
-                simulationMan.historyArrayList, simulationMan.marking,
+                simulationMan.copyHistory(), simulationMan.marking,
                 simulationMan.getConstantPlaces());
         currSnapshot.setStatistic(new Statistic(simulationMan.currStatistic));
         snapshots.add(currSnapshot);
@@ -0,0 +1,315 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Marking of a {@link CompiledPetriNet} together with the enabled
+ * transitions. The tokens are stored in a long[] by place ordinal. For every
+ * transition the number of pre-places with fewer tokens than the weight of
+ * their arc is counted; the counters are updated whenever the tokens of a
+ * place change, so firing a transition only touches the places it changes and
+ * the transitions consuming from them, and allocates nothing. Transitions
+ * whose counter is 0 are enabled and kept in a bitset.
+ *
+ * Constant places are part of the marking, their tokens have to be set by the
+ * owner of the state whenever their mathematical expressions change in value.
+ * A state is not thread-safe; every thread simulating a trajectory needs its
+ * own {@link #copy()}.
+ */
+public final class SimulationState {
+
+    private final CompiledPetriNet net;
+    private final long[] marking;
+    /**
+     * Number of pre-places of each transition which lack tokens.
+     */
+    private final int[] missing;
+    /**
+     * Enabled transitions, one bit per transition ordinal.
+     */
+    private final long[] enabled;
+    private int enabledCount;
+
+    /**
+     * Creates a state with no tokens on any place.
+     *
+     * @param net
+     */
+    public SimulationState(CompiledPetriNet net) {
+        this.net = net;
+        int transitionCount = net.getTransitions().length;
+        this.marking = new long[net.getPlaces().length];
+        this.missing = new int[transitionCount];
+        this.enabled = new long[(transitionCount + 63) >>> 6];
+        int[] preStart = net.getPreStart();
+        int[] preWeights = net.getPreWeights();
+        for (int t = 0; t < transitionCount; t++) {
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                if (preWeights[i] > 0) {
+                    missing[t]++;
+                }
+            }
+            if (missing[t] == 0) {
+                enabled[t >>> 6] |= 1L << t;
+                enabledCount++;
+            }
+        }
+    }
+
+    private SimulationState(SimulationState other) {
+        this.net = other.net;
+        this.marking = other.marking.clone();
+        this.missing = other.missing.clone();
+        this.enabled = other.enabled.clone();
+        this.enabledCount = other.enabledCount;
+    }
+
+    /**
+     * @return An independent copy of this state, sharing the compiled net.
+     */
+    public SimulationState copy() {
+        return new SimulationState(this);
+    }
+
+    /**
+     * @return the compiled net
+     */
+    public CompiledPetriNet getNet() {
+        return net;
+    }
+
+    /**
+     * @param p Ordinal of a place.
+     * @return Number of tokens on the place.
+     */
+    public long getTokens(int p) {
+        return marking[p];
+    }
+
+    /**
+     * Sets the tokens on a place and updates the enabling of the transitions
+     * consuming from it.
+     *
+     * @param p Ordinal of a place.
+     * @param tokens
+     */
+    public void setTokens(int p, long tokens) {
+        long old = marking[p];
+        if (old == tokens) {
+            return;
+        }
+        marking[p] = tokens;
+        int[] consumerStart = net.getConsumerStart();
+        int[] consumers = net.getConsumers();
+        int[] consumerWeights = net.getConsumerWeights();
+        for (int i = consumerStart[p]; i < consumerStart[p + 1]; i++) {
+            boolean before = old >= consumerWeights[i];
+            boolean after = tokens >= consumerWeights[i];
+            if (before != after) {
+                int t = consumers[i];
+                if (after) {
+                    if (--missing[t] == 0) {
+                        enabled[t >>> 6] |= 1L << t;
+                        enabledCount++;
+                    }
+                } else if (missing[t]++ == 0) {
+                    enabled[t >>> 6] &= ~(1L << t);
+                    enabledCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fires a transition: the net changes of the transition are applied to
+     * the non-constant places. The enabling of the transition is not checked.
+     *
+     * @param t Ordinal of the transition.
+     */
+    public void fire(int t) {
+        int[] changeStart = net.getChangeStart();
+        int[] changePlaces = net.getChangePlaces();
+        int[] changeValues = net.getChangeValues();
+        for (int i = changeStart[t]; i < changeStart[t + 1]; i++) {
+            setTokens(changePlaces[i], marking[changePlaces[i]] + changeValues[i]);
+        }
+    }
+
+    /**
+     * Fires a transition backwards, i.e. reverts {@link #fire(int)}.
+     *
+     * @param t Ordinal of the transition.
+     */
+    public void reverseFire(int t) {
+        int[] changeStart = net.getChangeStart();
+        int[] changePlaces = net.getChangePlaces();
+        int[] changeValues = net.getChangeValues();
+        for (int i = changeStart[t]; i < changeStart[t + 1]; i++) {
+            setTokens(changePlaces[i], marking[changePlaces[i]] - changeValues[i]);
+        }
+    }
+
+    /**
+     * @param t Ordinal of a transition.
+     * @return Whether every pre-place of the transition has enough tokens.
+     */
+    public boolean isEnabled(int t) {
+        return (enabled[t >>> 6] & (1L << t)) != 0;
+    }
+
+    /**
+     * @return Number of enabled transitions.
+     */
+    public int getEnabledCount() {
+        return enabledCount;
+    }
+
+    /**
+     * @param from Ordinal to start the search at.
+     * @return The smallest ordinal of an enabled transition which is not less
+     * than from, -1 if there is none.
+     */
+    public int nextEnabled(int from) {
+        int word = from >>> 6;
+        if (word >= enabled.length) {
+            return -1;
+        }
+        long bits = enabled[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == enabled.length) {
+                return -1;
+            }
+            bits = enabled[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @param k Index between 0 and the number of enabled transitions - 1.
+     * @return The ordinal of the k-th enabled transition in ascending order.
+     */
+    public int getEnabled(int k) {
+        for (int word = 0; word < enabled.length; word++) {
+            int count = Long.bitCount(enabled[word]);
+            if (k < count) {
+                long bits = enabled[word];
+                for (int i = 0; i < k; i++) {
+                    bits &= bits - 1;
+                }
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            k -= count;
+        }
+        throw new IndexOutOfBoundsException("Only " + enabledCount + " transitions are enabled");
+    }
+
+    /**
+     * @return A copy of the tokens by place ordinal.
+     */
+    public long[] copyMarking() {
+        return marking.clone();
+    }
+
+    /**
+     * Returns a view of the tokens on the non-constant places, keyed by the
+     * IDs of the places. Changes of the state are visible in the view; tokens
+     * put into the view are set on the state. Entries of constant or unknown
+     * places are ignored on put, removing entries is not supported.
+     *
+     * @return the view
+     */
+    public Map<Integer, Long> asMap() {
+        return new MarkingMap();
+    }
+
+    private final class MarkingMap extends AbstractMap<Integer, Long> {
+
+        private int ordinal(Object key) {
+            if (!(key instanceof Integer)) {
+                return -1;
+            }
+            int p = net.getPlaceOrdinal((Integer) key);
+            return (p < 0 || net.getConstant()[p]) ? -1 : p;
+        }
+
+        @Override
+        public Long get(Object key) {
+            int p = ordinal(key);
+            return (p < 0) ? null : marking[p];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return ordinal(key) >= 0;
+        }
+
+        @Override
+        public Long put(Integer key, Long value) {
+            int p = ordinal(key);
+            if (p < 0) {
+                return null;
+            }
+            long old = marking[p];
+            setTokens(p, value);
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return marking.length - net.getConstantPlaces().length;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, Long>> entrySet() {
+            return new AbstractSet<Map.Entry<Integer, Long>>() {
+                @Override
+                public Iterator<Map.Entry<Integer, Long>> iterator() {
+                    return new Iterator<Map.Entry<Integer, Long>>() {
+                        private int next = advance(0);
+
+                        private int advance(int p) {
+                            while (p < marking.length && net.getConstant()[p]) {
+                                p++;
+                            }
+                            return p;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < marking.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Integer, Long> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int p = next;
+                            next = advance(p + 1);
+                            return new AbstractMap.SimpleImmutableEntry<>(net.getPlaces()[p].id(), marking[p]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return MarkingMap.this.size();
+                }
+            };
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
 import javax.swing.SwingUtilities;
 import monalisa.addons.tokensimulator.AbstractSimulationSwingWorker;
+import monalisa.addons.tokensimulator.HeadlessTokenSim;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
 import monalisa.data.pn.Transition;
@@ -28,11 +29,6 @@ public class AsynchronousSimulationSwingWorker extends AbstractSimulationSwingWo
      * Number of steps this thread should perform.
      */
     private int stepsLeft;
-    /**
-     * Indicates whether the simulation is still running. Can be set to "false"
-     * upon termination call.
-     */
-    private boolean isRunning;
 
     public AsynchronousSimulationSwingWorker(SimulationManager simulationManager, AsynchronousTokenSim sync, boolean cont, int nrOfStepsN) {
         this.simulationMan = simulationManager;
@@ -53,6 +49,19 @@ public class AsynchronousSimulationSwingWorker extends AbstractSimulationSwingWo
          */
         this.isRunning = true;
 
+        /*
+         * Without a delay between the firings, perform the sequence off the event dispatch thread
+         * and only hand coalesced frames to the GUI.
+         */
+        if (timeDelay <= 0 && HeadlessTokenSim.supports(simulationMan)) {
+            try {
+                stepsLeft = simulateHeadless(simulationMan, HeadlessTokenSim.asynchronous(simulationMan, async.getRandom()), stepsLeft, updateInterval);
+            } catch (InterruptedException | InvocationTargetException ex) {
+                LOGGER.error("Headless asynchronous simulation got interrupted or broke because of an invalid target", ex);
+            }
+            return null;
+        }
+
         //all active transitions that can be fired right now
         Set<Transition> activeTransitions;
 
@@ -0,0 +1,450 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import monalisa.addons.tokensimulator.utils.CompiledExpression;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Immutable representation of the reaction network of a SimulationStorage in
+ * primitive arrays, shared by all runs of a simulation. The educts and the
+ * changes of the reactions are stored in compressed sparse rows: the entries
+ * of reaction r are found at the indices start[r] .. start[r + 1] - 1 of the
+ * corresponding index and value arrays. Compounds are indexed like in the
+ * SimulationStorage, non-constant places first.
+ *
+ * The arrays returned by the getters are not copied and must not be modified.
+ */
+public final class CompiledModel {
+
+    private static final Logger LOGGER = LogManager.getLogger(CompiledModel.class);
+
+    private final int reactionCount;
+    private final int compoundCount;
+    private final int constantCompoundCount;
+    private final double volMol;
+
+    private final int[] eductStart;
+    private final int[] eductCompounds;
+    private final int[] eductWeights;
+    private final int[] constantEductStart;
+    private final int[] constantEductCompounds;
+    private final int[] constantEductWeights;
+    private final int[] changeStart;
+    private final int[] changeCompounds;
+    private final int[] changeValues;
+    private final int[] dependencyStart;
+    private final int[] dependencies;
+
+    /**
+     * Factor converting the deterministic rate constant of a reaction to the
+     * stochastic one.
+     */
+    private final double[] stochasticFactors;
+    /**
+     * Stochastic rate constants of reactions with constant rate constants,
+     * NaN for the others.
+     */
+    private final double[] constantRates;
+    private final CompiledExpression[] rateConstants;
+    private final CompiledExpression[] constantCompoundExpressions;
+
+    /**
+     * Compiles the reaction network of a SimulationStorage.
+     *
+     * @param simStor Storage with data for simulation
+     */
+    CompiledModel(SimulationStorage simStor) {
+        this.reactionCount = simStor.getReactionIDs().length;
+        this.compoundCount = simStor.getNonConstantPlaceIDs().length;
+        this.constantCompoundCount = simStor.getConstantPlaceIDs().length;
+        this.volMol = simStor.getVolMol();
+        int[][] eductMatrix = simStor.getEductStoichMatrix();
+        int[][] productMatrix = simStor.getProductStoichMatrix();
+
+        /*
+        Educts of the reactions, split into non-constant and constant ones.
+         */
+        this.eductStart = new int[reactionCount + 1];
+        this.constantEductStart = new int[reactionCount + 1];
+        this.changeStart = new int[reactionCount + 1];
+        int[] eductBuffer = new int[Math.max(compoundCount, constantCompoundCount)];
+        int[] compounds = new int[0];
+        int[] weights = new int[0];
+        int[] constantCompounds = new int[0];
+        int[] constantWeights = new int[0];
+        int[] changed = new int[0];
+        int[] changes = new int[0];
+        int length = 0;
+        int constantLength = 0;
+        int changeLength = 0;
+        for (int r = 0; r < reactionCount; r++) {
+            int n = sorted(simStor.getReactionsNonConstantEducts()[r], eductBuffer);
+            compounds = ensureCapacity(compounds, length + n);
+            weights = ensureCapacity(weights, length + n);
+            for (int i = 0; i < n; i++) {
+                compounds[length] = eductBuffer[i];
+                weights[length++] = eductMatrix[r][eductBuffer[i]];
+            }
+            eductStart[r + 1] = length;
+
+            n = sorted(simStor.getReactionsConstantEducts()[r], eductBuffer);
+            constantCompounds = ensureCapacity(constantCompounds, constantLength + n);
+            constantWeights = ensureCapacity(constantWeights, constantLength + n);
+            for (int i = 0; i < n; i++) {
+                constantCompounds[constantLength] = eductBuffer[i];
+                constantWeights[constantLength++] = eductMatrix[r][eductBuffer[i] + compoundCount];
+            }
+            constantEductStart[r + 1] = constantLength;
+
+            /*
+            Only the net change of a compound is stored, compounds which are consumed and produced
+            in equal numbers are unchanged by the reaction.
+             */
+            changed = ensureCapacity(changed, changeLength + compoundCount);
+            changes = ensureCapacity(changes, changeLength + compoundCount);
+            for (int c = 0; c < compoundCount; c++) {
+                int change = productMatrix[r][c] - eductMatrix[r][c];
+                if (change != 0) {
+                    changed[changeLength] = c;
+                    changes[changeLength++] = change;
+                }
+            }
+            changeStart[r + 1] = changeLength;
+        }
+        this.eductCompounds = Arrays.copyOf(compounds, length);
+        this.eductWeights = Arrays.copyOf(weights, length);
+        this.constantEductCompounds = Arrays.copyOf(constantCompounds, constantLength);
+        this.constantEductWeights = Arrays.copyOf(constantWeights, constantLength);
+        this.changeCompounds = Arrays.copyOf(changed, changeLength);
+        this.changeValues = Arrays.copyOf(changes, changeLength);
+
+        /*
+        After a reaction occurred, the reaction itself, the reactions depending on a changed compound
+        and the reactions with constant educts or time dependent rate constants must be updated.
+         */
+        LOGGER.debug("Building the dependency graph of the reactions");
+        this.dependencyStart = new int[reactionCount + 1];
+        int[] targets = new int[0];
+        int targetLength = 0;
+        boolean[] marked = new boolean[reactionCount];
+        for (int r = 0; r < reactionCount; r++) {
+            targets = ensureCapacity(targets, targetLength + reactionCount);
+            int first = targetLength;
+            marked[r] = true;
+            targets[targetLength++] = r;
+            for (int dependent : simStor.getConstantPlacesPostTransitions()) {
+                if (!marked[dependent]) {
+                    marked[dependent] = true;
+                    targets[targetLength++] = dependent;
+                }
+            }
+            for (int i = changeStart[r]; i < changeStart[r + 1]; i++) {
+                for (int dependent : simStor.getCompoundsInfluence()[changeCompounds[i]]) {
+                    if (!marked[dependent]) {
+                        marked[dependent] = true;
+                        targets[targetLength++] = dependent;
+                    }
+                }
+            }
+            for (int i = first; i < targetLength; i++) {
+                marked[targets[i]] = false;
+            }
+            dependencyStart[r + 1] = targetLength;
+        }
+        this.dependencies = Arrays.copyOf(targets, targetLength);
+
+        /*
+        Expressions read the concentrations of compounds by their index.
+         */
+        Map<Integer, Integer> slots = new HashMap<>();
+        for (int i = 0; i < compoundCount; i++) {
+            slots.put(simStor.getNonConstantPlaceIDs()[i], i);
+        }
+        for (int i = 0; i < constantCompoundCount; i++) {
+            slots.put(simStor.getConstantPlaceIDs()[i], compoundCount + i);
+        }
+        this.constantCompoundExpressions = new CompiledExpression[constantCompoundCount];
+        for (int i = 0; i < constantCompoundCount; i++) {
+            try {
+                this.constantCompoundExpressions[i] = simStor.getConstantPlacesExp()[i].compile(slots);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unknown function or unparsable expression while trying to express a constantplace property" + ex);
+            }
+        }
+        this.rateConstants = new CompiledExpression[reactionCount];
+        this.stochasticFactors = new double[reactionCount];
+        this.constantRates = new double[reactionCount];
+        for (int r = 0; r < reactionCount; r++) {
+            try {
+                this.rateConstants[r] = simStor.getReactionRateConstants()[r].compile(slots);
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unknown function or unparsable expression while trying to express a reaction rate property" + ex);
+            }
+            /*
+            Conversion of the deterministic reaction rate constant to the stochastic one by the order
+            and the multiplier of the reaction.
+             */
+            int order = simStor.getReactionOrder()[r][0];
+            int multiplier = simStor.getReactionOrder()[r][1];
+            switch (order) {
+                case 0:
+                    stochasticFactors[r] = volMol;
+                    break;
+                case 1:
+                    stochasticFactors[r] = 1;
+                    break;
+                default:
+                    double volMolPow = 1;
+                    for (int i = 0; i < order - 1; i++) {
+                        volMolPow *= volMol;
+                    }
+                    stochasticFactors[r] = multiplier / volMolPow;
+                    break;
+            }
+            if (rateConstants[r] == null) {
+                constantRates[r] = 0;
+            } else if (rateConstants[r].isConstant()) {
+                constantRates[r] = rateConstants[r].evaluate(new double[0], 0) * stochasticFactors[r];
+            } else {
+                constantRates[r] = Double.NaN;
+            }
+        }
+    }
+
+    private static int sorted(Set<Integer> set, int[] buffer) {
+        int n = 0;
+        for (int i : set) {
+            buffer[n++] = i;
+        }
+        Arrays.sort(buffer, 0, n);
+        return n;
+    }
+
+    private static int[] ensureCapacity(int[] array, int capacity) {
+        return (array.length >= capacity) ? array : Arrays.copyOf(array, Math.max(capacity, array.length << 1));
+    }
+
+    /**
+     * Computes the rate of a reaction. If the reaction does not have the
+     * required amount of educts, its rate is 0.
+     *
+     * @param r Index of the reaction.
+     * @param marking Molecule numbers of the non-constant compounds.
+     * @param constantMarking Molecule numbers of the constant compounds.
+     * @param concentrations Concentrations of all compounds, those of
+     * non-constant compounds first.
+     * @param time Simulation time.
+     * @return the rate of the reaction.
+     */
+    public double computeRate(int r, long[] marking, long[] constantMarking, double[] concentrations, double time) {
+        double rate = constantRates[r];
+        if (rate != rate) {
+            rate = rateConstants[r].evaluate(concentrations, time) * stochasticFactors[r];
+        }
+        /*
+        Multiply with the number of distinct combinations of educt molecules, which is a binomial
+        coefficient "n choose k" with n molecules and an arc weight of k.
+         */
+        for (int i = eductStart[r]; i < eductStart[r + 1]; i++) {
+            rate *= combinations(marking[eductCompounds[i]], eductWeights[i]);
+        }
+        for (int i = constantEductStart[r]; i < constantEductStart[r + 1]; i++) {
+            rate *= combinations(constantMarking[constantEductCompounds[i]], constantEductWeights[i]);
+        }
+        return rate;
+    }
+
+    /**
+     * Computes the rate of a reaction for real valued molecule numbers, as
+     * used by the continuous part of the hybrid simulation. The binomial
+     * coefficients are continued to real numbers and are 0 if a compound has
+     * no more than one molecule less than the arc weight.
+     *
+     * @param r Index of the reaction.
+     * @param state Molecule numbers of the non-constant compounds.
+     * @param constantMarking Molecule numbers of the constant compounds.
+     * @param concentrations Concentrations of all compounds, those of
+     * non-constant compounds first.
+     * @param time Simulation time.
+     * @return the rate of the reaction.
+     */
+    public double computeRate(int r, double[] state, long[] constantMarking, double[] concentrations, double time) {
+        double rate = constantRates[r];
+        if (rate != rate) {
+            rate = rateConstants[r].evaluate(concentrations, time) * stochasticFactors[r];
+        }
+        for (int i = eductStart[r]; i < eductStart[r + 1]; i++) {
+            rate *= combinations(state[eductCompounds[i]], eductWeights[i]);
+        }
+        for (int i = constantEductStart[r]; i < constantEductStart[r + 1]; i++) {
+            rate *= combinations(constantMarking[constantEductCompounds[i]], constantEductWeights[i]);
+        }
+        return rate;
+    }
+
+    private static double combinations(long tokens, int weight) {
+        if (weight == 1) {
+            return tokens;
+        }
+        if (weight > tokens) {
+            return 0;
+        }
+        double result = 1;
+        for (int i = 0; i < weight; i++) {
+            result = result * (tokens - i) / (i + 1);
+        }
+        return result;
+    }
+
+    private static double combinations(double tokens, int weight) {
+        if (tokens <= weight - 1) {
+            return 0;
+        }
+        if (weight == 1) {
+            return tokens;
+        }
+        double result = 1;
+        for (int i = 0; i < weight; i++) {
+            result = result * (tokens - i) / (i + 1);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of reactions.
+     */
+    public int getReactionCount() {
+        return reactionCount;
+    }
+
+    /**
+     * @return the number of non-constant compounds.
+     */
+    public int getCompoundCount() {
+        return compoundCount;
+    }
+
+    /**
+     * @return the number of constant compounds.
+     */
+    public int getConstantCompoundCount() {
+        return constantCompoundCount;
+    }
+
+    /**
+     * @return the volume multiplied with the Avogadro constant.
+     */
+    public double getVolMol() {
+        return volMol;
+    }
+
+    /**
+     * @return the row starts of the non-constant educts.
+     */
+    public int[] getEductStart() {
+        return eductStart;
+    }
+
+    /**
+     * @return the indices of the non-constant educts.
+     */
+    public int[] getEductCompounds() {
+        return eductCompounds;
+    }
+
+    /**
+     * @return the stoichiometric factors of the non-constant educts.
+     */
+    public int[] getEductWeights() {
+        return eductWeights;
+    }
+
+    /**
+     * @return the row starts of the constant educts.
+     */
+    public int[] getConstantEductStart() {
+        return constantEductStart;
+    }
+
+    /**
+     * @return the indices of the constant educts among the constant
+     * compounds.
+     */
+    public int[] getConstantEductCompounds() {
+        return constantEductCompounds;
+    }
+
+    /**
+     * @return the stoichiometric factors of the constant educts.
+     */
+    public int[] getConstantEductWeights() {
+        return constantEductWeights;
+    }
+
+    /**
+     * @return the row starts of the changes of non-constant compounds.
+     */
+    public int[] getChangeStart() {
+        return changeStart;
+    }
+
+    /**
+     * @return the indices of the non-constant compounds changed by the
+     * reactions.
+     */
+    public int[] getChangeCompounds() {
+        return changeCompounds;
+    }
+
+    /**
+     * @return the net changes of the molecule numbers, products minus
+     * educts.
+     */
+    public int[] getChangeValues() {
+        return changeValues;
+    }
+
+    /**
+     * @return the row starts of the dependencies.
+     */
+    public int[] getDependencyStart() {
+        return dependencyStart;
+    }
+
+    /**
+     * @return for every reaction the reactions whose rates must be recomputed
+     * after it occurred. The row of a reaction starts with the reaction
+     * itself.
+     */
+    public int[] getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return the compiled expressions of the constant compounds.
+     */
+    public CompiledExpression[] getConstantCompoundExpressions() {
+        return constantCompoundExpressions;
+    }
+
+    /**
+     * @return the compiled deterministic rate constants, null for rate
+     * constants that could not be parsed.
+     */
+    public CompiledExpression[] getRateConstants() {
+        return rateConstants;
+    }
+}
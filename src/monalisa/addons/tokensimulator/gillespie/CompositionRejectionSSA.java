@@ -0,0 +1,260 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Calendar;
+import monalisa.addons.tokensimulator.SimulationManager;
+import monalisa.addons.tokensimulator.listeners.SimulationEvent;
+import monalisa.util.XoshiroRandom;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Exact stochastic simulation with the composition-rejection method of Slepoy,
+ * Thompson and Plimpton. Reactions are grouped by the binary exponent of their
+ * rates, so all rates in a group lie within a factor of two. The next reaction
+ * is selected by choosing a group proportional to its summed rate and then a
+ * member of the group by rejection sampling, which accepts with a probability
+ * of at least one half. The cost of a step depends on the number of groups,
+ * which is bounded by the logarithm of the range of rates, and not on the
+ * number of reactions.
+ */
+public class CompositionRejectionSSA extends ExactSSA {
+
+    private static final Logger LOGGER = LogManager.getLogger(CompositionRejectionSSA.class);
+    /**
+     * Offset from the binary exponent of a rate to the index of its group.
+     * Subnormal rates share the group of the smallest exponent.
+     */
+    private static final int GROUP_OFFSET = -Double.MIN_EXPONENT + 1;
+    private static final int GROUP_COUNT = Double.MAX_EXPONENT + GROUP_OFFSET + 1;
+
+    private final SimulationStorage simStor;
+
+    /**
+     * Group of every reaction, -1 for reactions with a rate of 0.
+     */
+    private final int[] groupOf;
+    /**
+     * Position of every reaction in the members of its group.
+     */
+    private final int[] positionInGroup;
+    private final int[][] groupMembers = new int[GROUP_COUNT][];
+    private final int[] groupSizes = new int[GROUP_COUNT];
+    private final double[] groupSums = new double[GROUP_COUNT];
+    /**
+     * Indices of the non-empty groups.
+     */
+    private final int[] activeGroups = new int[GROUP_COUNT];
+    private final int[] activePositions = new int[GROUP_COUNT];
+    private int activeCount;
+
+    /**
+     * Create a new instance of a CompositionRejectionSSA runnable.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param seed Seed for randomization
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public CompositionRejectionSSA(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        this(outF, runNr, new XoshiroRandom(seed), gillTS, simStor);
+    }
+
+    /**
+     * Create a new instance of a CompositionRejectionSSA runnable with its own stream of
+     * random numbers.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param random Random number generator of this run, not shared with
+     * other runs.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public CompositionRejectionSSA(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        super(outF, runNr, random, gillTS, simStor);
+        this.simStor = simStor;
+
+        /*
+        Sort the initial rates computed by the super class into their groups.
+         */
+        this.groupOf = new int[reactionRates.length];
+        this.positionInGroup = new int[reactionRates.length];
+        Arrays.fill(this.groupOf, -1);
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            if (reactionRates[reactionIdx] > 0) {
+                addToGroup(reactionIdx, group(reactionRates[reactionIdx]));
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        fireSimulationEvent(SimulationEvent.INIT, -1);
+        openOutputWriter();
+        this.isRunning = true;
+        try {
+            while (isRunning) {
+                /*
+                The sum of rates is recomputed from the group sums in every step, so rounding errors
+                of removed rates do not accumulate.
+                 */
+                sumOfRates = 0;
+                for (int i = 0; i < activeCount; i++) {
+                    sumOfRates += groupSums[activeGroups[i]];
+                }
+                if (sumOfRates <= 0) {
+                    LOGGER.debug("SumOfRates is zero, therefore stop the stochastic simulation");
+                    sampleRemaining();
+                    break;
+                }
+
+                double nextFiringTime = randomRun.nextExponential() / sumOfRates;
+                if (simStor.getMaxSimTime() > 0 && (timePassed + nextFiringTime) > simStor.getMaxSimTime()) {
+                    this.requestStop();
+                    LOGGER.debug("Maximum Time has been reached, therefore stopping the stochastic simulation");
+                    sampleRemaining();
+                    break;
+                }
+                int reaction = selectReaction();
+                sampleUntil(timePassed + nextFiringTime);
+
+                /*
+                 * Update step and time counters.
+                 */
+                this.stepsSimulated++;
+                this.timePassed += nextFiringTime;
+
+                if (this.timePassed >= this.lastUpdate + simStor.getUpdateInterval()) {
+                    writeOutput(reaction);
+                }
+
+                fireReaction(reaction);
+                updateConstantPlaces();
+
+                int[] dependencies = model.getDependencies();
+                for (int i = model.getDependencyStart()[reaction], end = model.getDependencyStart()[reaction + 1]; i < end; i++) {
+                    setRate(dependencies[i], computeReactionRate(dependencies[i]));
+                }
+            }
+            LOGGER.info("Simulation has stopped running, therefore finishing the Simulator");
+        } finally {
+            closeOutputWriter();
+        }
+        this.updateOutput();
+        fireSimulationEvent(SimulationEvent.DONE, ("\n").concat(SimulationManager.strings.get("SimFinished")).concat(dateFormat.format(Calendar.getInstance().getTime())));
+        checkOutRunningThread();
+    }
+
+    /**
+     * Chooses the next reaction proportional to its rate. At least one rate
+     * must be greater than 0.
+     */
+    private int selectReaction() {
+        /*
+        Composition: choose a group proportional to its sum. If rounding lets the scan run past
+        the last group, the last group is taken.
+         */
+        double threshold = randomRun.nextDouble() * sumOfRates;
+        int group = activeGroups[activeCount - 1];
+        for (int i = 0; i < activeCount - 1; i++) {
+            threshold -= groupSums[activeGroups[i]];
+            if (threshold < 0) {
+                group = activeGroups[i];
+                break;
+            }
+        }
+        /*
+        Rejection: choose a member uniformly and accept it with the ratio of its rate to the
+        upper bound of the group.
+         */
+        int[] members = groupMembers[group];
+        int size = groupSizes[group];
+        double bound = Math.scalb(1.0, group - GROUP_OFFSET + 1);
+        while (true) {
+            double r = randomRun.nextDouble() * size;
+            int i = (int) r;
+            int reaction = members[i];
+            if ((r - i) * bound < reactionRates[reaction]) {
+                return reaction;
+            }
+        }
+    }
+
+    /**
+     * Sets the rate of a reaction and moves it to the matching group.
+     */
+    private void setRate(int reaction, double rate) {
+        int oldGroup = groupOf[reaction];
+        int newGroup = (rate > 0) ? group(rate) : -1;
+        if (oldGroup == newGroup) {
+            if (newGroup >= 0) {
+                groupSums[newGroup] += rate - reactionRates[reaction];
+            }
+            reactionRates[reaction] = rate;
+            return;
+        }
+        if (oldGroup >= 0) {
+            removeFromGroup(reaction, oldGroup);
+        }
+        reactionRates[reaction] = rate;
+        if (newGroup >= 0) {
+            addToGroup(reaction, newGroup);
+        }
+    }
+
+    /**
+     * @return the group of a rate greater than 0.
+     */
+    private static int group(double rate) {
+        return Math.getExponent(rate) + GROUP_OFFSET;
+    }
+
+    private void addToGroup(int reaction, int group) {
+        int size = groupSizes[group];
+        if (size == 0) {
+            if (groupMembers[group] == null) {
+                groupMembers[group] = new int[4];
+            }
+            activePositions[group] = activeCount;
+            activeGroups[activeCount++] = group;
+            groupSums[group] = 0;
+        } else if (size == groupMembers[group].length) {
+            groupMembers[group] = Arrays.copyOf(groupMembers[group], size << 1);
+        }
+        groupMembers[group][size] = reaction;
+        positionInGroup[reaction] = size;
+        groupSizes[group] = size + 1;
+        groupOf[reaction] = group;
+        groupSums[group] += reactionRates[reaction];
+    }
+
+    private void removeFromGroup(int reaction, int group) {
+        int[] members = groupMembers[group];
+        int last = members[--groupSizes[group]];
+        int pos = positionInGroup[reaction];
+        members[pos] = last;
+        positionInGroup[last] = pos;
+        groupOf[reaction] = -1;
+        if (groupSizes[group] == 0) {
+            groupSums[group] = 0;
+            int activePos = activePositions[group];
+            int moved = activeGroups[--activeCount];
+            activeGroups[activePos] = moved;
+            activePositions[moved] = activePos;
+        } else {
+            groupSums[group] -= reactionRates[reaction];
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.File;
+import monalisa.util.XoshiroRandom;
+
+/**
+ * Deterministic simulation of the rate equations of all reactions. All
+ * compounds are continuous, so the run yields the mean-field trajectory and
+ * uses no random numbers.
+ */
+public class DeterministicODE extends HybridSSA {
+
+    /**
+     * Create a new instance of a DeterministicODE runnable.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param seed Seed for randomization, not used.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public DeterministicODE(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        this(outF, runNr, new XoshiroRandom(seed), gillTS, simStor);
+    }
+
+    /**
+     * Create a new instance of a DeterministicODE runnable.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param random Random number generator, not used.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public DeterministicODE(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        super(outF, runNr, random, gillTS, simStor, true);
+    }
+}
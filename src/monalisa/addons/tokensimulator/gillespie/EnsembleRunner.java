@@ -0,0 +1,125 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executes the runs of a stochastic simulation ensemble on a work-stealing
+ * pool. Every run is a task of the pool, so a worker takes the next run as
+ * soon as its previous run has finished. Completion of runs is signalled by
+ * futures.
+ */
+public class EnsembleRunner {
+
+    private static final Logger LOGGER = LogManager.getLogger(EnsembleRunner.class);
+
+    private final ForkJoinPool pool;
+    private final GillespieTokenSim gillTS;
+    /**
+     * Runs which are currently executed by a worker.
+     */
+    private final Set<ExactSSA> runningRuns = ConcurrentHashMap.newKeySet();
+    /**
+     * Set if the ensemble is stopped, runs which have not started yet are
+     * skipped then.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a runner with its own pool.
+     *
+     * @param gillTS Associated GillespieTokenSim which counts the running
+     * simulation threads, or null.
+     * @param parallelism Maximal number of runs executed at the same time.
+     */
+    public EnsembleRunner(GillespieTokenSim gillTS, int parallelism) {
+        this.gillTS = gillTS;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Submits a run for execution.
+     *
+     * @param run The run.
+     * @return a future which completes with the run after it has stopped or
+     * was skipped because the ensemble was stopped.
+     */
+    public CompletableFuture<ExactSSA> submit(ExactSSA run) {
+        return CompletableFuture.supplyAsync(() -> {
+            runningRuns.add(run);
+            try {
+                /*
+                The run is registered before the flag is checked, so a stop either skips it or
+                reaches it.
+                 */
+                if (!stopped) {
+                    if (gillTS != null) {
+                        gillTS.registerNewThread();
+                    }
+                    run.run();
+                }
+            } finally {
+                runningRuns.remove(run);
+            }
+            return run;
+        }, pool);
+    }
+
+    /**
+     * Submits runs for execution.
+     *
+     * @param runs The runs.
+     * @return a future which completes after all runs have stopped or were
+     * skipped.
+     */
+    public CompletableFuture<Void> submitAll(List<? extends ExactSSA> runs) {
+        List<CompletableFuture<ExactSSA>> futures = new ArrayList<>(runs.size());
+        for (ExactSSA run : runs) {
+            futures.add(submit(run));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+    }
+
+    /**
+     * Requests every running run to update its output.
+     */
+    public void updateOutputs() {
+        for (ExactSSA run : runningRuns) {
+            run.updateOutput();
+        }
+    }
+
+    /**
+     * Requests the running runs to stop. Runs which have not started yet are
+     * skipped, so their futures complete as soon as a worker takes them.
+     */
+    public void requestStop() {
+        LOGGER.info("Stopping all runs of the ensemble");
+        stopped = true;
+        for (ExactSSA run : runningRuns) {
+            run.requestStop();
+        }
+    }
+
+    /**
+     * Shuts the pool down after the submitted runs have stopped.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Statistics of the molecule numbers over the runs of an ensemble, taken at
+ * equidistant points in time. Runs add the state they are in at every point
+ * in time, the statistics are updated online, so no trajectory has to be kept:
+ * mean and variance by Welford's algorithm and the quantiles in
+ * {@link #QUANTILES} by the P-square algorithm of Jain and Chlamtac. Runs may
+ * add their states concurrently.
+ */
+public final class EnsembleStatistics {
+
+    /**
+     * Probabilities of the estimated quantiles.
+     */
+    public static final double[] QUANTILES = {0.05, 0.5, 0.95};
+
+    private final double interval;
+    private final String[] names;
+    /**
+     * Statistics by point in time and compound, non-constant compounds first.
+     */
+    private final Cell[][] cells;
+
+    /**
+     * Creates empty statistics.
+     *
+     * @param interval Distance of the points in time, greater than 0.
+     * @param maxTime Last point in time, the points are 0, interval, 2 *
+     * interval, ... up to maxTime.
+     * @param names Names of the compounds, non-constant compounds first.
+     */
+    public EnsembleStatistics(double interval, double maxTime, String[] names) {
+        if (!(interval > 0) || maxTime < 0) {
+            throw new IllegalArgumentException("Points in time need a positive interval and a non-negative maximum time");
+        }
+        this.interval = interval;
+        this.names = names.clone();
+        this.cells = new Cell[pointCount(interval, maxTime)][names.length];
+        for (Cell[] row : cells) {
+            for (int c = 0; c < row.length; c++) {
+                row[c] = new Cell();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of points in time 0, interval, 2 * interval, ... up to
+     * maxTime. A point exceeding maxTime only by rounding is included.
+     *
+     * @param interval Distance of the points in time, greater than 0.
+     * @param maxTime Last point in time.
+     * @return the number of points.
+     */
+    static int pointCount(double interval, double maxTime) {
+        return (int) Math.floor(maxTime / interval + 1e-9) + 1;
+    }
+
+    /**
+     * @return the number of points in time.
+     */
+    public int getPointCount() {
+        return cells.length;
+    }
+
+    /**
+     * @param point Index of a point in time.
+     * @return the point in time.
+     */
+    public double getTime(int point) {
+        return point * interval;
+    }
+
+    /**
+     * @return the names of the compounds.
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * Adds the state of a run at a point in time.
+     *
+     * @param point Index of the point in time.
+     * @param nonConstantMarking Molecule numbers of the non-constant
+     * compounds.
+     * @param constantMarking Molecule numbers of the constant compounds.
+     */
+    public void add(int point, long[] nonConstantMarking, long[] constantMarking) {
+        Cell[] row = cells[point];
+        synchronized (row) {
+            for (int c = 0; c < nonConstantMarking.length; c++) {
+                row[c].add(nonConstantMarking[c]);
+            }
+            for (int c = 0; c < constantMarking.length; c++) {
+                row[nonConstantMarking.length + c].add(constantMarking[c]);
+            }
+        }
+    }
+
+    /**
+     * @param point Index of the point in time.
+     * @return the number of runs which reached the point in time.
+     */
+    public long getCount(int point) {
+        Cell[] row = cells[point];
+        synchronized (row) {
+            return (row.length == 0) ? 0 : row[0].count;
+        }
+    }
+
+    /**
+     * @param point Index of the point in time.
+     * @param compound Index of the compound.
+     * @return the mean molecule number, NaN if no run reached the point.
+     */
+    public double getMean(int point, int compound) {
+        Cell[] row = cells[point];
+        synchronized (row) {
+            return (row[compound].count == 0) ? Double.NaN : row[compound].mean;
+        }
+    }
+
+    /**
+     * @param point Index of the point in time.
+     * @param compound Index of the compound.
+     * @return the sample variance of the molecule number, NaN if less than two
+     * runs reached the point.
+     */
+    public double getVariance(int point, int compound) {
+        Cell[] row = cells[point];
+        synchronized (row) {
+            Cell cell = row[compound];
+            return (cell.count < 2) ? Double.NaN : cell.m2 / (cell.count - 1);
+        }
+    }
+
+    /**
+     * @param point Index of the point in time.
+     * @param compound Index of the compound.
+     * @param quantile Index of the probability in {@link #QUANTILES}.
+     * @return the estimated quantile of the molecule number, NaN if no run
+     * reached the point.
+     */
+    public double getQuantile(int point, int compound, int quantile) {
+        Cell[] row = cells[point];
+        synchronized (row) {
+            return row[compound].quantiles[quantile].get();
+        }
+    }
+
+    /**
+     * Writes the statistics as tab separated table with one line per point
+     * in time.
+     *
+     * @param file The output file.
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            StringBuilder sb = new StringBuilder("Time\tRuns");
+            for (String name : names) {
+                sb.append("\t").append(name).append(" mean\t").append(name).append(" variance");
+                for (double q : QUANTILES) {
+                    sb.append("\t").append(name).append(" q").append(q);
+                }
+            }
+            out.write(sb.append("\n").toString());
+            for (int point = 0; point < cells.length; point++) {
+                sb.setLength(0);
+                sb.append(getTime(point)).append("\t").append(getCount(point));
+                for (int c = 0; c < names.length; c++) {
+                    sb.append("\t").append(getMean(point, c)).append("\t").append(getVariance(point, c));
+                    for (int q = 0; q < QUANTILES.length; q++) {
+                        sb.append("\t").append(getQuantile(point, c, q));
+                    }
+                }
+                out.write(sb.append("\n").toString());
+            }
+        }
+    }
+
+    /**
+     * Statistics of one compound at one point in time.
+     */
+    private static final class Cell {
+
+        private long count;
+        private double mean;
+        private double m2;
+        private final Quantile[] quantiles = new Quantile[QUANTILES.length];
+
+        Cell() {
+            for (int q = 0; q < quantiles.length; q++) {
+                quantiles[q] = new Quantile(QUANTILES[q]);
+            }
+        }
+
+        void add(double x) {
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+            for (Quantile q : quantiles) {
+                q.add(x);
+            }
+        }
+    }
+
+    /**
+     * P-square estimator of a single quantile with five markers.
+     */
+    private static final class Quantile {
+
+        private final double p;
+        private final double[] heights = new double[5];
+        private final double[] positions = new double[5];
+        private final double[] desired;
+        private final double[] increments;
+        private int count;
+
+        Quantile(double p) {
+            this.p = p;
+            this.desired = new double[]{0, 2 * p, 4 * p, 2 + 2 * p, 4};
+            this.increments = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+        }
+
+        void add(double x) {
+            if (count < 5) {
+                heights[count++] = x;
+                if (count == 5) {
+                    Arrays.sort(heights);
+                    for (int i = 0; i < 5; i++) {
+                        positions[i] = i;
+                    }
+                }
+                return;
+            }
+            count++;
+            int k;
+            if (x < heights[0]) {
+                heights[0] = x;
+                k = 0;
+            } else if (x >= heights[4]) {
+                heights[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= heights[k + 1]) {
+                    k++;
+                }
+            }
+            for (int i = k + 1; i < 5; i++) {
+                positions[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desired[i] += increments[i];
+            }
+            /*
+            Move the inner markers towards their desired positions, by a parabolic prediction of
+            their heights if it keeps them ordered, otherwise linearly.
+             */
+            for (int i = 1; i < 4; i++) {
+                double d = desired[i] - positions[i];
+                if ((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                    int s = (d > 0) ? 1 : -1;
+                    double h = parabolic(i, s);
+                    if (heights[i - 1] < h && h < heights[i + 1]) {
+                        heights[i] = h;
+                    } else {
+                        heights[i] += s * (heights[i + s] - heights[i]) / (positions[i + s] - positions[i]);
+                    }
+                    positions[i] += s;
+                }
+            }
+        }
+
+        private double parabolic(int i, int s) {
+            return heights[i] + s / (positions[i + 1] - positions[i - 1])
+                    * ((positions[i] - positions[i - 1] + s) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i])
+                    + (positions[i + 1] - positions[i] - s) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1]));
+        }
+
+        double get() {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            if (count <= 5) {
+                double[] sorted = Arrays.copyOf(heights, count);
+                Arrays.sort(sorted);
+                return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+            }
+            return heights[2];
+        }
+    }
+}
@@ -15,20 +15,16 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.exceptions.PlaceConstantException;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
 import monalisa.addons.tokensimulator.listeners.SimulationListener;
-import monalisa.addons.tokensimulator.utils.MathematicalExpression;
+import monalisa.addons.tokensimulator.utils.CompiledExpression;
 import monalisa.addons.tokensimulator.utils.Utilities;
-import monalisa.util.HighQualityRandom;
+import monalisa.util.XoshiroRandom;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jfree.data.xy.XYSeries;
@@ -48,7 +44,10 @@ public class ExactSSA implements Runnable {
 
     protected final int[] nonConstantPlaceIDsRun;
     protected final int[] constantPlaceIDsRun;
-    protected final MathematicalExpression[] constantPlacesExpRun;
+    /**
+     * Reaction network of the simulation in primitive arrays.
+     */
+    protected final CompiledModel model;
     /**
      * Number of molecules of the compounds which are represented by
      * non-constant places.
@@ -60,36 +59,52 @@ public class ExactSSA implements Runnable {
      */
     protected final long[] constantMarkingRun;
     /**
-     * IDs of places mapped to concentrations of the compounds.
-     */
-    protected final HashMap<Integer, Double> concentrations;
-    /**
-     * Array with mathematical expressions which describe reaction rate
-     * constants of the reactions (transitions of the underlying Petri net).
+     * Concentrations of the compounds, those of non-constant places first,
+     * followed by those of constant places.
      */
-    protected final MathematicalExpression[] reactionRateConstantsRun;
+    protected final double[] concentrations;
     /**
-     * Reaction rates of active transitions. Keys are indeces of reactions,
-     * values are corresponding reaction rates. Reactions which rates are 0 are
-     * not stored.
+     * Reaction rates of the reactions (transitions of the underlying Petri
+     * net), indexed by reaction. Inactive reactions have a rate of 0.
      */
-    protected final HashMap<Integer, Double> reactionRatesRun;
+    protected final double[] reactionRates;
     /**
      * Sum of reaction rates.
      */
     protected double sumOfRates;
     /**
-     * Save the index of reactions rates should be updated. Only update rates of
-     * reactions which are dependent of compounds with changed molecule numbers.
+     * Indices of the reactions whose rates should be updated. Only rates of
+     * reactions which are dependent of compounds with changed molecule numbers
+     * are updated. The first reactionsToUpdateCount entries are valid.
+     */
+    protected final int[] reactionsToUpdate;
+    protected int reactionsToUpdateCount;
+    /**
+     * Marks the reactions contained in reactionsToUpdate.
      */
-    protected final Set<Integer> reactionsToUpdate;
+    private final boolean[] updateScheduled;
 
     /**
      * Lock object which is used to lock critical areas.
      */
     protected final Lock lock = new ReentrantLock();
-    //Output files of the current runnable.
+    //Output files of the current runnable, null if no trajectory is written.
     private final File outputFileRun;
+    /**
+     * Statistics of the ensemble this run belongs to, null if there are none.
+     */
+    private EnsembleStatistics statistics;
+    /**
+     * Index of the next point in time of the statistics the state of this run
+     * has to be added to.
+     */
+    private int nextSamplePoint;
+    /**
+     * Index of the next multiple of the update interval written in the fixed
+     * grid sampling mode. The state at time 0 is written when the run is
+     * created.
+     */
+    private int nextGridPoint = 1;
 
     /**
      * Counter for the time which was simulated.
@@ -111,12 +126,18 @@ public class ExactSSA implements Runnable {
      * BufferedWriter used for creating output.
      */
     protected BufferedWriter outputWriter;
+    /**
+     * Writer of the trajectory if the output file has the extension of the
+     * binary trajectory format, null otherwise.
+     */
+    private TrajectoryWriter trajectoryWriter;
+    private static final int[] NO_REACTIONS = new int[0];
 
     protected DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
     /**
      * Random number generator.
      */
-    protected final HighQualityRandom randomRun;
+    protected final XoshiroRandom randomRun;
 
     private List<SimulationListener> listeners = new ArrayList<>();
 
@@ -126,76 +147,69 @@ public class ExactSSA implements Runnable {
     /**
      * Create a new instance of an ExactSSA runnable.
      *
-     * @param outF File where the output will be written to.
+     * @param outF File where the output will be written to, null if no
+     * trajectory should be written.
      * @param runNr Number (index) of simulation run.
      * @param seed Seed for randomization
      * @param gillTS Associated GillespieTokenSim
      * @param simStor Storage with data for simulation
      */
     public ExactSSA(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        this(outF, runNr, new XoshiroRandom(seed), gillTS, simStor);
+    }
+
+    /**
+     * Create a new instance of an ExactSSA runnable with its own stream of
+     * random numbers.
+     *
+     * @param outF File where the output will be written to, null if no
+     * trajectory should be written.
+     * @param runNr Number (index) of simulation run.
+     * @param random Random number generator of this run, not shared with
+     * other runs.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public ExactSSA(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor) {
         this.gillTS = gillTS;
         this.simStor = simStor;
+        this.model = simStor.getCompiledModel();
         this.outputFileRun = outF;
-        this.randomRun = new HighQualityRandom(seed);
+        this.randomRun = random;
         this.timePassed = 0;
         this.stepsSimulated = 0;
-        this.reactionsToUpdate = new HashSet<>();
+        this.reactionsToUpdate = new int[model.getReactionCount()];
+        this.updateScheduled = new boolean[model.getReactionCount()];
 
         this.nonConstantPlaceIDsRun = new int[simStor.getNonConstantPlaceIDs().length];
         System.arraycopy(simStor.getNonConstantPlaceIDs(), 0, this.nonConstantPlaceIDsRun, 0, simStor.getNonConstantPlaceIDs().length);
         this.constantPlaceIDsRun = new int[simStor.getConstantPlaceIDs().length];
         System.arraycopy(simStor.getConstantPlaceIDs(), 0, this.constantPlaceIDsRun, 0, simStor.getConstantPlaceIDs().length);
-        this.constantPlacesExpRun = new MathematicalExpression[simStor.getConstantPlacesExp().length];
-        for (int i = 0; i < simStor.getConstantPlacesExp().length; i++) {
-            try {
-                this.constantPlacesExpRun[i] = new MathematicalExpression(simStor.getConstantPlacesExp()[i]);
-            } catch (RuntimeException ex) {
-                LOGGER.error("Unknown function or unparsable expression while trying to initiate a runnable and trying to express a constantplace property" + ex);
-            }
-        }
-        this.reactionRateConstantsRun = new MathematicalExpression[simStor.getReactionRateConstants().length];
-        for (int i = 0; i < simStor.getReactionRateConstants().length; i++) {
-            try {
-                this.reactionRateConstantsRun[i] = new MathematicalExpression(simStor.getReactionRateConstants()[i]);
-            } catch (RuntimeException ex) {
-                LOGGER.error("Unknown function or unparsable expression while trying to initiate a runnable and trying to express a reaction rate property" + ex);
-            }
-        }
         /*
         Copy initial marking of non-constant places and calculate corresponding concentrations.
          */
         LOGGER.debug("Copying initial marking of constant places and calculating the corrsesponding concentrations");
-        this.concentrations = new HashMap<>();
+        this.concentrations = new double[this.nonConstantPlaceIDsRun.length + this.constantPlaceIDsRun.length];
         this.nonConstantMarkingRun = new long[simStor.getNonConstantInitialMarking().length];
         for (int i = 0; i < nonConstantMarkingRun.length; i++) {
             this.nonConstantMarkingRun[i] = simStor.getNonConstantInitialMarking()[i];
-            this.concentrations.put(this.nonConstantPlaceIDsRun[i], this.nonConstantMarkingRun[i] / simStor.getVolMol());
+            this.concentrations[i] = this.nonConstantMarkingRun[i] / simStor.getVolMol();
         }
         /*
         Evaluate initial marking of constant places and calculate corresponding concentrations.
          */
-        this.constantMarkingRun = new long[this.constantPlacesExpRun.length];
-        for (int i = 0; i < this.constantMarkingRun.length; i++) {
-            MathematicalExpression exp = this.constantPlacesExpRun[i];
-            double val = exp.evaluateML(concentrations, this.timePassed);
-            this.constantMarkingRun[i] = Math.round(val * simStor.getVolMol());
-            this.concentrations.put(simStor.getConstantPlaceIDs()[i], val);
-        }
+        this.constantMarkingRun = new long[this.constantPlaceIDsRun.length];
+        updateConstantPlaces();
         /*
         Compute initial reaction rates.
          */
         LOGGER.debug("Computing initial reaction rates");
-        this.reactionRatesRun = new HashMap<>();
+        this.reactionRates = new double[model.getReactionCount()];
         this.sumOfRates = 0;
-        for (int reactionIdx = 0; reactionIdx < simStor.getReactionIDs().length; reactionIdx++) {
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
             double reactionRate = this.computeReactionRate(reactionIdx);
+            this.reactionRates[reactionIdx] = reactionRate;
             this.sumOfRates += reactionRate;
-            /*
-            Create an entry in the map only if the reaction rate is greater than 0.
-             */
-            if (reactionRate > 0) {
-                this.reactionRatesRun.put(reactionIdx, reactionRate);
-            }
         }
 
         /*
@@ -235,6 +249,17 @@ public class ExactSSA implements Runnable {
             outSB.append("\t").append(nr);
         }
         outSB.append("\n");
+        if (outputFileRun == null) {
+            return;
+        }
+        if (isBinaryOutput()) {
+            try (TrajectoryWriter writer = createTrajectoryWriter(false)) {
+                writer.append(0, 0, NO_REACTIONS, nonConstantMarkingRun, constantMarkingRun);
+            } catch (IOException ex) {
+                LOGGER.error("IOException while trying to write the initial state into the trajectory file", ex);
+            }
+            return;
+        }
         try {
             outputWriter = new BufferedWriter(new FileWriter(outputFileRun));
             outputWriter.write(outSB.toString());
@@ -247,11 +272,7 @@ public class ExactSSA implements Runnable {
     @Override
     public void run() {
         fireSimulationEvent(SimulationEvent.INIT, -1);
-        try {
-            outputWriter = new BufferedWriter(new FileWriter(outputFileRun, true));
-        } catch (IOException ex) {
-            LOGGER.error("IOException while creating a new buffered writer for the outputfile");
-        }
+        openOutputWriter();
         this.isRunning = true;
         try {
             /*
@@ -261,87 +282,44 @@ public class ExactSSA implements Runnable {
              */
             while (isRunning) {
                 /*
-                 * Calculate rates of reactions which 
-                 educt numbers changed. A rate of a reaction is defined as a product of stochastic reaction constant with
-                 the number distinct combinations 
-                 * of educt molecules. If the reaction does not have required amount of educts, its reaction rate is set to 0. If at least one reaction
-                 * has a rate greater than 0, reactionPossible is set to true.
-                 * If multiple identical molecules (represented by an arc weight > 1) are involved,
-                 * the number of combinations is a binomial coefficient "n choose k" with n = number of
-                 * the molecules in current state and
-                 * k = weight of the arc from the pre-place to the transition.
+                 * Calculate rates of reactions which educt numbers changed. A rate of a reaction is defined as a product of stochastic reaction
+                 * constant with the number distinct combinations of educt molecules. If the reaction does not have required amount of educts,
+                 * its reaction rate is set to 0.
                  */
-                for (int reactionIdx : reactionsToUpdate) {
-                    double reactionRate = computeReactionRate(reactionIdx);
-                    /*
-                    Substract old reaction rate from the sum.
-                     */
-                    Double oldRate = reactionRatesRun.get(reactionIdx);
-                    if (oldRate != null) {
-                        sumOfRates -= oldRate;
-                    }
-                    /*
-                    If new reaction rate is greater than 0, put it into the map. Otherwise remove the entry
-                    of the reaction from the map.
-                     */
-                    if (reactionRate > 0) {
-                        reactionRatesRun.put(reactionIdx, reactionRate);
-                        /*
-                        Add new reaction rate to the sum.
-                         */
-                        sumOfRates += reactionRate;
-                    } else {
-                        reactionRatesRun.remove(reactionIdx);
-                    }
-                }
+                updateReactionRates();
                 /*
                  * Check whether the sum of rates is empty, which indicates that no reaction can occur. If so, abort simulation.
                  */
                 if (sumOfRates <= 0) {
                     LOGGER.debug("SumOfRates is zero, therefore stop the stochastic simulation");
+                    sampleRemaining();
                     break;
                 }
-                /*
-                Remove all reactions from the reactionsToUpdate-set except for the reactions with constant pre-places (educts).
-                 */
-                reactionsToUpdate.clear();
-                reactionsToUpdate.addAll(simStor.getConstantPlacesPostTransitions());
 
                 /*
                  * Random number are used for determining next reaction time and the reaction which will occur.
                  */
-                double r1 = randomRun.nextDouble();
                 double r2 = randomRun.nextDouble();
 
                 /*
                  * Calculate the time at which next reaction will occur.
                  */
-                double nextFiringTime = (Math.log(1 / r1) / sumOfRates);
+                double nextFiringTime = randomRun.nextExponential() / sumOfRates;
                 //check if the simulation should go on or the maximal time is reached.
                 if (simStor.getMaxSimTime() > 0 && (timePassed + nextFiringTime) > simStor.getMaxSimTime()) {
                     this.requestStop();
                     LOGGER.debug("Maximum Time has been reached, therefore stopping the stochastic simulation");
+                    sampleRemaining();
                     break;
                 }
 
-                /*
-                 * Datermine which reaction will occur next.
-                 * int reactionIdx is the index of the reaction which will be chosen.
-                 * double rateSum is the sum of reaction rates which are previous to the chosen one in the reactionRates list.
-                 * Choose the reaction so the sum of reactions which are previous plus the rate of chosen one is greater than or equal to 
-                 * the sum of all reaction rates multiplied by r2.
-                 */
-                LOGGER.debug("Calculating the reaction which will occur next");
-                int reaction = 0;
-                double ratesSum = 0;
-                for (Map.Entry<Integer, Double> entr : reactionRatesRun.entrySet()) {
-                    reaction = entr.getKey();
-                    double reactionRate = entr.getValue();
-                    ratesSum += reactionRate;
-                    if (ratesSum >= sumOfRates * r2) {
-                        break;
-                    }
+                int reaction = selectReaction(r2);
+                if (reaction < 0) {
+                    LOGGER.debug("SumOfRates is zero, therefore stop the stochastic simulation");
+                    sampleRemaining();
+                    break;
                 }
+                sampleUntil(timePassed + nextFiringTime);
 
                 /*
                  * Update step and time counters.
@@ -350,79 +328,256 @@ public class ExactSSA implements Runnable {
                 this.timePassed += nextFiringTime;
 
                 if (this.timePassed >= this.lastUpdate + simStor.getUpdateInterval()) {
-                    LOGGER.debug("Time passed is bigger than time since LastUpdate and current interval, therefore writing the output");
                     writeOutput(reaction);
                 }
 
                 /*
-                 * Adapt coumpounds molecule numbers according to the chosen reaction. Iterate through 
-                the non-constant conpounds of the reaction and substract the stoichiometric factor from the number of molecules
-                of this compound.
-                 */
-                LOGGER.debug("Calculating new marking for all educts");
-                for (int eductIdx : simStor.getReactionsNonConstantEducts()[reaction]) {
-                    /*
-                    Get the number of molecules of the educt and substract the stoichiometric factor from it.
-                     */
-                    long nrOfMolecules = nonConstantMarkingRun[eductIdx] - simStor.getEductStoichMatrix()[reaction][eductIdx];
-                    /*
-                    Update the marking.
-                     */
-                    nonConstantMarkingRun[eductIdx] = nrOfMolecules;
-                    /*
-                    Update the concentrations entry.
-                     */
-                    concentrations.put(this.nonConstantPlaceIDsRun[eductIdx], nrOfMolecules / simStor.getVolMol());
-                    /*
-                    Mark all reactions which are dependent from this educt so the reaction rates will be re-calculated.
-                     */
-                    reactionsToUpdate.addAll(simStor.getCompoundsInfluence()[eductIdx]);
-                }
-                LOGGER.debug("Calculating new marking for all products");
-                for (int productIdx : simStor.getReactionsNonConstantProducts()[reaction]) {
-                    /*
-                    Get the number of molecules of the educt and add the stoichiometric factor from it.
-                     */
-                    long nrOfMolecules = nonConstantMarkingRun[productIdx] + simStor.getProductStoichMatrix()[reaction][productIdx];
-                    /*
-                    Update the marking.
-                     */
-                    nonConstantMarkingRun[productIdx] = nrOfMolecules;
-                    /*
-                    Update the concentrations entry.
-                     */
-                    concentrations.put(this.nonConstantPlaceIDsRun[productIdx], nrOfMolecules / simStor.getVolMol());
-                    /*
-                    Mark all reactions which are dependent from this educt so the reaction rates will be re-calculated.
-                     */
-                    reactionsToUpdate.addAll(simStor.getCompoundsInfluence()[productIdx]);
-                }
-                /*
-                Update marking and concentration for constant places
+                 * Adapt coumpounds molecule numbers according to the chosen reaction and mark all reactions which are dependent
+                 * from the changed compounds so the reaction rates will be re-calculated.
                  */
-                LOGGER.debug("Updating marking and concentration for all constant places");
-                for (int i = 0; i < this.constantMarkingRun.length; i++) {
-                    MathematicalExpression exp = this.constantPlacesExpRun[i];
-                    double val = exp.evaluateML(concentrations, this.timePassed);
-                    this.constantMarkingRun[i] = Math.round(val * simStor.getVolMol());
-                    this.concentrations.put(this.constantPlaceIDsRun[i], val);
-                }
-
-                //Write updated molecule numbers into output file.
-                /*if (simStor.getUpdateInterval() == 0 || timePassed - lastUpdate >= simStor.getUpdateInterval()) {
-                    LOGGER.debug("New Update Intervall is zero or left time is not enough, therefore writing the output");
-                    writeOutput(reaction);
-                }*/
+                fireReaction(reaction);
+                scheduleDependentReactions(reaction);
+                updateConstantPlaces();
             }
             LOGGER.info("Simulation has stopped running, therefore finishing the Simulator");
-            //close writers
-            outputWriter.close();
-        } catch (IOException ex) {
-            LOGGER.error("IOException while trying to fill the output writer with data", ex);
+        } finally {
+            closeOutputWriter();
         }
         this.updateOutput();
         fireSimulationEvent(SimulationEvent.DONE, ("\n").concat(SimulationManager.strings.get("SimFinished")).concat(dateFormat.format(Calendar.getInstance().getTime())));
-        gillTS.checkOutRunningThread();
+        checkOutRunningThread();
+    }
+
+    /**
+     * Opens the writer for the trajectory of this run, appending to the
+     * output file. Does nothing if no trajectory is written.
+     */
+    protected void openOutputWriter() {
+        outputWriter = null;
+        trajectoryWriter = null;
+        if (outputFileRun == null) {
+            return;
+        }
+        try {
+            if (isBinaryOutput()) {
+                trajectoryWriter = createTrajectoryWriter(true);
+            } else {
+                outputWriter = new BufferedWriter(new FileWriter(outputFileRun, true));
+            }
+        } catch (IOException ex) {
+            LOGGER.error("IOException while creating a new buffered writer for the outputfile", ex);
+        }
+    }
+
+    /**
+     * Closes the writer for the trajectory of this run.
+     */
+    protected void closeOutputWriter() {
+        if (trajectoryWriter != null) {
+            try {
+                trajectoryWriter.close();
+            } catch (IOException ex) {
+                LOGGER.error("IOException while trying to close the trajectory writer", ex);
+            }
+        }
+        if (outputWriter != null) {
+            try {
+                outputWriter.close();
+            } catch (IOException ex) {
+                LOGGER.error("IOException while trying to close the output writer", ex);
+            }
+        }
+    }
+
+    /**
+     * @return true, if the trajectory is written in the binary format.
+     */
+    private boolean isBinaryOutput() {
+        return outputFileRun != null && TrajectoryWriter.isTrajectoryFile(outputFileRun);
+    }
+
+    private TrajectoryWriter createTrajectoryWriter(boolean append) throws IOException {
+        return new TrajectoryWriter(outputFileRun, simStor.getNonConstantPlaceNames(), simStor.getConstantPlaceNames(),
+                simStor.getReactionNames(), append);
+    }
+
+    /**
+     * Sets the statistics of the ensemble this run belongs to. The state of
+     * the run is added to the statistics at each of its points in time.
+     *
+     * @param statistics The statistics, or null.
+     */
+    public void setStatistics(EnsembleStatistics statistics) {
+        this.statistics = statistics;
+        this.nextSamplePoint = 0;
+    }
+
+    /**
+     * Adds the current state to the statistics at all points in time before
+     * the given time and, in the fixed grid sampling mode, writes it at all
+     * multiples of the update interval before the given time. Engines call
+     * this before the state changes at that time, so every point in time gets
+     * the state valid at that time.
+     *
+     * @param time Time of the next change of the state.
+     */
+    protected void sampleUntil(double time) {
+        sampleStatistics(time);
+        sampleGrid(time);
+    }
+
+    /**
+     * Adds the current state to the statistics at all remaining points in time
+     * and writes it at the remaining multiples of the update interval up to
+     * the maximum simulation time. Without maximum simulation time, only the
+     * next multiple is written. Engines call this when the run ended because
+     * no reaction can occur anymore or the maximum simulation time was
+     * reached, as the state does not change anymore.
+     */
+    protected void sampleRemaining() {
+        sampleStatistics(Double.POSITIVE_INFINITY);
+        if (isFixedGridSampling()) {
+            sampleGrid(simStor.getMaxSimTime() > 0 ? Double.POSITIVE_INFINITY : Math.nextUp(nextGridPoint * simStor.getUpdateInterval()));
+        }
+    }
+
+    private void sampleStatistics(double time) {
+        if (statistics != null) {
+            while (nextSamplePoint < statistics.getPointCount() && statistics.getTime(nextSamplePoint) < time) {
+                statistics.add(nextSamplePoint++, nonConstantMarkingRun, constantMarkingRun);
+            }
+        }
+    }
+
+    /**
+     * Writes the current state at all multiples of the update interval before
+     * the given time. With a maximum simulation time, the multiples are the
+     * same points in time as those of {@link EnsembleStatistics}.
+     */
+    private void sampleGrid(double time) {
+        if (!isFixedGridSampling() || (outputWriter == null && trajectoryWriter == null)) {
+            return;
+        }
+        double interval = simStor.getUpdateInterval();
+        int gridPoints = (simStor.getMaxSimTime() > 0) ? EnsembleStatistics.pointCount(interval, simStor.getMaxSimTime()) : Integer.MAX_VALUE;
+        while (nextGridPoint < gridPoints && nextGridPoint * interval < time) {
+            writeRow(nextGridPoint * interval, NO_REACTIONS);
+            nextGridPoint++;
+        }
+    }
+
+    /**
+     * @return true, if the state is written at every multiple of the update
+     * interval.
+     */
+    private boolean isFixedGridSampling() {
+        return simStor.isFixedGridSampling() && simStor.getUpdateInterval() > 0;
+    }
+
+    /**
+     * Determines which reaction will occur next. The reaction is chosen so
+     * that the sum of the rates of the previous reactions plus the rate of the
+     * chosen one is greater than or equal to the sum of all reaction rates
+     * multiplied by r.
+     *
+     * @param r Uniformly distributed random number.
+     * @return the index of the reaction, or -1 if no reaction has a rate
+     * greater than 0.
+     */
+    protected int selectReaction(double r) {
+        double threshold = sumOfRates * r;
+        double ratesSum = 0;
+        int last = -1;
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            double reactionRate = reactionRates[reactionIdx];
+            if (reactionRate > 0) {
+                last = reactionIdx;
+                ratesSum += reactionRate;
+                if (ratesSum >= threshold) {
+                    return reactionIdx;
+                }
+            }
+        }
+        /*
+        The running sum of rates drifted from the actual sum by rounding errors, use the
+        exact sum from now on.
+         */
+        sumOfRates = ratesSum;
+        return last;
+    }
+
+    /**
+     * Recomputes the rates of the reactions in reactionsToUpdate and updates
+     * the sum of rates accordingly. Afterwards, no reaction is left to update.
+     */
+    protected void updateReactionRates() {
+        for (int i = 0; i < reactionsToUpdateCount; i++) {
+            int reactionIdx = reactionsToUpdate[i];
+            updateScheduled[reactionIdx] = false;
+            double reactionRate = computeReactionRate(reactionIdx);
+            sumOfRates += reactionRate - reactionRates[reactionIdx];
+            reactionRates[reactionIdx] = reactionRate;
+        }
+        reactionsToUpdateCount = 0;
+    }
+
+    /**
+     * Adds the reactions whose rates depend on the compounds changed by a
+     * reaction to reactionsToUpdate.
+     *
+     * @param reaction Index of the reaction that occurred.
+     */
+    protected void scheduleDependentReactions(int reaction) {
+        int[] dependencies = model.getDependencies();
+        for (int i = model.getDependencyStart()[reaction], end = model.getDependencyStart()[reaction + 1]; i < end; i++) {
+            int dependent = dependencies[i];
+            if (!updateScheduled[dependent]) {
+                updateScheduled[dependent] = true;
+                reactionsToUpdate[reactionsToUpdateCount++] = dependent;
+            }
+        }
+    }
+
+    /**
+     * Adapts the molecule numbers and concentrations of the non-constant
+     * compounds to an occurrence of a reaction.
+     *
+     * @param reaction Index of the reaction.
+     */
+    protected void fireReaction(int reaction) {
+        int[] compounds = model.getChangeCompounds();
+        int[] changes = model.getChangeValues();
+        double volMol = model.getVolMol();
+        for (int i = model.getChangeStart()[reaction], end = model.getChangeStart()[reaction + 1]; i < end; i++) {
+            int compound = compounds[i];
+            long nrOfMolecules = nonConstantMarkingRun[compound] + changes[i];
+            nonConstantMarkingRun[compound] = nrOfMolecules;
+            concentrations[compound] = nrOfMolecules / volMol;
+        }
+    }
+
+    /**
+     * Evaluates the expressions of the constant places at the current state
+     * and updates their markings and concentrations.
+     */
+    protected void updateConstantPlaces() {
+        CompiledExpression[] expressions = model.getConstantCompoundExpressions();
+        for (int i = 0; i < this.constantMarkingRun.length; i++) {
+            double val = (expressions[i] == null) ? 0 : expressions[i].evaluate(concentrations, this.timePassed);
+            this.constantMarkingRun[i] = Math.round(val * model.getVolMol());
+            this.concentrations[this.nonConstantMarkingRun.length + i] = val;
+        }
+    }
+
+    /**
+     * Signalize the associated GillespieTokenSim that this run has finished.
+     * Runs without an associated GillespieTokenSim are executed directly and
+     * need not be checked out.
+     */
+    protected void checkOutRunningThread() {
+        if (gillTS != null) {
+            gillTS.checkOutRunningThread();
+        }
     }
 
     /**
@@ -497,6 +652,23 @@ public class ExactSSA implements Runnable {
             String name = simStor.getConstantPlaceNames()[i];
             constantPlotSeries[i] = new XYSeries(name, false);
         }
+        if (isBinaryOutput()) {
+            try (TrajectoryReader reader = new TrajectoryReader(outputFileRun)) {
+                for (int c = 0; c < reader.getChunkCount(); c++) {
+                    TrajectoryReader.Chunk chunk = reader.getChunk(c);
+                    for (int row = 0; row < chunk.getRowCount(); row++) {
+                        double time = chunk.getTime(row);
+                        for (int i = 0; i < nonConstantPlotSeries.length; i++) {
+                            nonConstantPlotSeries[i].add(time, chunk.getValue(i, row), false);
+                        }
+                        for (int i = 0; i < constantPlotSeries.length; i++) {
+                            constantPlotSeries[i].add(time, chunk.getValue(i + nonConstantPlotSeries.length, row), false);
+                        }
+                    }
+                }
+            }
+            return collectSeries(nonConstantPlotSeries, constantPlotSeries, nonConstantPlacesF, constantPlacesF);
+        }
         BufferedReader in = new BufferedReader(new FileReader(outputFileRun));
         String line;
         in.readLine();
@@ -515,11 +687,17 @@ public class ExactSSA implements Runnable {
                 LOGGER.error("NumberFormatException while trying to create a plot of the stochastic simulation", ex);
             }
         }
+        in.close();
+        return collectSeries(nonConstantPlotSeries, constantPlotSeries, nonConstantPlacesF, constantPlacesF);
+    }
+
+    private static XYSeriesCollection collectSeries(XYSeries[] nonConstantPlotSeries, XYSeries[] constantPlotSeries,
+            List<Integer> nonConstantPlaces, List<Integer> constantPlaces) {
         XYSeriesCollection chartDataset = new XYSeriesCollection();
-        for (int idx : nonConstantPlacesF) {
+        for (int idx : nonConstantPlaces) {
             chartDataset.addSeries(nonConstantPlotSeries[idx]);
         }
-        for (int idx : constantPlacesF) {
+        for (int idx : constantPlaces) {
             chartDataset.addSeries(constantPlotSeries[idx]);
         }
         return chartDataset;
@@ -535,78 +713,19 @@ public class ExactSSA implements Runnable {
      * volume).
      */
     protected double computeReactionRate(int idx) {
-        /*
-            * Evaluate deterministic reaction rate constant
-         */
-        LOGGER.debug("Computing the reaction rate of the reaction with the ID: " + Integer.toString(idx));
-        double detReactionRateConst = reactionRateConstantsRun[idx].evaluateML(concentrations, timePassed);
-        /*
-            * Convert deterministic reaction rate constant to stochastic one. Get the order and the multiplier of the reaction.
-         */
-        int order = simStor.getReactionOrder()[idx][0];
-        int multiplier = simStor.getReactionOrder()[idx][1];
-        double stochReactionRateConst;
-        switch (order) {
-            case 0:
-                stochReactionRateConst = detReactionRateConst * simStor.getVolMol();
-                break;
-            case 1:
-                stochReactionRateConst = detReactionRateConst;
-                break;
-            case 2:
-                stochReactionRateConst = (detReactionRateConst * multiplier) / simStor.getVolMol();
-                break;
-            default:
-                double volMolPow = 1;
-                for (int i = 0; i < order - 1; i++) {
-                    volMolPow *= simStor.getVolMol();
-                }
-                stochReactionRateConst = (detReactionRateConst * multiplier) / volMolPow;
-                break;
-        }
-        //number if distinct combinations of educt molecules.
-        long h = 1;
-
-        /*
-            Iterate through all non-constant educts of the reaction. Get the number of molecules of the educt and the
-            stoichiometric factor and calculate the number of distinct molecular combinations.
-         */
-        for (int eductIdx : simStor.getReactionsNonConstantEducts()[idx]) {
-            //stoichiometric factor
-            int weight = simStor.getEductStoichMatrix()[idx][eductIdx];
-            long tokens = this.nonConstantMarkingRun[eductIdx];
-            if (weight > tokens) {
-                return 0;
-            }
-            //update the number of distinct combinations.
-            h *= Utilities.binomialCoefficient(tokens, weight);
-        }
-        /*
-            Iterate through all constant educts of the reaction. Get the number of molecules of the educt and the
-            stoichiometric factor and calculate the number of distinct molecular combinations.
-         */
-        for (int eductIdx : simStor.getReactionsConstantEducts()[idx]) {
-            //stoichiometric factor
-            int weight = simStor.getEductStoichMatrix()[idx][eductIdx + simStor.getNonConstantPlaceIDs().length];
-            long tokens = this.constantMarkingRun[eductIdx];
-            if (weight > tokens) {
-                return 0;
-            }
-            //update the number of distinct combinations.
-            h *= Utilities.binomialCoefficient(tokens, weight);
-        }
-        LOGGER.debug("Done with computing the reaction rate for the reaction with the ID: " + Integer.toString(idx)
-                + " with the reacton rate: " + Double.toString(h * stochReactionRateConst));
-        return h * stochReactionRateConst;
+        return model.computeRate(idx, nonConstantMarkingRun, constantMarkingRun, concentrations, timePassed);
     }
 
     /**
-     * Writes a simulation log.
+     * Writes a simulation log. In the fixed grid sampling mode, the log is
+     * written by {@link #sampleUntil(double)} instead.
      *
      * @param reactions Reactions that occurred.
      */
-    protected void writeOutput(Integer... reactions) {
-        LOGGER.debug("Writing general data into the StringBuilder");
+    protected void writeOutput(int... reactions) {
+        if (isFixedGridSampling()) {
+            return;
+        }
         lastUpdate += simStor.getUpdateInterval();
         double timeForLog;
         if (simStor.getUpdateInterval() == 0.0) {
@@ -614,12 +733,37 @@ public class ExactSSA implements Runnable {
         } else {
             timeForLog = lastUpdate;
         }
+        writeRow(timeForLog, reactions);
+    }
+
+    /**
+     * Writes the current state as a row of the output file.
+     *
+     * @param timeForLog Time written in the row.
+     * @param reactions Reactions that occurred.
+     */
+    private void writeRow(double timeForLog, int[] reactions) {
+        if (trajectoryWriter != null) {
+            try {
+                trajectoryWriter.append(stepsSimulated, timeForLog, reactions, nonConstantMarkingRun, constantMarkingRun);
+            } catch (IOException ex) {
+                LOGGER.error("IOException while trying to append a row to the trajectory file", ex);
+            }
+            return;
+        }
+        if (outputWriter == null) {
+            return;
+        }
         StringBuilder outSB = new StringBuilder();
         outSB.append(stepsSimulated).append("\t").append(timeForLog).append("\t");
-        for (int idx : reactions) {
-            outSB.append(simStor.getReactionNames()[idx]).append(";");
+        if (reactions.length == 0) {
+            outSB.append("none");
+        } else {
+            for (int idx : reactions) {
+                outSB.append(simStor.getReactionNames()[idx]).append(";");
+            }
+            outSB.deleteCharAt(outSB.length() - 1);
         }
-        outSB.deleteCharAt(outSB.length() - 1);
 
         /*
          * Write molecule numbers for non-constant places.
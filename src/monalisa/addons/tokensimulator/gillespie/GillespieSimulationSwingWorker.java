@@ -24,11 +24,6 @@ public class GillespieSimulationSwingWorker extends AbstractSimulationSwingWorke
      * Number of steps this thread should perform.
      */
     private int stepsLeft;
-    /**
-     * Indicates whether the simulation is still running. Can be set to "false"
-     * upon termination call.
-     */
-    private boolean isRunning;
     private final SimulationManager simulationMan;
     private final GillespieTokenSim gillTS;
     private static final Logger LOGGER = LogManager.getLogger(GillespieSimulationSwingWorker.class);
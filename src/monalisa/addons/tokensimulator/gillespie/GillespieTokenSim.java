@@ -737,17 +737,30 @@ public class GillespieTokenSim extends AbstractTokenSim {
         return true;
     }
 
+    /**
+     * @return the number of simulation threads of the fast mode which may run
+     * at the same time, i.e. the number of processors unless a lower limit is
+     * set.
+     */
+    public int getMaxParallelThreads() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if ((boolean) this.getSimulationMan().getPreferences().get("LimitMaxThreads")) {
+            threads = Math.min(threads, (int) this.getSimulationMan().getPreferences().get("MaxThreadsNr"));
+        }
+        return Math.max(1, threads);
+    }
+
     /**
      * Signalize that the new simulation thread of the fast mode has started.
      */
-    public void registerNewThread() {
+    public synchronized void registerNewThread() {
         this.nrOfRunningThreads++;
     }
 
     /**
      * Signalize that a simulation thread of the fast mode has stopped.
      */
-    public void checkOutRunningThread() {
+    public synchronized void checkOutRunningThread() {
         this.nrOfRunningThreads--;
     }
 
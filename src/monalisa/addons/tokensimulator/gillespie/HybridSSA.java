@@ -0,0 +1,545 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Calendar;
+import monalisa.addons.tokensimulator.SimulationManager;
+import monalisa.addons.tokensimulator.listeners.SimulationEvent;
+import monalisa.util.XoshiroRandom;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hybrid stochastic and deterministic simulation. Compounds with at least
+ * {@link #CONTINUOUS_THRESHOLD} molecules are treated as continuous, they
+ * become discrete again below {@link #DISCRETE_THRESHOLD} molecules. Reactions
+ * which only consume and produce continuous compounds are fast, their rate
+ * equations are integrated by the Runge-Kutta method of Dormand and Prince
+ * with adaptive step size. The other reactions are slow and occur one by one
+ * like in the exact SSA: the integral of the sum of their rates is integrated
+ * along with the fast reactions, a slow reaction occurs when it reaches an
+ * exponentially distributed random number. The partition is updated after
+ * every step.
+ *
+ * The molecule numbers of continuous compounds are written rounded to the
+ * nearest integer.
+ */
+public class HybridSSA extends ExactSSA {
+
+    private final static Logger LOGGER = LogManager.getLogger(HybridSSA.class);
+    /**
+     * Molecule numbers at which a compound becomes continuous and discrete
+     * again. The gap between them keeps compounds from switching back and
+     * forth.
+     */
+    private final static double CONTINUOUS_THRESHOLD = 1000;
+    private final static double DISCRETE_THRESHOLD = 800;
+    /**
+     * Tolerances of the local error of a step, in molecules.
+     */
+    private final static double RELATIVE_TOLERANCE = 1e-6;
+    private final static double ABSOLUTE_TOLERANCE = 1e-3;
+    /**
+     * Absolute tolerance of the integrated sum of slow rates, which is
+     * compared to an exponentially distributed number with mean 1.
+     */
+    private final static double SLOW_TOLERANCE = 1e-6;
+    /**
+     * Maximal number of times a step is shortened to end at the occurrence of
+     * a slow reaction.
+     */
+    private final static int MAX_EVENT_ITERATIONS = 10;
+
+    /*
+    Coefficients of the Dormand-Prince method. The solution of fifth order is taken, the
+    difference to the embedded solution of fourth order estimates the error.
+     */
+    private final static double C2 = 1.0 / 5, C3 = 3.0 / 10, C4 = 4.0 / 5, C5 = 8.0 / 9;
+    private final static double A21 = 1.0 / 5;
+    private final static double A31 = 3.0 / 40, A32 = 9.0 / 40;
+    private final static double A41 = 44.0 / 45, A42 = -56.0 / 15, A43 = 32.0 / 9;
+    private final static double A51 = 19372.0 / 6561, A52 = -25360.0 / 2187, A53 = 64448.0 / 6561, A54 = -212.0 / 729;
+    private final static double A61 = 9017.0 / 3168, A62 = -355.0 / 33, A63 = 46732.0 / 5247, A64 = 49.0 / 176, A65 = -5103.0 / 18656;
+    private final static double A71 = 35.0 / 384, A73 = 500.0 / 1113, A74 = 125.0 / 192, A75 = -2187.0 / 6784, A76 = 11.0 / 84;
+    private final static double E1 = 71.0 / 57600, E3 = -71.0 / 16695, E4 = 71.0 / 1920, E5 = -17253.0 / 339200, E6 = 22.0 / 525, E7 = -1.0 / 40;
+
+    private final SimulationStorage simStor;
+    /**
+     * If true, all compounds are continuous and all reactions fast.
+     */
+    private final boolean deterministic;
+    private final int compoundCount;
+    /**
+     * Molecule numbers of the non-constant compounds, followed by the
+     * integral of the sum of slow rates since the last slow reaction.
+     */
+    private final double[] state;
+    private final boolean[] continuousCompounds;
+    private final boolean[] fastReactions;
+    private int fastCount;
+    /**
+     * Exponentially distributed number at which the next slow reaction
+     * occurs.
+     */
+    private double slowTarget;
+    private double stepSize;
+    /**
+     * Stages of the Dormand-Prince method and scratch arrays, reused in every
+     * step. k1 holds the derivative at the current state if derivativeValid
+     * is set.
+     */
+    private double[] k1, k7;
+    private final double[] k2, k3, k4, k5, k6;
+    private final double[] stageState;
+    private final double[] nextState;
+    private final double[] stageConcentrations;
+    private boolean derivativeValid;
+    /**
+     * Sum of all rates at the current state, if derivativeValid is set, and
+     * at the end of the last tried step.
+     */
+    private double rateSum;
+    private double nextRateSum;
+
+    /**
+     * Create a new instance of a HybridSSA runnable.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param seed Seed for randomization
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public HybridSSA(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        this(outF, runNr, new XoshiroRandom(seed), gillTS, simStor);
+    }
+
+    /**
+     * Create a new instance of a HybridSSA runnable with its own stream of
+     * random numbers.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param random Random number generator of this run, not shared with
+     * other runs.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public HybridSSA(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        this(outF, runNr, random, gillTS, simStor, false);
+    }
+
+    /**
+     * @param deterministic If true, all reactions are integrated as rate
+     * equations.
+     */
+    protected HybridSSA(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor, boolean deterministic) {
+        super(outF, runNr, random, gillTS, simStor);
+        this.simStor = simStor;
+        this.deterministic = deterministic;
+        this.compoundCount = model.getCompoundCount();
+        this.state = new double[compoundCount + 1];
+        for (int i = 0; i < compoundCount; i++) {
+            state[i] = nonConstantMarkingRun[i];
+        }
+        this.continuousCompounds = new boolean[compoundCount];
+        this.fastReactions = new boolean[model.getReactionCount()];
+        this.k1 = new double[state.length];
+        this.k2 = new double[state.length];
+        this.k3 = new double[state.length];
+        this.k4 = new double[state.length];
+        this.k5 = new double[state.length];
+        this.k6 = new double[state.length];
+        this.k7 = new double[state.length];
+        this.stageState = new double[state.length];
+        this.nextState = new double[state.length];
+        this.stageConcentrations = new double[concentrations.length];
+        if (deterministic) {
+            Arrays.fill(continuousCompounds, true);
+        }
+    }
+
+    @Override
+    public void run() {
+        fireSimulationEvent(SimulationEvent.INIT, -1);
+        openOutputWriter();
+        this.isRunning = true;
+        LOGGER.info("Starting the hybrid simulation");
+        try {
+            if (!deterministic) {
+                slowTarget = randomRun.nextExponential();
+            }
+            partition(true);
+            /*
+             * A single simulation step is either a step of the integration of the fast reactions, which may end with the
+             * occurrence of a slow reaction, or, if there are no fast reactions, the occurrence of a slow reaction.
+             */
+            while (isRunning) {
+                if (simStor.getMaxSimTime() > 0 && timePassed >= simStor.getMaxSimTime()) {
+                    LOGGER.debug("Maximum simulation time has been reached, therefore stopping the simulation");
+                    this.requestStop();
+                    sampleRemaining();
+                    break;
+                }
+                int slowReaction;
+                if (fastCount > 0) {
+                    slowReaction = continuousStep();
+                } else {
+                    slowReaction = slowStep();
+                }
+                if (slowReaction == -2) {
+                    break;
+                }
+                partition(false);
+                //Write updated molecule numbers into output file.
+                double interval = simStor.getUpdateInterval();
+                if (interval == 0 || timePassed - lastUpdate >= interval * (1 - 1e-9)) {
+                    if (slowReaction >= 0) {
+                        writeOutput(slowReaction);
+                    } else {
+                        writeOutput();
+                    }
+                }
+            }
+            LOGGER.info("Simulation has stopped running, therefore finishing the Simulator");
+        } finally {
+            closeOutputWriter();
+        }
+        this.updateOutput();
+        fireSimulationEvent(SimulationEvent.DONE, ("\n").concat(SimulationManager.strings.get("SimFinished")).concat(dateFormat.format(Calendar.getInstance().getTime())));
+        checkOutRunningThread();
+    }
+
+    /**
+     * Integrates the fast reactions over one step. Steps end at the multiples
+     * of the update interval, so the state is sampled exactly there, and at
+     * the maximum simulation time. If the integral of the slow rates reaches
+     * its target within the step, the step is shortened to end there and a
+     * slow reaction occurs.
+     *
+     * @return the index of the slow reaction which occurred, -1 if none
+     * occurred and -2 if the simulation ended.
+     */
+    private int continuousStep() {
+        if (!derivativeValid) {
+            rateSum = derivatives(timePassed, state, k1);
+            derivativeValid = true;
+        }
+        if (rateSum <= 0) {
+            LOGGER.info("Sum of rates is less or equal to zero, therefore no more reaction can occur and the simulation is stopped");
+            sampleRemaining();
+            return -2;
+        }
+        if (stepSize <= 0) {
+            stepSize = initialStepSize();
+        }
+        sampleUntil(Math.nextUp(timePassed));
+        /*
+        The step ends at the next multiple of the update interval or the maximum simulation time,
+        whichever comes first. limitTime is set exactly, so the state is sampled there.
+         */
+        double limitTime = Double.POSITIVE_INFINITY;
+        if (simStor.getMaxSimTime() > 0) {
+            limitTime = simStor.getMaxSimTime();
+        }
+        double interval = simStor.getUpdateInterval();
+        if (interval > 0) {
+            limitTime = Math.min(limitTime, (Math.floor(timePassed / interval + 1e-9) + 1) * interval);
+        }
+        double limit = limitTime - timePassed;
+        double h = Math.min(stepSize, limit);
+        if (Double.isInfinite(h)) {
+            LOGGER.info("Rates are too small to advance the simulation, therefore stopping it");
+            sampleRemaining();
+            return -2;
+        }
+        boolean limited = h < stepSize;
+        double error;
+        int eventIterations = 0;
+        while (true) {
+            error = dormandPrinceStep(h);
+            if (error > 1 && h > 4 * Math.ulp(timePassed)) {
+                h *= Math.max(0.2, 0.9 * Math.pow(error, -0.2));
+                stepSize = h;
+                limited = false;
+                continue;
+            }
+            double slowIntegral = nextState[compoundCount];
+            if (!deterministic && slowIntegral > slowTarget + SLOW_TOLERANCE && eventIterations++ < MAX_EVENT_ITERATIONS) {
+                /*
+                The slow reaction occurs within the step, shorten it by the secant of the integral.
+                 */
+                h *= (slowTarget - state[compoundCount]) / (slowIntegral - state[compoundCount]);
+                limited = true;
+                continue;
+            }
+            break;
+        }
+        double factor = (error == 0) ? 5 : Math.min(5, Math.max(0.2, 0.9 * Math.pow(error, -0.2)));
+        stepSize = limited ? Math.max(stepSize, h * factor) : h * factor;
+
+        /*
+        Accept the step, the derivative at its end is the first stage of the next one.
+         */
+        System.arraycopy(nextState, 0, state, 0, state.length);
+        double[] swap = k1;
+        k1 = k7;
+        k7 = swap;
+        rateSum = nextRateSum;
+        this.stepsSimulated++;
+        this.timePassed = (h == limit) ? limitTime : timePassed + h;
+        updateMarking();
+        if (constantMarkingRun.length > 0) {
+            updateConstantPlaces();
+            derivativeValid = false;
+        }
+        int slowReaction = -1;
+        if (!deterministic && state[compoundCount] >= slowTarget) {
+            slowReaction = fireSlowReaction();
+        }
+        sampleUntil(Math.nextUp(timePassed));
+        return slowReaction;
+    }
+
+    /**
+     * Lets the next slow reaction occur while there are no fast reactions.
+     * The rates do not change until then, like in the exact SSA.
+     *
+     * @return the index of the slow reaction which occurred, or -2 if the
+     * simulation ended.
+     */
+    private int slowStep() {
+        double slowSum = derivatives(timePassed, state, k1);
+        derivativeValid = true;
+        if (slowSum <= 0) {
+            LOGGER.info("Sum of rates is less or equal to zero, therefore no more reaction can occur and the simulation is stopped");
+            sampleRemaining();
+            return -2;
+        }
+        double nextFiringTime = (slowTarget - state[compoundCount]) / slowSum;
+        //check if the simulation should go on or the maximal time is reached.
+        if (simStor.getMaxSimTime() > 0 && (timePassed + nextFiringTime) > simStor.getMaxSimTime()) {
+            LOGGER.debug("Maximum simulation time has been reached, therefore stopping the simulation");
+            this.requestStop();
+            sampleRemaining();
+            return -2;
+        }
+        sampleUntil(timePassed + nextFiringTime);
+        this.stepsSimulated++;
+        this.timePassed += nextFiringTime;
+        return fireSlowReaction();
+    }
+
+    /**
+     * Selects a slow reaction with a probability proportional to its rate at
+     * the current state and lets it occur.
+     *
+     * @return the index of the reaction.
+     */
+    private int fireSlowReaction() {
+        double volMol = model.getVolMol();
+        for (int i = 0; i < compoundCount; i++) {
+            stageConcentrations[i] = state[i] / volMol;
+        }
+        System.arraycopy(concentrations, compoundCount, stageConcentrations, compoundCount, concentrations.length - compoundCount);
+        sumOfRates = 0;
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            reactionRates[reactionIdx] = fastReactions[reactionIdx] ? 0
+                    : Math.max(model.computeRate(reactionIdx, state, constantMarkingRun, stageConcentrations, timePassed), 0);
+            sumOfRates += reactionRates[reactionIdx];
+        }
+        int reaction = selectReaction(randomRun.nextDouble());
+        if (reaction >= 0) {
+            int[] changeCompounds = model.getChangeCompounds();
+            int[] changeValues = model.getChangeValues();
+            for (int i = model.getChangeStart()[reaction]; i < model.getChangeStart()[reaction + 1]; i++) {
+                state[changeCompounds[i]] += changeValues[i];
+            }
+            updateMarking();
+            updateConstantPlaces();
+        }
+        state[compoundCount] = 0;
+        slowTarget = randomRun.nextExponential();
+        derivativeValid = false;
+        return reaction;
+    }
+
+    /**
+     * Tries a step of the Dormand-Prince method from the current state. The
+     * result is stored in nextState and its derivative in k7.
+     *
+     * @param h Step size.
+     * @return the local error relative to the tolerances, at most 1 for
+     * acceptable steps.
+     */
+    private double dormandPrinceStep(double h) {
+        double t = timePassed;
+        double[] y = state;
+        int n = y.length;
+        for (int i = 0; i < n; i++) {
+            stageState[i] = y[i] + h * A21 * k1[i];
+        }
+        derivatives(t + C2 * h, stageState, k2);
+        for (int i = 0; i < n; i++) {
+            stageState[i] = y[i] + h * (A31 * k1[i] + A32 * k2[i]);
+        }
+        derivatives(t + C3 * h, stageState, k3);
+        for (int i = 0; i < n; i++) {
+            stageState[i] = y[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+        }
+        derivatives(t + C4 * h, stageState, k4);
+        for (int i = 0; i < n; i++) {
+            stageState[i] = y[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+        }
+        derivatives(t + C5 * h, stageState, k5);
+        for (int i = 0; i < n; i++) {
+            stageState[i] = y[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+        }
+        derivatives(t + h, stageState, k6);
+        for (int i = 0; i < n; i++) {
+            nextState[i] = y[i] + h * (A71 * k1[i] + A73 * k3[i] + A74 * k4[i] + A75 * k5[i] + A76 * k6[i]);
+        }
+        nextRateSum = derivatives(t + h, nextState, k7);
+
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            boolean slowIntegral = (i == compoundCount);
+            if (slowIntegral ? deterministic : !continuousCompounds[i]) {
+                continue;
+            }
+            double e = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]);
+            double scale = (slowIntegral ? SLOW_TOLERANCE : ABSOLUTE_TOLERANCE)
+                    + RELATIVE_TOLERANCE * Math.max(Math.abs(y[i]), Math.abs(nextState[i]));
+            sum += (e / scale) * (e / scale);
+            count++;
+        }
+        return (count == 0) ? 0 : Math.sqrt(sum / count);
+    }
+
+    /**
+     * Computes the derivative of the state: the changes of the compounds by
+     * the fast reactions and the sum of the slow rates.
+     *
+     * @param time Simulation time.
+     * @param y State.
+     * @param dy Derivative of the state.
+     * @return the sum of all rates.
+     */
+    private double derivatives(double time, double[] y, double[] dy) {
+        double volMol = model.getVolMol();
+        for (int i = 0; i < compoundCount; i++) {
+            stageConcentrations[i] = y[i] / volMol;
+        }
+        System.arraycopy(concentrations, compoundCount, stageConcentrations, compoundCount, concentrations.length - compoundCount);
+        Arrays.fill(dy, 0);
+        int[] changeStart = model.getChangeStart();
+        int[] changeCompounds = model.getChangeCompounds();
+        int[] changeValues = model.getChangeValues();
+        double sum = 0;
+        for (int reactionIdx = 0; reactionIdx < fastReactions.length; reactionIdx++) {
+            double rate = model.computeRate(reactionIdx, y, constantMarkingRun, stageConcentrations, time);
+            if (rate <= 0) {
+                continue;
+            }
+            sum += rate;
+            if (fastReactions[reactionIdx]) {
+                for (int i = changeStart[reactionIdx]; i < changeStart[reactionIdx + 1]; i++) {
+                    dy[changeCompounds[i]] += changeValues[i] * rate;
+                }
+            } else {
+                dy[compoundCount] += rate;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Chooses the size of the first step from the magnitudes of the state and
+     * its derivative, following Hairer, Norsett and Wanner.
+     */
+    private double initialStepSize() {
+        double stateNorm = 0;
+        double derivativeNorm = 0;
+        for (int i = 0; i < state.length; i++) {
+            double scale = ((i == compoundCount) ? SLOW_TOLERANCE : ABSOLUTE_TOLERANCE) + RELATIVE_TOLERANCE * Math.abs(state[i]);
+            stateNorm = Math.max(stateNorm, Math.abs(state[i]) / scale);
+            derivativeNorm = Math.max(derivativeNorm, Math.abs(k1[i]) / scale);
+        }
+        if (stateNorm < 1e-5 || derivativeNorm < 1e-5) {
+            return 1e-6;
+        }
+        return 0.01 * stateNorm / derivativeNorm;
+    }
+
+    /**
+     * Updates which compounds are continuous and which reactions are fast. A
+     * reaction is fast if it changes at least one compound and all compounds
+     * it consumes or changes are continuous.
+     *
+     * @param force If true, the reactions are classified even if no compound
+     * changed its kind.
+     */
+    private void partition(boolean force) {
+        boolean changed = force;
+        if (!deterministic) {
+            for (int i = 0; i < compoundCount; i++) {
+                if (!continuousCompounds[i] && state[i] >= CONTINUOUS_THRESHOLD) {
+                    continuousCompounds[i] = true;
+                    changed = true;
+                } else if (continuousCompounds[i] && state[i] < DISCRETE_THRESHOLD) {
+                    continuousCompounds[i] = false;
+                    state[i] = Math.max(Math.round(state[i]), 0);
+                    changed = true;
+                }
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        LOGGER.debug("Partitioning the reactions into fast and slow ones");
+        int[] eductStart = model.getEductStart();
+        int[] eductCompounds = model.getEductCompounds();
+        int[] changeStart = model.getChangeStart();
+        int[] changeCompounds = model.getChangeCompounds();
+        fastCount = 0;
+        for (int reactionIdx = 0; reactionIdx < fastReactions.length; reactionIdx++) {
+            boolean fast = deterministic || changeStart[reactionIdx] < changeStart[reactionIdx + 1];
+            for (int i = eductStart[reactionIdx]; fast && i < eductStart[reactionIdx + 1]; i++) {
+                fast = continuousCompounds[eductCompounds[i]];
+            }
+            for (int i = changeStart[reactionIdx]; fast && i < changeStart[reactionIdx + 1]; i++) {
+                fast = continuousCompounds[changeCompounds[i]];
+            }
+            fastReactions[reactionIdx] = fast;
+            if (fast) {
+                fastCount++;
+            }
+        }
+        derivativeValid = false;
+    }
+
+    /**
+     * Updates the molecule numbers and concentrations of the non-constant
+     * compounds from the state.
+     */
+    private void updateMarking() {
+        double volMol = model.getVolMol();
+        for (int i = 0; i < compoundCount; i++) {
+            if (state[i] < 0) {
+                state[i] = 0;
+            }
+            nonConstantMarkingRun[i] = Math.round(state[i]);
+            concentrations[i] = state[i] / volMol;
+        }
+    }
+}
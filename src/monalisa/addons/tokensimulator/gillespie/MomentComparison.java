@@ -0,0 +1,222 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import monalisa.addons.tokensimulator.utils.MathematicalExpression;
+import monalisa.util.XoshiroRandom;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Correctness check for stochastic simulation engines. Two engines simulate
+ * the same model for a number of runs with the same sequence of seeds, and
+ * the means and variances of the molecule numbers are compared at equidistant
+ * points in time. For exact engines the difference of the means divided by its
+ * standard error is approximately standard normal, so z-scores above 4 or 5
+ * indicate an error in one of the engines.
+ *
+ * The runs are executed in the calling thread without an associated
+ * GillespieTokenSim. Every run is simulated once up to the maximum simulation
+ * time of the model and adds its state at all points in time to an
+ * {@link EnsembleStatistics}. The model is not changed.
+ *
+ * {@link #checkExactEngines(int, long)} runs the check for the exact engines
+ * on a built-in model.
+ */
+public final class MomentComparison {
+
+    /**
+     * Creates the runnable of a stochastic simulation engine. The constructors
+     * of the engines match this interface, e.g. {@code ExactSSA::new}.
+     */
+    public interface EngineFactory {
+
+        ExactSSA create(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor);
+    }
+
+    private static final Logger LOGGER = LogManager.getLogger(MomentComparison.class);
+
+    /**
+     * z-score above which {@link #checkExactEngines(int, long)} reports an
+     * engine as inconsistent.
+     */
+    private static final double Z_LIMIT = 5;
+
+    private final EnsembleStatistics reference;
+    private final EnsembleStatistics candidate;
+
+    private MomentComparison(EnsembleStatistics reference, EnsembleStatistics candidate) {
+        this.reference = reference;
+        this.candidate = candidate;
+    }
+
+    /**
+     * Compares two engines on a model.
+     *
+     * @param simStor Storage with data for simulation. Its maximum simulation
+     * time has to be greater than 0 and is the last point in time compared.
+     * @param reference Engine whose results are assumed to be correct.
+     * @param candidate Engine to check.
+     * @param interval Distance of the points in time at which the moments are
+     * compared, greater than 0.
+     * @param runs Number of runs of each engine, at least 2.
+     * @param seed Seed of the random generator which creates the seeds of the
+     * runs.
+     * @return the moments of both engines.
+     */
+    public static MomentComparison compare(SimulationStorage simStor, EngineFactory reference, EngineFactory candidate,
+            double interval, int runs, long seed) {
+        if (!(simStor.getMaxSimTime() > 0) || runs < 2) {
+            throw new IllegalArgumentException("Comparing moments needs a maximum simulation time and at least two runs");
+        }
+        return new MomentComparison(simulate(simStor, reference, interval, runs, seed),
+                simulate(simStor, candidate, interval, runs, seed));
+    }
+
+    private static EnsembleStatistics simulate(SimulationStorage simStor, EngineFactory factory, double interval,
+            int runs, long seed) {
+        String[] nonConstantNames = simStor.getNonConstantPlaceNames();
+        String[] constantNames = simStor.getConstantPlaceNames();
+        String[] names = new String[nonConstantNames.length + constantNames.length];
+        System.arraycopy(nonConstantNames, 0, names, 0, nonConstantNames.length);
+        System.arraycopy(constantNames, 0, names, nonConstantNames.length, constantNames.length);
+        EnsembleStatistics statistics = new EnsembleStatistics(interval, simStor.getMaxSimTime(), names);
+        XoshiroRandom seeds = new XoshiroRandom(seed);
+        for (int run = 0; run < runs; run++) {
+            ExactSSA engine = factory.create(null, run, seeds.nextLong(), null, simStor);
+            engine.setStatistics(statistics);
+            engine.run();
+        }
+        LOGGER.debug("Finished " + runs + " runs for the comparison of moments");
+        return statistics;
+    }
+
+    /**
+     * @return the moments of the reference engine.
+     */
+    public EnsembleStatistics getReference() {
+        return reference;
+    }
+
+    /**
+     * @return the moments of the checked engine.
+     */
+    public EnsembleStatistics getCandidate() {
+        return candidate;
+    }
+
+    /**
+     * Returns the difference of the means of both engines divided by its
+     * standard error.
+     *
+     * @param point Index of the point in time.
+     * @param compound Index of the compound, non-constant compounds first.
+     */
+    public double getZScore(int point, int compound) {
+        double diff = Math.abs(candidate.getMean(point, compound) - reference.getMean(point, compound));
+        double error = Math.sqrt(reference.getVariance(point, compound) / reference.getCount(point)
+                + candidate.getVariance(point, compound) / candidate.getCount(point));
+        if (error == 0) {
+            return (diff == 0) ? 0 : Double.POSITIVE_INFINITY;
+        }
+        return diff / error;
+    }
+
+    /**
+     * @return the largest z-score over all points in time and compounds.
+     */
+    public double getMaxZScore() {
+        double max = 0;
+        for (int point = 0; point < reference.getPointCount(); point++) {
+            for (int c = 0; c < reference.getNames().length; c++) {
+                max = Math.max(max, getZScore(point, c));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @param limit The largest acceptable z-score.
+     * @return true, if no z-score exceeds the limit.
+     */
+    public boolean isConsistent(double limit) {
+        return getMaxZScore() <= limit;
+    }
+
+    /**
+     * Compares the next reaction method and the composition-rejection SSA with
+     * the direct method on a reversible dimerisation with inflow and outflow.
+     * The largest z-score of each engine is logged. About 2000 runs are needed
+     * to detect small deviations.
+     *
+     * @param runs Number of runs of each engine, at least 2.
+     * @param seed Seed of the random generator which creates the seeds of the
+     * runs.
+     * @return true, if no z-score of either engine exceeds 5.
+     */
+    public static boolean checkExactEngines(int runs, long seed) {
+        SimulationStorage simStor = createTestModel();
+        String[] candidateNames = {"NextReactionSSA", "CompositionRejectionSSA"};
+        EngineFactory[] candidates = {NextReactionSSA::new, CompositionRejectionSSA::new};
+        boolean consistent = true;
+        for (int i = 0; i < candidates.length; i++) {
+            MomentComparison comparison = compare(simStor, ExactSSA::new, candidates[i], 1, runs, seed);
+            double z = comparison.getMaxZScore();
+            if (z <= Z_LIMIT) {
+                LOGGER.info(candidateNames[i] + ": largest z-score " + z + " over " + runs + " runs");
+            } else {
+                LOGGER.error(candidateNames[i] + " is inconsistent with ExactSSA: largest z-score " + z + " over " + runs + " runs");
+                consistent = false;
+            }
+        }
+        return consistent;
+    }
+
+    /**
+     * A + B <-> C with inflow of A and outflow of A and C, simulated for 20
+     * time units.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static SimulationStorage createTestModel() {
+        int[][] educts = new int[5][3];
+        int[][] products = new int[5][3];
+        educts[0][0] = 1;
+        educts[0][1] = 1;
+        products[0][2] = 1;
+        educts[1][2] = 1;
+        products[1][0] = 1;
+        products[1][1] = 1;
+        products[2][0] = 1;
+        educts[3][0] = 1;
+        educts[4][2] = 1;
+        Set<Integer>[] nonConstantEducts = new Set[]{set(0, 1), set(2), set(), set(0), set(2)};
+        Set<Integer>[] nonConstantProducts = new Set[]{set(2), set(0, 1), set(0), set(), set()};
+        Set<Integer>[] constantEducts = new Set[]{set(), set(), set(), set(), set()};
+        Set<Integer>[] influence = new Set[]{set(0, 3), set(0), set(1, 4)};
+        MathematicalExpression[] rateConstants = {new MathematicalExpression("0.01"), new MathematicalExpression("0.5"),
+            new MathematicalExpression("5"), new MathematicalExpression("0.1"), new MathematicalExpression("0.05")};
+        int[][] order = {{2, 1}, {1, 1}, {0, 1}, {1, 1}, {1, 1}};
+        return new SimulationStorage(1, 20, 1, new int[]{0, 1, 2}, new int[0], new MathematicalExpression[0],
+                rateConstants, new long[]{50, 40, 0}, new String[]{"A", "B", "C"}, new String[0],
+                new int[]{0, 1, 2, 3, 4}, new HashSet<>(), nonConstantEducts, educts, influence, nonConstantProducts,
+                products, order, constantEducts, new String[]{"binding", "unbinding", "inflow", "outflow A", "outflow C"});
+    }
+
+    private static Set<Integer> set(int... values) {
+        Set<Integer> set = new HashSet<>();
+        for (int v : values) {
+            set.add(v);
+        }
+        return set;
+    }
+}
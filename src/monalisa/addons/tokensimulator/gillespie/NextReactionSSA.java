@@ -0,0 +1,158 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.File;
+import java.util.Calendar;
+import monalisa.addons.tokensimulator.SimulationManager;
+import monalisa.addons.tokensimulator.listeners.SimulationEvent;
+import monalisa.addons.tokensimulator.utils.IndexedPriorityQueue;
+import monalisa.util.XoshiroRandom;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Exact stochastic simulation with the next reaction method of Gibson and
+ * Bruck. Every reaction keeps a putative absolute firing time in an indexed
+ * priority queue, the reaction with the earliest time occurs next. After a
+ * reaction occurred only the rates of the reactions depending on its educts
+ * and products are recomputed and their firing times are rescaled, so a step
+ * costs time logarithmic in the number of reactions instead of linear.
+ */
+public class NextReactionSSA extends ExactSSA {
+
+    private static final Logger LOGGER = LogManager.getLogger(NextReactionSSA.class);
+    private final SimulationStorage simStor;
+
+    /**
+     * Putative firing times of the reactions. Reactions with a rate of 0 have
+     * an infinite firing time.
+     */
+    private final IndexedPriorityQueue firingTimes;
+
+    /**
+     * Create a new instance of a NextReactionSSA runnable.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param seed Seed for randomization
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public NextReactionSSA(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        this(outF, runNr, new XoshiroRandom(seed), gillTS, simStor);
+    }
+
+    /**
+     * Create a new instance of a NextReactionSSA runnable with its own stream of
+     * random numbers.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param random Random number generator of this run, not shared with
+     * other runs.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public NextReactionSSA(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        super(outF, runNr, random, gillTS, simStor);
+        this.simStor = simStor;
+
+        /*
+        Draw the initial firing times from the rates computed by the super class.
+         */
+        this.firingTimes = new IndexedPriorityQueue(reactionRates.length);
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            if (reactionRates[reactionIdx] > 0) {
+                this.firingTimes.update(reactionIdx, this.timePassed + nextWaitingTime(reactionRates[reactionIdx]));
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        fireSimulationEvent(SimulationEvent.INIT, -1);
+        openOutputWriter();
+        this.isRunning = true;
+        try {
+            while (isRunning) {
+                /*
+                The reaction with the earliest putative firing time occurs next. If its time is infinite,
+                or the model has no reactions at all, no reaction can occur anymore.
+                 */
+                double nextTime = firingTimes.peekKey();
+                if (Double.isInfinite(nextTime)) {
+                    LOGGER.debug("No reaction has a rate greater than zero, therefore stop the stochastic simulation");
+                    sampleRemaining();
+                    break;
+                }
+                int reaction = firingTimes.peek();
+                if (simStor.getMaxSimTime() > 0 && nextTime > simStor.getMaxSimTime()) {
+                    this.requestStop();
+                    LOGGER.debug("Maximum Time has been reached, therefore stopping the stochastic simulation");
+                    sampleRemaining();
+                    break;
+                }
+                sampleUntil(nextTime);
+
+                /*
+                 * Update step and time counters.
+                 */
+                this.stepsSimulated++;
+                this.timePassed = nextTime;
+
+                if (this.timePassed >= this.lastUpdate + simStor.getUpdateInterval()) {
+                    writeOutput(reaction);
+                }
+
+                fireReaction(reaction);
+                updateConstantPlaces();
+
+                /*
+                Recompute the rates of the dependent reactions. The reaction that occurred gets a new
+                firing time, the firing times of the others are rescaled to their new rates.
+                 */
+                int[] dependencies = model.getDependencies();
+                for (int i = model.getDependencyStart()[reaction], end = model.getDependencyStart()[reaction + 1]; i < end; i++) {
+                    int dependent = dependencies[i];
+                    double oldRate = reactionRates[dependent];
+                    double newRate = computeReactionRate(dependent);
+                    reactionRates[dependent] = newRate;
+                    double time;
+                    if (newRate <= 0) {
+                        time = Double.POSITIVE_INFINITY;
+                    } else if (dependent == reaction || oldRate <= 0) {
+                        time = timePassed + nextWaitingTime(newRate);
+                    } else if (newRate == oldRate) {
+                        continue;
+                    } else {
+                        time = timePassed + (oldRate / newRate) * (firingTimes.getKey(dependent) - timePassed);
+                    }
+                    firingTimes.update(dependent, time);
+                }
+            }
+            LOGGER.info("Simulation has stopped running, therefore finishing the Simulator");
+        } finally {
+            closeOutputWriter();
+        }
+        this.updateOutput();
+        fireSimulationEvent(SimulationEvent.DONE, ("\n").concat(SimulationManager.strings.get("SimFinished")).concat(dateFormat.format(Calendar.getInstance().getTime())));
+        checkOutRunningThread();
+    }
+
+    /**
+     * Draws an exponentially distributed waiting time.
+     *
+     * @param rate Rate of the distribution, greater than 0.
+     */
+    private double nextWaitingTime(double rate) {
+        return randomRun.nextExponential() / rate;
+    }
+}
@@ -27,7 +27,8 @@ public class SimulationStorage {
     private final MathematicalExpression[] reactionRateConstants;
     private final String[] nonConstantPlaceNames;
     private final int[] nonConstantPlaceIDs;
-    private final double updateInterval;
+    private double updateInterval;
+    private boolean fixedGridSampling;
     private final long[] nonConstantInitialMarking;
     private final int[] reactionIDs;
     private final String[] reactionNames;
@@ -35,6 +36,7 @@ public class SimulationStorage {
     private final int[][] reactionOrder;
     private final int[] constantPlaceIDs;
     private final Set<Integer>[] reactionsNonConstantProducts;
+    private CompiledModel compiledModel;
 
     public SimulationStorage(
             double volMol,
@@ -80,6 +82,19 @@ public class SimulationStorage {
         this.compoundsInfluence = compoundsInfluence;
     }
 
+    /**
+     * Returns the reaction network in primitive arrays. It is compiled on the
+     * first call and shared by all subsequent calls.
+     *
+     * @return the compiled model
+     */
+    public synchronized CompiledModel getCompiledModel() {
+        if (compiledModel == null) {
+            compiledModel = new CompiledModel(this);
+        }
+        return compiledModel;
+    }
+
     public void setMaxSimTime(double maxSimTime) {
             this.maxSimTime = maxSimTime;
     }
@@ -174,6 +189,22 @@ public class SimulationStorage {
         return updateInterval;
     }
 
+    public void setUpdateInterval(double updateInterval) {
+        this.updateInterval = updateInterval;
+    }
+
+    /**
+     * @return true, if runs write the state at every multiple of the update
+     * interval instead of the first reaction after it.
+     */
+    public boolean isFixedGridSampling() {
+        return fixedGridSampling;
+    }
+
+    public void setFixedGridSampling(boolean fixedGridSampling) {
+        this.fixedGridSampling = fixedGridSampling;
+    }
+
     /**
      * @return the nonConstantInitialMarking
      */
@@ -13,21 +13,25 @@ import monalisa.addons.tokensimulator.utils.MathematicalExpression;
 import monalisa.addons.tokensimulator.utils.Utilities;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.Timer;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.exceptions.FactorialTooBigException;
 import monalisa.data.pn.PetriNetFacade;
@@ -37,6 +41,8 @@ import monalisa.tools.BooleanChangeEvent;
 import monalisa.tools.BooleanChangeListener;
 import monalisa.util.HighQualityRandom;
 import monalisa.util.MonaLisaFileChooser;
+import monalisa.util.MonaLisaFileFilter;
+import monalisa.util.XoshiroRandom;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -173,13 +179,8 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
      */
     private final GillespieTokenSim gillTS;
     /**
-     * Number of simulation threads which can run simulataneously. If more
-     * simulation runs are started, they are put in a queue and executed as soon
-     * as capacities are available.
-     */
-    private int MAX_PARALLEL_THREADS = Runtime.getRuntime().availableProcessors();
-    /**
-     * Interval in which the updater task is performed. milliseconds.
+     * Interval in which the running simulation runs update their output.
+     * milliseconds.
      */
     private final int UPDATER_TASK_INTERVAL = 3000;
     /**
@@ -192,14 +193,15 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
      */
     private final ArrayList<StochasticSimulatorRunPanel> runPanels = new ArrayList<>();
     /**
-     * Map of currently running threads, linked to the runnable instances they
-     * are executing.
+     * Executes the simulation runs. A new runner is created for every start of
+     * the simulation.
      */
-    private final HashMap<Thread, ExactSSA> runningThreads = new HashMap<>();
+    private EnsembleRunner ensembleRunner;
     /**
-     * Runnables of simulation runs which are waiting for their turn.
+     * Statistics of the molecule numbers over all simulation runs at every
+     * update interval, null if no maximal time or update interval is set.
      */
-    private final Queue<ExactSSA> runnablesQueue = new LinkedList<>();
+    private EnsembleStatistics statistics;
     /**
      * Maximal time to simulate.
      */
@@ -209,10 +211,11 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
      */
     private double updateInterval = 0.0;
     /**
-     * Random number generator. Used for generating seeds of new random
-     * generators of the simulation runs.
+     * Master random number generator. Every simulation run gets its own
+     * stream split off from it, so the runs are reproducible from the seed of
+     * the master generator and do not share a generator.
      */
-    private HighQualityRandom globalRandom;
+    private XoshiroRandom globalRandom;
 
     private final SimulationStorage simStor;
     /**
@@ -658,7 +661,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
                 reactionNames);
 
         initComponents();
-        this.globalRandom = new HighQualityRandom(ran.getSeed());
+        this.globalRandom = new XoshiroRandom(ran.getSeed());
         outPathField.setText(outputFile.getAbsolutePath());
         /*
          * Add listener for close operation - all running threads should be ended before exiting
@@ -714,6 +717,8 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
         jLabel1 = new javax.swing.JLabel();
         jLabel3 = new javax.swing.JLabel();
         createLogOfAllRuns = new javax.swing.JCheckBox();
+        fixedGridSamplingBox = new javax.swing.JCheckBox();
+        writeRunsBox = new javax.swing.JCheckBox();
         simLog = new javax.swing.JPanel();
         simRunsTabbedPane = new javax.swing.JTabbedPane();
 
@@ -790,7 +795,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
         gridBagConstraints.insets = new java.awt.Insets(10, 0, 0, 0);
         options.add(algorithmType, gridBagConstraints);
 
-        selectAlgoComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Exact SSA", "Approximate SSA" }));
+        selectAlgoComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Exact SSA", "Approximate SSA", "Next Reaction Method", "Composition-Rejection SSA", "Hybrid SSA/ODE", "Deterministic ODE" }));
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 8;
@@ -823,7 +828,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
         });
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 14;
+        gridBagConstraints.gridy = 15;
         gridBagConstraints.gridwidth = 2;
         gridBagConstraints.weightx = 0.5;
         gridBagConstraints.insets = new java.awt.Insets(10, 0, 0, 0);
@@ -839,7 +844,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
         });
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
-        gridBagConstraints.gridy = 15;
+        gridBagConstraints.gridy = 16;
         gridBagConstraints.gridwidth = 2;
         gridBagConstraints.weightx = 0.5;
         gridBagConstraints.insets = new java.awt.Insets(10, 0, 10, 0);
@@ -895,6 +900,21 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
         gridBagConstraints.gridy = 13;
         options.add(createLogOfAllRuns, gridBagConstraints);
 
+        fixedGridSamplingBox.setText("Write the state at every multiple of the output interval");
+        fixedGridSamplingBox.setToolTipText("<html>If selected, the state at every multiple of the output interval up to the maximal simulation time is written,<br/>\ninstead of the first reaction after it. The output size does not depend on the number of reactions.</html>");
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 13;
+        options.add(fixedGridSamplingBox, gridBagConstraints);
+
+        writeRunsBox.setText("Write the trajectory of every run");
+        writeRunsBox.setToolTipText("<html>If selected, the trajectory of every run is written to its own output file.<br/>\nOtherwise only the mean and variance of all runs at every multiple of the output interval are written to statistics.csv.</html>");
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 14;
+        gridBagConstraints.gridwidth = 2;
+        options.add(writeRunsBox, gridBagConstraints);
+
         gridBagConstraints = new java.awt.GridBagConstraints();
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 0;
@@ -936,8 +956,18 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
          */
         MonaLisaFileChooser fc = new MonaLisaFileChooser(getOutputFile());
         fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
-        fc.showOpenDialog(this);
+        fc.addChoosableFileFilter(new MonaLisaFileFilter("csv", "Tab separated text"));
+        fc.addChoosableFileFilter(new MonaLisaFileFilter(TrajectoryWriter.EXTENSION.substring(1), "Binary trajectory"));
+        if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
         File file = fc.getSelectedFile();
+        /*
+         * The binary trajectory is chosen by the extension of the output file.
+         */
+        if (fc.getFileFilter() instanceof MonaLisaFileFilter) {
+            file = ((MonaLisaFileFilter) fc.getFileFilter()).checkFileNameForExtension(file);
+        }
         if (file.isFile()) {
             this.outputFile = file;
         }
@@ -969,6 +999,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
             double interval = (((Double.parseDouble(timeInput[0]) * 24 + Double.parseDouble(timeInput[1])) * 60)
                     + Double.parseDouble(timeInput[2])) * 60 + Double.parseDouble(timeInput[3]);
             this.updateInterval = interval;
+            simStor.setUpdateInterval(this.updateInterval);
         } catch (NumberFormatException e) {
             LOGGER.error("NumberFormatException while trying to pase the update interval", e);
         }
@@ -987,26 +1018,14 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
             outPathField.setEditable(false);
             nrOfSimsBox.setEnabled(false);
             selectAlgoComboBox.setEnabled(false);
+            fixedGridSamplingBox.setEnabled(false);
+            writeRunsBox.setEnabled(false);
+            simStor.setFixedGridSampling(fixedGridSamplingBox.isSelected());
             running = true;
             /*
              * If runnable SimulationRunnable instances allready exist, create threads and start this runnables. Otherwise, create new simulation runs.
              */
-            if (!this.runnables.isEmpty()) {
-                for (ExactSSA run : this.runnables) {
-                    /*
-                    If maximum parallel running threads limit is not exceeded, start a new thread with the runnable.
-                    Otherwise put it into the queue.
-                     */
-                    if (this.runningThreads.size() < MAX_PARALLEL_THREADS && this.gillTS.isNewThreadAllowed()) {
-                        this.gillTS.registerNewThread();
-                        Thread thread = new Thread(run);
-                        this.runningThreads.put(thread, run);
-                        thread.start();
-                    } else {
-                        this.runnablesQueue.offer(run);
-                    }
-                }
-            } else {
+            if (this.runnables.isEmpty()) {
                 //Handle averages controls
 //                this.averagesButton.setEnabled(false);
 
@@ -1029,42 +1048,65 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
                     } else {
                         outFileExt = "csv";
                     }
-                    getOutputFiles().add(getOutputFile());
+
+                    /*
+                     * Collect the molecule numbers of all runs at every update interval.
+                     */
+                    if (this.maxSimTime > 0 && this.updateInterval > 0) {
+                        String[] names = new String[nonConstantPlaceNames.length + constantPlaceNames.length];
+                        System.arraycopy(nonConstantPlaceNames, 0, names, 0, nonConstantPlaceNames.length);
+                        System.arraycopy(constantPlaceNames, 0, names, nonConstantPlaceNames.length, constantPlaceNames.length);
+                        this.statistics = new EnsembleStatistics(this.updateInterval, this.maxSimTime, names);
+                    } else {
+                        this.statistics = null;
+                    }
+                    /*
+                     * Without trajectories only the statistics are written. They need a maximal simulation time and an update interval.
+                     */
+                    boolean writeRuns = writeRunsBox.isSelected() || this.statistics == null;
+                    if (!writeRunsBox.isSelected() && this.statistics == null) {
+                        LOGGER.warn("No statistics can be collected without a maximal simulation time and an update interval, writing the trajectory of every run");
+                    }
 
                     for (int i = 0; i < nrOfRuns; i++) {
-                        if (i > 0) {
-                            outputFile = new File(outFileName.concat("_").concat(String.valueOf(i).concat(outFileExt)));
+                        File runFile = null;
+                        if (writeRuns) {
+                            if (i > 0) {
+                                outputFile = new File(outFileName.concat("_").concat(String.valueOf(i).concat(outFileExt)));
+                            }
                             getOutputFiles().add(getOutputFile());
+                            getOutputFile().createNewFile();
+                            runFile = getOutputFile();
                         }
-                        getOutputFile().createNewFile();
 
                         /*
                          * Create a SimulationRunnable, create a thread which will execute the runnable and start it.
                          */
                         ExactSSA runnable = null;
                         if (selectAlgoComboBox.getSelectedItem().toString().equals("Exact SSA")) {
-                            runnable = new ExactSSA(getOutputFile(), i, globalRandom.nextLong(), this.gillTS, simStor);
+                            runnable = new ExactSSA(runFile, i, globalRandom.split(), this.gillTS, simStor);
                         }
                         if (selectAlgoComboBox.getSelectedItem().toString().equals("Approximate SSA")) {
-                            runnable = new TauLeapingSSA(getOutputFile(), i, globalRandom.nextLong(), this.gillTS, simStor);
+                            runnable = new TauLeapingSSA(runFile, i, globalRandom.split(), this.gillTS, simStor);
+                        }
+                        if (selectAlgoComboBox.getSelectedItem().toString().equals("Next Reaction Method")) {
+                            runnable = new NextReactionSSA(runFile, i, globalRandom.split(), this.gillTS, simStor);
+                        }
+                        if (selectAlgoComboBox.getSelectedItem().toString().equals("Composition-Rejection SSA")) {
+                            runnable = new CompositionRejectionSSA(runFile, i, globalRandom.split(), this.gillTS, simStor);
+                        }
+                        if (selectAlgoComboBox.getSelectedItem().toString().equals("Hybrid SSA/ODE")) {
+                            runnable = new HybridSSA(runFile, i, globalRandom.split(), this.gillTS, simStor);
+                        }
+                        if (selectAlgoComboBox.getSelectedItem().toString().equals("Deterministic ODE")) {
+                            runnable = new DeterministicODE(runFile, i, globalRandom.split(), this.gillTS, simStor);
                         }
                         StochasticSimulatorRunPanel runPanel = new StochasticSimulatorRunPanel(runnable, nonConstantPlaceNames, constantPlaceNames);
                         this.runPanels.add(runPanel);
                         runnable.addSimulationListener(runPanel);
+                        runnable.setStatistics(this.statistics);
                         getSimRunsTabbedPane().addTab("Simulation run " + i, runPanel);
                         this.runnables.add(runnable);
-                        /*
-                        If maximum parallel running threads limit is not exceeded, start a new thread with the runnable.
-                        Otherwise put it into the queue.
-                         */
-                        if (i < MAX_PARALLEL_THREADS && this.gillTS.isNewThreadAllowed()) {
-                            this.gillTS.registerNewThread();
-                            Thread thread = new Thread(runnable);
-                            this.runningThreads.put(thread, runnable);
-                            thread.start();
-                        } else {
-                            this.runnablesQueue.offer(runnable);
-                        }
                     }
                 } catch (IOException ex) {
                     LOGGER.error("IOException while trying to create files for coordinating threads in the stochastic simulation");
@@ -1074,13 +1116,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
                     this.browseOutFileButton.setEnabled(true);
                 }
             }
-            /*
-             * Create and start the updater task.
-             */
-            Timer timer = new Timer();
-            UpdaterTask ut = new UpdaterTask(runningThreads, runnablesQueue, gillTS, outputFile, outputFiles, isLogAll());
-            ut.addBooleanChangeListener(this);
-            timer.schedule(ut, 0, UPDATER_TASK_INTERVAL);
+            startRuns();
         } /*
          * If the simulation is running, stop it. The corresponding runnables, however, will not be destroyed and can be started afterwards.
          */ else {
@@ -1090,27 +1126,126 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
     }//GEN-LAST:event_runButtonActionPerformed
 
     private void newRandomBActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_newRandomBActionPerformed
-        this.globalRandom = new HighQualityRandom();
+        this.globalRandom = new XoshiroRandom();
     }//GEN-LAST:event_newRandomBActionPerformed
 
     /**
      * Invoke the stop of simulation runs. All executed runnables will be
-     * stopped, threads executing them destroyed. The runnables themselves
-     * remain, so simulation can be continued from the point where it was
-     * interrupted by creating threads with the runnables.
+     * stopped, runnables which have not started yet are skipped. The runnables
+     * themselves remain, so simulation can be continued from the point where
+     * it was interrupted by submitting the runnables again. The run button is
+     * enabled again as soon as all runnables have stopped.
      */
     public void stopSimulation() {
         LOGGER.info("Stopping all simulations");
         running = false;
-        for (ExactSSA runnable : this.runningThreads.values()) {
-            runnable.requestStop();
+        if (this.ensembleRunner != null) {
+            getRunButton().setEnabled(false);
+            this.ensembleRunner.requestStop();
         }
-        this.runningThreads.clear();
-        this.runnablesQueue.clear();
         getRunButton().setText(SimulationManager.strings.get("ATSFireTransitionsB"));
         getRunButton().setIcon(new javax.swing.ImageIcon(getClass().getResource("/monalisa/resources/run_tools.png")));
     }
 
+    /**
+     * Submits all runnables to a new ensemble runner. While they run, their
+     * output is updated in regular intervals. After all runnables have
+     * stopped, the simulation is finished on the event dispatch thread.
+     */
+    private void startRuns() {
+        final EnsembleRunner runner = new EnsembleRunner(this.gillTS, this.gillTS.getMaxParallelThreads());
+        this.ensembleRunner = runner;
+        final Timer updateTimer = new Timer(UPDATER_TASK_INTERVAL, e -> runner.updateOutputs());
+        updateTimer.start();
+        runner.submitAll(this.runnables).whenComplete((result, ex) -> {
+            runner.shutdown();
+            if (ex != null) {
+                LOGGER.error("Exception in a simulation run of the stochastic simulation", ex);
+            }
+            SwingUtilities.invokeLater(() -> {
+                updateTimer.stop();
+                finishRuns(runner);
+            });
+        });
+    }
+
+    /**
+     * Resets the controls after all runnables of a runner have stopped and
+     * writes the summary of all runs and their statistics.
+     */
+    private void finishRuns(EnsembleRunner runner) {
+        if (runner != this.ensembleRunner) {
+            return;
+        }
+        this.ensembleRunner = null;
+        getRunButton().setEnabled(true);
+        changed(new BooleanChangeEvent(this, false));
+        if (getOutputFile() == null) {
+            return;
+        }
+        if (isLogAll() && !getOutputFiles().isEmpty()) {
+            writeSummary(new File(getOutputFile().getParentFile(), "summary.csv"));
+        }
+        if (this.statistics != null) {
+            File statisticsFile = new File(getOutputFile().getParentFile(), "statistics.csv");
+            try {
+                this.statistics.write(statisticsFile);
+            } catch (IOException ex) {
+                LOGGER.error("IOException while trying to write the statistics of the stochastic simulation", ex);
+            }
+        }
+    }
+
+    /**
+     * Concatenates the output files of all runs. Trajectories in the binary
+     * format are converted to text.
+     *
+     * @param sumFile The file the runs are written to.
+     */
+    private void writeSummary(File sumFile) {
+        try (PrintWriter pWriter = new PrintWriter(new BufferedWriter(new FileWriter(sumFile)))) {
+            boolean firstFile = true;
+            for (File file : getOutputFiles()) {
+                if (!firstFile) {
+                    pWriter.println("\t ----- run " + getOutputFiles().indexOf(file) + " -----");
+                }
+                if (TrajectoryWriter.isTrajectoryFile(file)) {
+                    try (TrajectoryReader reader = new TrajectoryReader(file)) {
+                        if (firstFile) {
+                            reader.writeCsvHeader(pWriter);
+                            pWriter.println("\t ----- run " + 0 + " -----");
+                        }
+                        reader.writeCsvRows(pWriter);
+                    } catch (IOException ex) {
+                        LOGGER.error("IOException while trying to read the trajectory file " + file.getName(), ex);
+                    }
+                    firstFile = false;
+                    continue;
+                }
+                try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                    boolean firstLine = true;
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (firstLine && firstFile) {
+                            pWriter.println(line);
+                            pWriter.println("\t ----- run " + 0 + " -----");
+                        }
+                        if (firstLine) {
+                            firstLine = false;
+                        } else {
+                            pWriter.println(line);
+                        }
+                    }
+                } catch (IOException ex) {
+                    LOGGER.error("IOException while trying to read the output file " + file.getName(), ex);
+                }
+                firstFile = false;
+            }
+        } catch (IOException ex) {
+            LOGGER.error("IOException while trying to write the summary of all simulation runs", ex);
+        }
+    }
+
     public void closeSimulator() {
         int result = JOptionPane.OK_OPTION;
         if (running) {
@@ -1141,6 +1276,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
     private javax.swing.JLabel algorithmType;
     private javax.swing.JButton browseOutFileButton;
     private javax.swing.JCheckBox createLogOfAllRuns;
+    private javax.swing.JCheckBox fixedGridSamplingBox;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel3;
@@ -1158,6 +1294,7 @@ public class StochasticSimulator extends javax.swing.JFrame implements BooleanCh
     private javax.swing.JFormattedTextField timeSpanField;
     private javax.swing.JFormattedTextField updateIntervalField;
     private javax.swing.JLabel updateTime;
+    private javax.swing.JCheckBox writeRunsBox;
     // End of variables declaration//GEN-END:variables
 
     /**
@@ -14,6 +14,7 @@ import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -24,6 +25,7 @@ import java.util.Map.Entry;
 import javax.swing.AbstractAction;
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
@@ -31,6 +33,8 @@ import javax.swing.KeyStroke;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
 import monalisa.addons.tokensimulator.listeners.SimulationListener;
+import monalisa.util.MonaLisaFileChooser;
+import monalisa.util.MonaLisaFileFilter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jfree.chart.ChartFactory;
@@ -96,6 +100,7 @@ public class StochasticSimulatorRunPanel extends javax.swing.JPanel implements S
         textScrollPane = new javax.swing.JScrollPane();
         placesToPlotB = new javax.swing.JButton();
         showPlotButton = new javax.swing.JButton();
+        exportCsvButton = new javax.swing.JButton();
 
         exportMarkingButton.setFont(new java.awt.Font("DejaVu Sans", 0, 12)); // NOI18N
         exportMarkingButton.setText(SimulationManager.strings.get("ExportPNMarking"));
@@ -124,6 +129,16 @@ public class StochasticSimulatorRunPanel extends javax.swing.JPanel implements S
             }
         });
 
+        exportCsvButton.setFont(new java.awt.Font("DejaVu Sans", 0, 12)); // NOI18N
+        exportCsvButton.setText(SimulationManager.strings.get("ExportTrajectoryCsv"));
+        exportCsvButton.setToolTipText(SimulationManager.strings.get("ExportTrajectoryCsvTT"));
+        exportCsvButton.setEnabled(false);
+        exportCsvButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                exportCsvButtonActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -132,7 +147,8 @@ public class StochasticSimulatorRunPanel extends javax.swing.JPanel implements S
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(exportMarkingButton)
                     .addComponent(placesToPlotB)
-                    .addComponent(showPlotButton))
+                    .addComponent(showPlotButton)
+                    .addComponent(exportCsvButton))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(textScrollPane, javax.swing.GroupLayout.DEFAULT_SIZE, 545, Short.MAX_VALUE))
         );
@@ -144,7 +160,9 @@ public class StochasticSimulatorRunPanel extends javax.swing.JPanel implements S
                 .addComponent(placesToPlotB)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(showPlotButton)
-                .addGap(0, 207, Short.MAX_VALUE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(exportCsvButton)
+                .addGap(0, 178, Short.MAX_VALUE))
             .addComponent(textScrollPane)
         );
     }// </editor-fold>//GEN-END:initComponents
@@ -193,8 +211,27 @@ public class StochasticSimulatorRunPanel extends javax.swing.JPanel implements S
         showPlot(nonConstantList, constantList);
     }//GEN-LAST:event_showPlotButtonActionPerformed
 
+    private void exportCsvButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exportCsvButtonActionPerformed
+        MonaLisaFileChooser fc = new MonaLisaFileChooser();
+        MonaLisaFileFilter csvFilter = new MonaLisaFileFilter("csv", "Tab separated text");
+        fc.setFileFilter(csvFilter);
+        fc.setDialogType(JFileChooser.SAVE_DIALOG);
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File csvFile = csvFilter.checkFileNameForExtension(fc.getSelectedFile());
+        LOGGER.info("Exporting the trajectory of the stochastic simulation to " + csvFile.getAbsolutePath());
+        try (TrajectoryReader reader = new TrajectoryReader(sim.getOutputFileRun())) {
+            reader.exportCsv(csvFile);
+        } catch (IOException ex) {
+            LOGGER.error("IOException while trying to export the trajectory of the stochastic simulation", ex);
+            JOptionPane.showMessageDialog(this, ex.getMessage(), SimulationManager.strings.get("Error"), JOptionPane.ERROR_MESSAGE);
+        }
+    }//GEN-LAST:event_exportCsvButtonActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton exportCsvButton;
     private javax.swing.JButton exportMarkingButton;
     private javax.swing.JButton placesToPlotB;
     protected javax.swing.JButton showPlotButton;
@@ -247,9 +284,14 @@ public class StochasticSimulatorRunPanel extends javax.swing.JPanel implements S
         switch (type) {
             case SimulationEvent.INIT:
                 showPlotButton.setEnabled(false);
+                exportCsvButton.setEnabled(false);
                 break;
             case SimulationEvent.DONE:
-                showPlotButton.setEnabled(true);
+                //the plot is read from the trajectory of the run
+                showPlotButton.setEnabled(sim.getOutputFileRun() != null);
+                //only the binary trajectory needs a conversion to text
+                exportCsvButton.setEnabled(sim.getOutputFileRun() != null
+                        && TrajectoryWriter.isTrajectoryFile(sim.getOutputFileRun()));
                 outTextArea.append((String) e.getValue());
                 break;
             case SimulationEvent.UPDATE_PROGRESS:
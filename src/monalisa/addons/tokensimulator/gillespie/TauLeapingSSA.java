@@ -5,34 +5,78 @@
  */
 package monalisa.addons.tokensimulator.gillespie;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashSet;
-import java.util.Set;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
-import monalisa.addons.tokensimulator.utils.MathematicalExpression;
+import monalisa.util.XoshiroRandom;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Adaptive explicit tau-leaping of Cao, Gillespie and Petzold (J. Chem. Phys.
+ * 124, 044109, 2006). Reactions which can occur less than
+ * {@link #CRITICAL_THRESHOLD} times before one of their educts depletes are
+ * critical and occur at most once per leap, the others occur a Poisson
+ * distributed number of times. The length of a leap bounds the expected
+ * relative change of every reactant by {@link #EPS}. A leap which would produce
+ * a negative molecule number is rejected and repeated with half the length.
+ * If the leap becomes too short to pay off, the run continues with exact
+ * steps.
+ */
 public class TauLeapingSSA extends ExactSSA {
 
     /**
-     * A set containing indeces of reactions that are critical.
+     * Minimal number of reaction occurrences that must be possible before
+     * reaction is regarded as non-critical.
      */
-    private final Set<Integer> criticalReactions = new HashSet<>();
+    private final static int CRITICAL_THRESHOLD = 10;
     /**
-     * Minimal number of reaction occurrences that must be possible before
-     * reaction is regarded as critical.
+     * Bound of the expected relative change of the reactants in a leap.
      */
-    private final static int CRITICAL_THRESHOLD = 20;
     private final static double EPS = 0.03;
+    /**
+     * Leaps shorter than SSA_FACTOR times the expected time between two
+     * reactions are replaced by SSA_STEPS exact steps.
+     */
+    private final static double SSA_FACTOR = 10;
+    private final static int SSA_STEPS = 100;
     private final static Logger LOGGER = LogManager.getLogger(TauLeapingSSA.class);
-    private final GillespieTokenSim gillTS;
     private final SimulationStorage simStor;
+    /**
+     * Critical reactions as bitset, one bit per reaction.
+     */
+    private final long[] criticalReactions;
+    private double criticalSumOfRates;
+    /**
+     * Sum of the stoichiometric factors of the educts of every reaction.
+     */
+    private final int[] reactionOrders;
+    /**
+     * Expected change and its variance per time of the molecule numbers of
+     * the non-constant compounds by the non-critical reactions, and the factor
+     * by which the rates change relative to the compounds, reused in every
+     * step. A factor of 0 marks compounds which are no educt of any reaction.
+     */
+    private final double[] my;
+    private final double[] sigma;
+    private final double[] orderFactors;
+    /**
+     * Change of the molecule numbers in the current leap, with the compounds
+     * that are changed as list and as membership flags.
+     */
+    private final long[] leapChanges;
+    private final int[] changedCompounds;
+    private int changedCount;
+    private final boolean[] changed;
+    /**
+     * Reactions which fired in the current step, as list and as membership
+     * flags. Used for output.
+     */
+    private final int[] firedReactions;
+    private int firedCount;
+    private final boolean[] fired;
 
     /**
      * Create a new instance of a TauLeapingSSA runnable.
@@ -44,45 +88,46 @@ public class TauLeapingSSA extends ExactSSA {
      * @param simStor Storage with data for simulation
      */
     public TauLeapingSSA(File outF, int runNr, Long seed, GillespieTokenSim gillTS, SimulationStorage simStor) {
-        super(outF, runNr, seed, gillTS, simStor);
-        this.gillTS = gillTS;
+        this(outF, runNr, new XoshiroRandom(seed), gillTS, simStor);
+    }
+
+    /**
+     * Create a new instance of a TauLeapingSSA runnable with its own stream of
+     * random numbers.
+     *
+     * @param outF File where the output will be written to.
+     * @param runNr Number (index) of simulation run.
+     * @param random Random number generator of this run, not shared with
+     * other runs.
+     * @param gillTS Associated GillespieTokenSim
+     * @param simStor Storage with data for simulation
+     */
+    public TauLeapingSSA(File outF, int runNr, XoshiroRandom random, GillespieTokenSim gillTS, SimulationStorage simStor) {
+        super(outF, runNr, random, gillTS, simStor);
         this.simStor = simStor;
+        int reactionCount = reactionRates.length;
+        int compoundCount = model.getCompoundCount();
+        this.criticalReactions = new long[(reactionCount + 63) >>> 6];
+        this.reactionOrders = new int[reactionCount];
+        this.my = new double[compoundCount];
+        this.sigma = new double[compoundCount];
+        this.orderFactors = new double[compoundCount];
+        this.leapChanges = new long[compoundCount];
+        this.changedCompounds = new int[compoundCount];
+        this.changed = new boolean[compoundCount];
+        this.firedReactions = new int[reactionCount];
+        this.fired = new boolean[reactionCount];
 
-        /*
-        Check which reactions are critical at the beginning of the simulation.
-         */
-        LOGGER.debug("Checking for critical reactions in the stochastic simulation");
-        for (int reactionIdx : reactionRatesRun.keySet()) {
-            /*
-            minL is the number of times this reaction can occur before one of its reactants depletes.
-             */
-            int minL = CRITICAL_THRESHOLD;
-            /*
-            Iterate through non-constant educts of this reaction.
-             */
-            for (int eductIdx : simStor.getReactionsNonConstantEducts()[reactionIdx]) {
-                //Number of molecules of the educt.
-                long eductNr = this.nonConstantMarkingRun[eductIdx];
-                //Stoichiometric factor of the reaction
-                int factor = simStor.getEductStoichMatrix()[reactionIdx][eductIdx];
-                /*
-                If the factor is 0
-                 */
-                minL = Math.min(minL, Math.round(eductNr / factor));
-            }
-            for (int eductIdx : simStor.getReactionsConstantEducts()[reactionIdx]) {
-                //Number of molecules of the educt.
-                long eductNr = this.constantMarkingRun[eductIdx];
-                //Stoichiometric factor of the reaction
-                int factor = simStor.getEductStoichMatrix()[reactionIdx][eductIdx + simStor.getNonConstantPlaceIDs().length];
-                minL = Math.min(minL, Math.round(eductNr / factor));
+        int[] eductStart = model.getEductStart();
+        int[] eductWeights = model.getEductWeights();
+        int[] constantEductStart = model.getConstantEductStart();
+        int[] constantEductWeights = model.getConstantEductWeights();
+        for (int reactionIdx = 0; reactionIdx < reactionCount; reactionIdx++) {
+            for (int i = eductStart[reactionIdx]; i < eductStart[reactionIdx + 1]; i++) {
+                reactionOrders[reactionIdx] += eductWeights[i];
             }
-            /*
-            If the number of executable reactions is less than the critical threshold, the reaction
-            is considered as critical.
-             */
-            if (minL < CRITICAL_THRESHOLD) {
-                this.criticalReactions.add(reactionIdx);
+            for (int i = constantEductStart[reactionIdx]; i < constantEductStart[reactionIdx + 1]; i++) {
+                reactionOrders[reactionIdx] += constantEductWeights[i];
             }
         }
     }
@@ -90,247 +135,322 @@ public class TauLeapingSSA extends ExactSSA {
     @Override
     public void run() {
         fireSimulationEvent(SimulationEvent.INIT, -1);
-        /*
-        List of reactions which fired in this step. Used for output.
-         */
-        Set<Integer> firedReactions = new HashSet<>();
-        try {
-            outputWriter = new BufferedWriter(new FileWriter(getOutputFileRun(), true));
-        } catch (IOException ex) {
-            LOGGER.error("IOException while trying to create a new buffered file writer for the output in the stochastic simulation", ex);
-        }
+        openOutputWriter();
         this.isRunning = true;
         LOGGER.info("Starting the stochastic simulation");
         try {
             /*
              * As long as at least one reaction can take place, execute simulation. A single simulation step consists of calculating reaction rates (which
-             * are dependent on the number of compound molecules), choosing the time of next reaction, choosing next reaction, "executing" the reaction
-             * by adapting compound numbers according to the reaction and writing the results to a file.
+             * are dependent on the number of compound molecules), choosing the length of the leap, letting the reactions occur
+             * within the leap and writing the results to a file.
              */
             while (isRunning) {
+                clearFiredReactions();
+                updateReactionRates();
+                updateCriticalReactions();
                 /*
                  * Check whether the sum of rates is empty, which indicates that no reaction can occur. If so, abort simulation.
                  */
                 if (sumOfRates <= 0) {
                     LOGGER.info("Sum of rates is less or equal to zero, therefore no more reaction can occur and the simulation is stopped");
+                    sampleRemaining();
                     break;
                 }
-                firedReactions.clear();
-                updateReactions();
-                /*
-                Get a set of all non-critical reaction indeces.
-                 */
-                LOGGER.debug("Go through non-critical reactions and compute their next firing time");
-                Set<Integer> nonCriticalReactions = new HashSet<>();
-                for (int reactionIdx : this.reactionRatesRun.keySet()) {
-                    if (!this.criticalReactions.contains(reactionIdx)) {
-                        nonCriticalReactions.add(reactionIdx);
-                    }
-                }
-                /*
-                Compute next firing time of non critical reactions
-                 */
-                double nextFiringTimeNonCritical;
-                if (simStor.getMaxSimTime() > 0) {
-                    if (simStor.getMaxSimTime() - timePassed <= 0) {
-                        this.requestStop();
-                        break;
-                    }
-                    nextFiringTimeNonCritical = simStor.getMaxSimTime() - timePassed;
-                } else {
-                    nextFiringTimeNonCritical = Double.MAX_VALUE;
-                }
-                if (!nonCriticalReactions.isEmpty()) {
-                    for (int compoundIdx = 0; compoundIdx < simStor.getCompoundsInfluence().length; compoundIdx++) {
-                        Set<Integer> reactions = simStor.getCompoundsInfluence()[compoundIdx];
-                        if (reactions.isEmpty()) {
-                            continue;
-                        }
-                        double my = 0;
-                        double sigma = 0;
-                        for (int reactionIdx : reactions) {
-                            Double tmpRate = reactionRatesRun.get(reactionIdx);
-                            if (tmpRate != null) {
-                                int stoichFactor = simStor.getEductStoichMatrix()[reactionIdx][compoundIdx];
-                                my += -stoichFactor * reactionRatesRun.get(reactionIdx);
-                                sigma += stoichFactor * stoichFactor * tmpRate;
-                            }
-                        }
-                        double scaledNr = Math.max(EPS * nonConstantMarkingRun[compoundIdx], 1);
-
-                        nextFiringTimeNonCritical = Math.min(nextFiringTimeNonCritical, (scaledNr / Math.abs(my)));
-                        nextFiringTimeNonCritical = Math.min(nextFiringTimeNonCritical, ((scaledNr * scaledNr) / sigma));
-                    }
-                }
-                if (nextFiringTimeNonCritical < (1 / sumOfRates) * 10) {
-                    for (short i = 0; i < 100; i++) {
-                        int reactionIdx = exactStep();
-                        if (reactionIdx == -1) {
-                            break;
-                        }
-                    }
-                    continue;
+                if (simStor.getMaxSimTime() > 0 && simStor.getMaxSimTime() - timePassed <= 0) {
+                    this.requestStop();
+                    sampleRemaining();
+                    break;
                 }
-                LOGGER.debug("Computing the sum of critical reaction rates and calculating the time at which the next critical reaction will occur");
                 /*
-                Compute the sum of critical reaction rates
+                Leap with the length chosen for the non-critical reactions, halve it as long as leaps are
+                rejected and switch to exact steps once it is too short.
                  */
-                double criticalSumOfRates = 0;
-                for (int idx : criticalReactions) {
-                    criticalSumOfRates += reactionRatesRun.get(idx);
-                }
-
-                /*
-                 * Calculate the time at which next critical reaction will occur.
-                 */
-                double nextFiringTimeCritical = Double.MAX_VALUE;
-                if (criticalSumOfRates > 0) {
-                    nextFiringTimeCritical = (Math.log(1 / randomRun.nextDouble()) / criticalSumOfRates);
-                }
-
-                //only non-critical reactions will occur
-                if (nextFiringTimeNonCritical < nextFiringTimeCritical) {
-                    LOGGER.debug("Next firing time is from a non critical reaction, therefore trying to fire it");
-                    //check if the simulation should go on or the maximal time is reached.
-                    if (simStor.getMaxSimTime() > 0 && (timePassed + nextFiringTimeNonCritical) > simStor.getMaxSimTime()) {
-                        LOGGER.debug("Maximum simulation time has been reached, therefore stopping the simulation before firing it");
-                        this.requestStop();
-                        break;
-                    }
-                    LOGGER.debug("Firing the next non critical Reaction");
-                    for (int reactionIdx : nonCriticalReactions) {
-                        int nrOccu = randomRun.nextPoisson(reactionRatesRun.get(reactionIdx) * nextFiringTimeNonCritical);
-                        for (int i = 0; i < nrOccu; i++) {
-                            firedReactions.add(reactionIdx);
-                            fireReaction(reactionIdx);
-                        }
-                    }
+                double nonCriticalTau = selectNonCriticalTau();
+                if (Double.isInfinite(nonCriticalTau) && criticalSumOfRates <= 0) {
                     /*
-                     * Update step and time counters.
+                    The active reactions do not change any molecule number, there is nothing to leap over.
                      */
-                    this.stepsSimulated++;
-                    this.timePassed += nextFiringTimeNonCritical;
-                } else {
-                    LOGGER.debug("Next firing reaction is critical");
-                    //check if the simulation should go on or the maximal time is reached.
-                    if (simStor.getMaxSimTime() > 0 && (timePassed + nextFiringTimeCritical) > simStor.getMaxSimTime()) {
-                        LOGGER.debug("Maximum simulation time has been reached, therefore stopping the simulation before firing it");
-                        this.requestStop();
+                    nonCriticalTau = 0;
+                }
+                boolean leaped = false;
+                while (nonCriticalTau >= SSA_FACTOR / sumOfRates) {
+                    if (leap(nonCriticalTau)) {
+                        leaped = true;
                         break;
                     }
-                    /*
-                    * Datermine which reaction will occur next.
-                    * int reactionIdx is the index of the reaction which will be chosen.
-                    * double rateSum is the sum of reaction rates which are previous to the chosen one in the reactionRates list.
-                    * Choose the reaction so the sum of reactions which are previous plus the rate of chosen one is greater than or equal to 
-                    * the sum of all reaction rates multiplied by r2.
-                     */
-                    LOGGER.debug("Firing the next critical reaction");
-                    int reaction = 0;
-                    double ratesSum = 0;
-                    for (int reactionIdx : criticalReactions) {
-                        reaction = reactionIdx;
-                        double reactionRate = reactionRatesRun.get(reactionIdx);
-                        ratesSum += reactionRate;
-                        if (ratesSum >= criticalSumOfRates * randomRun.nextDouble()) {
+                    LOGGER.debug("Leap would produce negative molecule numbers, therefore halving it");
+                    nonCriticalTau /= 2;
+                }
+                if (!leaped) {
+                    for (int i = 0; i < SSA_STEPS && isRunning; i++) {
+                        if (exactStep() < 0) {
                             break;
                         }
                     }
-                    firedReactions.add(reaction);
-                    fireReaction(reaction);
-                    for (int reactionIdx : nonCriticalReactions) {
-                        int nrOccu = randomRun.nextPoisson(reactionRatesRun.get(reactionIdx) * nextFiringTimeCritical);
-                        for (int i = 0; i < nrOccu; i++) {
-                            firedReactions.add(reactionIdx);
-                            fireReaction(reactionIdx);
-                        }
-                    }
-
-                    /*
-                     * Update step and time counters.
-                     */
-                    this.stepsSimulated++;
-                    this.timePassed += nextFiringTimeCritical;
+                    continue;
                 }
                 //Write updated molecule numbers into output file.
                 if (simStor.getUpdateInterval() == 0 || timePassed - lastUpdate >= simStor.getUpdateInterval()) {
                     LOGGER.debug("Writing the new molecule numbers into the output file");
-                    writeOutput(firedReactions.toArray(new Integer[firedReactions.size()]));
+                    writeOutput(Arrays.copyOf(firedReactions, firedCount));
                 }
             }
-            //close writers
-            outputWriter.close();
-        } catch (IOException ex) {
-            LOGGER.error("IOException while trying to calculate the next firing step or writing its results in the output", ex);
+        } finally {
+            closeOutputWriter();
         }
         this.updateOutput();
         fireSimulationEvent(SimulationEvent.DONE, ("\n").concat(SimulationManager.strings.get("SimFinished")).concat(dateFormat.format(Calendar.getInstance().getTime())));
-        gillTS.checkOutRunningThread();
+        checkOutRunningThread();
     }
 
-    private void updateReactions() {
-        LOGGER.info("Updating the reactions with the new reaction rates");
-        for (int reactionIdx : reactionsToUpdate) {
-            double reactionRate = computeReactionRate(reactionIdx);
+    /**
+     * Tries a leap. Every non-critical reaction occurs a Poisson distributed
+     * number of times and at most one critical reaction occurs. The changes of
+     * all occurrences of a reaction are applied at once.
+     *
+     * @param nonCriticalTau Length of the leap chosen for the non-critical
+     * reactions.
+     * @return false, if the leap was rejected because it would produce a
+     * negative molecule number. The state is unchanged then.
+     */
+    private boolean leap(double nonCriticalTau) {
+        double criticalTau = (criticalSumOfRates > 0) ? randomRun.nextExponential() / criticalSumOfRates : Double.POSITIVE_INFINITY;
+        double tau = Math.min(nonCriticalTau, criticalTau);
+        boolean lastLeap = false;
+        int criticalReaction = -1;
+        if (simStor.getMaxSimTime() > 0 && timePassed + tau >= simStor.getMaxSimTime()) {
             /*
-            Substract old reaction rate from the sum.
+            The remaining time is shorter than the time until the next critical reaction, so the
+            leap is shortened to it and no critical reaction occurs.
              */
-            Double oldRate = reactionRatesRun.get(reactionIdx);
-            if (oldRate != null) {
-                sumOfRates -= oldRate;
+            tau = simStor.getMaxSimTime() - timePassed;
+            lastLeap = true;
+        } else if (criticalTau <= nonCriticalTau) {
+            criticalReaction = selectCriticalReaction(randomRun.nextDouble());
+        }
+
+        int[] changeStart = model.getChangeStart();
+        int[] changeCompounds = model.getChangeCompounds();
+        int[] changeValues = model.getChangeValues();
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            long occurrences;
+            if (reactionIdx == criticalReaction) {
+                occurrences = 1;
+            } else if (reactionRates[reactionIdx] > 0 && !isCritical(reactionIdx)) {
+                occurrences = randomRun.nextPoisson(reactionRates[reactionIdx] * tau);
+            } else {
+                continue;
+            }
+            if (occurrences == 0) {
+                continue;
+            }
+            addFiredReaction(reactionIdx);
+            for (int i = changeStart[reactionIdx]; i < changeStart[reactionIdx + 1]; i++) {
+                int compound = changeCompounds[i];
+                if (!changed[compound]) {
+                    changed[compound] = true;
+                    changedCompounds[changedCount++] = compound;
+                }
+                leapChanges[compound] += occurrences * changeValues[i];
+            }
+        }
+
+        boolean accepted = true;
+        for (int i = 0; i < changedCount; i++) {
+            int compound = changedCompounds[i];
+            if (nonConstantMarkingRun[compound] + leapChanges[compound] < 0) {
+                accepted = false;
+                break;
+            }
+        }
+        if (accepted) {
+            sampleUntil(timePassed + tau);
+            double volMol = model.getVolMol();
+            for (int i = 0; i < changedCount; i++) {
+                int compound = changedCompounds[i];
+                nonConstantMarkingRun[compound] += leapChanges[compound];
+                concentrations[compound] = nonConstantMarkingRun[compound] / volMol;
+            }
+            for (int i = 0; i < firedCount; i++) {
+                scheduleDependentReactions(firedReactions[i]);
             }
             /*
-            If new reaction rate is greater than 0, put it into the map. Otherwise remove the entry
-            of the reaction from the map.
+             * Update step and time counters.
              */
-            if (reactionRate > 0) {
-                //Check if reaction became critical.
-                /*
-                minL is the number of times this reaction can occur before one of its reactants depletes.
-                 */
-                int minL = CRITICAL_THRESHOLD;
-                /*
-                Iterate through non-constant educts of this reaction.
-                 */
-                for (int eductIdx : simStor.getReactionsNonConstantEducts()[reactionIdx]) {
-                    //Number of molecules of the educt.
-                    long eductNr = this.nonConstantMarkingRun[eductIdx];
-                    //Stoichiometric factor of the reaction
-                    int factor = simStor.getEductStoichMatrix()[reactionIdx][eductIdx];
-                    minL = Math.min(minL, Math.round(eductNr / factor));
-                }
-                for (int eductIdx : simStor.getReactionsConstantEducts()[reactionIdx]) {
-                    //Number of molecules of the educt.
-                    long eductNr = this.constantMarkingRun[eductIdx];
-                    //Stoichiometric factor of the reaction
-                    int factor = simStor.getEductStoichMatrix()[reactionIdx][eductIdx + simStor.getNonConstantPlaceIDs().length];
-                    minL = Math.min(minL, Math.round(eductNr / factor));
-                }
-                /*
-                If the number of executable reactions is less than the critical threshold, the reaction
-                is considered as critical.
-                 */
-                if (minL < CRITICAL_THRESHOLD) {
-                    this.criticalReactions.add(reactionIdx);
-                } else {
-                    this.criticalReactions.remove(reactionIdx);
+            this.stepsSimulated++;
+            this.timePassed += tau;
+            updateConstantPlaces();
+        } else {
+            clearFiredReactions();
+        }
+        for (int i = 0; i < changedCount; i++) {
+            int compound = changedCompounds[i];
+            leapChanges[compound] = 0;
+            changed[compound] = false;
+        }
+        changedCount = 0;
+
+        if (accepted && lastLeap) {
+            LOGGER.debug("Maximum simulation time has been reached, therefore stopping the simulation");
+            this.requestStop();
+            sampleRemaining();
+        }
+        return accepted;
+    }
+
+    /**
+     * Selects the length of a leap of the non-critical reactions, such that
+     * the expected change of every educt and its standard deviation are
+     * bounded by EPS times its molecule number divided by the factor by which
+     * the rates change relative to it.
+     *
+     * @return the length, or infinity if there is no non-critical reaction.
+     */
+    private double selectNonCriticalTau() {
+        int[] eductStart = model.getEductStart();
+        int[] eductCompounds = model.getEductCompounds();
+        int[] eductWeights = model.getEductWeights();
+        int[] changeStart = model.getChangeStart();
+        int[] changeCompounds = model.getChangeCompounds();
+        int[] changeValues = model.getChangeValues();
+        Arrays.fill(my, 0);
+        Arrays.fill(sigma, 0);
+        Arrays.fill(orderFactors, 0);
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            for (int i = eductStart[reactionIdx]; i < eductStart[reactionIdx + 1]; i++) {
+                int compound = eductCompounds[i];
+                orderFactors[compound] = Math.max(orderFactors[compound],
+                        orderFactor(reactionOrders[reactionIdx], eductWeights[i], nonConstantMarkingRun[compound]));
+            }
+            double rate = reactionRates[reactionIdx];
+            if (rate <= 0 || isCritical(reactionIdx)) {
+                continue;
+            }
+            for (int i = changeStart[reactionIdx]; i < changeStart[reactionIdx + 1]; i++) {
+                int change = changeValues[i];
+                my[changeCompounds[i]] += change * rate;
+                sigma[changeCompounds[i]] += (double) change * change * rate;
+            }
+        }
+        double tau = Double.POSITIVE_INFINITY;
+        for (int compoundIdx = 0; compoundIdx < my.length; compoundIdx++) {
+            if (orderFactors[compoundIdx] == 0) {
+                continue;
+            }
+            double bound = Math.max(EPS * nonConstantMarkingRun[compoundIdx] / orderFactors[compoundIdx], 1);
+            if (my[compoundIdx] != 0) {
+                tau = Math.min(tau, bound / Math.abs(my[compoundIdx]));
+            }
+            if (sigma[compoundIdx] > 0) {
+                tau = Math.min(tau, bound * bound / sigma[compoundIdx]);
+            }
+        }
+        return tau;
+    }
+
+    /**
+     * Returns the factor by which the rate of a reaction changes relative to
+     * one of its educts, for mass action kinetics. Orders above three are
+     * approximated by the order.
+     *
+     * @param order Sum of the stoichiometric factors of the educts.
+     * @param weight Stoichiometric factor of the educt.
+     * @param x Molecule number of the educt.
+     */
+    private static double orderFactor(int order, int weight, long x) {
+        if (order <= 1) {
+            return 1;
+        }
+        if (weight < 2 || x <= weight || order > 3) {
+            return order;
+        }
+        if (order == 2) {
+            return 2 + 1.0 / (x - 1);
+        }
+        if (weight == 2) {
+            return 1.5 * (2 + 1.0 / (x - 1));
+        }
+        return 3 + 1.0 / (x - 1) + 2.0 / (x - 2);
+    }
+
+    /**
+     * Selects a critical reaction with a probability proportional to its
+     * rate.
+     *
+     * @param r Uniformly distributed random number.
+     * @return the index of the reaction.
+     */
+    private int selectCriticalReaction(double r) {
+        double threshold = criticalSumOfRates * r;
+        double ratesSum = 0;
+        int reaction = -1;
+        for (int word = 0; word < criticalReactions.length; word++) {
+            long bits = criticalReactions[word];
+            while (bits != 0) {
+                reaction = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                ratesSum += reactionRates[reaction];
+                if (ratesSum >= threshold) {
+                    return reaction;
                 }
+            }
+        }
+        return reaction;
+    }
 
-                reactionRatesRun.put(reactionIdx, reactionRate);
-                /*
-                Add new reaction rate to the sum.
-                 */
-                sumOfRates += reactionRate;
-            } else {
-                reactionRatesRun.remove(reactionIdx);
-                this.criticalReactions.remove(reactionIdx);
+    private boolean isCritical(int reactionIdx) {
+        return (criticalReactions[reactionIdx >>> 6] & (1L << reactionIdx)) != 0;
+    }
+
+    private void addFiredReaction(int reactionIdx) {
+        if (!fired[reactionIdx]) {
+            fired[reactionIdx] = true;
+            firedReactions[firedCount++] = reactionIdx;
+        }
+    }
+
+    private void clearFiredReactions() {
+        for (int i = 0; i < firedCount; i++) {
+            fired[firedReactions[i]] = false;
+        }
+        firedCount = 0;
+    }
+
+    /**
+     * Determines which reactions are critical and the sums of all and of the
+     * critical reaction rates. A reaction is critical if it can occur less
+     * than CRITICAL_THRESHOLD times before one of the compounds it consumes
+     * depletes.
+     */
+    private void updateCriticalReactions() {
+        int[] changeStart = model.getChangeStart();
+        int[] changeCompounds = model.getChangeCompounds();
+        int[] changeValues = model.getChangeValues();
+        Arrays.fill(criticalReactions, 0);
+        double sum = 0;
+        double criticalSum = 0;
+        for (int reactionIdx = 0; reactionIdx < reactionRates.length; reactionIdx++) {
+            double rate = reactionRates[reactionIdx];
+            if (rate <= 0) {
+                continue;
+            }
+            sum += rate;
+            /*
+            minL is the number of times this reaction can occur before one of its reactants depletes.
+             */
+            long minL = CRITICAL_THRESHOLD;
+            for (int i = changeStart[reactionIdx]; i < changeStart[reactionIdx + 1]; i++) {
+                if (changeValues[i] < 0) {
+                    minL = Math.min(minL, nonConstantMarkingRun[changeCompounds[i]] / -changeValues[i]);
+                }
+            }
+            if (minL < CRITICAL_THRESHOLD) {
+                criticalReactions[reactionIdx >>> 6] |= 1L << reactionIdx;
+                criticalSum += rate;
             }
         }
-        /*
-        Remove all reactions from the reactionsToUpdate-set except for the reactions with constant pre-places (educts).
-         */
-        reactionsToUpdate.clear();
-        reactionsToUpdate.addAll(simStor.getConstantPlacesPostTransitions());
+        sumOfRates = sum;
+        criticalSumOfRates = criticalSum;
     }
 
     /**
@@ -339,8 +459,7 @@ public class TauLeapingSSA extends ExactSSA {
      * @return index of occurred reaction.
      */
     private int exactStep() {
-        LOGGER.info("Performing one step of the stochastic simulation");
-        updateReactions();
+        updateReactionRates();
         /*
          * Check whether the sum of rates is empty, which indicates that no reaction can occur. If so, abort simulation.
          */
@@ -356,32 +475,20 @@ public class TauLeapingSSA extends ExactSSA {
         /*
         * Calculate the time at which next reaction will occur.
          */
-        double nextFiringTime = (Math.log(1 / randomRun.nextDouble()) / sumOfRates);
+        double nextFiringTime = (randomRun.nextExponential() / sumOfRates);
         //check if the simulation should go on or the maximal time is reached.
         if (simStor.getMaxSimTime() > 0 && (timePassed + nextFiringTime) > simStor.getMaxSimTime()) {
             LOGGER.debug("Maximum simulation time has been reached, therefore stopping the simulation");
             this.requestStop();
+            sampleRemaining();
             return -1;
         }
 
-        /*
-        * Datermine which reaction will occur next.
-        * int reactionIdx is the index of the reaction which will be chosen.
-        * double rateSum is the sum of reaction rates which are previous to the chosen one in the reactionRates list.
-        * Choose the reaction so the sum of reactions which are previous plus the rate of chosen one is greater than or equal to
-        * the sum of all reaction rates multiplied by r2.
-         */
-        LOGGER.debug("Calculating the reaction to occur next");
-        int reaction = 0;
-        double ratesSum = 0;
-        for (int reactionIdx : reactionRatesRun.keySet()) {
-            reaction = reactionIdx;
-            double reactionRate = reactionRatesRun.get(reactionIdx);
-            ratesSum += reactionRate;
-            if (ratesSum >= sumOfRates * r2) {
-                break;
-            }
+        int reaction = selectReaction(r2);
+        if (reaction < 0) {
+            return -1;
         }
+        sampleUntil(timePassed + nextFiringTime);
 
         /*
         * Update step and time counters.
@@ -389,80 +496,14 @@ public class TauLeapingSSA extends ExactSSA {
         this.stepsSimulated++;
         this.timePassed += nextFiringTime;
 
-        if (this.timePassed >= this.lastUpdate + simStor.getUpdateInterval()) {
-            writeOutput(reaction);
-        }
-
         //fire selected reaction
-        LOGGER.debug("Firing the reaction that has been determined to occur next");
         fireReaction(reaction);
+        scheduleDependentReactions(reaction);
+        updateConstantPlaces();
 
         if (simStor.getUpdateInterval() == 0 || timePassed - lastUpdate >= simStor.getUpdateInterval()) {
-            LOGGER.debug("Writing the resulting output after firing the reaction");
             writeOutput(reaction);
         }
         return reaction;
     }
-
-    private void fireReaction(int reactionIdx) {
-        /*
-        * Adapt coumpounds molecule numbers according to the chosen reaction. Iterate through
-        the non-constant conpounds of the reaction and substract the stoichiometric factor from the number of molecules
-        of this compound.
-         */
-        LOGGER.debug("Firing the reaction with the ID: " + Integer.toString(reactionIdx));
-        LOGGER.debug("Calculating the new values for all educts");
-        for (int eductIdx : simStor.getReactionsNonConstantEducts()[reactionIdx]) {
-            /*
-            Get the number of molecules of the educt and remove the stoichiometric factor from it.
-             */
-            long nrOfMolecules = nonConstantMarkingRun[eductIdx] - simStor.getEductStoichMatrix()[reactionIdx][eductIdx];
-            //Ensure that no negative values are produced
-            if (nrOfMolecules < 0) {
-                System.out.println(nrOfMolecules);
-                nrOfMolecules = Math.max(nrOfMolecules, 0);
-            }
-            /*
-            Update the marking.
-             */
-            nonConstantMarkingRun[eductIdx] = nrOfMolecules;
-            /*
-            Update the concentrations entry.
-             */
-            concentrations.put(this.nonConstantPlaceIDsRun[eductIdx], nrOfMolecules / simStor.getVolMol());
-            /*
-            Mark all reactions which are dependent from this educt so the reaction rates will be re-calculated.
-             */
-            reactionsToUpdate.addAll(simStor.getCompoundsInfluence()[eductIdx]);
-        }
-        LOGGER.debug("Calculating the new values for all products");
-        for (int productIdx : simStor.getReactionsNonConstantProducts()[reactionIdx]) {
-            /*
-            Get the number of molecules of the educt and add the stoichiometric factor from it.
-             */
-            long nrOfMolecules = nonConstantMarkingRun[productIdx] + simStor.getProductStoichMatrix()[reactionIdx][productIdx];
-            /*
-            Update the marking.
-             */
-            nonConstantMarkingRun[productIdx] = nrOfMolecules;
-            /*
-            Update the concentrations entry.
-             */
-            concentrations.put(this.nonConstantPlaceIDsRun[productIdx], nrOfMolecules / simStor.getVolMol());
-            /*
-            Mark all reactions which are dependent from this educt so the reaction rates will be re-calculated.
-             */
-            reactionsToUpdate.addAll(simStor.getCompoundsInfluence()[productIdx]);
-        }
-        /*
-        Update marking and concentration for constant places
-         */
-        LOGGER.debug("Updating the marking and concentration for all constant places");
-        for (int i = 0; i < this.constantMarkingRun.length; i++) {
-            MathematicalExpression exp = this.constantPlacesExpRun[i];
-            double val = exp.evaluateML(concentrations, this.timePassed);
-            this.constantMarkingRun[i] = Math.round(val * simStor.getVolMol());
-            this.concentrations.put(this.constantPlaceIDsRun[i], val);
-        }
-    }
 }
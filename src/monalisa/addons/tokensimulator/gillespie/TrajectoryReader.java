@@ -0,0 +1,399 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads trajectories written by {@link TrajectoryWriter}. The header and the
+ * chunk headers are read into small heap buffers, the columns of a chunk are
+ * memory mapped and accessed without copying them. A chunk which was not
+ * written completely, e.g. because the run is still writing, ends the
+ * trajectory.
+ */
+public final class TrajectoryReader implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger(TrajectoryReader.class);
+    /**
+     * Number of bytes read at once for the header, enough for the names of
+     * most models.
+     */
+    private static final int HEADER_BLOCK = 8192;
+
+    private final FileChannel channel;
+    private final String[] nonConstantNames;
+    private final String[] constantNames;
+    private final String[] reactionNames;
+    private final List<Long> chunkPositions = new ArrayList<>();
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private long rowCount;
+
+    /**
+     * Opens a trajectory file and locates its chunks.
+     *
+     * @param file The file.
+     * @throws IOException if the file cannot be read or is no trajectory of
+     * the supported version.
+     */
+    public TrajectoryReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = read(0, (int) Math.min(size, HEADER_BLOCK));
+            if (header.remaining() < 24 || header.getLong() != TrajectoryWriter.MAGIC) {
+                throw new IOException(file.getName() + " is no trajectory file");
+            }
+            int version = header.getInt();
+            if (version != TrajectoryWriter.VERSION) {
+                throw new IOException("Unsupported version " + version + " of the trajectory file " + file.getName());
+            }
+            int nonConstantCount = header.getInt();
+            int constantCount = header.getInt();
+            int reactionCount = header.getInt();
+            if (nonConstantCount < 0 || constantCount < 0 || reactionCount < 0) {
+                throw new IOException("Corrupt header of the trajectory file " + file.getName());
+            }
+
+            this.nonConstantNames = new String[nonConstantCount];
+            this.constantNames = new String[constantCount];
+            this.reactionNames = new String[reactionCount];
+            for (String[] names : new String[][]{nonConstantNames, constantNames, reactionNames}) {
+                for (int i = 0; i < names.length; i++) {
+                    header = ensure(header, 4, size, file);
+                    int length = header.getInt();
+                    if (length < 0) {
+                        throw new IOException("Corrupt header of the trajectory file " + file.getName());
+                    }
+                    header = ensure(header, length, size, file);
+                    byte[] bytes = new byte[length];
+                    header.get(bytes);
+                    names[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            }
+            long position = TrajectoryWriter.align((long) header.position());
+
+            int compoundCount = nonConstantCount + constantCount;
+            while (position + 8 <= size) {
+                readChunkHeader(position);
+                int rows = chunkHeader.getInt(0);
+                int reactionEntries = chunkHeader.getInt(4);
+                if (rows <= 0 || reactionEntries < 0) {
+                    break;
+                }
+                long chunkSize = TrajectoryWriter.chunkSize(rows, reactionEntries, compoundCount);
+                if (chunkSize > Integer.MAX_VALUE) {
+                    LOGGER.warn("Corrupt chunk in the trajectory file " + file.getName());
+                    break;
+                }
+                if (position + chunkSize > size) {
+                    LOGGER.warn("Incomplete chunk at the end of the trajectory file " + file.getName());
+                    break;
+                }
+                chunkPositions.add(position);
+                rowCount += rows;
+                position += chunkSize;
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the names of the non-constant compounds.
+     */
+    public String[] getNonConstantNames() {
+        return nonConstantNames.clone();
+    }
+
+    /**
+     * @return the names of the constant compounds.
+     */
+    public String[] getConstantNames() {
+        return constantNames.clone();
+    }
+
+    /**
+     * @return the names of the reactions.
+     */
+    public String[] getReactionNames() {
+        return reactionNames.clone();
+    }
+
+    /**
+     * @return the number of rows of all complete chunks.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of complete chunks.
+     */
+    public int getChunkCount() {
+        return chunkPositions.size();
+    }
+
+    /**
+     * Maps a chunk.
+     *
+     * @param chunk Index of the chunk.
+     * @return the chunk.
+     * @throws IOException
+     */
+    public synchronized Chunk getChunk(int chunk) throws IOException {
+        long position = chunkPositions.get(chunk);
+        readChunkHeader(position);
+        int rows = chunkHeader.getInt(0);
+        int reactionEntries = chunkHeader.getInt(4);
+        int compoundCount = nonConstantNames.length + constantNames.length;
+        long size = TrajectoryWriter.chunkSize(rows, reactionEntries, compoundCount);
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position + 8, size - 8);
+        return new Chunk(data, rows, reactionEntries, compoundCount);
+    }
+
+    /**
+     * Writes the trajectory as tab separated text in the layout of the output
+     * files of the stochastic simulation.
+     *
+     * @param file The output file.
+     * @throws IOException
+     */
+    public void exportCsv(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            writeCsvHeader(out);
+            writeCsvRows(out);
+        }
+    }
+
+    /**
+     * Writes the header line of the text layout.
+     *
+     * @param out Writer of the text.
+     */
+    public void writeCsvHeader(PrintWriter out) {
+        StringBuilder sb = new StringBuilder("Number of steps");
+        for (String name : nonConstantNames) {
+            sb.append("\t").append(name);
+        }
+        for (String name : constantNames) {
+            sb.append("\t").append(name);
+        }
+        out.print(sb.append("\n"));
+    }
+
+    /**
+     * Writes the rows in the text layout.
+     *
+     * @param out Writer of the text.
+     * @throws IOException
+     */
+    public void writeCsvRows(PrintWriter out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < getChunkCount(); c++) {
+            Chunk chunk = getChunk(c);
+            for (int row = 0; row < chunk.getRowCount(); row++) {
+                sb.setLength(0);
+                sb.append(chunk.getStep(row)).append("\t");
+                /*
+                The text output writes the time of the initial state as integer.
+                 */
+                if (chunk.getStep(row) == 0 && chunk.getTime(row) == 0) {
+                    sb.append(0);
+                } else {
+                    sb.append(chunk.getTime(row));
+                }
+                sb.append("\t");
+                int start = chunk.getReactionStart(row);
+                int end = chunk.getReactionEnd(row);
+                if (start == end) {
+                    sb.append("none");
+                }
+                for (int i = start; i < end; i++) {
+                    if (i > start) {
+                        sb.append(";");
+                    }
+                    sb.append(reactionNames[chunk.getReaction(i)]);
+                }
+                for (int compound = 0; compound < chunk.getCompoundCount(); compound++) {
+                    sb.append("\t").append(chunk.getValue(compound, row));
+                }
+                out.print(sb.append("\n"));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads a part of the file into a heap buffer.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        return buffer;
+    }
+
+    /**
+     * Makes sure that the given number of bytes of the header are buffered.
+     * Headers longer than {@link #HEADER_BLOCK} are read again from the start
+     * with a larger buffer.
+     */
+    private ByteBuffer ensure(ByteBuffer header, int length, long size, File file) throws IOException {
+        if (header.remaining() >= length) {
+            return header;
+        }
+        long required = (long) header.position() + length;
+        if (required > size || required > Integer.MAX_VALUE) {
+            throw new IOException("Truncated header of the trajectory file " + file.getName());
+        }
+        ByteBuffer larger = read(0, (int) Math.min(size, Math.min(Integer.MAX_VALUE, Math.max(required, 2L * header.capacity()))));
+        larger.position(header.position());
+        return larger;
+    }
+
+    private void readChunkHeader(long position) throws IOException {
+        chunkHeader.clear();
+        readFully(chunkHeader, position);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the trajectory file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Rows of a chunk. The columns are views of the mapped file.
+     */
+    public static final class Chunk {
+
+        private final int rows;
+        private final int compoundCount;
+        private final LongBuffer steps;
+        private final DoubleBuffer times;
+        private final IntBuffer reactionEnds;
+        private final IntBuffer reactions;
+        private final LongBuffer values;
+
+        /**
+         * @param buffer The chunk without its header of 8 bytes.
+         */
+        private Chunk(ByteBuffer buffer, int rows, int reactionEntries, int compoundCount) {
+            this.rows = rows;
+            this.compoundCount = compoundCount;
+            /*
+            Positions are counted from the start of the chunk, whose header is not mapped.
+             */
+            int position = 8;
+            this.steps = slice(buffer, position, 8 * rows).asLongBuffer();
+            position += 8 * rows;
+            this.times = slice(buffer, position, 8 * rows).asDoubleBuffer();
+            position += 8 * rows;
+            this.reactionEnds = slice(buffer, position, 4 * rows).asIntBuffer();
+            position += 4 * rows;
+            this.reactions = slice(buffer, position, 4 * reactionEntries).asIntBuffer();
+            position = TrajectoryWriter.align(position + 4 * reactionEntries);
+            this.values = slice(buffer, position, 8 * rows * compoundCount).asLongBuffer();
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(position - 8).limit(position - 8 + length);
+            return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * @return the number of rows.
+         */
+        public int getRowCount() {
+            return rows;
+        }
+
+        /**
+         * @return the number of compounds, non-constant compounds first.
+         */
+        public int getCompoundCount() {
+            return compoundCount;
+        }
+
+        /**
+         * @param row Index of the row.
+         * @return the number of steps simulated.
+         */
+        public long getStep(int row) {
+            return steps.get(row);
+        }
+
+        /**
+         * @param row Index of the row.
+         * @return the simulated time.
+         */
+        public double getTime(int row) {
+            return times.get(row);
+        }
+
+        /**
+         * @param row Index of the row.
+         * @return the index of the first reaction entry of the row.
+         */
+        public int getReactionStart(int row) {
+            return (row == 0) ? 0 : reactionEnds.get(row - 1);
+        }
+
+        /**
+         * @param row Index of the row.
+         * @return the index after the last reaction entry of the row.
+         */
+        public int getReactionEnd(int row) {
+            return reactionEnds.get(row);
+        }
+
+        /**
+         * @param entry Index of a reaction entry.
+         * @return the index of the reaction.
+         */
+        public int getReaction(int entry) {
+            return reactions.get(entry);
+        }
+
+        /**
+         * @param compound Index of the compound, non-constant compounds first.
+         * @param row Index of the row.
+         * @return the molecule number.
+         */
+        public long getValue(int compound, int row) {
+            return values.get(compound * rows + row);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.gillespie;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes the trajectory of a stochastic simulation run in a binary columnar
+ * format, which is read by {@link TrajectoryReader}.
+ *
+ * The file starts with a header: the magic number {@link #MAGIC}, the format
+ * version, the numbers of non-constant compounds, constant compounds and
+ * reactions, followed by their names as length-prefixed UTF-8 strings, padded
+ * to a multiple of 8 bytes. The rows follow in chunks of up to
+ * {@link #CHUNK_ROWS} rows, fewer if a chunk would exceed
+ * {@link #MAX_CHUNK_SIZE} bytes. A chunk starts with its number of rows and its
+ * number of reaction entries (two ints), followed by the columns: steps
+ * (long), times (double), the end of the reaction entries of every row (int),
+ * the reaction entries (int, indices of the reactions which occurred since the
+ * previous row), padding to a multiple of 8 bytes and one long column per
+ * compound, non-constant compounds first. All values are little-endian.
+ */
+public final class TrajectoryWriter implements Closeable {
+
+    /**
+     * File extension of trajectories in the binary format. Output files with
+     * this extension are written in the binary format, all others as tab
+     * separated text.
+     */
+    public static final String EXTENSION = ".traj";
+    static final long MAGIC = 0x4A4152544C4D4C4DL;
+    static final int VERSION = 1;
+    static final int CHUNK_ROWS = 4096;
+    /**
+     * Largest size of a chunk in bytes, so that a chunk fits into a single
+     * buffer and mapping.
+     */
+    static final int MAX_CHUNK_SIZE = 1 << 26;
+
+    private final FileChannel channel;
+    private final int compoundCount;
+    private final int chunkRows;
+
+    private int rows;
+    private int reactionEntries;
+    private final long[] steps = new long[CHUNK_ROWS];
+    private final double[] times = new double[CHUNK_ROWS];
+    private final int[] reactionEnds = new int[CHUNK_ROWS];
+    private int[] reactions = new int[CHUNK_ROWS];
+    /**
+     * Molecule numbers by compound and row.
+     */
+    private final long[][] values;
+    private ByteBuffer buffer;
+
+    /**
+     * Opens a trajectory file for writing.
+     *
+     * @param file The file.
+     * @param nonConstantNames Names of the non-constant compounds.
+     * @param constantNames Names of the constant compounds.
+     * @param reactionNames Names of the reactions.
+     * @param append If true and the file already contains a trajectory of the
+     * same compounds and reactions, rows are appended to it. Otherwise the
+     * file is overwritten.
+     * @throws IOException
+     */
+    public TrajectoryWriter(File file, String[] nonConstantNames, String[] constantNames, String[] reactionNames, boolean append) throws IOException {
+        this.compoundCount = nonConstantNames.length + constantNames.length;
+        this.chunkRows = (int) Math.max(1, Math.min(CHUNK_ROWS, (MAX_CHUNK_SIZE - 16) / (20 + 8L * compoundCount)));
+        if (chunkSize(1, 0, compoundCount) > MAX_CHUNK_SIZE) {
+            throw new IOException("Too many compounds for a trajectory file: " + compoundCount);
+        }
+        this.values = new long[compoundCount][chunkRows];
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = header(nonConstantNames, constantNames, reactionNames);
+            if (append && channel.size() >= header.remaining() && matchesHeader(header)) {
+                channel.position(channel.size());
+            } else {
+                channel.truncate(0);
+                writeFully(header);
+            }
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param file A file.
+     * @return true, if the file has the extension of the binary trajectory
+     * format.
+     */
+    public static boolean isTrajectoryFile(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param step Number of steps simulated.
+     * @param time Simulated time.
+     * @param reactionIdxs Indices of the reactions which occurred since the
+     * previous row.
+     * @param nonConstantMarking Molecule numbers of the non-constant
+     * compounds.
+     * @param constantMarking Molecule numbers of the constant compounds.
+     * @throws IOException
+     */
+    public void append(long step, double time, int[] reactionIdxs, long[] nonConstantMarking, long[] constantMarking) throws IOException {
+        if (chunkSize(rows + 1, (long) reactionEntries + reactionIdxs.length, compoundCount) > MAX_CHUNK_SIZE) {
+            flush();
+            if (chunkSize(1, reactionIdxs.length, compoundCount) > MAX_CHUNK_SIZE) {
+                throw new IOException("Too many reactions for a single row of a trajectory file: " + reactionIdxs.length);
+            }
+        }
+        if (reactionEntries + reactionIdxs.length > reactions.length) {
+            reactions = Arrays.copyOf(reactions, Math.max(reactions.length << 1, reactionEntries + reactionIdxs.length));
+        }
+        System.arraycopy(reactionIdxs, 0, reactions, reactionEntries, reactionIdxs.length);
+        reactionEntries += reactionIdxs.length;
+        steps[rows] = step;
+        times[rows] = time;
+        reactionEnds[rows] = reactionEntries;
+        for (int c = 0; c < nonConstantMarking.length; c++) {
+            values[c][rows] = nonConstantMarking[c];
+        }
+        for (int c = 0; c < constantMarking.length; c++) {
+            values[nonConstantMarking.length + c][rows] = constantMarking[c];
+        }
+        if (++rows == chunkRows) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered rows as a chunk.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        int size = (int) chunkSize(rows, reactionEntries, compoundCount);
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        buffer.putInt(rows).putInt(reactionEntries);
+        buffer.asLongBuffer().put(steps, 0, rows);
+        buffer.position(buffer.position() + 8 * rows);
+        buffer.asDoubleBuffer().put(times, 0, rows);
+        buffer.position(buffer.position() + 8 * rows);
+        buffer.asIntBuffer().put(reactionEnds, 0, rows).put(reactions, 0, reactionEntries);
+        buffer.position(align(buffer.position() + 4 * (rows + reactionEntries)));
+        for (long[] column : values) {
+            buffer.asLongBuffer().put(column, 0, rows);
+            buffer.position(buffer.position() + 8 * rows);
+        }
+        buffer.flip();
+        writeFully(buffer);
+        rows = 0;
+        reactionEntries = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the size of a chunk in bytes. It is computed in long, so that
+     * corrupt or oversized chunk headers do not overflow.
+     */
+    static long chunkSize(long rows, long reactionEntries, long compoundCount) {
+        return align(8 + 16 * rows + 4 * (rows + reactionEntries)) + 8 * rows * compoundCount;
+    }
+
+    /**
+     * @return the position rounded up to a multiple of 8.
+     */
+    static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * @return the position rounded up to a multiple of 8.
+     */
+    static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static ByteBuffer header(String[] nonConstantNames, String[] constantNames, String[] reactionNames) {
+        byte[][] names = new byte[nonConstantNames.length + constantNames.length + reactionNames.length][];
+        int size = 24;
+        int i = 0;
+        for (String[] group : new String[][]{nonConstantNames, constantNames, reactionNames}) {
+            for (String name : group) {
+                names[i] = name.getBytes(StandardCharsets.UTF_8);
+                size += 4 + names[i++].length;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(align(size)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(nonConstantNames.length).putInt(constantNames.length).putInt(reactionNames.length);
+        for (byte[] name : names) {
+            header.putInt(name.length).put(name);
+        }
+        header.position(0);
+        return header;
+    }
+
+    private boolean matchesHeader(ByteBuffer header) throws IOException {
+        ByteBuffer existing = ByteBuffer.allocate(header.remaining());
+        channel.read(existing, 0);
+        existing.flip();
+        return existing.equals(header);
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src);
+        }
+    }
+}
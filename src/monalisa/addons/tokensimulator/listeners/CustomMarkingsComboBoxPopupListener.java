@@ -51,10 +51,8 @@ public class CustomMarkingsComboBoxPopupListener implements PopupMenuListener {
             simulationMan.getTokenSim().addTransitionsToCheck(simulationMan.getPetriNet().transitions().toArray(new Transition[0]));
             simulationMan.getTokenSim().computeActiveTransitions();
             //clear history
-            // Deleting or commenting out the following 3 lines will cause history functionality to not be locked after selecting a new marking from the combobox (Onur Kaya Report 2021, TokenSim Defect 4)
-            simulationMan.historyListModel.clear();
-            simulationMan.historyArrayList.clear();
-            simulationMan.lastHistoryStep = -1;
+            // Deleting or commenting out the following line will cause history functionality to not be locked after selecting a new marking from the combobox (Onur Kaya Report 2021, TokenSim Defect 4)
+            simulationMan.clearHistory();
             // simulationMan.disableStepButtons();
             /* Need to implement a function disableStepButtons in SimulationManager.
                 This function needs to send a new GuiEvent that specifically locks the history buttons.
@@ -18,7 +18,8 @@ import org.apache.logging.log4j.Logger;
  * is picked, all steps between the current state and picked state will be
  * performed (if picked state is later than current state) or reverse-fired (if
  * picked state is earlier than current state); i.e. the picked state will be
- * the last performed state.
+ * the last performed state. A state far back is restored from the nearest
+ * stored marking before it, see SimulationManager.goToHistoryStep.
  */
 public class HistorySelectionListener implements ListSelectionListener {
 
@@ -42,21 +43,16 @@ public class HistorySelectionListener implements ListSelectionListener {
             int selectedVar = history.getSelectedIndex();
             if (selectedVar > -1) {
                 history.clearSelection();
-                //if the last step was performed later than the picked state, reverse-fire all steps between the last performer step and the picked
+                //reverse-fire or perform all steps between the last performed step and the picked one and update the visual output afterwards
                 history.setEnabled(false);
-                while (selectedVar < simulationMan.lastHistoryStep) {
-                    simulationMan.reverseFireTransitions(simulationMan.historyArrayList.get(simulationMan.lastHistoryStep--));
-                }
-                //if the selected step was performed after the curren step, perform steps between selected and lastHistoryStep and update the visual output after the last firing
-                while (selectedVar > simulationMan.lastHistoryStep) {
-                    simulationMan.fireTransitions(false, simulationMan.historyArrayList.get(++simulationMan.lastHistoryStep));
-                }
-                back.setEnabled(simulationMan.lastHistoryStep > -1);
-                forward.setEnabled(simulationMan.lastHistoryStep < simulationMan.historyArrayList.size() - 1);
+                simulationMan.goToHistoryStep(selectedVar);
+                int position = simulationMan.getHistoryPosition();
+                back.setEnabled(position > -1);
+                forward.setEnabled(position < simulationMan.getHistorySize() - 1);
                 simulationMan.updateVisualOutput();
 
                 history.repaint();
-                history.ensureIndexIsVisible(simulationMan.lastHistoryStep);
+                history.ensureIndexIsVisible(position);
                 history.setEnabled(true);
             }
         }
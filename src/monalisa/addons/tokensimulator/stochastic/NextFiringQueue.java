@@ -0,0 +1,197 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.stochastic;
+
+import java.util.Random;
+import monalisa.addons.tokensimulator.CompiledPetriNet;
+import monalisa.addons.tokensimulator.SimulationState;
+import monalisa.addons.tokensimulator.utils.IndexedPriorityQueue;
+
+/**
+ * Event queue of a stochastic Petri net. Every transition holds one absolute
+ * firing time in an indexed priority queue, the transition with the earliest
+ * time fires next. The rate of a transition is its firing rate, multiplied by
+ * its enabling degree if the rates are marking dependent, or 0 if it is not
+ * enabled.
+ *
+ * Because the firing delays are exponentially distributed, the clock of a
+ * transition whose rate did not change stays valid after another transition
+ * fired and is kept. The clock of a transition whose rate changed is rescaled
+ * to the new rate as in the next reaction method of Gibson and Bruck; only the
+ * transition that fired and transitions that became enabled draw a new delay.
+ * A step therefore only touches the transitions depending on the fired one,
+ * and the memory used is constant per transition.
+ */
+public final class NextFiringQueue {
+
+    private final SimulationState state;
+    private final CompiledPetriNet net;
+    private final double[] firingRates;
+    private final boolean markingDependent;
+    private final Random random;
+    /**
+     * Current rate of each transition, 0 if it is not enabled.
+     */
+    private final double[] rates;
+    private final IndexedPriorityQueue firingTimes;
+
+    /**
+     * Creates the queue and draws a firing time for every enabled transition.
+     *
+     * @param state Marking the transitions fire on. The queue has to be told
+     * about every change of the marking, see {@link #update(int, double)}.
+     * @param firingRates Firing rates by transition ordinal.
+     * @param markingDependent Whether the rates are multiplied by the enabling
+     * degrees of the transitions.
+     * @param random Random number generator for the firing delays.
+     * @param time Current simulated time.
+     */
+    public NextFiringQueue(SimulationState state, double[] firingRates, boolean markingDependent, Random random, double time) {
+        this.state = state;
+        this.net = state.getNet();
+        this.firingRates = firingRates;
+        this.markingDependent = markingDependent;
+        this.random = random;
+        int transitionCount = net.getTransitions().length;
+        this.rates = new double[transitionCount];
+        this.firingTimes = new IndexedPriorityQueue(transitionCount);
+        for (int t = 0; t < transitionCount; t++) {
+            rates[t] = computeRate(t);
+            if (rates[t] > 0) {
+                firingTimes.update(t, time + nextDelay(rates[t]));
+            }
+        }
+    }
+
+    /**
+     * @return the state the queue was created for
+     */
+    public SimulationState getState() {
+        return state;
+    }
+
+    /**
+     * Returns the transition which fires next. If every enabled transition has
+     * a rate of 0, they all fire after an infinite delay and one of them is
+     * chosen at random.
+     *
+     * @return Ordinal of the transition, -1 if no transition is enabled.
+     */
+    public int peek() {
+        if (state.getEnabledCount() == 0) {
+            return -1;
+        }
+        if (Double.isInfinite(firingTimes.peekKey())) {
+            return state.getEnabled(random.nextInt(state.getEnabledCount()));
+        }
+        return firingTimes.peek();
+    }
+
+    /**
+     * @return The absolute time at which the transition returned by
+     * {@link #peek()} fires. Infinite if every enabled transition has a rate
+     * of 0.
+     */
+    public double peekTime() {
+        return firingTimes.peekKey();
+    }
+
+    /**
+     * Draws a new clock for a transition which fired at the given time. Has to
+     * be called before the marking is changed by the firing.
+     *
+     * @param t Ordinal of the transition.
+     * @param time Time at which the transition fired.
+     */
+    public void fired(int t, double time) {
+        firingTimes.update(t, (rates[t] > 0) ? time + nextDelay(rates[t]) : Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Updates the rates and clocks after a transition fired: the transitions
+     * depending on it and the transitions with constant pre-places.
+     *
+     * @param t Ordinal of the transition which fired.
+     * @param time Current simulated time.
+     */
+    public void updateDependents(int t, double time) {
+        int[] dependentStart = net.getDependentStart();
+        int[] dependents = net.getDependents();
+        for (int i = dependentStart[t]; i < dependentStart[t + 1]; i++) {
+            update(dependents[i], time);
+        }
+        for (int u : net.getConstantPostTransitions()) {
+            update(u, time);
+        }
+    }
+
+    /**
+     * Recomputes the rate of a transition after the marking changed. If the
+     * rate is unchanged the clock is kept, otherwise the remaining delay is
+     * rescaled to the new rate.
+     *
+     * @param t Ordinal of the transition.
+     * @param time Current simulated time.
+     */
+    public void update(int t, double time) {
+        double oldRate = rates[t];
+        double newRate = computeRate(t);
+        if (newRate == oldRate) {
+            return;
+        }
+        rates[t] = newRate;
+        double firingTime;
+        if (newRate <= 0) {
+            firingTime = Double.POSITIVE_INFINITY;
+        } else if (oldRate <= 0 || Double.isInfinite(firingTimes.getKey(t))) {
+            firingTime = time + nextDelay(newRate);
+        } else {
+            firingTime = time + (oldRate / newRate) * (firingTimes.getKey(t) - time);
+        }
+        firingTimes.update(t, firingTime);
+    }
+
+    /**
+     * @param t Ordinal of a transition.
+     * @return The current rate of the transition, 0 if it is not enabled.
+     */
+    public double getRate(int t) {
+        return rates[t];
+    }
+
+    private double computeRate(int t) {
+        if (!state.isEnabled(t)) {
+            return 0;
+        }
+        long q = 1;
+        int[] preStart = net.getPreStart();
+        if (markingDependent && preStart[t] < preStart[t + 1]) {
+            q = Long.MAX_VALUE;
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                if (net.getPreWeights()[i] > 0) {
+                    q = Math.min(q, state.getTokens(net.getPrePlaces()[i]) / net.getPreWeights()[i]);
+                }
+            }
+            if (q == Long.MAX_VALUE) {
+                q = 1;
+            }
+        }
+        return q * firingRates[t];
+    }
+
+    /**
+     * Draws an exponentially distributed delay.
+     *
+     * @param rate Rate of the distribution, greater than 0.
+     */
+    private double nextDelay(double rate) {
+        return -Math.log(1 - random.nextDouble()) / rate;
+    }
+}
@@ -9,6 +9,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
 import javax.swing.SwingUtilities;
 import monalisa.addons.tokensimulator.AbstractSimulationSwingWorker;
+import monalisa.addons.tokensimulator.HeadlessTokenSim;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
 import monalisa.data.pn.Transition;
@@ -27,11 +28,6 @@ public class StochasticSimulationSwingWorker extends AbstractSimulationSwingWork
      * Number of steps this thread should perform.
      */
     private int stepsLeft;
-    /**
-     * Indicates whether the simulation is still running. Can be set to "false"
-     * upon termination call.
-     */
-    private boolean isRunning;
 
     public StochasticSimulationSwingWorker(SimulationManager simulationManager, StochasticTokenSim stochTS, boolean cont, int nrOfStepsN) {
         this.simulationMan = simulationManager;
@@ -52,6 +48,19 @@ public class StochasticSimulationSwingWorker extends AbstractSimulationSwingWork
          */
         this.isRunning = true;
 
+        /*
+         * Without a delay between the firings, perform the sequence off the event dispatch thread
+         * and only hand coalesced frames to the GUI.
+         */
+        if (timeDelay <= 0 && HeadlessTokenSim.supports(simulationMan)) {
+            try {
+                stepsLeft = simulateHeadless(simulationMan, HeadlessTokenSim.stochastic(simulationMan, stochTS.getRandom(), stochTS.getFiringRates(), stochTS.getSimulatedTime()), stepsLeft, updateInterval);
+            } catch (InterruptedException | InvocationTargetException ex) {
+                LOGGER.error("Headless stochastic simulation got interrupted or broke because of an invalid target", ex);
+            }
+            return null;
+        }
+
         //all active transitions that can be fired right now
         Set<Transition> activeTransitions = simulationMan.getActiveTransitions();
 
@@ -14,10 +14,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLInputFactory;
@@ -31,6 +29,8 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import monalisa.addons.tokensimulator.AbstractTokenSim;
+import monalisa.addons.tokensimulator.CompiledPetriNet;
+import monalisa.addons.tokensimulator.SimulationState;
 import monalisa.addons.tokensimulator.utils.MathematicalExpression;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.exceptions.PlaceConstantException;
@@ -53,6 +53,9 @@ import org.apache.logging.log4j.Logger;
  * the time interval where the transition can fire. For q-enabled transitions,
  * the probability is q * c * dt
  *
+ * The firing times are kept in a {@link NextFiringQueue}, so a step only
+ * updates the transitions whose pre-places were changed by the previous step.
+ *
  * @author Pavel Balazki.
  */
 public class StochasticTokenSim extends AbstractTokenSim {
@@ -74,14 +77,15 @@ public class StochasticTokenSim extends AbstractTokenSim {
      */
     private final Map<Integer, Double> firingRates;
     /**
-     * This HashMap links possible firing time intervals to the corresponding
-     * transition. After a transition becomes enabled, the next firing time is
-     * calculated according to the exponential distribution and the transitions
-     * firing rate. Every time a transition fires, the corresponding firing time
-     * is deleted from the list. The keys are the transitions; the values are
-     * the arrays of firing time intervals, which are doubles
+     * Absolute firing times of the transitions. Created from the current state
+     * when the next transition to fire is requested and discarded whenever the
+     * firing rates, the preferences or the simulated time may have changed.
+     */
+    private NextFiringQueue firingQueue;
+    /**
+     * Transitions whose rates have to be updated after the marking changed.
      */
-    private final Map<Transition, ArrayList<Double>> nextFiringTime;
+    private final List<Transition> changedTransitions = new ArrayList<>();
     private static final Logger LOGGER = LogManager.getLogger(StochasticTokenSim.class);
     //END VARIABLES DECLARATION
 
@@ -95,14 +99,11 @@ public class StochasticTokenSim extends AbstractTokenSim {
         super(tsN);
         /*
          * Initialize the firing rates. If nothing specified, a rate of 1 is concidered
-         * Initialize the HashMap for firing times.
          */
         this.firingRates = new HashMap<>();
-        this.nextFiringTime = new HashMap<>();
 
         for (Transition t : this.simulationMan.getPetriNet().transitions()) {
             this.firingRates.put(t.id(), 1.0);
-            this.nextFiringTime.put(t, new ArrayList<Double>());
         }
     }
     //END CONSTRUCTORS
@@ -122,120 +123,77 @@ public class StochasticTokenSim extends AbstractTokenSim {
 
     /**
      * This method calculates, what transition will fire next and when it will
-     * fire. A random time of firing will be drawn for each enabled transition,
-     * according to its firing rate and enabling degree q. Transition with
-     * shortest time will be fired. If multiple transitions have the same
-     * (shortest) firing time, choose randomly.
+     * fire. Every enabled transition holds a random firing time, drawn
+     * according to its firing rate and enabling degree q when it became enabled
+     * or fired the last time. The transition with the earliest time fires
+     * next; the firing times of the other transitions stay valid unless their
+     * rates changed, in which case they are rescaled.
      *
      * @return
      */
     @Override
     public Transition getTransitionToFire() {
-        LOGGER.debug("Getting all transitions that will fire next in the stochastic token simulator");
-        Set<Transition> activeTransitions = this.getSimulationMan().getActiveTransitions();
-        /*
-         * calculate the next firing time for every active transition
-         */
-        for (Transition t : activeTransitions) {
-            this.updateNextFiringTime(t);
+        LOGGER.debug("Getting the transition with the earliest firing time in the stochastic token simulator");
+        NextFiringQueue queue = getFiringQueue();
+        int t = queue.peek();
+        if (t < 0) {
+            return null;
         }
-        /*
-         * Find a transition with the lowest firing time. Go through all active transitions
-         * and check the next firing time for every transition. If a transition with lower firing time than the actual transition's
-         * firing time is found, put it in the transitionsToFire - Set after clearing the set. If a transition is found with the
-         * same firing time as the actual transition, put in in the transitionsToFire - set. This collects all transitions with the same (lowest)
-         * firing time in an set. Then choose randomly which transition from transitionsToFire.
-         */
-        LOGGER.debug("Search through all transitions and choose those, that have the lowest firing time");
-        Set<Transition> transitionsToFire = new HashSet<>();
-        //Add any transition to the transitionsToFire-set and save its firing time.
-        Transition firstT = activeTransitions.iterator().next();
-        double lowestTime = nextFiringTime.get(firstT).get(0);
-        transitionsToFire.add(firstT);
-        for (Transition t : activeTransitions) {
-            /*
-            If the next transition has the same firing time as the transitions in transitionsToFire-set, add it to the set.
-             */
-            double nextTransTime = nextFiringTime.get(t).get(0);
-            if (nextTransTime == lowestTime) {
-                transitionsToFire.add(t);
-            } else {
-                /*
-                If the next transition has lower next firing time as transitions in transitionsToFire set,
-                clear the set and add next transition to it. Update the lowest time.
-                 */
-                if (nextTransTime < lowestTime) {
-                    transitionsToFire.clear();
-                    transitionsToFire.add(t);
-                    lowestTime = nextTransTime;
-                }
+        // A transition with a rate of 0 fires without advancing the time,
+        // which would otherwise become infinite.
+        if (!Double.isInfinite(queue.peekTime())) {
+            time = queue.peekTime();
+        }
+        queue.fired(t, time);
+        return queue.getState().getNet().getTransitions()[t];
+    }
+
+    /**
+     * The rates of the transitions whose pre-places changed are updated after
+     * their enabling was computed.
+     */
+    @Override
+    public void computeActiveTransitions() {
+        changedTransitions.addAll(this.transitionsToCheck);
+        super.computeActiveTransitions();
+        if (firingQueue != null && firingQueue.getState() == this.getSimulationMan().getState()) {
+            CompiledPetriNet net = firingQueue.getState().getNet();
+            for (Transition t : changedTransitions) {
+                firingQueue.update(net.getTransitionOrdinal(t.id()), time);
             }
         }
-        /*
-         * Draw random transition out of transitionsToFire.
-         * Update passed time.
-         */
-        Transition chosenT = transitionsToFire.toArray(new Transition[transitionsToFire.size()])[getRandom().nextInt(transitionsToFire.size())];
-        time += this.nextFiringTime.get(chosenT).get(0);
-        return chosenT;
+        changedTransitions.clear();
     }
 
     /**
-     * Compute the next time interval in which transition t will fire. The time
-     * intervals are distributed according to the exponential distribution, the
-     * firing rate of the transition and the enabling-degree q. The
-     * enabling-degree is an integer which describes how many times the
-     * transition could fire at once according to the current marking.
-     *
-     * @param t Transition that becomes enabled
+     * Discards the firing times of all transitions. New firing times are drawn
+     * when the next transition to fire is requested; since the delays are
+     * exponentially distributed, this does not change the distribution of the
+     * simulated trajectories. Has to be called after the firing rates or the
+     * preferences were changed.
      */
-    private void updateNextFiringTime(Transition t) {
-        /*
-         * Calculate the enabling-degree of the transition t.
-         * For every pre-place p of t, divide the number of tokens on p through the
-         * weight of the arc between p and t; the minimal value is the q-value
-         */
-        //Enabling-degree q of the transition t.
-        LOGGER.debug("Updating the next firing time for a given transition");
-        long q;
+    public void resetFiringTimes() {
+        this.firingQueue = null;
+    }
 
-        if ((Boolean) this.getSimulationMan().getPreferences().get("Marking dependent rates")) {
-            /*
-            Preplaces of transition t.
-             */
-            List<Place> prePlaces = this.getPetriNet().getInputPlacesFor(t);
-            /*
-             * If the transition has no pre-places, i.e. is an input transition, let q be 1
-             */
-            if (prePlaces.isEmpty()) {
-                q = 1;
-            } else {
-                q = Long.MAX_VALUE;
-                for (Place prePlace : prePlaces) {
-                    long tmp = this.getTokens(prePlace.id()) / this.getPetriNet().getArc(prePlace, t).weight();
-                    q = (q < tmp ? q : tmp);
-                }
+    /**
+     * Returns the queue of firing times, creates it from the compiled state of
+     * the SimulationManager if necessary.
+     */
+    private NextFiringQueue getFiringQueue() {
+        SimulationState state = this.getSimulationMan().getState();
+        if (firingQueue == null || firingQueue.getState() != state) {
+            LOGGER.debug("Drawing the firing times of all transitions");
+            Transition[] transitions = state.getNet().getTransitions();
+            double[] rates = new double[transitions.length];
+            for (int t = 0; t < transitions.length; t++) {
+                Double rate = this.firingRates.get(transitions[t].id());
+                rates[t] = (rate == null) ? 1.0 : rate;
             }
-        } /*
-         * if marking-dependent firing-rate is disabled, let q be 1
-         */ else {
-            q = 1;
+            firingQueue = new NextFiringQueue(state, rates,
+                    (Boolean) this.getSimulationMan().getPreferences().get("Marking dependent rates"), this.getRandom(), time);
         }
-
-        /*
-         * generate a random number r in the interval [0,1]
-         */
-        double r = this.getRandom().nextDouble();
-        /*
-         * calculate the next firing time time. time = -(ln(1-r)/(q*firingRate))
-         */
-        double nextTime = -(Math.log(1 - r) / (q * this.firingRates.get(t.id())));
-        /*
-         * put the calculated next firing time for transition t in the nextFiringTime-Map.
-         * Because of resampling-method, the next firing time is indipendent from the enabling-time,
-         * put the next firing time on the first place in the array.
-         */
-        this.nextFiringTime.get(t).add(0, nextTime);
+        return firingQueue;
     }
 
     @Override
@@ -463,6 +421,12 @@ public class StochasticTokenSim extends AbstractTokenSim {
         return this.time;
     }
 
+    @Override
+    public void setSimulatedTime(double time) {
+        this.time = time;
+        resetFiringTimes();
+    }
+
     /**
      * @return the simSwingWorker
      */
@@ -252,6 +252,8 @@ public class StochasticTokenSimPanel extends AbstractTokenSimPanel implements Si
         firingRateButton.setEnabled(false);
         //tells the token simulator to lock the GUI, too.
         stochTS.getSimulationMan().lockGUI(true);
+        //the firing rates or preferences may have changed since the last firing sequence
+        stochTS.resetFiringTimes();
 
         //try to parse number of steps to perform from stepField. If no integer is entered, create a warning popup and do nothing
         int steps = 0;
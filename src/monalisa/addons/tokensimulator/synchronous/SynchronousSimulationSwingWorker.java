@@ -9,6 +9,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
 import javax.swing.SwingUtilities;
 import monalisa.addons.tokensimulator.AbstractSimulationSwingWorker;
+import monalisa.addons.tokensimulator.HeadlessTokenSim;
 import monalisa.addons.tokensimulator.SimulationManager;
 import monalisa.addons.tokensimulator.listeners.SimulationEvent;
 import monalisa.data.pn.Transition;
@@ -27,11 +28,6 @@ public class SynchronousSimulationSwingWorker extends AbstractSimulationSwingWor
      * Number of steps this thread should perform.
      */
     private int stepsLeft;
-    /**
-     * Indicates whether the simulation is still running. Can be set to "false"
-     * upon termination call.
-     */
-    private boolean isRunning;
 
     private Set<Transition> transitionsToFire;
 
@@ -53,6 +49,19 @@ public class SynchronousSimulationSwingWorker extends AbstractSimulationSwingWor
         * Set the running state of this runnable to "true".
          */
         this.isRunning = true;
+
+        /*
+         * Without a delay between the firings, perform the sequence off the event dispatch thread
+         * and only hand coalesced frames to the GUI.
+         */
+        if (timeDelay <= 0 && HeadlessTokenSim.supports(simulationMan)) {
+            try {
+                stepsLeft = simulateHeadless(simulationMan, HeadlessTokenSim.synchronous(simulationMan, syncTS.getRandom()), stepsLeft, updateInterval);
+            } catch (InterruptedException | InvocationTargetException ex) {
+                LOGGER.error("Headless synchronous simulation got interrupted or broke because of an invalid target", ex);
+            }
+            return null;
+        }
         /*
         * Perform firing until aborted.
          */
@@ -0,0 +1,455 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.utils;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import static monalisa.addons.tokensimulator.utils.MathematicalExpression.PI;
+import static monalisa.addons.tokensimulator.utils.MathematicalExpression.TIME_VAR;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A {@link MathematicalExpression} compiled into a tree of specialised nodes.
+ * The expression is parsed once; variables are read from a state vector by
+ * the slots their places were assigned when compiling, so evaluating the
+ * expression neither allocates nor looks anything up. Compiled expressions
+ * can be evaluated by several threads at the same time.
+ *
+ * The semantics are those of {@link MathematicalExpression#evaluateML}: the
+ * instruction of the first case whose conditions hold is evaluated, 0 is
+ * returned if no case applies or the evaluation fails. Only the first failure
+ * of an expression is logged, as it is usually evaluated in every step of a
+ * simulation.
+ */
+public final class CompiledExpression {
+
+    private static final Logger LOGGER = LogManager.getLogger(CompiledExpression.class);
+
+    private static final Function INT_DIV = new Function("int_div", 2) {
+        @Override
+        public double apply(double... args) {
+            return intDiv(args[0], args[1]);
+        }
+    };
+
+    private static final Map<String, DoubleUnaryOperator> UNARY_FUNCTIONS = new HashMap<>();
+
+    static {
+        UNARY_FUNCTIONS.put("sin", Math::sin);
+        UNARY_FUNCTIONS.put("cos", Math::cos);
+        UNARY_FUNCTIONS.put("tan", Math::tan);
+        UNARY_FUNCTIONS.put("cot", x -> {
+            double tan = Math.tan(x);
+            if (tan == 0) {
+                throw new ArithmeticException("Division by zero in cotangent!");
+            }
+            return 1d / tan;
+        });
+        UNARY_FUNCTIONS.put("asin", Math::asin);
+        UNARY_FUNCTIONS.put("acos", Math::acos);
+        UNARY_FUNCTIONS.put("atan", Math::atan);
+        UNARY_FUNCTIONS.put("sinh", Math::sinh);
+        UNARY_FUNCTIONS.put("cosh", Math::cosh);
+        UNARY_FUNCTIONS.put("tanh", Math::tanh);
+        UNARY_FUNCTIONS.put("abs", Math::abs);
+        UNARY_FUNCTIONS.put("log", Math::log);
+        UNARY_FUNCTIONS.put("log10", Math::log10);
+        UNARY_FUNCTIONS.put("log2", x -> Math.log(x) / Math.log(2d));
+        UNARY_FUNCTIONS.put("log1p", Math::log1p);
+        UNARY_FUNCTIONS.put("ceil", Math::ceil);
+        UNARY_FUNCTIONS.put("floor", Math::floor);
+        UNARY_FUNCTIONS.put("sqrt", Math::sqrt);
+        UNARY_FUNCTIONS.put("cbrt", Math::cbrt);
+        UNARY_FUNCTIONS.put("exp", Math::exp);
+        UNARY_FUNCTIONS.put("expm1", Math::expm1);
+        UNARY_FUNCTIONS.put("signum", x -> (x > 0) ? 1 : (x < 0) ? -1 : 0);
+    }
+
+    private final String expression;
+    private final Case[] cases;
+    private final AtomicBoolean failureLogged = new AtomicBoolean();
+
+    /**
+     * Compiles an expression.
+     *
+     * @param exp The expression.
+     * @param slots Maps the IDs of places to their slot in the state vectors
+     * the compiled expression is evaluated on. Variables of places without a
+     * slot evaluate to 0.
+     * @throws RuntimeException if the expression cannot be parsed.
+     */
+    public CompiledExpression(MathematicalExpression exp, Map<Integer, Integer> slots) throws RuntimeException {
+        this.expression = exp.toString();
+        if (exp.isConstant()) {
+            this.cases = new Case[]{new Case(new Node[0], new short[0], new Node[0], new Constant(exp.evaluateML(Collections.<Integer, Double>emptyMap(), 0)))};
+            return;
+        }
+        Map<String, Integer> variables = exp.getVariables();
+        List<ExpressionML> expressions = exp.getExpressions();
+        this.cases = new Case[expressions.size()];
+        for (int i = 0; i < cases.length; i++) {
+            ExpressionML expML = expressions.get(i);
+            int nrOfConditions = expML.hasCondition ? expML.conditions.length : 0;
+            Node[] left = new Node[nrOfConditions];
+            short[] operators = new short[nrOfConditions];
+            Node[] right = new Node[nrOfConditions];
+            for (int c = 0; c < nrOfConditions; c++) {
+                left[c] = compile(expML.conditions[c].getLeftString(), variables, slots);
+                operators[c] = expML.conditions[c].getOperator();
+                right[c] = compile(expML.conditions[c].getRightString(), variables, slots);
+            }
+            cases[i] = new Case(left, operators, right, compile(expML.instruction, variables, slots));
+        }
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param state Concentrations of the compounds by slot.
+     * @param time Simulation time.
+     * @return the value of the first case whose conditions hold, or 0.
+     */
+    public double evaluate(double[] state, double time) {
+        try {
+            for (Case c : cases) {
+                if (c.holds(state, time)) {
+                    return c.instruction.evaluate(state, time);
+                }
+            }
+        } catch (RuntimeException ex) {
+            if (failureLogged.compareAndSet(false, true)) {
+                LOGGER.error("Error during evaluting mathematical expression " + expression
+                        + ", it evaluates to 0 whenever it fails. Further errors are not logged.", ex);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true, if the expression depends neither on the state nor on the
+     * time.
+     */
+    public boolean isConstant() {
+        return cases.length == 1 && cases[0].operators.length == 0 && cases[0].instruction.isConstant();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Lowers an expression without cases to a tree of nodes. Sub-trees
+     * without variables are folded into constants.
+     */
+    private static Node compile(String exp, Map<String, Integer> variables, Map<Integer, Integer> slots) {
+        Set<String> names = new HashSet<>(variables.keySet());
+        names.add(TIME_VAR);
+        names.add(PI);
+        names.add("\u03c0");
+        names.add("e");
+        names.add("\u03c6");
+        Token[] tokens = ShuntingYard.convertToRPN(exp, Collections.singletonMap(INT_DIV.getName(), INT_DIV),
+                Collections.<String, Operator>emptyMap(), names, true);
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        for (Token token : tokens) {
+            switch (token.getType()) {
+                case Token.TOKEN_NUMBER:
+                    stack.push(new Constant(((NumberToken) token).getValue()));
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    stack.push(variable(((VariableToken) token).getName(), variables, slots));
+                    break;
+                case Token.TOKEN_OPERATOR: {
+                    Operator op = ((OperatorToken) token).getOperator();
+                    if (op.getNumOperands() == 1) {
+                        Node operand = stack.pop();
+                        stack.push(op.getSymbol().equals("-") ? fold(new Unary(x -> -x, operand)) : operand);
+                    } else {
+                        Node b = stack.pop();
+                        Node a = stack.pop();
+                        stack.push(fold(binary(op.getSymbol(), a, b)));
+                    }
+                    break;
+                }
+                case Token.TOKEN_FUNCTION: {
+                    Function f = ((FunctionToken) token).getFunction();
+                    Node[] args = new Node[f.getNumArguments()];
+                    for (int i = args.length - 1; i >= 0; i--) {
+                        args[i] = stack.pop();
+                    }
+                    stack.push(fold(function(f, args)));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unexpected token in expression " + exp);
+            }
+        }
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("Invalid number of operands in expression " + exp);
+        }
+        return stack.pop();
+    }
+
+    private static Node variable(String name, Map<String, Integer> variables, Map<Integer, Integer> slots) {
+        Integer placeId = variables.get(name);
+        if (placeId != null) {
+            Integer slot = slots.get(placeId);
+            return (slot != null) ? new Slot(slot) : new Constant(0);
+        }
+        switch (name) {
+            case TIME_VAR:
+                return new Time();
+            case PI:
+            case "\u03c0":
+                return new Constant(Math.PI);
+            case "e":
+                return new Constant(Math.E);
+            case "\u03c6":
+                return new Constant(1.61803398874d);
+            default:
+                throw new IllegalArgumentException("Unknown variable " + name);
+        }
+    }
+
+    private static Node binary(String symbol, Node a, Node b) {
+        switch (symbol) {
+            case "+":
+                return new Binary((x, y) -> x + y, a, b);
+            case "-":
+                return new Binary((x, y) -> x - y, a, b);
+            case "*":
+                return new Binary((x, y) -> x * y, a, b);
+            case "/":
+                return new Binary((x, y) -> {
+                    if (y == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    return x / y;
+                }, a, b);
+            case "^":
+                return new Binary(Math::pow, a, b);
+            case "%":
+                return new Binary((x, y) -> {
+                    if (y == 0d) {
+                        throw new ArithmeticException("Division by zero!");
+                    }
+                    return x % y;
+                }, a, b);
+            default:
+                throw new IllegalArgumentException("Unknown operator " + symbol);
+        }
+    }
+
+    private static Node function(Function f, Node[] args) {
+        if (f == INT_DIV) {
+            return new Binary(CompiledExpression::intDiv, args[0], args[1]);
+        }
+        if (f.getName().equals("pow") && args.length == 2) {
+            return new Binary(Math::pow, args[0], args[1]);
+        }
+        DoubleUnaryOperator unary = UNARY_FUNCTIONS.get(f.getName());
+        if (unary != null && args.length == 1) {
+            return new Unary(unary, args[0]);
+        }
+        throw new IllegalArgumentException("Unknown function " + f.getName());
+    }
+
+    private static double intDiv(double a, double b) {
+        return Math.round(a) / Math.round(b);
+    }
+
+    /**
+     * Replaces a node by its value if it does not depend on variables.
+     */
+    private static Node fold(Node node) {
+        if (node.isConstant()) {
+            try {
+                return new Constant(node.evaluate(null, 0));
+            } catch (ArithmeticException ex) {
+                // Keep the node, so the error occurs on evaluation.
+            }
+        }
+        return node;
+    }
+
+    /**
+     * A case of the expression: an instruction and the conditions under which
+     * it applies.
+     */
+    private static final class Case {
+
+        private final Node[] left;
+        private final short[] operators;
+        private final Node[] right;
+        private final Node instruction;
+
+        Case(Node[] left, short[] operators, Node[] right, Node instruction) {
+            this.left = left;
+            this.operators = operators;
+            this.right = right;
+            this.instruction = instruction;
+        }
+
+        boolean holds(double[] state, double time) {
+            for (int i = 0; i < operators.length; i++) {
+                double l = left[i].evaluate(state, time);
+                double r = right[i].evaluate(state, time);
+                switch (operators[i]) {
+                    case Condition.OP_LESS:
+                        if (l >= r) {
+                            return false;
+                        }
+                        break;
+                    case Condition.OP_LESS_EQ:
+                        if (l > r) {
+                            return false;
+                        }
+                        break;
+                    case Condition.OP_GREAT:
+                        if (l <= r) {
+                            return false;
+                        }
+                        break;
+                    case Condition.OP_GREAT_EQ:
+                        if (l < r) {
+                            return false;
+                        }
+                        break;
+                    case Condition.OP_EQ:
+                        if (l != r) {
+                            return false;
+                        }
+                        break;
+                }
+            }
+            return true;
+        }
+    }
+
+    private abstract static class Node {
+
+        abstract double evaluate(double[] state, double time);
+
+        abstract boolean isConstant();
+    }
+
+    private static final class Constant extends Node {
+
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double evaluate(double[] state, double time) {
+            return value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static final class Slot extends Node {
+
+        private final int slot;
+
+        Slot(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        double evaluate(double[] state, double time) {
+            return state[slot];
+        }
+
+        @Override
+        boolean isConstant() {
+            return false;
+        }
+    }
+
+    private static final class Time extends Node {
+
+        @Override
+        double evaluate(double[] state, double time) {
+            return time;
+        }
+
+        @Override
+        boolean isConstant() {
+            return false;
+        }
+    }
+
+    private static final class Unary extends Node {
+
+        private final DoubleUnaryOperator op;
+        private final Node operand;
+
+        Unary(DoubleUnaryOperator op, Node operand) {
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] state, double time) {
+            return op.applyAsDouble(operand.evaluate(state, time));
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+    }
+
+    private static final class Binary extends Node {
+
+        private final DoubleBinaryOperator op;
+        private final Node a;
+        private final Node b;
+
+        Binary(DoubleBinaryOperator op, Node a, Node b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        double evaluate(double[] state, double time) {
+            return op.applyAsDouble(a.evaluate(state, time), b.evaluate(state, time));
+        }
+
+        @Override
+        boolean isConstant() {
+            return a.isConstant() && b.isConstant();
+        }
+    }
+}
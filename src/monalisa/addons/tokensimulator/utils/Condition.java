@@ -41,6 +41,8 @@ public class Condition {
 
     private Expression leftPart = null, rightPart = null;
 
+    private final String leftString, rightString;
+
     final private short operator;
 
     private final static Logger LOGGER = LogManager.getLogger(Condition.class);
@@ -69,8 +71,11 @@ public class Condition {
         } else {
             operator = -1;
         }
+        String[] parts = condition.split(opString);
+        leftString = parts[0];
+        rightString = (parts.length > 1) ? parts[1] : "";
         try {
-            ExpressionBuilder expBLeft = new ExpressionBuilder(condition.split(opString)[0])
+            ExpressionBuilder expBLeft = new ExpressionBuilder(leftString)
                     .variable(MathematicalExpression.PI)
                     .function(int_div).variable(TIME_VAR);
 
@@ -78,7 +83,7 @@ public class Condition {
                 expBLeft.variable(v);
             }
 
-            Expression leftPart = expBLeft.build();
+            leftPart = expBLeft.build();
             leftPart.setVariable(MathematicalExpression.PI, Math.PI);
             leftPart.setVariable(TIME_VAR, 0);
 
@@ -90,7 +95,7 @@ public class Condition {
             LOGGER.error("Unknown Function or Unparseable Expression found while trying to parse the first part of a mathematical expression", exLeft);
         }
         try {
-            ExpressionBuilder expBRight = new ExpressionBuilder(condition.split(opString)[0])
+            ExpressionBuilder expBRight = new ExpressionBuilder(rightString)
                     .variable(MathematicalExpression.PI)
                     .function(int_div).variable(TIME_VAR);
 
@@ -98,7 +103,7 @@ public class Condition {
                 expBRight.variable(v);
             }
 
-            Expression rightPart = expBRight.build();
+            rightPart = expBRight.build();
             rightPart.setVariable(MathematicalExpression.PI, Math.PI);
             rightPart.setVariable(TIME_VAR, 0);
 
@@ -130,6 +135,24 @@ public class Condition {
         return this.rightPart;
     }
 
+    /**
+     * Get the part left to the operator.
+     *
+     * @return
+     */
+    public String getLeftString() {
+        return this.leftString;
+    }
+
+    /**
+     * Get the part right to the operator.
+     *
+     * @return
+     */
+    public String getRightString() {
+        return this.rightString;
+    }
+
     public short getOperator() {
         return this.operator;
     }
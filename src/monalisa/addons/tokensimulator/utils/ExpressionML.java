@@ -92,7 +92,7 @@ public class ExpressionML {
          * Assign values for all variables.
          */
         for (String variable : variables.keySet()) {
-            expB.variable(variable).build().setVariable(variable, 0);
+            expB.variable(variable);
         }
         expB.variable(TIME_VAR);
         expB.variable(MathematicalExpression.PI);
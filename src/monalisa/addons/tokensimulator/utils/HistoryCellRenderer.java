@@ -17,7 +17,7 @@ import monalisa.addons.tokensimulator.SimulationManager;
  * Handles the coloring of entries in historyList. The last performed step has
  * red background.
  */
-public class HistoryCellRenderer implements ListCellRenderer {
+public class HistoryCellRenderer implements ListCellRenderer<String> {
 
     private final SimulationManager simulationMan;
 
@@ -26,10 +26,10 @@ public class HistoryCellRenderer implements ListCellRenderer {
     }
 
     @Override
-    public Component getListCellRendererComponent(JList list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+    public Component getListCellRendererComponent(JList<? extends String> list, String value, int index, boolean isSelected, boolean cellHasFocus) {
         DefaultListCellRenderer defaultRenderer = new DefaultListCellRenderer();
         JLabel renderer = (JLabel) defaultRenderer.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-        if (index == simulationMan.lastHistoryStep) {
+        if (index == simulationMan.getHistoryPosition()) {
             renderer.setBackground(Color.red);
         } else {
             renderer.setBackground(Color.white);
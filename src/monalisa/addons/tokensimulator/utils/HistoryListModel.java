@@ -0,0 +1,93 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.utils;
+
+import javax.swing.AbstractListModel;
+import monalisa.addons.tokensimulator.SimulationManager;
+
+/**
+ * ListModel of historyList backed by the history of the SimulationManager. The
+ * entries are not stored; the label of a step is only created when the step is
+ * shown.
+ */
+public class HistoryListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 4318240979032563187L;
+
+    private final SimulationManager simulationMan;
+    //number of entries the list was last notified about
+    private int size = 0;
+    //absolute number of the first step and the number of truncations of the history at the last notification
+    private long shownFirst = 0;
+    private long shownTruncations = 0;
+
+    public HistoryListModel(SimulationManager simulationManager) {
+        this.simulationMan = simulationManager;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return simulationMan.getHistoryLabel(index);
+    }
+
+    /**
+     * Notifies the list about the steps which were dropped from or added to
+     * the history since the last call. The steps are identified by their
+     * absolute numbers, so dropping the oldest steps of a full history removes
+     * the first entries instead of changing all of them.
+     */
+    public void update() {
+        long first = simulationMan.getHistoryFirstStep();
+        long end = first + simulationMan.getHistorySize();
+        long shownEnd = shownFirst + size;
+        //steps from this number on may have been replaced
+        long changed = shownEnd;
+        long truncations = simulationMan.getHistoryTruncations();
+        if (truncations == shownTruncations + 1) {
+            changed = simulationMan.getHistoryTruncatedStep();
+        } else if (truncations != shownTruncations) {
+            changed = shownFirst;
+        }
+        shownTruncations = truncations;
+        //steps which are still shown unchanged
+        long keptFirst = Math.max(shownFirst, first);
+        long keptEnd = Math.min(Math.min(shownEnd, changed), end);
+        if (keptEnd <= keptFirst) {
+            if (size > 0) {
+                int removed = size;
+                size = 0;
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            keptEnd = first;
+        } else {
+            if (shownEnd > keptEnd) {
+                int removed = (int) (shownEnd - keptEnd);
+                size -= removed;
+                fireIntervalRemoved(this, size, size + removed - 1);
+            }
+            if (keptFirst > shownFirst) {
+                int removed = (int) (keptFirst - shownFirst);
+                size -= removed;
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+        }
+        shownFirst = first;
+        if (end > keptEnd) {
+            int added = (int) (end - keptEnd);
+            size += added;
+            fireIntervalAdded(this, size - added, size - 1);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.addons.tokensimulator.utils;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the indices 0 .. size - 1 with a double key per index.
+ * Every index is always contained in the queue, the position of each index in
+ * the heap is tracked so that the key of any index can be changed in
+ * logarithmic time. Indices which should never be selected can be given the
+ * key {@link Double#POSITIVE_INFINITY}.
+ */
+public final class IndexedPriorityQueue {
+
+    private final double[] keys;
+    private final int[] heap;
+    private final int[] positions;
+
+    /**
+     * Creates a queue holding the indices 0 .. size - 1, all with the key
+     * {@link Double#POSITIVE_INFINITY}.
+     *
+     * @param size Number of indices.
+     */
+    public IndexedPriorityQueue(int size) {
+        this.keys = new double[size];
+        Arrays.fill(this.keys, Double.POSITIVE_INFINITY);
+        this.heap = new int[size];
+        this.positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.heap[i] = i;
+            this.positions[i] = i;
+        }
+    }
+
+    /**
+     * @return the number of indices in the queue.
+     */
+    public int size() {
+        return heap.length;
+    }
+
+    /**
+     * @return the index with the smallest key. The queue must not be empty.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * @return the smallest key, or {@link Double#POSITIVE_INFINITY} if the
+     * queue is empty.
+     */
+    public double peekKey() {
+        return (heap.length == 0) ? Double.POSITIVE_INFINITY : keys[heap[0]];
+    }
+
+    /**
+     * @param index An index of the queue.
+     * @return the current key of the index.
+     */
+    public double getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Changes the key of an index and restores the heap order.
+     *
+     * @param index An index of the queue.
+     * @param key The new key.
+     */
+    public void update(int index, double key) {
+        double old = keys[index];
+        keys[index] = key;
+        if (key < old) {
+            siftUp(positions[index]);
+        } else if (key > old) {
+            siftDown(positions[index]);
+        }
+    }
+
+    private void siftUp(int pos) {
+        int index = heap[pos];
+        double key = keys[index];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int parentIndex = heap[parent];
+            if (keys[parentIndex] <= key) {
+                break;
+            }
+            heap[pos] = parentIndex;
+            positions[parentIndex] = pos;
+            pos = parent;
+        }
+        heap[pos] = index;
+        positions[index] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int index = heap[pos];
+        double key = keys[index];
+        int half = heap.length >>> 1;
+        while (pos < half) {
+            int child = (pos << 1) + 1;
+            int right = child + 1;
+            if (right < heap.length && keys[heap[right]] < keys[heap[child]]) {
+                child = right;
+            }
+            int childIndex = heap[child];
+            if (key <= keys[childIndex]) {
+                break;
+            }
+            heap[pos] = childIndex;
+            positions[childIndex] = pos;
+            pos = child;
+        }
+        heap[pos] = index;
+        positions[index] = pos;
+    }
+}
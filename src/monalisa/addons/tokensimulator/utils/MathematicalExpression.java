@@ -11,6 +11,7 @@ package monalisa.addons.tokensimulator.utils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -128,6 +129,21 @@ public final class MathematicalExpression {
         return 0;
     }
 
+    /**
+     * Compiles this expression for fast evaluation on state vectors.
+     *
+     * @param slots Maps the IDs of places to their slot in the state vectors.
+     * @return the compiled expression.
+     * @see CompiledExpression
+     */
+    public CompiledExpression compile(Map<Integer, Integer> slots) throws RuntimeException {
+        return new CompiledExpression(this, slots);
+    }
+
+    List<ExpressionML> getExpressions() {
+        return this.expressions;
+    }
+
     public Map<String, Integer> getVariables() {
         lock.lock();
         try {
@@ -9,10 +9,9 @@
  */
 package monalisa.addons.tokensimulator.utils;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import monalisa.data.pn.Transition;
+import monalisa.addons.tokensimulator.SimulationHistory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -26,10 +25,8 @@ public class Snapshot {
     //BEGIN VARIABLES DECLARATION
     //Number of step at which this snapshot was taken
     private final int stepNr;
-    //Elements of the ListModel of historyList
-    private final String[] historyListModelNames;
-    //Transitions that have fired in history
-    private final ArrayList<Transition[]> historyArrayList;
+    //Last steps of the history
+    private final SimulationHistory history;
     //Current marking; links a number of tokens for each place-id for non-static places
     private final Map<Integer, Long> marking;
     /**
@@ -48,8 +45,7 @@ public class Snapshot {
      */
     private Snapshot() {
         stepNr = 0;
-        historyListModelNames = null;
-        historyArrayList = null;
+        history = null;
         marking = null;
         constantPlaces = null;
     }
@@ -58,33 +54,15 @@ public class Snapshot {
      * Create a new snapshot
      *
      * @param stepNrN number of the step at which this snapshot is created.
-     * @param historyListModelN actual historyListModel
-     * @param historyArrayListN actual historyArrayList
+     * @param historyN copy of the actual history, which is kept
      * @param markingN actual marking
      */
-    public Snapshot(int stepNrN, Object[] historyListModelN,
-            ArrayList<Transition[]> historyArrayListN,
+    public Snapshot(int stepNrN, SimulationHistory historyN,
             Map<Integer, Long> markingN,
             Map<Integer, MathematicalExpression> constantPlacesN) {
         LOGGER.info("Creating a new snapshot at stepnumber " + Integer.toString(stepNrN));
         this.stepNr = stepNrN;
-        this.historyListModelNames = new String[historyListModelN.length]; // = (String[]) historyListModelN;
-        int j = 0;
-        for (Object entryName : historyListModelN) {
-            historyListModelNames[j] = (String) entryName;
-            j++;
-        }
-
-        //deep copy of historyArrayList
-        this.historyArrayList = new ArrayList<>();
-        for (Transition[] tt : historyArrayListN) {
-            Transition[] temp = new Transition[tt.length];
-            int i = 0;
-            for (Transition t : tt) {
-                temp[i++] = t;
-            }
-            historyArrayList.add(temp);
-        }
+        this.history = historyN;
 
         //deep copy of marking
         this.marking = new HashMap<>(markingN);
@@ -102,12 +80,13 @@ public class Snapshot {
         return this.stepNr;
     }
 
-    public String[] getHistoryListModelNames() {
-        return this.historyListModelNames;
-    }
-
-    public ArrayList<Transition[]> getHistoryArrayList() {
-        return this.historyArrayList;
+    /**
+     * Get the last steps of the history as the snapshot was created.
+     *
+     * @return History with the last performed step at its position.
+     */
+    public SimulationHistory getHistory() {
+        return this.history;
     }
 
     /**
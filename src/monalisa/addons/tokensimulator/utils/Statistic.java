@@ -81,6 +81,15 @@ public class Statistic {
         this.stepsFired++;
     }
 
+    /**
+     * Increase the number of fired steps by the given number.
+     *
+     * @param steps
+     */
+    public void incrementSteps(int steps) {
+        this.stepsFired += steps;
+    }
+
     public void decrementSteps() {
         this.stepsFired--;
     }
@@ -96,6 +105,19 @@ public class Statistic {
         this.transitionsFired++;
     }
 
+    /**
+     * If transition t has fired several times, increase the count of firings
+     * for this transition and the global amount of fired transitions
+     * transitionsFired by this number.
+     *
+     * @param t Transition which fired.
+     * @param times How often t fired.
+     */
+    public void transitionFired(Transition t, int times) {
+        this.countTransitions.put(t.toString(), this.countTransitions.get(t.toString()) + times);
+        this.transitionsFired += times;
+    }
+
     /**
      * If transition t has reverse-fired, decrease the count of firings for this
      * transition and the global amount of fired transitions transitionsFired.
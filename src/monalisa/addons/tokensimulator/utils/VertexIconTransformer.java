@@ -102,9 +102,9 @@ public class VertexIconTransformer implements Transformer<NetViewerNode, Icon> {
             }
 
             //if the transition was fired in last step, return black square with red border
-            int lastFired = this.simulationMan.lastHistoryStep;
+            int lastFired = this.simulationMan.getHistoryPosition();
             if (lastFired >= 0) {
-                for (Transition t : this.simulationMan.historyArrayList.get(lastFired)) {
+                for (Transition t : this.simulationMan.getHistoryStep(lastFired)) {
                     if (id == t.id()) {
                         graphics.setColor(Color.RED);
                         graphics.fillRect(0, 0, this.vertexSize, this.vertexSize); // vertex size doesn't change anymore
@@ -22,6 +22,8 @@ public final class KnockoutConfiguration implements Configuration {
     private final KnockoutAlgorithm algorithm;
     private final List<? extends UniquePetriNetEntity> entities;
     private final String userDefinedName;
+    private final boolean fromInvariants;
+    private final int threads;
 
     public KnockoutConfiguration(KnockoutAlgorithm algorithm, String userDefinedName) {
         this(algorithm, Collections.<UniquePetriNetEntity>emptyList(), userDefinedName);
@@ -29,9 +31,17 @@ public final class KnockoutConfiguration implements Configuration {
 
     public KnockoutConfiguration(KnockoutAlgorithm algorithm,
             List<? extends UniquePetriNetEntity> entities, String userDefinedName) {
+        this(algorithm, entities, userDefinedName, false, 1);
+    }
+
+    public KnockoutConfiguration(KnockoutAlgorithm algorithm,
+            List<? extends UniquePetriNetEntity> entities, String userDefinedName,
+            boolean fromInvariants, int threads) {
         this.algorithm = algorithm;
         this.entities = entities;
         this.userDefinedName = userDefinedName;
+        this.fromInvariants = fromInvariants;
+        this.threads = threads;
     }
 
     @Override
@@ -94,4 +104,20 @@ public final class KnockoutConfiguration implements Configuration {
     public String getUserDefinedName() {
         return userDefinedName;
     }
+
+    /**
+     * @return whether the knock-outs are derived from the T-invariants of the
+     * original Petri net instead of recomputing them for every knock-out
+     */
+    public boolean isFromInvariants() {
+        return fromInvariants;
+    }
+
+    /**
+     * @return the number of threads to recompute the T-invariants of the
+     * knocked-out networks with
+     */
+    public int getThreads() {
+        return Math.max(threads, 1);
+    }
 }
@@ -14,6 +14,20 @@ import monalisa.resources.StringResources;
 public final class TInvariantsConfiguration implements Configuration {
 
     private static final long serialVersionUID = 1L;
+    private final boolean internalSolver;
+
+    public TInvariantsConfiguration() {
+        this(false);
+    }
+
+    /**
+     * @param internalSolver Whether the T-invariants are to be computed
+     * within the JVM instead of by the external tool. This does not affect the
+     * identity of the configuration, both backends yield the same result.
+     */
+    public TInvariantsConfiguration(boolean internalSolver) {
+        this.internalSolver = internalSolver;
+    }
 
     @Override
     public boolean equals(Object obj) {
@@ -41,4 +55,11 @@ public final class TInvariantsConfiguration implements Configuration {
     public Boolean isExportable() {
         return true;
     }
+
+    /**
+     * @return whether the internal solver is to be used
+     */
+    public boolean useInternalSolver() {
+        return internalSolver;
+    }
 }
@@ -21,7 +21,7 @@ import monalisa.data.pn.UniquePetriNetEntity;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class DoubleTransitionKnockout extends KnockoutAlgorithm {
+public class DoubleTransitionKnockout extends TransitionKnockoutAlgorithm {
 
     private final List<Pair<Transition, Transition>> pairs;
     private final Iterator<Pair<Transition, Transition>> pairIterator;
@@ -62,6 +62,20 @@ public class DoubleTransitionKnockout extends KnockoutAlgorithm {
         return new PetriNetFacade(copy);
     }
 
+    @Override
+    protected List<Transition> getNextKnockedOutTransitions() {
+        Pair<Transition, Transition> p = pairIterator.next();
+
+        currentKnockouts = new ArrayList<>();
+        currentKnockouts.add(p.first());
+        currentKnockouts.add(p.second());
+
+        List<Transition> removed = new ArrayList<>();
+        removed.add(p.first());
+        removed.add(p.second());
+        return removed;
+    }
+
     @Override
     protected boolean hasNextKnockOutNetwork() {
         return pairIterator.hasNext();
@@ -0,0 +1,109 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.tools.knockout;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import monalisa.data.pn.TInvariant;
+import monalisa.data.pn.Transition;
+
+/**
+ * Index over the supports of the minimal T-invariants of a Petri net. The
+ * minimal T-invariants of a net with some transitions removed are exactly those
+ * minimal T-invariants of the original net that do not use any of the removed
+ * transitions, so transition knock-outs can be evaluated by filtering the
+ * supports instead of recomputing the invariants.
+ */
+final class InvariantSupportIndex {
+
+    private final List<Transition> transitions;
+    private final Map<Transition, Integer> ordinals;
+    private final int transitionWords;
+    private final int invariantWords;
+    // Support of each invariant as bitset over the transition ordinals.
+    private final long[][] supports;
+    // Invariants each transition occurs in as bitset over the invariants.
+    private final long[][] occurrences;
+
+    InvariantSupportIndex(Collection<Transition> transitions, Collection<TInvariant> tinvariants) {
+        this.transitions = new ArrayList<>(transitions);
+        this.ordinals = new HashMap<>();
+        for (int t = 0; t < this.transitions.size(); t++) {
+            ordinals.put(this.transitions.get(t), t);
+        }
+        transitionWords = (this.transitions.size() + 63) >>> 6;
+        invariantWords = (tinvariants.size() + 63) >>> 6;
+
+        supports = new long[tinvariants.size()][transitionWords];
+        occurrences = new long[this.transitions.size()][invariantWords];
+        int i = 0;
+        for (TInvariant tinv : tinvariants) {
+            for (Transition transition : tinv) {
+                int t = ordinals.get(transition);
+                supports[i][t >>> 6] |= 1L << t;
+                occurrences[t][i >>> 6] |= 1L << i;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Returns the number of indexed T-invariants.
+     */
+    int size() {
+        return supports.length;
+    }
+
+    /**
+     * Returns all transitions which are still covered by a T-invariant after
+     * the given transitions have been knocked out.
+     *
+     * @param knockedOut The transitions to knock out.
+     * @return The transitions occurring in at least one of the remaining
+     * T-invariants, in the order of the indexed transitions.
+     */
+    List<Transition> coveredTransitions(Collection<Transition> knockedOut) {
+        long[] killed = new long[invariantWords];
+        for (Transition transition : knockedOut) {
+            Integer t = ordinals.get(transition);
+            if (t != null) {
+                long[] occurrence = occurrences[t];
+                for (int w = 0; w < invariantWords; w++) {
+                    killed[w] |= occurrence[w];
+                }
+            }
+        }
+
+        long[] covered = new long[transitionWords];
+        for (int i = 0; i < supports.length; i++) {
+            if ((killed[i >>> 6] & (1L << i)) == 0) {
+                long[] support = supports[i];
+                for (int w = 0; w < transitionWords; w++) {
+                    covered[w] |= support[w];
+                }
+            }
+        }
+
+        List<Transition> result = new ArrayList<>();
+        for (int w = 0; w < transitionWords; w++) {
+            long word = covered[w];
+            while (word != 0) {
+                int t = (w << 6) + Long.numberOfTrailingZeros(word);
+                result.add(transitions.get(t));
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+}
@@ -17,25 +17,85 @@ import monalisa.tools.ProgressListener;
 import monalisa.tools.tinv.TInvariantCalculationFailedException;
 import monalisa.tools.tinv.TInvariantCalculator;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import monalisa.data.pn.PetriNetFacade;
 import monalisa.data.pn.TInvariant;
 import monalisa.data.pn.Transition;
+import monalisa.util.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public abstract class KnockoutAlgorithm {
 
+    /**
+     * Computes the names of all transitions covered by the T-invariants of one
+     * knocked-out network, in a temporary directory of its own, with the
+     * external tool extracted once for the whole run.
+     */
+    private static final class KnockoutTask implements Callable<Set<String>> {
+
+        private final PetriNetFacade network;
+        private final ErrorLog log;
+        private final File toolFile;
+
+        private KnockoutTask(PetriNetFacade network, ErrorLog log, File toolFile) {
+            this.network = network;
+            this.log = log;
+            this.toolFile = toolFile;
+        }
+
+        @Override
+        public Set<String> call() throws Exception {
+            File tempDir = FileUtils.createTempDir("monalisa-ko");
+            try {
+                TInvariantCalculator calculator = new TInvariantCalculator(network, log, tempDir, toolFile);
+                Set<String> covered = new HashSet<>();
+                for (TInvariant tinv : calculator.tinvariants(log)) {
+                    for (Transition t : tinv) {
+                        covered.add((String) t.getProperty("name"));
+                    }
+                }
+                return covered;
+            } finally {
+                FileUtils.deleteDirectory(tempDir);
+            }
+        }
+    }
+
+    private static final class PendingKnockout {
+
+        private final List<String> knockedOut;
+        private final ErrorLog log;
+        private final Future<Set<String>> future;
+
+        private PendingKnockout(List<String> knockedOut, ErrorLog log, Future<Set<String>> future) {
+            this.knockedOut = knockedOut;
+            this.log = log;
+            this.future = future;
+        }
+    }
+
     private final PetriNetFacade pn;
     private final Map<List<String>, List<String>> results;
     private static final Logger LOGGER = LogManager.getLogger(KnockoutAlgorithm.class);
 
     KnockoutAlgorithm(PetriNetFacade pn) {
-        this.results = new HashMap<>();
+        this.results = new LinkedHashMap<>();
         this.pn = pn;
     }
 
@@ -83,6 +143,141 @@ public abstract class KnockoutAlgorithm {
         LOGGER.info("Successfully ran selected Knockout algorithm");
     }
 
+    /**
+     * @return true, if {@link #runFromInvariants(ProgressListener, ErrorLog)}
+     * derives the knock-outs from the T-invariants of the unmodified Petri net
+     * instead of recomputing them for every knock-out.
+     */
+    public boolean canRunFromInvariants() {
+        return false;
+    }
+
+    /**
+     * Runs the knock-outs on the minimal T-invariants of the unmodified Petri
+     * net. Only knock-outs of transitions can be derived from them, see
+     * {@link TransitionKnockoutAlgorithm}; all other algorithms recompute the
+     * T-invariants for every knock-out like
+     * {@link #run(ProgressListener, ErrorLog)}.
+     *
+     * @param callback The listener to notify about progress.
+     * @param log The error log.
+     * @throws InterruptedException
+     * @throws TInvariantCalculationFailedException
+     */
+    public void runFromInvariants(ProgressListener callback, ErrorLog log) throws InterruptedException, TInvariantCalculationFailedException {
+        LOGGER.info("Knockout algorithm cannot be derived from T-Invariants, recomputing for every knockout");
+        run(callback, log);
+    }
+
+    /**
+     * Runs the knock-outs like {@link #run(ProgressListener, ErrorLog)}, but
+     * computes the T-invariants of the knocked-out networks concurrently on
+     * the given executor. The networks are still created one after another on
+     * the calling thread, at most <code>maxPending</code> of them are waiting
+     * for or under computation at any time. The external tool is extracted
+     * once for the run, every computation uses its own temporary directory.
+     * Results are merged and progress is reported on the
+     * calling thread in the order the knock-outs are generated.
+     *
+     * @param callback The listener to notify about progress.
+     * @param log The error log.
+     * @param executor The executor to compute the T-invariants on. It is not
+     * shut down by this method.
+     * @param maxPending The maximal number of knock-outs submitted to the
+     * executor but not yet merged.
+     * @throws InterruptedException
+     * @throws TInvariantCalculationFailedException
+     */
+    public void runConcurrently(ProgressListener callback, ErrorLog log, ExecutorService executor, int maxPending) throws InterruptedException, TInvariantCalculationFailedException {
+        LOGGER.info("Running selected Knockout algorithm concurrently");
+        int instance = 0;
+        List<String> originalTransitions = new ArrayList<>();
+        Deque<PendingKnockout> pending = new ArrayDeque<>();
+
+        for (Transition t : pn.transitions()) {
+            originalTransitions.add((String) t.getProperty("name"));
+        }
+
+        File toolDir;
+        File toolFile;
+        try {
+            toolDir = FileUtils.createTempDir("monalisa-ko");
+            toolFile = TInvariantCalculator.extractTool(toolDir);
+        } catch (IOException ex) {
+            log.log("#TInvariantExtractResourceFailed", ErrorLog.Severity.ERROR);
+            LOGGER.error("Caught IOException while trying to extract the external tool for the knockouts: ", ex);
+            throw new TInvariantCalculationFailedException(ex);
+        }
+
+        try {
+            while (hasNextKnockOutNetwork()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                PetriNetFacade network = getNextKnockOutNetwork();
+                List<String> knockedOut = new ArrayList<>();
+                for (UniquePetriNetEntity e : getKnockoutEntities()) {
+                    knockedOut.add((String) e.getProperty("name"));
+                }
+                ErrorLog taskLog = new ErrorLog();
+                pending.add(new PendingKnockout(knockedOut, taskLog,
+                        executor.submit(new KnockoutTask(network, taskLog, toolFile))));
+
+                while (pending.size() >= maxPending) {
+                    merge(pending.poll(), originalTransitions, log);
+                    int percent = (int) ((double) ++instance / getTotalKnockouts() * 100);
+                    callback.progressUpdated(new ProgressEvent(this, percent));
+                }
+            }
+            while (!pending.isEmpty()) {
+                merge(pending.poll(), originalTransitions, log);
+                int percent = (int) ((double) ++instance / getTotalKnockouts() * 100);
+                callback.progressUpdated(new ProgressEvent(this, percent));
+            }
+        } finally {
+            for (PendingKnockout p : pending) {
+                p.future.cancel(true);
+            }
+            if (!FileUtils.deleteDirectory(toolDir)) {
+                // cancelled computations may still run the tool
+                toolDir.deleteOnExit();
+                toolFile.deleteOnExit();
+            }
+        }
+        LOGGER.info("Successfully ran selected Knockout algorithm concurrently");
+    }
+
+    private void merge(PendingKnockout knockout, List<String> originalTransitions, ErrorLog log) throws InterruptedException, TInvariantCalculationFailedException {
+        Set<String> covered;
+        try {
+            covered = knockout.future.get();
+        } catch (ExecutionException ex) {
+            log.logAll(knockout.log);
+            Throwable cause = ex.getCause();
+            if (cause instanceof TInvariantCalculationFailedException) {
+                throw (TInvariantCalculationFailedException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof Exception) {
+                throw new TInvariantCalculationFailedException((Exception) cause);
+            }
+            throw (Error) cause;
+        }
+        log.logAll(knockout.log);
+
+        List<String> alsoKnockedOut = new ArrayList<>();
+        for (String name : originalTransitions) {
+            if (!covered.contains(name) && !knockout.knockedOut.contains(name)) {
+                alsoKnockedOut.add(name);
+            }
+        }
+        results.put(knockout.knockedOut, alsoKnockedOut);
+    }
+
+    void putResult(List<String> knockedOut, List<String> alsoKnockedOut) {
+        results.put(knockedOut, alsoKnockedOut);
+    }
+
     public Map<List<String>, List<String>> getResults() {
         return Collections.unmodifiableMap(results);
     }
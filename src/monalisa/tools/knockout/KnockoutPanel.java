@@ -13,8 +13,11 @@ import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.GroupLayout;
 import javax.swing.JCheckBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.border.TitledBorder;
 import monalisa.MonaLisa;
 import monalisa.Project;
@@ -23,6 +26,7 @@ import monalisa.data.Pair;
 import monalisa.data.pn.PetriNetFacade;
 import monalisa.data.pn.Place;
 import monalisa.data.pn.Transition;
+import monalisa.data.pn.UniquePetriNetEntity;
 import monalisa.resources.ResourceManager;
 import monalisa.resources.StringResources;
 import monalisa.results.Configuration;
@@ -44,6 +48,9 @@ public class KnockoutPanel extends AbstractToolPanel {
     private static final StringResources strings = ResourceManager.instance().getDefaultStrings();
 
     private final JCheckBox calculate;
+    private final JCheckBox fromInvariants;
+    private final JLabel threadsLabel;
+    private final SpinnerNumberModel threadsModel;
     private final JPanel koPanel;
     private final JRadioButton singleKoPlace;
     private final JRadioButton singleKoTransition;
@@ -104,6 +111,15 @@ public class KnockoutPanel extends AbstractToolPanel {
         calculate.setActionCommand(ACTION_CALCULATE);
         calculate.addActionListener(al);
 
+        fromInvariants = new JCheckBox(strings.get("KnockoutFromInvariants"));
+        fromInvariants.setToolTipText(strings.get("KnockoutFromInvariantsTT"));
+
+        threadsLabel = new JLabel(strings.get("KnockoutThreads"));
+        threadsModel = new SpinnerNumberModel(1, 1, 256, 1);
+        JSpinner threadsSpinner = new JSpinner(threadsModel);
+        threadsSpinner.setEditor(new JSpinner.NumberEditor(threadsSpinner, "#"));
+        threadsSpinner.setToolTipText(strings.get("KnockoutThreadsTT"));
+
         koPanel = new JPanel();
         koPanel.setBorder(BorderFactory.createTitledBorder(
                 null, "",
@@ -135,10 +151,18 @@ public class KnockoutPanel extends AbstractToolPanel {
 
         layout.setHorizontalGroup(layout.createParallelGroup()
                 .addComponent(koPanel)
+                .addComponent(fromInvariants)
+                .addGroup(layout.createSequentialGroup()
+                        .addComponent(threadsLabel)
+                        .addComponent(threadsSpinner))
                 .addComponent(calculate));
 
         layout.setVerticalGroup(layout.createSequentialGroup()
                 .addComponent(koPanel)
+                .addComponent(fromInvariants)
+                .addGroup(layout.createParallelGroup()
+                        .addComponent(threadsLabel)
+                        .addComponent(threadsSpinner))
                 .addComponent(calculate));
     }
 
@@ -171,9 +195,11 @@ public class KnockoutPanel extends AbstractToolPanel {
     public KnockoutConfiguration getConfig() {
         KnockoutAlgorithm algorithm = getAlgorithm();
         if (algorithm.getClass().equals(MultiPlaceKnockout.class) || algorithm.getClass().equals(MultiTransitionKnockout.class)) {
-            return new KnockoutConfiguration(algorithm, algorithm.getKnockoutEntities(), algorithm.getClass().getSimpleName());
+            return new KnockoutConfiguration(algorithm, algorithm.getKnockoutEntities(), algorithm.getClass().getSimpleName(),
+                    fromInvariants.isSelected(), threadsModel.getNumber().intValue());
         } else {
-            return new KnockoutConfiguration(algorithm, algorithm.getClass().getSimpleName());
+            return new KnockoutConfiguration(algorithm, Collections.<UniquePetriNetEntity>emptyList(), algorithm.getClass().getSimpleName(),
+                    fromInvariants.isSelected(), threadsModel.getNumber().intValue());
         }
     }
 
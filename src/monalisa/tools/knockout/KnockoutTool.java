@@ -11,6 +11,8 @@ package monalisa.tools.knockout;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import monalisa.Project;
 import monalisa.results.Configuration;
@@ -40,7 +42,19 @@ public class KnockoutTool extends AbstractTool implements ProgressListener {
             throw new RuntimeException("Unreachable code, this should never happen.");
         }
         try {
-            algorithm.run(this, log);
+            // Knock-outs of places cannot be derived from the T-invariants, they are recomputed with the chosen threads.
+            if (knockConfig.isFromInvariants() && algorithm.canRunFromInvariants()) {
+                algorithm.runFromInvariants(this, log);
+            } else if (knockConfig.getThreads() > 1) {
+                ExecutorService executor = Executors.newFixedThreadPool(knockConfig.getThreads());
+                try {
+                    algorithm.runConcurrently(this, log, executor, 2 * knockConfig.getThreads());
+                } finally {
+                    executor.shutdownNow();
+                }
+            } else {
+                algorithm.run(this, log);
+            }
         } catch (TInvariantCalculationFailedException ex) {
             LOGGER.error("Caught TInvariantCalculationFailedException while running KnockoutTool: ", ex);
         }
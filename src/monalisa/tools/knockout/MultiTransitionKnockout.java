@@ -24,7 +24,7 @@ import org.apache.logging.log4j.Logger;
  *
  * @author Jens Einloft
  */
-public class MultiTransitionKnockout extends KnockoutAlgorithm {
+public class MultiTransitionKnockout extends TransitionKnockoutAlgorithm {
 
     private List<UniquePetriNetEntity> currentKnockouts;
     private final List<Transition> toKnockout;
@@ -52,6 +52,13 @@ public class MultiTransitionKnockout extends KnockoutAlgorithm {
         return new PetriNetFacade(copy);
     }
 
+    @Override
+    protected List<Transition> getNextKnockedOutTransitions() {
+        currentKnockouts = new ArrayList<>();
+        currentKnockouts.addAll(toKnockout);
+        return toKnockout;
+    }
+
     @Override
     protected boolean hasNextKnockOutNetwork() {
         knockOutCounter++;
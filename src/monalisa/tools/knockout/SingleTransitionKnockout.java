@@ -20,7 +20,7 @@ import monalisa.data.pn.UniquePetriNetEntity;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class SingleTransitionKnockout extends KnockoutAlgorithm {
+public class SingleTransitionKnockout extends TransitionKnockoutAlgorithm {
 
     private final Iterator<Transition> iterator;
     private List<UniquePetriNetEntity> currentKnockouts;
@@ -54,6 +54,18 @@ public class SingleTransitionKnockout extends KnockoutAlgorithm {
         return new PetriNetFacade(copy);
     }
 
+    @Override
+    protected List<Transition> getNextKnockedOutTransitions() {
+        Transition transition = iterator.next();
+
+        currentKnockouts = new ArrayList<>();
+        currentKnockouts.add(transition);
+
+        List<Transition> removed = new ArrayList<>();
+        removed.add(transition);
+        return removed;
+    }
+
     @Override
     protected boolean hasNextKnockOutNetwork() {
         return iterator.hasNext();
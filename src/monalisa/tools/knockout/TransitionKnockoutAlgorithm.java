@@ -0,0 +1,111 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.tools.knockout;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import monalisa.data.pn.PetriNetFacade;
+import monalisa.data.pn.Transition;
+import monalisa.data.pn.UniquePetriNetEntity;
+import monalisa.tools.ErrorLog;
+import monalisa.tools.ProgressEvent;
+import monalisa.tools.ProgressListener;
+import monalisa.tools.tinv.InternalTInvariantCalculator;
+import monalisa.tools.tinv.TInvariantCalculationFailedException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Knock-out algorithm whose knock-outs consist of removing transitions only.
+ * Such knock-outs can be evaluated on the minimal T-invariants of the
+ * unmodified Petri net.
+ */
+public abstract class TransitionKnockoutAlgorithm extends KnockoutAlgorithm {
+
+    private static final Logger LOGGER = LogManager.getLogger(TransitionKnockoutAlgorithm.class);
+
+    TransitionKnockoutAlgorithm(PetriNetFacade pn) {
+        super(pn);
+    }
+
+    @Override
+    public boolean canRunFromInvariants() {
+        return true;
+    }
+
+    /**
+     * Runs the knock-outs on the minimal T-invariants of the unmodified Petri
+     * net, which are computed only once. Knocking out transitions does not
+     * create new T-invariants, it only removes those using a knocked-out
+     * transition, so each knock-out is evaluated by filtering the invariant
+     * supports.
+     *
+     * @param callback The listener to notify about progress.
+     * @param log The error log.
+     * @throws InterruptedException
+     * @throws TInvariantCalculationFailedException
+     */
+    @Override
+    public void runFromInvariants(ProgressListener callback, ErrorLog log) throws InterruptedException, TInvariantCalculationFailedException {
+        LOGGER.info("Running selected Knockout algorithm on the T-Invariants of the original Petri net");
+        PetriNetFacade pn = getPetriNetFacade();
+        InternalTInvariantCalculator calculator = new InternalTInvariantCalculator(pn);
+        InvariantSupportIndex index = new InvariantSupportIndex(pn.transitions(), calculator.tinvariants(log));
+        LOGGER.debug("Indexed " + index.size() + " T-Invariants");
+
+        int instance = 0;
+        List<String> originalTransitions = new ArrayList<>();
+        Set<String> covered;
+        List<String> knockedOut;
+        List<String> alsoKnockedOut;
+
+        for (Transition t : pn.transitions()) {
+            originalTransitions.add((String) t.getProperty("name"));
+        }
+
+        while (hasNextKnockOutNetwork()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            List<Transition> removed = getNextKnockedOutTransitions();
+            knockedOut = new ArrayList<>();
+            alsoKnockedOut = new ArrayList<>();
+            covered = new HashSet<>();
+            for (UniquePetriNetEntity e : getKnockoutEntities()) {
+                knockedOut.add((String) e.getProperty("name"));
+            }
+            for (Transition t : index.coveredTransitions(removed)) {
+                covered.add((String) t.getProperty("name"));
+            }
+
+            for (String name : originalTransitions) {
+                if (!covered.contains(name) && !knockedOut.contains(name)) {
+                    alsoKnockedOut.add(name);
+                }
+            }
+            putResult(knockedOut, alsoKnockedOut);
+
+            int percent = (int) ((double) ++instance / getTotalKnockouts() * 100);
+            callback.progressUpdated(new ProgressEvent(this, percent));
+        }
+        LOGGER.info("Successfully ran selected Knockout algorithm on the T-Invariants of the original Petri net");
+    }
+
+    /**
+     * Advances to the next knock-out like {@link #getNextKnockOutNetwork()},
+     * but instead of building the knocked-out network only returns the
+     * transitions removed from it.
+     *
+     * @return The transitions knocked out.
+     */
+    protected abstract List<Transition> getNextKnockedOutTransitions();
+}
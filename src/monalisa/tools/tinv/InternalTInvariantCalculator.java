@@ -0,0 +1,424 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.tools.tinv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import monalisa.data.pn.InvariantBuilder;
+import monalisa.data.pn.PetriNetFacade;
+import monalisa.data.pn.Place;
+import monalisa.data.pn.TInvariant;
+import monalisa.data.pn.Transition;
+import monalisa.results.TInvariants;
+import monalisa.tools.ErrorLog;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Computes the minimal semi-positive T-invariants of a Petri net inside the
+ * JVM, without exporting the net and invoking the external tool. The
+ * computation is a Fourier-Motzkin elimination (double description method)
+ * over the incidence matrix: starting from the unit vectors of all
+ * transitions, the place equations are processed one after another and only
+ * combinations of adjacent rows are kept, i.e. rows whose support is minimal.
+ */
+public final class InternalTInvariantCalculator {
+
+    /**
+     * One row of the elimination: a sparse, non-negative transition vector
+     * together with its support as a bitset over the transition ordinals.
+     */
+    private static final class Row {
+
+        private final int[] idx;
+        private final long[] val;
+        private final long[] support;
+        private final int card;
+
+        private Row(int[] idx, long[] val, int words) {
+            this.idx = idx;
+            this.val = val;
+            this.support = new long[words];
+            for (int t : idx) {
+                support[t >>> 6] |= 1L << t;
+            }
+            this.card = idx.length;
+        }
+    }
+
+    private static final Logger LOGGER = LogManager.getLogger(InternalTInvariantCalculator.class);
+
+    private final PetriNetFacade petriNet;
+    private final List<Transition> transitions;
+    private final int words;
+    // Incidence matrix in compressed form, once by place (rows) and once by
+    // transition (columns). Only non-zero net weights are stored.
+    private final int[] placeOffsets;
+    private final int[] placeTransitions;
+    private final long[] placeWeights;
+    private final int[] transitionOffsets;
+    private final int[] transitionPlaces;
+    private final long[] transitionWeights;
+    private TInvariants tinvariants = null;
+
+    public InternalTInvariantCalculator(PetriNetFacade petriNet) {
+        this.petriNet = petriNet;
+
+        transitions = new ArrayList<>(petriNet.transitions());
+        Collections.sort(transitions);
+        List<Place> places = new ArrayList<>(petriNet.places());
+        Collections.sort(places);
+        words = (transitions.size() + 63) >>> 6;
+
+        int nbrOfPlaces = places.size();
+        int nbrOfTransitions = transitions.size();
+        Map<Place, Integer> placeOrdinals = new HashMap<>();
+        for (int p = 0; p < nbrOfPlaces; p++) {
+            placeOrdinals.put(places.get(p), p);
+        }
+
+        // Net weight of every transition on its adjacent places, sorted by
+        // place ordinal. Read arcs cancel out and are dropped.
+        List<SortedMap<Integer, Long>> columns = new ArrayList<>(nbrOfTransitions);
+        int nonZero = 0;
+        for (Transition transition : transitions) {
+            SortedMap<Integer, Long> column = new TreeMap<>();
+            for (Place place : petriNet.getPlacesFor(transition)) {
+                long weight = petriNet.getArc(transition, place).weight();
+                column.put(placeOrdinals.get(place), weight);
+            }
+            for (Place place : petriNet.getInputPlacesFor(transition)) {
+                long weight = petriNet.getArc(place, transition).weight();
+                Integer p = placeOrdinals.get(place);
+                Long previous = column.get(p);
+                if (previous == null) {
+                    column.put(p, -weight);
+                } else if (previous == weight) {
+                    column.remove(p);
+                } else {
+                    column.put(p, previous - weight);
+                }
+            }
+            columns.add(column);
+            nonZero += column.size();
+        }
+
+        transitionOffsets = new int[nbrOfTransitions + 1];
+        transitionPlaces = new int[nonZero];
+        transitionWeights = new long[nonZero];
+        int[] placeDegree = new int[nbrOfPlaces];
+        int pos = 0;
+        for (int t = 0; t < nbrOfTransitions; t++) {
+            transitionOffsets[t] = pos;
+            for (Map.Entry<Integer, Long> entry : columns.get(t).entrySet()) {
+                transitionPlaces[pos] = entry.getKey();
+                transitionWeights[pos++] = entry.getValue();
+                placeDegree[entry.getKey()]++;
+            }
+        }
+        transitionOffsets[nbrOfTransitions] = pos;
+
+        // Transpose; transitions are visited in ascending order, so every
+        // place row ends up sorted by transition ordinal.
+        placeOffsets = new int[nbrOfPlaces + 1];
+        for (int p = 0; p < nbrOfPlaces; p++) {
+            placeOffsets[p + 1] = placeOffsets[p] + placeDegree[p];
+        }
+        placeTransitions = new int[nonZero];
+        placeWeights = new long[nonZero];
+        int[] fill = Arrays.copyOf(placeOffsets, nbrOfPlaces);
+        for (int t = 0; t < nbrOfTransitions; t++) {
+            for (int k = transitionOffsets[t]; k < transitionOffsets[t + 1]; k++) {
+                int p = transitionPlaces[k];
+                placeTransitions[fill[p]] = t;
+                placeWeights[fill[p]++] = transitionWeights[k];
+            }
+        }
+    }
+
+    public InternalTInvariantCalculator(PetriNetFacade petriNet, ErrorLog log) throws InterruptedException, TInvariantCalculationFailedException {
+        this(petriNet);
+        LOGGER.info("Initializing InternalTInvariantCalculator");
+        tinvariants(log);
+    }
+
+    /**
+     * Returns the minimal T-invariants of the Petri net. They are computed on
+     * the first call and cached afterwards.
+     *
+     * @param log The error log to report failures to.
+     * @return The minimal T-invariants, identified from <code>0</code> on.
+     * @throws InterruptedException If the calling thread has been interrupted.
+     * @throws TInvariantCalculationFailedException If the factors of an
+     * intermediate vector exceed the range of a <code>long</code>.
+     */
+    public TInvariants tinvariants(ErrorLog log) throws InterruptedException, TInvariantCalculationFailedException {
+        if (tinvariants == null) {
+            LOGGER.debug("Computing T-Invariants within the JVM");
+            List<Row> rows;
+            try {
+                rows = eliminate();
+            } catch (ArithmeticException ex) {
+                log.log("#TInvariantInternalSolverFailed", ErrorLog.Severity.ERROR);
+                LOGGER.error("Caught ArithmeticException while computing T-Invariants within the JVM: ", ex);
+                throw new TInvariantCalculationFailedException(ex);
+            }
+
+            InvariantBuilder invariantBuilder = new InvariantBuilder(petriNet, "TI");
+            List<TInvariant> result = new ArrayList<>(rows.size());
+            int id = 0;
+            for (Row row : rows) {
+                invariantBuilder.setId(id++);
+                for (int i = 0; i < row.idx.length; i++) {
+                    if (row.val[i] > Integer.MAX_VALUE) {
+                        log.log("#TInvariantInternalSolverFailed", ErrorLog.Severity.ERROR);
+                        LOGGER.error("Factor of T-Invariant exceeds the integer range");
+                        throw new TInvariantCalculationFailedException(new ArithmeticException("integer overflow"));
+                    }
+                    invariantBuilder.add(transitions.get(row.idx[i]), (int) row.val[i]);
+                }
+                result.add(invariantBuilder.<TInvariant>buildAndClear());
+            }
+            tinvariants = new TInvariants(result);
+            LOGGER.debug("Successfully computed " + result.size() + " T-Invariants within the JVM");
+        }
+
+        return tinvariants;
+    }
+
+    private List<Row> eliminate() throws InterruptedException {
+        int nbrOfPlaces = placeOffsets.length - 1;
+        int nbrOfTransitions = transitions.size();
+
+        List<Row> rows = new ArrayList<>(nbrOfTransitions);
+        for (int t = 0; t < nbrOfTransitions; t++) {
+            rows.add(new Row(new int[]{t}, new long[]{1}, words));
+        }
+
+        boolean[] processed = new boolean[nbrOfPlaces];
+        int remaining = 0;
+        for (int p = 0; p < nbrOfPlaces; p++) {
+            // Places without a non-zero net weight do not constrain anything.
+            processed[p] = placeOffsets[p] == placeOffsets[p + 1];
+            if (!processed[p]) {
+                remaining++;
+            }
+        }
+
+        long[] scratch = new long[nbrOfPlaces];
+        boolean[] seen = new boolean[nbrOfPlaces];
+        int[] touched = new int[nbrOfPlaces];
+        int[] positive = new int[nbrOfPlaces];
+        int[] negative = new int[nbrOfPlaces];
+        int constraints = 0;
+
+        while (remaining > 0 && !rows.isEmpty()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            // Pick the place equation which produces the fewest new rows.
+            Arrays.fill(positive, 0);
+            Arrays.fill(negative, 0);
+            for (Row row : rows) {
+                int nbrTouched = accumulate(row, scratch, seen, touched);
+                for (int i = 0; i < nbrTouched; i++) {
+                    int p = touched[i];
+                    if (!processed[p]) {
+                        if (scratch[p] > 0) {
+                            positive[p]++;
+                        } else if (scratch[p] < 0) {
+                            negative[p]++;
+                        }
+                    }
+                    scratch[p] = 0;
+                    seen[p] = false;
+                }
+            }
+            int column = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int p = 0; p < nbrOfPlaces; p++) {
+                if (!processed[p]) {
+                    long cost = (long) positive[p] * negative[p] - positive[p] - negative[p];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        column = p;
+                    }
+                }
+            }
+            processed[column] = true;
+            remaining--;
+            constraints++;
+
+            List<Row> zero = new ArrayList<>();
+            List<Row> pos = new ArrayList<>();
+            List<Row> neg = new ArrayList<>();
+            long[] posValues = new long[rows.size()];
+            long[] negValues = new long[rows.size()];
+            for (Row row : rows) {
+                long value = value(row, column);
+                if (value > 0) {
+                    posValues[pos.size()] = value;
+                    pos.add(row);
+                } else if (value < 0) {
+                    negValues[neg.size()] = value;
+                    neg.add(row);
+                } else {
+                    zero.add(row);
+                }
+            }
+
+            List<Row> next = new ArrayList<>(zero);
+            long[] union = new long[words];
+            for (int i = 0; i < pos.size(); i++) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Row a = pos.get(i);
+                for (int j = 0; j < neg.size(); j++) {
+                    Row b = neg.get(j);
+                    int card = 0;
+                    for (int w = 0; w < words; w++) {
+                        union[w] = a.support[w] | b.support[w];
+                        card += Long.bitCount(union[w]);
+                    }
+                    // A minimal support vector satisfying k equations has
+                    // at most k + 1 non-zero entries.
+                    if (card > constraints + 1) {
+                        continue;
+                    }
+                    if (isAdjacent(a, b, union, card, rows)) {
+                        next.add(combine(a, -negValues[j], b, posValues[i]));
+                    }
+                }
+            }
+            rows = next;
+            LOGGER.debug("Processed place equation " + constraints + ", " + rows.size() + " candidate rows");
+        }
+
+        Collections.sort(rows, new Comparator<Row>() {
+            @Override
+            public int compare(Row r1, Row r2) {
+                int n = Math.min(r1.idx.length, r2.idx.length);
+                for (int i = 0; i < n; i++) {
+                    if (r1.idx[i] != r2.idx[i]) {
+                        return Integer.compare(r1.idx[i], r2.idx[i]);
+                    }
+                }
+                return Integer.compare(r1.idx.length, r2.idx.length);
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Two rows are adjacent if no third row has a support contained in the
+     * union of their supports. Only combinations of adjacent rows yield
+     * minimal support vectors.
+     */
+    private boolean isAdjacent(Row a, Row b, long[] union, int card, List<Row> rows) {
+        for (Row other : rows) {
+            if (other == a || other == b || other.card > card) {
+                continue;
+            }
+            boolean subset = true;
+            for (int w = 0; w < words; w++) {
+                if ((other.support[w] & ~union[w]) != 0) {
+                    subset = false;
+                    break;
+                }
+            }
+            if (subset) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the incidence columns of all transitions in the support of the
+     * given row, weighted by their factor, to <code>scratch</code>. Returns the
+     * number of places written to <code>touched</code>.
+     */
+    private int accumulate(Row row, long[] scratch, boolean[] seen, int[] touched) {
+        int nbrTouched = 0;
+        for (int i = 0; i < row.idx.length; i++) {
+            int t = row.idx[i];
+            for (int k = transitionOffsets[t]; k < transitionOffsets[t + 1]; k++) {
+                int p = transitionPlaces[k];
+                if (!seen[p]) {
+                    seen[p] = true;
+                    touched[nbrTouched++] = p;
+                }
+                scratch[p] = Math.addExact(scratch[p], Math.multiplyExact(transitionWeights[k], row.val[i]));
+            }
+        }
+        return nbrTouched;
+    }
+
+    private long value(Row row, int place) {
+        long value = 0;
+        for (int k = placeOffsets[place]; k < placeOffsets[place + 1]; k++) {
+            int i = Arrays.binarySearch(row.idx, placeTransitions[k]);
+            if (i >= 0) {
+                value = Math.addExact(value, Math.multiplyExact(placeWeights[k], row.val[i]));
+            }
+        }
+        return value;
+    }
+
+    private Row combine(Row a, long fa, Row b, long fb) {
+        long g = gcd(fa, fb);
+        fa /= g;
+        fb /= g;
+
+        int[] idx = new int[a.idx.length + b.idx.length];
+        long[] val = new long[idx.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.idx.length || j < b.idx.length) {
+            if (j == b.idx.length || (i < a.idx.length && a.idx[i] < b.idx[j])) {
+                idx[n] = a.idx[i];
+                val[n++] = Math.multiplyExact(fa, a.val[i++]);
+            } else if (i == a.idx.length || b.idx[j] < a.idx[i]) {
+                idx[n] = b.idx[j];
+                val[n++] = Math.multiplyExact(fb, b.val[j++]);
+            } else {
+                idx[n] = a.idx[i];
+                val[n++] = Math.addExact(Math.multiplyExact(fa, a.val[i++]), Math.multiplyExact(fb, b.val[j++]));
+            }
+        }
+
+        long divisor = 0;
+        for (int k = 0; k < n; k++) {
+            divisor = gcd(divisor, val[k]);
+        }
+        for (int k = 0; k < n; k++) {
+            val[k] /= divisor;
+        }
+        return new Row(Arrays.copyOf(idx, n), Arrays.copyOf(val, n), words);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long tmp = a % b;
+            a = b;
+            b = tmp;
+        }
+        return Math.abs(a);
+    }
+}
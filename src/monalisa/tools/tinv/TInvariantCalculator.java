@@ -62,9 +62,28 @@ public final class TInvariantCalculator {
     }
 
     public TInvariantCalculator(PetriNetFacade petriNet, ErrorLog log) throws InterruptedException, TInvariantCalculationFailedException {
+        this(petriNet, log, FileUtils.getTempDir(), null);
+    }
+
+    /**
+     * Computes the T-invariants with the intermediate files placed in the
+     * given directory, using an external tool extracted beforehand with
+     * {@link #extractTool(File)}. This allows several calculators to run
+     * concurrently in separate directories. The files are not marked for
+     * deletion on exit; the caller deletes the directory and the tool.
+     *
+     * @param petriNet The Petri net.
+     * @param log The error log.
+     * @param tempDir The directory for the intermediate files.
+     * @param toolFile The extracted external tool, or {@code null} to extract
+     * it into the temporary directory and mark all files for deletion on exit.
+     * @throws InterruptedException
+     * @throws TInvariantCalculationFailedException
+     */
+    public TInvariantCalculator(PetriNetFacade petriNet, ErrorLog log, File tempDir, File toolFile) throws InterruptedException, TInvariantCalculationFailedException {
         LOGGER.info("Initializing TInvariantCalculator");
         this.petriNet = petriNet;
-        File tempDir = FileUtils.getTempDir();
+        boolean deleteOnExit = (toolFile == null);
         try {
             LOGGER.debug("Creating temporary .pnt to export Petri net to");
             pntFile = File.createTempFile("monalisa", ".pnt", tempDir);
@@ -73,7 +92,9 @@ public final class TInvariantCalculator {
             LOGGER.error("Caught IOException while trying to create temporary .pnt to export Petri net to: ", ex);
             throw new TInvariantCalculationFailedException(ex);
         }
-        pntFile.deleteOnExit();
+        if (deleteOnExit) {
+            pntFile.deleteOnExit();
+        }
 
         // The `tinv` tool ignores the IDs of places and transitions. Rather,
         // it simply increments a counter for them, starting at zero. To
@@ -103,7 +124,7 @@ public final class TInvariantCalculator {
 
         try {
             LOGGER.debug("Computing T-Invariants based on temporary .pnt file");
-            computeTinvariants(pntFile, tempDir);
+            computeTinvariants(pntFile, tempDir, toolFile);
         } catch (ExtractResourceException ex) {
             log.log("#TInvariantExtractResourceFailed", ErrorLog.Severity.ERROR);
             LOGGER.error("Caught ExtractResourceException while trying to find external tool location");
@@ -158,28 +179,43 @@ public final class TInvariantCalculator {
         return postScriptSource;
     }
 
-    private void computeTinvariants(File input, File output) throws ExtractResourceException, InvokeProcessException, InterruptedException {
-        File toolFile = null;
-        try {
-            String os = System.getProperty("os.name").toLowerCase();
-            if (os.contains("nix") || os.contains("nux")) {
-                LOGGER.debug("OS determined to be Unix");
-                toolFile = FileUtils.extractResource("manatee", "monalisa", "bin");
-            } else if (os.contains("win")) {
-                LOGGER.debug("OS determined to be Windows");
-                toolFile = FileUtils.extractResource("manatee.exe", "monalisa", "bin");
-            } else if (os.contains("mac")) {
-                LOGGER.debug("OS determined to be MAC");
-                toolFile = FileUtils.extractResource("tinv_macos.exe", "monalisa", "bin");
-            } else {
-                LOGGER.warn("No valid operating system found. Starting linux version!");
-                toolFile = FileUtils.extractResource("manatee", "monalisa", "bin");
-            }
-        } catch (IOException e) {
-            throw new ExtractResourceException(e);
+    /**
+     * Extracts the external tool for the current operating system.
+     *
+     * @param directory The directory to extract the tool to.
+     * @return The executable tool.
+     * @throws IOException
+     */
+    public static File extractTool(File directory) throws IOException {
+        File toolFile;
+        String os = System.getProperty("os.name").toLowerCase();
+        if (os.contains("nix") || os.contains("nux")) {
+            LOGGER.debug("OS determined to be Unix");
+            toolFile = FileUtils.extractResource("manatee", "monalisa", "bin", directory);
+        } else if (os.contains("win")) {
+            LOGGER.debug("OS determined to be Windows");
+            toolFile = FileUtils.extractResource("manatee.exe", "monalisa", "bin", directory);
+        } else if (os.contains("mac")) {
+            LOGGER.debug("OS determined to be MAC");
+            toolFile = FileUtils.extractResource("tinv_macos.exe", "monalisa", "bin", directory);
+        } else {
+            LOGGER.warn("No valid operating system found. Starting linux version!");
+            toolFile = FileUtils.extractResource("manatee", "monalisa", "bin", directory);
         }
-        toolFile.deleteOnExit();
         toolFile.setExecutable(true);
+        return toolFile;
+    }
+
+    private void computeTinvariants(File input, File output, File toolFile) throws ExtractResourceException, InvokeProcessException, InterruptedException {
+        boolean deleteOnExit = (toolFile == null);
+        if (deleteOnExit) {
+            try {
+                toolFile = extractTool(output);
+            } catch (IOException e) {
+                throw new ExtractResourceException(e);
+            }
+            toolFile.deleteOnExit();
+        }
 
         String[] input_commands = new String[3];
 
@@ -198,18 +234,20 @@ public final class TInvariantCalculator {
         } catch (IOException e) {
             throw new InvokeProcessException(e);
         } finally {
-            LOGGER.debug("Marking output files for deletion");
-            // Mark output files for deletion.
-            String baseName = input.getAbsolutePath().replaceAll("\\..*$", "");
-            String[] extensions = {".inv"};
-
-            for (String ext : extensions) {
-                File file = new File(baseName + ext);
-                if (file.exists()) {
-                    file.deleteOnExit();
+            if (deleteOnExit) {
+                LOGGER.debug("Marking output files for deletion");
+                // Mark output files for deletion.
+                String baseName = input.getAbsolutePath().replaceAll("\\..*$", "");
+                String[] extensions = {".inv"};
+
+                for (String ext : extensions) {
+                    File file = new File(baseName + ext);
+                    if (file.exists()) {
+                        file.deleteOnExit();
+                    }
                 }
+                LOGGER.debug("Successfully marked output files for deletion");
             }
-            LOGGER.debug("Successfully marked output files for deletion");
         }
     }
 
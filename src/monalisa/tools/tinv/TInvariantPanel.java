@@ -38,6 +38,7 @@ public class TInvariantPanel extends AbstractToolPanel {
 
     private static final StringResources strings = ResourceManager.instance().getDefaultStrings();
     private final JCheckBox calculate;
+    private final JCheckBox internalSolver;
     private final TInvariantTool tool;
     public JLabel cti;
     private final Project project;
@@ -59,6 +60,9 @@ public class TInvariantPanel extends AbstractToolPanel {
                 }
             }
         });
+        internalSolver = new JCheckBox(strings.get("TInvariantInternalSolver"));
+        internalSolver.setToolTipText(strings.get("TInvariantInternalSolverTT"));
+
         cti = new JLabel();
         setCTILabelText();
 
@@ -69,10 +73,12 @@ public class TInvariantPanel extends AbstractToolPanel {
 
         layout.setHorizontalGroup(layout.createParallelGroup()
                 .addComponent(calculate)
+                .addComponent(internalSolver)
                 .addComponent(cti));
 
         layout.setVerticalGroup(layout.createSequentialGroup()
                 .addComponent(calculate)
+                .addComponent(internalSolver)
                 .addComponent(cti));
     }
 
@@ -124,7 +130,7 @@ public class TInvariantPanel extends AbstractToolPanel {
      */
     @Override
     public TInvariantsConfiguration getConfig() {
-        return new TInvariantsConfiguration();
+        return new TInvariantsConfiguration(internalSolver.isSelected());
     }
 
     /**
@@ -34,8 +34,14 @@ public final class TInvariantTool extends AbstractTool {
         TInvariantCalculator calculator = null;
         try {
             LOGGER.info("Running TInvariantTool");
-            calculator = new TInvariantCalculator(project.getPNFacade(), log);
-            addResult(new TInvariantsConfiguration(), calculator.tinvariants(log));
+            if (config instanceof TInvariantsConfiguration && ((TInvariantsConfiguration) config).useInternalSolver()) {
+                LOGGER.info("Using internal solver for T-Invariants");
+                InternalTInvariantCalculator internalCalculator = new InternalTInvariantCalculator(project.getPNFacade(), log);
+                addResult(new TInvariantsConfiguration(), internalCalculator.tinvariants(log));
+            } else {
+                calculator = new TInvariantCalculator(project.getPNFacade(), log);
+                addResult(new TInvariantsConfiguration(), calculator.tinvariants(log));
+            }
             LOGGER.info("Successfully ran TInvariantTool");
             //setCTILabelText(calculator.tinvariants(log), this); NEEDS FIXING!
 //            if (calculator.postScriptSource(log) != null)
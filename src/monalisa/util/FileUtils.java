@@ -16,6 +16,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.Scanner;
 
 import monalisa.resources.ResourceManager;
@@ -38,6 +39,23 @@ public class FileUtils {
      */
     public static File extractResource(String resource, String prefix,
             String suffix) throws IOException {
+        return extractResource(resource, prefix, suffix, null);
+    }
+
+    /**
+     * Extracts a resource into a temporary file in the given directory.
+     *
+     * @param resource The path to the resource, relative to the
+     * {@code org/monalisa/resources} directory.
+     * @param prefix A prefix to use for the temporary file.
+     * @param suffix A suffix to use for the temporary file.
+     * @param directory The directory to create the file in, or {@code null}
+     * for the default temporary directory.
+     * @return Returns a file instance for the temporary file.
+     * @throws IOException
+     */
+    public static File extractResource(String resource, String prefix,
+            String suffix, File directory) throws IOException {
         LOGGER.debug("Extracting resource '" + resource + "'");
         URL resURL
                 = ResourceManager.instance().getResourceUrl(resource);
@@ -46,7 +64,7 @@ public class FileUtils {
             throw new FileNotFoundException();
         }
         LOGGER.debug("Successfully extracted resource '" + resource + "'");
-        return extractResource(resURL, prefix, suffix);
+        return extractResource(resURL, prefix, suffix, directory);
     }
 
     /**
@@ -60,8 +78,24 @@ public class FileUtils {
      */
     public static File extractResource(URL resource, String prefix,
             String suffix) throws IOException {
+        return extractResource(resource, prefix, suffix, null);
+    }
+
+    /**
+     * Extracts a resource into a temporary file in the given directory.
+     *
+     * @param resource A URL to the resource to extract.
+     * @param prefix A prefix to use for the temporary file.
+     * @param suffix A suffix to use for the temporary file.
+     * @param directory The directory to create the file in, or {@code null}
+     * for the default temporary directory.
+     * @return Returns a file instance for the temporary file.
+     * @throws IOException
+     */
+    public static File extractResource(URL resource, String prefix,
+            String suffix, File directory) throws IOException {
         LOGGER.debug("Extracting resource '" + resource.toString() + "'");
-        File file = File.createTempFile(prefix, suffix);
+        File file = File.createTempFile(prefix, suffix, directory);
 
         InputStream resStream = null;
         FileOutputStream tmpFileStream = null;
@@ -161,4 +195,37 @@ public class FileUtils {
     public static File getTempDir() {
         return new File(System.getProperty("java.io.tmpdir"));
     }
+
+    /**
+     * Creates a new, empty directory inside the temporary directory.
+     *
+     * @param prefix A prefix to use for the directory name.
+     * @return Returns a file instance for the new directory.
+     * @throws IOException
+     */
+    public static File createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(getTempDir().toPath(), prefix).toFile();
+    }
+
+    /**
+     * Deletes a directory together with all files and directories in it.
+     *
+     * @param directory The directory to delete.
+     * @return {@code true} if everything was deleted.
+     */
+    public static boolean deleteDirectory(File directory) {
+        LOGGER.debug("Deleting directory '" + directory.getPath() + "'");
+        boolean deleted = true;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleted &= deleteDirectory(file);
+                } else {
+                    deleted &= file.delete();
+                }
+            }
+        }
+        return directory.delete() && deleted;
+    }
 }
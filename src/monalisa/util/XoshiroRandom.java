@@ -0,0 +1,398 @@
+/*
+ *
+ *  This file is part of the software MonaLisa.
+ *  MonaLisa is free software, dependent on non-free software. For more information read LICENCE and README.
+ *
+ *  (c) Department of Molecular Bioinformatics, Institute of Computer Science, Johann Wolfgang
+ *  Goethe-University Frankfurt am Main, Germany
+ *
+ */
+package monalisa.util;
+
+import java.util.Random;
+
+/**
+ * Splittable pseudorandom number generator xoshiro256** of Blackman and Vigna.
+ * The state of 256 bits is initialized from a seed by SplitMix64. Unlike
+ * {@link HighQualityRandom}, an instance takes no locks and must be used by a
+ * single thread only. Independent generators for parallel threads are derived
+ * by {@link #split()}, which uses the jump function to move the generator
+ * 2^128 numbers ahead, so the streams do not overlap.
+ *
+ * Besides uniform numbers, the generator draws exponential numbers with the
+ * ziggurat method of Marsaglia and Tsang and Poisson numbers with the PTRS
+ * method of Hörmann (transformed rejection with squeeze) for means of at least
+ * 10.
+ */
+public final class XoshiroRandom {
+
+    private static final long[] JUMP = {0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL, 0xa9582618e03fc9aaL, 0x39abdc4529b1661cL};
+    private static final long[] LONG_JUMP = {0x76e15d3efefdcbbfL, 0xc5004e441c522fb3L, 0x77710069854ee241L, 0x39109bb02acbe635L};
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /**
+     * Tables of the exponential ziggurat with 256 layers.
+     */
+    private static final long[] KE = new long[256];
+    private static final double[] WE = new double[256];
+    private static final double[] FE = new double[256];
+    private static final double ZIGGURAT_R = 7.697117470131487;
+
+    static {
+        final double m = 4294967296.0;
+        final double v = 3.949659822581572e-3;
+        double de = ZIGGURAT_R;
+        double te = de;
+        double q = v / Math.exp(-de);
+        KE[0] = (long) ((de / q) * m);
+        KE[1] = 0;
+        WE[0] = q / m;
+        WE[255] = de / m;
+        FE[0] = 1.0;
+        FE[255] = Math.exp(-de);
+        for (int i = 254; i >= 1; i--) {
+            de = -Math.log(v / de + Math.exp(-de));
+            KE[i + 1] = (long) ((de / te) * m);
+            te = de;
+            FE[i] = Math.exp(-de);
+            WE[i] = de / m;
+        }
+    }
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+    private final long seed;
+    private double nextGaussian;
+    private boolean haveNextGaussian = false;
+
+    /**
+     * Creates a generator with a seed derived from the current time.
+     */
+    public XoshiroRandom() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Creates a generator. Generators with the same seed produce the same
+     * numbers.
+     *
+     * @param seed The seed.
+     */
+    public XoshiroRandom(long seed) {
+        this.seed = seed;
+        long x = seed;
+        x += 0x9e3779b97f4a7c15L;
+        s0 = mix(x);
+        x += 0x9e3779b97f4a7c15L;
+        s1 = mix(x);
+        x += 0x9e3779b97f4a7c15L;
+        s2 = mix(x);
+        x += 0x9e3779b97f4a7c15L;
+        s3 = mix(x);
+    }
+
+    private XoshiroRandom(XoshiroRandom other) {
+        this.seed = other.seed;
+        this.s0 = other.s0;
+        this.s1 = other.s1;
+        this.s2 = other.s2;
+        this.s3 = other.s3;
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the seed the generator was created with.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return a uniformly distributed long.
+     */
+    public long nextLong() {
+        final long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        final long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    /**
+     * @return a uniformly distributed int.
+     */
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * @param bound Upper bound, greater than 0.
+     * @return a uniformly distributed int in [0, bound).
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        /*
+        Lemire's multiply and reject method, which is unbiased.
+         */
+        long m = (nextLong() >>> 32) * bound;
+        long low = m & 0xffffffffL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                m = (nextLong() >>> 32) * bound;
+                low = m & 0xffffffffL;
+            }
+        }
+        return (int) (m >>> 32);
+    }
+
+    /**
+     * @return a uniformly distributed double in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return a uniformly distributed double in (0, 1].
+     */
+    public double nextDoubleNonZero() {
+        return ((nextLong() >>> 11) + 1) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return a standard normal distributed double, by the polar method.
+     */
+    public double nextGaussian() {
+        if (haveNextGaussian) {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+        nextGaussian = v2 * multiplier;
+        haveNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    /**
+     * Draws an exponentially distributed double with mean 1 by the ziggurat
+     * method. Most numbers take one uniform number and a table lookup.
+     *
+     * @return the number.
+     */
+    public double nextExponential() {
+        long r = nextLong();
+        long jz = r >>> 32;
+        int iz = (int) (r & 255);
+        if (jz < KE[iz]) {
+            return jz * WE[iz];
+        }
+        while (true) {
+            if (iz == 0) {
+                return ZIGGURAT_R - Math.log(nextDoubleNonZero());
+            }
+            double x = jz * WE[iz];
+            if (FE[iz] + nextDouble() * (FE[iz - 1] - FE[iz]) < Math.exp(-x)) {
+                return x;
+            }
+            r = nextLong();
+            jz = r >>> 32;
+            iz = (int) (r & 255);
+            if (jz < KE[iz]) {
+                return jz * WE[iz];
+            }
+        }
+    }
+
+    /**
+     * Draws a Poisson distributed number. Means below 10 use the
+     * multiplication of uniform numbers, larger means the PTRS method, which
+     * takes about 1.1 pairs of uniform numbers regardless of the mean.
+     *
+     * @param mean The mean, not negative.
+     * @return the number.
+     */
+    public long nextPoisson(double mean) {
+        if (mean < 10) {
+            if (mean <= 0) {
+                return 0;
+            }
+            double limit = Math.exp(-mean);
+            long k = 0;
+            double p = nextDouble();
+            while (p > limit) {
+                k++;
+                p *= nextDouble();
+            }
+            return k;
+        }
+        double slam = Math.sqrt(mean);
+        double loglam = Math.log(mean);
+        double b = 0.931 + 2.53 * slam;
+        double a = -0.059 + 0.02483 * b;
+        double invalpha = 1.1239 + 1.1328 / (b - 3.4);
+        double vr = 0.9277 - 3.6224 / (b - 2);
+        while (true) {
+            double u = nextDouble() - 0.5;
+            double v = nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) {
+                return k;
+            }
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+            if (Math.log(v) + Math.log(invalpha) - Math.log(a / (us * us) + b) <= -mean + k * loglam - logGamma(k + 1)) {
+                return k;
+            }
+        }
+    }
+
+    /**
+     * Logarithm of the gamma function for positive arguments, by the Stirling
+     * series after shifting small arguments.
+     */
+    static double logGamma(double x) {
+        if (x == 1.0 || x == 2.0) {
+            return 0.0;
+        }
+        final double[] a = {8.333333333333333e-02, -2.777777777777778e-03, 7.936507936507937e-04,
+            -5.952380952380952e-04, 8.417508417508418e-04, -1.917526917526918e-03, 6.410256410256410e-03,
+            -2.955065359477124e-02, 1.796443723688307e-01, -1.39243221690590e+00};
+        int n = (x < 7.0) ? (int) (7 - x) : 0;
+        double x0 = x + n;
+        double x2 = 1.0 / (x0 * x0);
+        double gl0 = a[9];
+        for (int k = 8; k >= 0; k--) {
+            gl0 = gl0 * x2 + a[k];
+        }
+        double gl = gl0 / x0 + 0.5 * Math.log(2 * Math.PI) + (x0 - 0.5) * Math.log(x0) - x0;
+        for (int k = 1; k <= n; k++) {
+            x0 -= 1.0;
+            gl -= Math.log(x0);
+        }
+        return gl;
+    }
+
+    /**
+     * Moves the generator 2^128 numbers ahead.
+     */
+    public void jump() {
+        jump(JUMP);
+    }
+
+    /**
+     * Moves the generator 2^192 numbers ahead.
+     */
+    public void longJump() {
+        jump(LONG_JUMP);
+    }
+
+    private void jump(long[] polynomial) {
+        long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+        for (long word : polynomial) {
+            for (int b = 0; b < 64; b++) {
+                if ((word & (1L << b)) != 0) {
+                    t0 ^= s0;
+                    t1 ^= s1;
+                    t2 ^= s2;
+                    t3 ^= s3;
+                }
+                nextLong();
+            }
+        }
+        s0 = t0;
+        s1 = t1;
+        s2 = t2;
+        s3 = t3;
+    }
+
+    /**
+     * Returns a generator which continues with the current state and moves
+     * this generator 2^128 numbers ahead. Successive calls yield
+     * non-overlapping streams of 2^128 numbers each, which only depend on the
+     * seed of this generator and the number of previous calls.
+     *
+     * @return the new generator.
+     */
+    public XoshiroRandom split() {
+        XoshiroRandom stream = new XoshiroRandom(this);
+        jump();
+        return stream;
+    }
+
+    /**
+     * Returns a {@link Random} which draws its numbers from this generator,
+     * for code which expects one. Like this generator, it takes no locks and
+     * must be used by a single thread only.
+     *
+     * @return the view.
+     */
+    public Random asRandom() {
+        return new RandomView(this);
+    }
+
+    private static final class RandomView extends Random {
+
+        private static final long serialVersionUID = -3427093118365520741L;
+
+        private final XoshiroRandom generator;
+
+        RandomView(XoshiroRandom generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        protected int next(int bits) {
+            return (int) (generator.nextLong() >>> (64 - bits));
+        }
+
+        @Override
+        public int nextInt() {
+            return generator.nextInt();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            return generator.nextInt(bound);
+        }
+
+        @Override
+        public long nextLong() {
+            return generator.nextLong();
+        }
+
+        @Override
+        public double nextDouble() {
+            return generator.nextDouble();
+        }
+
+        @Override
+        public double nextGaussian() {
+            return generator.nextGaussian();
+        }
+    }
+}